@@ -9,6 +9,7 @@ import org.opendatakit.tables.fragments.MapListViewFragment;
 import org.opendatakit.tables.fragments.SpreadsheetFragment;
 import org.opendatakit.tables.fragments.TableMapInnerFragment;
 import org.opendatakit.tables.utils.SQLQueryStruct;
+import org.opendatakit.tables.utils.WindowedUserTable;
 import org.opendatakit.testutils.TestConstants;
 
 /**
@@ -72,6 +73,12 @@ public class TableDisplayActivityStub extends TableDisplayActivity {
     return USER_TABLE;
   }
   
+  @Override
+  WindowedUserTable createWindowedUserTable() {
+    // no database in the tests, so always fall back to USER_TABLE.
+    return null;
+  }
+  
   @Override
   protected void initializeDisplayFragment() {
     if (BUILD_DISPLAY_FRAGMENT) {
@@ -1,8 +1,12 @@
 package org.opendatakit.tables.fragments;
 
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.times;
 
+import org.json.JSONObject;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,10 +15,12 @@ import org.opendatakit.tables.activities.TableDisplayActivityStub;
 import org.opendatakit.tables.views.webkits.TableData;
 import org.opendatakit.testutils.ODKFragmentTestUtil;
 import org.opendatakit.testutils.TestCaseUtils;
+import org.robolectric.Robolectric;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.shadows.ShadowLog;
 
 import android.app.Activity;
+import android.webkit.WebView;
 
 @RunWith(RobolectricTestRunner.class)
 public class MapListViewFragmentTest {
@@ -86,6 +92,45 @@ public class MapListViewFragmentTest {
     verify(tableDataMock, times(1)).setNoItemSelected();
   }
 
+  @Test
+  public void settingSubsetCallsToTableDataOnce() {
+    int[] indices = new int[] { 2, 4, 9 };
+    TableData tableDataMock = MapListViewFragmentStub.TABLE_DATA;
+    this.fragment.setSubsetOfIndicesToDisplay(indices);
+    // the same rows again do not touch the list
+    this.fragment.setSubsetOfIndicesToDisplay(new int[] { 2, 4, 9 });
+    // nor does the page see them before the map settles
+    verify(tableDataMock, times(0)).setSubsetOfIndicesToDisplay(indices);
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    verify(tableDataMock, times(1)).setSubsetOfIndicesToDisplay(indices);
+    this.fragment.setSubsetOfIndicesToDisplay(null);
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    verify(tableDataMock, times(1)).setAllIndicesToDisplay();
+  }
+
+  @Test
+  public void subsetChangesRedrawTheListOnceTheMapSettles() {
+    TableData tableDataMock = MapListViewFragmentStub.TABLE_DATA;
+    doReturn(true).when(tableDataMock).isListeningForChanges();
+    doReturn(new JSONObject()).when(tableDataMock).getDataChangedDetail();
+    this.fragment.setSubsetOfIndicesToDisplay(new int[] { 1 });
+    this.fragment.setSubsetOfIndicesToDisplay(new int[] { 1, 2 });
+    this.fragment.setSubsetOfIndicesToDisplay(new int[] { 2 });
+    verify(tableDataMock, times(0)).getDataChangedDetail();
+    Robolectric.runUiThreadTasksIncludingDelayedTasks();
+    verify(tableDataMock, times(1)).getDataChangedDetail();
+  }
+
+  @Test
+  public void listeningPageGetsAnEventInsteadOfAReload() {
+    TableData tableDataMock = MapListViewFragmentStub.TABLE_DATA;
+    doReturn(true).when(tableDataMock).isListeningForChanges();
+    doReturn(new JSONObject()).when(tableDataMock).getDataChangedDetail();
+    this.fragment.setIndexOfSelectedItem(5);
+    verify(tableDataMock, times(1)).getDataChangedDetail();
+    String lastUrl = Robolectric.shadowOf((WebView) this.fragment.getView()).getLastLoadedUrl();
+    assertThat(lastUrl).startsWith("javascript:").contains("odkDataChanged");
+  }
 
 //  For some reason this isn't passing, but is returning the same object.
 //  WebView issues?
@@ -0,0 +1,72 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.tables.utils.AggregateUtil.BoxPlot;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class AggregateUtilTest {
+
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void onlyTheSqlAggregatesAreSupported() {
+    assertThat(AggregateUtil.isSupportedFunction(AggregateUtil.AVG)).isTrue();
+    assertThat(AggregateUtil.isSupportedFunction("total")).isFalse();
+    assertThat(AggregateUtil.isSupportedFunction("max(1); DROP TABLE x; --")).isFalse();
+    assertThat(AggregateUtil.isSupportedFunction(null)).isFalse();
+  }
+
+  @Test
+  public void quantilesOfUnsortedValues() {
+    // only the first five values are in use
+    double[] values = new double[] { 5, 1, 4, 2, 3, 100 };
+    double[] quantiles = AggregateUtil.computeQuantiles(values, 5, new double[] { 0, 0.5, 1 });
+    assertThat(quantiles[0]).isEqualTo(1, offset(DELTA));
+    assertThat(quantiles[1]).isEqualTo(3, offset(DELTA));
+    assertThat(quantiles[2]).isEqualTo(5, offset(DELTA));
+  }
+
+  @Test
+  public void quantilesAreInterpolatedBetweenValues() {
+    double[] values = new double[] { 4, 3, 2, 1 };
+    double[] quantiles = AggregateUtil.computeQuantiles(values, 4,
+        new double[] { 0.1, 0.25, 0.5, 0.75, 0.9 });
+    // the position of quantile q is q * (n + 1), counting from 1
+    assertThat(quantiles[0]).isEqualTo(1, offset(DELTA));
+    assertThat(quantiles[1]).isEqualTo(1.25, offset(DELTA));
+    assertThat(quantiles[2]).isEqualTo(2.5, offset(DELTA));
+    assertThat(quantiles[3]).isEqualTo(3.75, offset(DELTA));
+    assertThat(quantiles[4]).isEqualTo(4, offset(DELTA));
+  }
+
+  @Test
+  public void boxPlotWhiskersStopAtTheOutliers() {
+    double[] values = new double[] { 1, 2, 3, 4, 5, 6, 7, 8, 100 };
+    BoxPlot plot = AggregateUtil.computeBoxPlot("group", values, values.length);
+    assertThat(plot.group).isEqualTo("group");
+    assertThat(plot.count).isEqualTo(9);
+    assertThat(plot.min).isEqualTo(1, offset(DELTA));
+    assertThat(plot.max).isEqualTo(100, offset(DELTA));
+    assertThat(plot.median).isEqualTo(5, offset(DELTA));
+    assertThat(plot.firstQuartile).isLessThan(plot.median);
+    assertThat(plot.thirdQuartile).isGreaterThan(plot.median);
+    assertThat(plot.lowerWhisker).isEqualTo(1, offset(DELTA));
+    assertThat(plot.upperWhisker).isEqualTo(8, offset(DELTA));
+    assertThat(plot.outliers).isEqualTo(1);
+  }
+
+  @Test
+  public void boxPlotOfOneValue() {
+    BoxPlot plot = AggregateUtil.computeBoxPlot(null, new double[] { 7 }, 1);
+    assertThat(plot.min).isEqualTo(7, offset(DELTA));
+    assertThat(plot.median).isEqualTo(7, offset(DELTA));
+    assertThat(plot.lowerWhisker).isEqualTo(7, offset(DELTA));
+    assertThat(plot.upperWhisker).isEqualTo(7, offset(DELTA));
+    assertThat(plot.outliers).isEqualTo(0);
+  }
+}
@@ -0,0 +1,55 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementType;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ColumnIndexTest {
+
+  private ColumnIndex getIndex() {
+    ArrayList<ColumnDefinition> orderedDefns = new ArrayList<ColumnDefinition>();
+    orderedDefns.add(TestConstants.getColumnDefinitionMock(TestConstants.ElementKeys.INT_COLUMN,
+        mock(ElementType.class)));
+    orderedDefns.add(TestConstants.getColumnDefinitionMock(
+        TestConstants.ElementKeys.STRING_COLUMN, mock(ElementType.class)));
+    return new ColumnIndex(orderedDefns);
+  }
+
+  @Test
+  public void columnsAreFoundByElementKey() {
+    ColumnIndex index = getIndex();
+    ColumnDefinition cd = index.find(TestConstants.ElementKeys.STRING_COLUMN);
+    assertThat(cd).isSameAs(index.getColumnDefinitions().get(1));
+    assertThat(index.get(TestConstants.ElementKeys.STRING_COLUMN)).isSameAs(cd);
+    assertThat(index.contains(TestConstants.ElementKeys.INT_COLUMN)).isTrue();
+  }
+
+  @Test
+  public void ordinalsFollowTheColumnOrder() {
+    ColumnIndex index = getIndex();
+    assertThat(index.getOrdinal(TestConstants.ElementKeys.INT_COLUMN)).isEqualTo(0);
+    assertThat(index.getOrdinal(TestConstants.ElementKeys.STRING_COLUMN)).isEqualTo(1);
+    assertThat(index.getOrdinal(TestConstants.ElementKeys.MISSING_COLUMN)).isEqualTo(-1);
+  }
+
+  @Test
+  public void missingColumnsAreNotFound() {
+    ColumnIndex index = getIndex();
+    assertThat(index.get(TestConstants.ElementKeys.MISSING_COLUMN)).isNull();
+    assertThat(index.contains(TestConstants.ElementKeys.MISSING_COLUMN)).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void findThrowsForMissingColumns() {
+    getIndex().find(TestConstants.ElementKeys.MISSING_COLUMN);
+  }
+}
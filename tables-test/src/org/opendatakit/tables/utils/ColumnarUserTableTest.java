@@ -0,0 +1,106 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.ElementType;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.data.UserTable.Row;
+import org.opendatakit.tables.utils.ColumnarUserTable.LongColumn;
+import org.opendatakit.tables.utils.ColumnarUserTable.NumberColumn;
+import org.opendatakit.tables.utils.ColumnarUserTable.StringColumn;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class ColumnarUserTableTest {
+
+  private static final String INT_KEY = TestConstants.ElementKeys.INT_COLUMN;
+  private static final String NUMBER_KEY = TestConstants.ElementKeys.NUMBER_COLUMN;
+  private static final String STRING_KEY = TestConstants.ElementKeys.STRING_COLUMN;
+  private static final double DELTA = 1e-9;
+
+  private ColumnDefinition getColumnMock(String elementKey, ElementDataType dataType) {
+    ElementType type = mock(ElementType.class);
+    doReturn(dataType).when(type).getDataType();
+    return TestConstants.getColumnDefinitionMock(elementKey, type);
+  }
+
+  /**
+   * @param values
+   *          the integer, number and string value of each row
+   */
+  private UserTable getTableMock(String[][] values) {
+    ArrayList<ColumnDefinition> orderedDefns = new ArrayList<ColumnDefinition>();
+    orderedDefns.add(getColumnMock(INT_KEY, ElementDataType.integer));
+    orderedDefns.add(getColumnMock(NUMBER_KEY, ElementDataType.number));
+    orderedDefns.add(getColumnMock(STRING_KEY, ElementDataType.string));
+    UserTable table = mock(UserTable.class);
+    doReturn(values.length).when(table).getNumberOfRows();
+    doReturn(orderedDefns).when(table).getColumnDefinitions();
+    for (int i = 0; i < values.length; ++i) {
+      Row row = mock(Row.class);
+      doReturn(values[i][0]).when(row).getRawDataOrMetadataByElementKey(INT_KEY);
+      doReturn(values[i][1]).when(row).getRawDataOrMetadataByElementKey(NUMBER_KEY);
+      doReturn(values[i][2]).when(row).getRawDataOrMetadataByElementKey(STRING_KEY);
+      doReturn(row).when(table).getRowAtIndex(i);
+    }
+    return table;
+  }
+
+  @Test
+  public void integerColumnsAreHeldAsLongs() {
+    ColumnarUserTable table = ColumnarUserTable.wrap(getTableMock(new String[][] {
+        { "12", "1.5", "a" }, { null, null, null }, { "", "", "b" } }));
+    NumberColumn column = table.getNumberColumn(INT_KEY);
+    assertThat(column).isInstanceOf(LongColumn.class);
+    assertThat(((LongColumn) column).getLong(0)).isEqualTo(12L);
+    assertThat(column.isNull(0)).isFalse();
+    assertThat(column.isNull(1)).isTrue();
+    assertThat(column.isNull(2)).isTrue();
+  }
+
+  @Test
+  public void unparseableValuesAreNull() {
+    ColumnarUserTable table = ColumnarUserTable.wrap(getTableMock(new String[][] {
+        { "1.0", "-33.9", "a" }, { "2", "north", "a" } }));
+    // an integer column holding "1.0" is read as doubles instead
+    NumberColumn integers = table.getNumberColumn(INT_KEY);
+    assertThat(integers).isNotInstanceOf(LongColumn.class);
+    assertThat(integers.getDouble(0)).isEqualTo(1.0, offset(DELTA));
+    assertThat(integers.getDouble(1)).isEqualTo(2.0, offset(DELTA));
+    NumberColumn numbers = table.getNumberColumn(NUMBER_KEY);
+    assertThat(numbers.getDouble(0)).isEqualTo(-33.9, offset(DELTA));
+    assertThat(numbers.isNull(1)).isTrue();
+  }
+
+  @Test
+  public void stringColumnsAreDictionaryEncoded() {
+    ColumnarUserTable table = ColumnarUserTable.wrap(getTableMock(new String[][] {
+        { "1", "1", "yes" }, { "1", "1", "no" }, { "1", "1", null }, { "1", "1", "yes" } }));
+    StringColumn column = table.getStringColumn(STRING_KEY);
+    assertThat(column.getDictionarySize()).isEqualTo(2);
+    assertThat(column.getCode(0)).isEqualTo(column.getCode(3));
+    assertThat(column.getCode(2)).isEqualTo(StringColumn.NULL_CODE);
+    assertThat(column.getString(1)).isEqualTo("no");
+    assertThat(column.getString(2)).isNull();
+  }
+
+  @Test
+  public void columnsAreOnlyReadOnce() {
+    UserTable userTable = getTableMock(new String[][] { { "1", "2.5", "a" } });
+    ColumnarUserTable table = ColumnarUserTable.wrap(userTable);
+    assertThat(table.getNumberColumn(NUMBER_KEY)).isSameAs(table.getNumberColumn(NUMBER_KEY));
+    verify(userTable.getRowAtIndex(0), times(1)).getRawDataOrMetadataByElementKey(NUMBER_KEY);
+  }
+}
@@ -0,0 +1,172 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.ElementType;
+import org.opendatakit.common.android.data.ColorRule;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.data.UserTable.Row;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.RobolectricTestRunner;
+
+import android.graphics.Color;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompiledColorRuleGroupTest {
+
+  private static final String INT_KEY = TestConstants.ElementKeys.INT_COLUMN;
+  private static final String STRING_KEY = TestConstants.ElementKeys.STRING_COLUMN;
+
+  private ArrayList<ColumnDefinition> getColumnDefinitions() {
+    ArrayList<ColumnDefinition> orderedDefns = new ArrayList<ColumnDefinition>();
+    orderedDefns.add(getColumnMock(INT_KEY, ElementDataType.integer));
+    orderedDefns.add(getColumnMock(STRING_KEY, ElementDataType.string));
+    return orderedDefns;
+  }
+
+  private ColumnDefinition getColumnMock(String elementKey, ElementDataType dataType) {
+    ElementType type = mock(ElementType.class);
+    doReturn(dataType).when(type).getDataType();
+    return TestConstants.getColumnDefinitionMock(elementKey, type);
+  }
+
+  private ColorRuleGroup getGroupMock(ColorRule... rules) {
+    List<ColorRule> list = new ArrayList<ColorRule>();
+    for (ColorRule rule : rules) {
+      list.add(rule);
+    }
+    ColorRuleGroup group = mock(ColorRuleGroup.class);
+    doReturn(list).when(group).getColorRules();
+    return group;
+  }
+
+  private ColorRule getRule(String elementKey, String symbol, String value, int background) {
+    return new ColorRule(elementKey, ColorRule.RuleType.getEnumFromString(symbol), value,
+        Color.BLACK, background);
+  }
+
+  private List<Row> getRows(String[][] values) {
+    List<Row> rows = new ArrayList<Row>();
+    for (String[] value : values) {
+      Row row = mock(Row.class);
+      doReturn(value[0]).when(row).getRawDataOrMetadataByElementKey(INT_KEY);
+      doReturn(value[1]).when(row).getRawDataOrMetadataByElementKey(STRING_KEY);
+      rows.add(row);
+    }
+    return rows;
+  }
+
+  @Test
+  public void numericRulesCompareNumerically() {
+    ColorRuleGroup group = getGroupMock(getRule(INT_KEY, ">=", "10", Color.RED));
+    ColorVector colors = CompiledColorRuleGroup.compile(group, getColumnDefinitions()).evaluate(
+        getRows(new String[][] { { "9", "a" }, { "10", "a" }, { "100", "a" }, { null, "a" } }));
+    assertThat(colors.size()).isEqualTo(4);
+    assertThat(colors.isMatched(0)).isFalse();
+    assertThat(colors.isMatched(1)).isTrue();
+    // "100" would sort before "10" as a string
+    assertThat(colors.getBackground(2, Color.WHITE)).isEqualTo(Color.RED);
+    assertThat(colors.isMatched(3)).isFalse();
+    assertThat(colors.getBackground(3, Color.WHITE)).isEqualTo(Color.WHITE);
+    // the rules were evaluated without asking the group
+    verify(group, never()).getColorGuide(any(ArrayList.class), any(Row.class));
+  }
+
+  @Test
+  public void firstMatchingRuleWins() {
+    ColorRuleGroup group = getGroupMock(getRule(STRING_KEY, "=", "yes", Color.GREEN),
+        getRule(INT_KEY, "<", "5", Color.BLUE));
+    ColorVector colors = CompiledColorRuleGroup.compile(group, getColumnDefinitions()).evaluate(
+        getRows(new String[][] { { "1", "yes" }, { "1", "no" }, { "7", "no" } }));
+    assertThat(colors.getBackground(0, Color.WHITE)).isEqualTo(Color.GREEN);
+    assertThat(colors.getBackground(1, Color.WHITE)).isEqualTo(Color.BLUE);
+    assertThat(colors.isMatched(2)).isFalse();
+  }
+
+  @Test
+  public void rulesOnUnknownColumnsFallBackToTheGroup() {
+    ColorRuleGroup group = getGroupMock(getRule(TestConstants.ElementKeys.MISSING_COLUMN, "=",
+        "x", Color.RED));
+    List<Row> rows = getRows(new String[][] { { "1", "a" } });
+    CompiledColorRuleGroup.compile(group, getColumnDefinitions()).evaluate(rows);
+    verify(group).getColorGuide(any(ArrayList.class), any(Row.class));
+  }
+
+  @Test
+  public void statusRulesOnTheSyncStateCompareAsStrings() {
+    ColorRuleGroup group = getGroupMock(getRule(DataTableColumns.SYNC_STATE, "=", "changed",
+        Color.RED));
+    List<Row> rows = getRows(new String[][] { { "1", "a" }, { "2", "b" } });
+    doReturn("changed").when(rows.get(0)).getRawDataOrMetadataByElementKey(
+        DataTableColumns.SYNC_STATE);
+    doReturn("synced").when(rows.get(1)).getRawDataOrMetadataByElementKey(
+        DataTableColumns.SYNC_STATE);
+    CompiledColorRuleGroup compiled = CompiledColorRuleGroup.compile(group,
+        getColumnDefinitions());
+    ColorVector colors = compiled.evaluate(rows);
+    assertThat(colors.getBackground(0, Color.WHITE)).isEqualTo(Color.RED);
+    assertThat(colors.isMatched(1)).isFalse();
+    // the sync state is not a user column, yet the rule still compiled
+    verify(group, never()).getColorGuide(any(ArrayList.class), any(Row.class));
+  }
+
+  @Test
+  public void columnarEvaluationMatchesRowEvaluation() {
+    ColorRuleGroup group = getGroupMock(getRule(STRING_KEY, ">", "m", Color.GREEN),
+        getRule(INT_KEY, "<=", "5", Color.BLUE));
+    List<Row> rows = getRows(new String[][] { { "1", "z" }, { "3", "a" }, { "9", "a" },
+        { null, null }, { "x", "b" }, { "5", "z" } });
+    UserTable table = mock(UserTable.class);
+    doReturn(rows.size()).when(table).getNumberOfRows();
+    doReturn(getColumnDefinitions()).when(table).getColumnDefinitions();
+    for (int i = 0; i < rows.size(); ++i) {
+      doReturn(rows.get(i)).when(table).getRowAtIndex(i);
+    }
+    CompiledColorRuleGroup compiled = CompiledColorRuleGroup.compile(group,
+        getColumnDefinitions());
+    ColorVector expected = compiled.evaluate(rows);
+    ColorVector colors = compiled.evaluate(ColumnarUserTable.wrap(table));
+    assertThat(colors.size()).isEqualTo(expected.size());
+    for (int i = 0; i < rows.size(); ++i) {
+      assertThat(colors.isMatched(i)).isEqualTo(expected.isMatched(i));
+      assertThat(colors.getBackground(i, Color.WHITE)).isEqualTo(
+          expected.getBackground(i, Color.WHITE));
+    }
+    assertThat(colors.getBackground(0, Color.WHITE)).isEqualTo(Color.GREEN);
+    assertThat(colors.getBackground(1, Color.WHITE)).isEqualTo(Color.BLUE);
+    assertThat(colors.isMatched(2)).isFalse();
+    assertThat(colors.isMatched(3)).isFalse();
+  }
+
+  @Test
+  public void missingGroupNeverMatches() {
+    CompiledColorRuleGroup compiled = CompiledColorRuleGroup.compile(null,
+        getColumnDefinitions());
+    assertThat(compiled.isEmpty()).isTrue();
+    ColorVector colors = compiled.evaluate(getRows(new String[][] { { "1", "a" } }));
+    assertThat(colors.isMatched(0)).isFalse();
+  }
+
+  @Test
+  public void matchesAreTrackedPastTheFirstWord() {
+    ColorVector colors = new ColorVector(130);
+    colors.set(129, Color.BLACK, Color.RED);
+    assertThat(colors.isMatched(129)).isTrue();
+    assertThat(colors.isMatched(65)).isFalse();
+    assertThat(colors.getBackground(129, Color.WHITE)).isEqualTo(Color.RED);
+  }
+}
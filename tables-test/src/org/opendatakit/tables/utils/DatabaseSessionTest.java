@@ -0,0 +1,86 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.common.android.database.DatabaseFactory;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+public class DatabaseSessionTest {
+
+  private DatabaseFactory factoryMock;
+  private SQLiteDatabase dbMock;
+
+  @Before
+  public void before() {
+    dbMock = mock(SQLiteDatabase.class);
+    factoryMock = mock(DatabaseFactory.class);
+    doReturn(dbMock).when(factoryMock).getDatabase(any(Context.class), any(String.class));
+    DatabaseFactory.set(factoryMock);
+    DatabaseSession.resetCounts();
+  }
+
+  private DatabaseSession newSession() {
+    return new DatabaseSession(Robolectric.application, TestConstants.TABLES_DEFAULT_APP_NAME);
+  }
+
+  @Test
+  public void databaseIsOpenedOnceForNestedReferences() {
+    DatabaseSession session = newSession().acquire();
+    session.getDatabase();
+    session.acquire();
+    session.getDatabase();
+    session.release();
+    session.getDatabase();
+    verify(factoryMock, times(1)).getDatabase(any(Context.class), any(String.class));
+    verify(dbMock, never()).close();
+    session.release();
+    verify(dbMock, times(1)).close();
+    assertThat(session.isOpen()).isFalse();
+  }
+
+  @Test
+  public void databaseIsNotOpenedUntilUsed() {
+    DatabaseSession session = newSession().acquire();
+    session.release();
+    verify(factoryMock, never()).getDatabase(any(Context.class), any(String.class));
+  }
+
+  @Test
+  public void acquisitionsAndOpensAreCounted() {
+    DatabaseSession session = newSession().acquire();
+    for (int i = 0; i < 5; ++i) {
+      session.acquire().getDatabase();
+      session.release();
+    }
+    session.release();
+    assertThat(DatabaseSession.getAcquisitionCount()).isEqualTo(6);
+    assertThat(DatabaseSession.getOpenCount()).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void unacquiredSessionThrows() {
+    newSession().getDatabase();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void extraReleaseThrows() {
+    DatabaseSession session = newSession().acquire();
+    session.release();
+    session.release();
+  }
+}
@@ -0,0 +1,98 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.ElementType;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class DisplayChoicesCacheTest {
+
+  private static final String APP_NAME = "tables";
+  private static final String TABLE_ID = "table";
+
+  @After
+  public void after() {
+    DisplayChoicesCache.invalidateAll();
+  }
+
+  private Map<String, Object> getChoice(Object dataValue) {
+    Map<String, Object> choice = new HashMap<String, Object>();
+    choice.put(DisplayChoicesCache.DATA_VALUE, dataValue);
+    choice.put("display", "label of " + dataValue);
+    return choice;
+  }
+
+  @Test
+  public void columnsWithoutChoicesAreCached() {
+    DisplayChoicesCache.put(APP_NAME, TABLE_ID, "noChoices", null);
+    assertThat(DisplayChoicesCache.isCached(APP_NAME, TABLE_ID, "noChoices")).isTrue();
+    assertThat(DisplayChoicesCache.isCached(APP_NAME, TABLE_ID, "other")).isFalse();
+  }
+
+  @Test
+  public void invalidatingATableDropsOnlyItsChoices() {
+    ArrayList<Map<String, Object>> choicesList = new ArrayList<Map<String, Object>>();
+    choicesList.add(getChoice("yes"));
+    choicesList.add(getChoice(2));
+    DisplayChoicesCache.put(APP_NAME, TABLE_ID, "column", choicesList);
+    DisplayChoicesCache.put(APP_NAME, "otherTable", "column", choicesList);
+    DisplayChoicesCache.invalidate(APP_NAME, TABLE_ID);
+    assertThat(DisplayChoicesCache.isCached(APP_NAME, TABLE_ID, "column")).isFalse();
+    assertThat(DisplayChoicesCache.isCached(APP_NAME, "otherTable", "column")).isTrue();
+  }
+
+  private ColumnDefinition getColumnMock(ElementDataType dataType) {
+    ElementType type = mock(ElementType.class);
+    doReturn(dataType).when(type).getDataType();
+    return TestConstants.getColumnDefinitionMock("column", type);
+  }
+
+  private Set<String> putChoices(Object... dataValues) {
+    ArrayList<Map<String, Object>> choicesList = new ArrayList<Map<String, Object>>();
+    for (Object dataValue : dataValues) {
+      choicesList.add(getChoice(dataValue));
+    }
+    DisplayChoicesCache.put(APP_NAME, TABLE_ID, "column", choicesList);
+    return DisplayChoicesCache.peekChoiceValues(APP_NAME, TABLE_ID, "column");
+  }
+
+  @Test
+  public void singleSelectValuesMustBeAChoice() {
+    Set<String> choiceValues = putChoices("yes", "no", 2);
+    assertThat(choiceValues).containsOnly("yes", "no", "2");
+    ColumnDefinition cd = getColumnMock(ElementDataType.string);
+    assertThat(ParseUtil.isChoice(choiceValues, cd, "yes")).isTrue();
+    assertThat(ParseUtil.isChoice(choiceValues, cd, "2")).isTrue();
+    assertThat(ParseUtil.isChoice(choiceValues, cd, "maybe")).isFalse();
+  }
+
+  @Test
+  public void everyMultiSelectValueMustBeAChoice() {
+    Set<String> choiceValues = putChoices("red", "green", "blue");
+    ColumnDefinition cd = getColumnMock(ElementDataType.array);
+    assertThat(ParseUtil.isChoice(choiceValues, cd, "[\"red\",\"blue\"]")).isTrue();
+    assertThat(ParseUtil.isChoice(choiceValues, cd, "[]")).isTrue();
+    assertThat(ParseUtil.isChoice(choiceValues, cd, "[\"red\",\"pink\"]")).isFalse();
+    assertThat(ParseUtil.isChoice(choiceValues, cd, "red")).isFalse();
+  }
+
+  @Test
+  public void columnsWithoutChoicesHaveNoChoiceValues() {
+    DisplayChoicesCache.put(APP_NAME, TABLE_ID, "noChoices", null);
+    assertThat(DisplayChoicesCache.peekChoiceValues(APP_NAME, TABLE_ID, "noChoices")).isNull();
+  }
+}
@@ -0,0 +1,100 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opendatakit.tables.utils.GridClusterer.Cluster;
+import org.opendatakit.testutils.ArrayPoints;
+
+public class GridClustererTest {
+
+  private static final double DELTA = 1e-9;
+
+  @Test
+  public void crowdedCellsBecomeOneCluster() {
+    // four points in the cell [0, 1) x [0, 1), one point in the next cell
+    ArrayPoints points = new ArrayPoints(
+        new double[] { 0.1, 0.2, 0.3, 0.4, 0.5 },
+        new double[] { 0.1, 0.2, 0.3, 0.4, 1.5 },
+        new float[] { 10f, 20f, 20f, 20f, 30f });
+    List<Cluster> clusters = GridClusterer.cluster(points, -10, -10, 10, 10, 1.0, 2);
+    assertThat(clusters).hasSize(2);
+    Cluster cluster = clusters.get(0);
+    assertThat(cluster.getCount()).isEqualTo(4);
+    assertThat(cluster.isSinglePoint()).isFalse();
+    assertThat(cluster.getLatitude()).isEqualTo(0.25, offset(DELTA));
+    assertThat(cluster.getLongitude()).isEqualTo(0.25, offset(DELTA));
+    assertThat(cluster.getDominantHue()).isEqualTo(20f);
+    Cluster single = clusters.get(1);
+    assertThat(single.isSinglePoint()).isTrue();
+    assertThat(single.getFirstPoint()).isEqualTo(4);
+    assertThat(single.getDominantHue()).isEqualTo(30f);
+  }
+
+  @Test
+  public void sparseCellsShowTheirPoints() {
+    ArrayPoints points = new ArrayPoints(
+        new double[] { 0.1, 0.2, 0.3 },
+        new double[] { 0.1, 0.2, 0.3 },
+        new float[] { 0f, 0f, 0f });
+    List<Cluster> clusters = GridClusterer.cluster(points, -10, -10, 10, 10, 1.0, 4);
+    assertThat(clusters).hasSize(3);
+    for (Cluster cluster : clusters) {
+      assertThat(cluster.isSinglePoint()).isTrue();
+    }
+  }
+
+  @Test
+  public void pointsOutsideTheBoxAreLeftOut() {
+    ArrayPoints points = new ArrayPoints(
+        new double[] { 0, 50, 0, 0 },
+        new double[] { 0, 0, 179.5, -179.5 },
+        new float[] { 0f, 0f, 0f, 0f });
+    assertThat(GridClusterer.cluster(points, -10, -10, 10, 10, 1.0, 2)).hasSize(1);
+    // a box that crosses the antimeridian
+    List<Cluster> clusters = GridClusterer.cluster(points, -10, 170, 10, -170, 1.0, 2);
+    assertThat(clusters).hasSize(2);
+    assertThat(clusters.get(0).getFirstPoint()).isEqualTo(2);
+    assertThat(clusters.get(1).getFirstPoint()).isEqualTo(3);
+  }
+
+  @Test
+  public void everyPointInTheBoxIsCountedOnce() {
+    Random random = new Random(42);
+    int size = 10000;
+    double[] latitudes = new double[size];
+    double[] longitudes = new double[size];
+    float[] hues = new float[size];
+    for (int i = 0; i < size; ++i) {
+      latitudes[i] = random.nextDouble() * 20 - 10;
+      longitudes[i] = random.nextDouble() * 20 - 10;
+      hues[i] = random.nextInt(3) * 120f;
+    }
+    List<Cluster> clusters = GridClusterer.cluster(new ArrayPoints(latitudes, longitudes, hues),
+        -5, -5, 5, 5, 2.5, 4);
+    int total = 0;
+    int expected = 0;
+    for (Cluster cluster : clusters) {
+      total += cluster.getCount();
+      assertThat(cluster.getLatitude()).isGreaterThanOrEqualTo(-5).isLessThanOrEqualTo(5);
+    }
+    for (int i = 0; i < size; ++i) {
+      if (Math.abs(latitudes[i]) <= 5 && Math.abs(longitudes[i]) <= 5) {
+        ++expected;
+      }
+    }
+    assertThat(total).isEqualTo(expected);
+    // the box spans 4 x 4 cells, each crowded enough to cluster
+    assertThat(clusters).hasSize(16);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void cellSizeMustBePositive() {
+    GridClusterer.cluster(new ArrayPoints(new double[0], new double[0], new float[0]), 0, 0, 1,
+        1, 0, 2);
+  }
+}
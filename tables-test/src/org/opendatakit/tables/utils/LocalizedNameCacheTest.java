@@ -0,0 +1,72 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.common.android.utilities.TableUtil;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.RobolectricTestRunner;
+
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+public class LocalizedNameCacheTest {
+
+  private static final String APP_NAME = TestConstants.TABLES_DEFAULT_APP_NAME;
+
+  TableUtil util;
+
+  @Before
+  public void before() {
+    LocalizedNameCache.invalidateAll();
+    util = mock(TableUtil.class);
+    when(util.getLocalizedDisplayName(any(SQLiteDatabase.class), eq("table1")))
+        .thenReturn("Table One");
+    TableUtil.set(util);
+  }
+
+  @After
+  public void after() {
+    LocalizedNameCache.invalidateAll();
+  }
+
+  @Test
+  public void tableNamesAreReadOnce() {
+    assertThat(LocalizedNameCache.peekTableDisplayName(APP_NAME, "table1")).isNull();
+    assertThat(LocalizedNameCache.getTableDisplayName(null, APP_NAME, "table1"))
+        .isEqualTo("Table One");
+    assertThat(LocalizedNameCache.getTableDisplayName(null, APP_NAME, "table1"))
+        .isEqualTo("Table One");
+    assertThat(LocalizedNameCache.peekTableDisplayName(APP_NAME, "table1"))
+        .isEqualTo("Table One");
+    verify(util, times(1)).getLocalizedDisplayName(any(SQLiteDatabase.class), eq("table1"));
+  }
+
+  @Test
+  public void invalidateDropsOnlyThatTable() {
+    LocalizedNameCache.getTableDisplayName(null, APP_NAME, "table1");
+    LocalizedNameCache.invalidate(APP_NAME, "table2");
+    assertThat(LocalizedNameCache.peekTableDisplayName(APP_NAME, "table1")).isNotNull();
+    LocalizedNameCache.invalidate(APP_NAME, "table1");
+    assertThat(LocalizedNameCache.peekTableDisplayName(APP_NAME, "table1")).isNull();
+  }
+
+  @Test
+  public void namesAreKeptPerLocale() {
+    assertThat(LocalizedNameCache.getCacheKey(APP_NAME, "table1", "col")).endsWith(
+        "/" + Locale.getDefault().toString());
+    assertThat(LocalizedNameCache.getCacheKey(APP_NAME, "table1", null)).isNotEqualTo(
+        LocalizedNameCache.getCacheKey(APP_NAME, "table1", "col"));
+  }
+}
@@ -0,0 +1,56 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.fest.assertions.api.Assertions.offset;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.data.UserTable.Row;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class MapMarkerModelTest {
+
+  private static final String LAT = "lat";
+  private static final String LNG = "lng";
+  private static final double DELTA = 1e-9;
+
+  private UserTable getTableMock(String[][] locations) {
+    UserTable table = mock(UserTable.class);
+    doReturn(locations.length).when(table).getNumberOfRows();
+    for (int i = 0; i < locations.length; ++i) {
+      Row row = mock(Row.class);
+      doReturn(locations[i][0]).when(row).getRawDataOrMetadataByElementKey(LAT);
+      doReturn(locations[i][1]).when(row).getRawDataOrMetadataByElementKey(LNG);
+      doReturn(row).when(table).getRowAtIndex(i);
+    }
+    return table;
+  }
+
+  @Test
+  public void rowsWithoutValidLocationsHaveNoMarker() {
+    UserTable table = getTableMock(new String[][] { { "47.6", "-122.3" }, { null, "1" },
+        { "", "" }, { "north", "1" }, { "-33.9", "18.4" } });
+    MapMarkerModel model = MapMarkerModel.build(ColumnarUserTable.wrap(table), LAT, LNG, null,
+        210f);
+    assertThat(model.getSource()).isSameAs(table);
+    assertThat(model.size()).isEqualTo(2);
+    assertThat(model.getRowIndex(0)).isEqualTo(0);
+    assertThat(model.getRowIndex(1)).isEqualTo(4);
+    assertThat(model.getLatitude(1)).isEqualTo(-33.9, offset(DELTA));
+    assertThat(model.getLongitude(1)).isEqualTo(18.4, offset(DELTA));
+    assertThat(model.getHue(0)).isEqualTo(210f);
+  }
+
+  @Test
+  public void markersAreFoundByRow() {
+    UserTable table = getTableMock(new String[][] { { "1", "1" }, { null, null }, { "2", "2" } });
+    MapMarkerModel model = MapMarkerModel.build(ColumnarUserTable.wrap(table), LAT, LNG, null,
+        0f);
+    assertThat(model.getMarkerOfRow(2)).isEqualTo(1);
+    assertThat(model.getMarkerOfRow(1)).isEqualTo(-1);
+  }
+}
@@ -0,0 +1,82 @@
+package org.opendatakit.tables.utils;
+
+import java.util.Random;
+
+import org.opendatakit.testutils.ArrayPoints;
+
+/**
+ * Compares the time to find the points in a map-sized box with a
+ * {@link SpatialIndex} against a scan of every point, over 100k points. The
+ * numbers are printed so they can be compared across runs; nothing is
+ * asserted, so that timing noise cannot fail a build. It is not a test and
+ * is not part of the test run, so run it by hand:
+ *
+ * <pre>
+ * java -cp bin:... org.opendatakit.tables.utils.SpatialIndexBenchmark
+ * </pre>
+ */
+public class SpatialIndexBenchmark {
+
+  private static final int NUMBER_OF_POINTS = 100000;
+  private static final int NUMBER_OF_QUERIES = 200;
+  private static final int WARMUP_RUNS = 3;
+  private static final int MEASURED_RUNS = 5;
+  /** The width and height of the boxes, about a city at street level. */
+  private static final double BOX_SIZE = 0.5;
+
+  public static void main(String[] args) {
+    Random random = new Random(3);
+    int size = NUMBER_OF_POINTS;
+    double[] latitudes = new double[size];
+    double[] longitudes = new double[size];
+    for (int i = 0; i < size; ++i) {
+      // clumped, as real data is, around a handful of towns
+      double townLatitude = (i % 16) - 8;
+      double townLongitude = (i % 16) * 2 - 16;
+      latitudes[i] = townLatitude + random.nextGaussian();
+      longitudes[i] = townLongitude + random.nextGaussian();
+    }
+    ArrayPoints points = new ArrayPoints(latitudes, longitudes, new float[size]);
+    double[] souths = new double[NUMBER_OF_QUERIES];
+    double[] wests = new double[NUMBER_OF_QUERIES];
+    for (int i = 0; i < NUMBER_OF_QUERIES; ++i) {
+      souths[i] = random.nextDouble() * 20 - 10;
+      wests[i] = random.nextDouble() * 40 - 20;
+    }
+
+    long start = System.nanoTime();
+    SpatialIndex index = SpatialIndex.build(points);
+    long buildNanos = System.nanoTime() - start;
+
+    long scanNanos = 0;
+    long indexNanos = 0;
+    long mismatches = 0;
+    for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; ++run) {
+      long scanStart = System.nanoTime();
+      for (int i = 0; i < NUMBER_OF_QUERIES; ++i) {
+        mismatches += points.scan(souths[i], wests[i], souths[i] + BOX_SIZE,
+            wests[i] + BOX_SIZE).length;
+      }
+      long indexStart = System.nanoTime();
+      for (int i = 0; i < NUMBER_OF_QUERIES; ++i) {
+        mismatches -= index.query(souths[i], wests[i], souths[i] + BOX_SIZE,
+            wests[i] + BOX_SIZE).length;
+      }
+      long end = System.nanoTime();
+      if (run >= WARMUP_RUNS) {
+        scanNanos += indexStart - scanStart;
+        indexNanos += end - indexStart;
+      }
+    }
+
+    long queries = (long) NUMBER_OF_QUERIES * MEASURED_RUNS;
+    System.out.println("SpatialIndexBenchmark: " + NUMBER_OF_POINTS + " points, build "
+        + (buildNanos / 1000) + " us, microseconds per query: scan " + (scanNanos / queries / 1000)
+        + ", index " + (indexNanos / queries / 1000));
+    if (mismatches != 0) {
+      // SpatialIndexTest checks the results; this only points it out.
+      System.out.println("SpatialIndexBenchmark: the index and the scan found "
+          + Math.abs(mismatches) + " different points");
+    }
+  }
+}
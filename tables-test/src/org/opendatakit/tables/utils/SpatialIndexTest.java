@@ -0,0 +1,112 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.opendatakit.testutils.ArrayPoints;
+
+public class SpatialIndexTest {
+
+  private static double distance(ArrayPoints points, int point, double latitude,
+      double longitude) {
+    double scale = Math.cos(Math.toRadians(latitude));
+    double dLatitude = points.getLatitude(point) - latitude;
+    double dLongitude = (points.getLongitude(point) - longitude) * scale;
+    return dLatitude * dLatitude + dLongitude * dLongitude;
+  }
+
+  @Test
+  public void queryMatchesAScan() {
+    Random random = new Random(7);
+    ArrayPoints points = ArrayPoints.random(random, 5000);
+    SpatialIndex index = SpatialIndex.build(points);
+    for (int i = 0; i < 200; ++i) {
+      double south = random.nextDouble() * 50 - 25;
+      double west = random.nextDouble() * 50 - 25;
+      double north = south + random.nextDouble() * 20;
+      double east = west + random.nextDouble() * 20;
+      assertThat(index.query(south, west, north, east)).isEqualTo(
+          points.scan(south, west, north, east));
+    }
+  }
+
+  @Test
+  public void queryMatchesAScanOfClumpedPoints() {
+    Random random = new Random(3);
+    int size = 20000;
+    double[] latitudes = new double[size];
+    double[] longitudes = new double[size];
+    for (int i = 0; i < size; ++i) {
+      // clumped, as real data is, around a handful of towns
+      latitudes[i] = (i % 16) - 8 + random.nextGaussian();
+      longitudes[i] = (i % 16) * 2 - 16 + random.nextGaussian();
+    }
+    ArrayPoints points = new ArrayPoints(latitudes, longitudes, new float[size]);
+    SpatialIndex index = SpatialIndex.build(points);
+    for (int i = 0; i < 200; ++i) {
+      // boxes about the size of a city at street level
+      double south = random.nextDouble() * 20 - 10;
+      double west = random.nextDouble() * 40 - 20;
+      assertThat(index.query(south, west, south + 0.5, west + 0.5)).isEqualTo(
+          points.scan(south, west, south + 0.5, west + 0.5));
+    }
+  }
+
+  @Test
+  public void queryCrossesTheAntimeridian() {
+    ArrayPoints points = new ArrayPoints(
+        new double[] { 0, 0, 0, 0 },
+        new double[] { 179.5, -179.5, 0, 175 },
+        new float[4]);
+    SpatialIndex index = SpatialIndex.build(points);
+    assertThat(index.query(-10, 170, 10, -170)).isEqualTo(new int[] { 0, 1, 3 });
+    assertThat(index.query(-10, 178, 10, -178)).isEqualTo(new int[] { 0, 1 });
+  }
+
+  @Test
+  public void queryOutsideThePointsIsEmpty() {
+    ArrayPoints points = ArrayPoints.random(new Random(1), 100);
+    SpatialIndex index = SpatialIndex.build(points);
+    assertThat(index.query(50, 50, 60, 60)).isEmpty();
+    assertThat(SpatialIndex.build(new ArrayPoints(new double[0], new double[0], new float[0]))
+        .query(-90, -180, 90, 180)).isEmpty();
+  }
+
+  @Test
+  public void pointsAtOnePlaceAreFound() {
+    ArrayPoints points = new ArrayPoints(
+        new double[] { 3, 3, 3 },
+        new double[] { 4, 4, 4 },
+        new float[3]);
+    SpatialIndex index = SpatialIndex.build(points);
+    assertThat(index.query(3, 4, 3, 4)).isEqualTo(new int[] { 0, 1, 2 });
+    assertThat(index.nearest(0, 0)).isEqualTo(0);
+  }
+
+  @Test
+  public void nearestMatchesAScan() {
+    Random random = new Random(11);
+    ArrayPoints points = ArrayPoints.random(random, 5000);
+    SpatialIndex index = SpatialIndex.build(points);
+    for (int i = 0; i < 200; ++i) {
+      // include locations outside the points
+      double latitude = random.nextDouble() * 60 - 30;
+      double longitude = random.nextDouble() * 60 - 30;
+      double best = Double.POSITIVE_INFINITY;
+      for (int point = 0; point < points.size(); ++point) {
+        best = Math.min(best, distance(points, point, latitude, longitude));
+      }
+      int nearest = index.nearest(latitude, longitude);
+      assertThat(distance(points, nearest, latitude, longitude)).isEqualTo(best);
+    }
+  }
+
+  @Test
+  public void nearestOfNoPointsIsNone() {
+    SpatialIndex index = SpatialIndex.build(new ArrayPoints(new double[0], new double[0],
+        new float[0]));
+    assertThat(index.nearest(0, 0)).isEqualTo(-1);
+  }
+}
@@ -0,0 +1,129 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class TableImportSchedulerTest {
+
+  private static Runnable record(final List<String> log, final String entry) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        log.add(entry);
+      }
+    };
+  }
+
+  @Test
+  public void importsOfATableRunInOrder() throws Exception {
+    List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    TableImportScheduler scheduler = new TableImportScheduler(4);
+    scheduler.add("a", record(log, "a.properties"));
+    scheduler.add("a", record(log, "a.data"));
+    scheduler.add("a", record(log, "a.more"));
+    scheduler.run();
+    assertThat(log).containsExactly("a.properties", "a.data", "a.more");
+  }
+
+  @Test
+  public void differentTablesImportAtTheSameTime() throws Exception {
+    // each table waits for the other to start, which only works if they run
+    // at the same time
+    final CountDownLatch aStarted = new CountDownLatch(1);
+    final CountDownLatch bStarted = new CountDownLatch(1);
+    final AtomicBoolean overlapped = new AtomicBoolean(true);
+    TableImportScheduler scheduler = new TableImportScheduler(2);
+    scheduler.add("a", new Runnable() {
+      @Override
+      public void run() {
+        aStarted.countDown();
+        try {
+          overlapped.compareAndSet(true, bStarted.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+          overlapped.set(false);
+        }
+      }
+    });
+    scheduler.add("b", new Runnable() {
+      @Override
+      public void run() {
+        bStarted.countDown();
+        try {
+          overlapped.compareAndSet(true, aStarted.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+          overlapped.set(false);
+        }
+      }
+    });
+    scheduler.run();
+    assertThat(overlapped.get()).isTrue();
+  }
+
+  @Test
+  public void dependenciesFinishFirst() throws Exception {
+    List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    TableImportScheduler scheduler = new TableImportScheduler(4);
+    scheduler.add("household", record(log, "household"));
+    scheduler.add("person", record(log, "person"));
+    scheduler.add("visit", record(log, "visit"));
+    scheduler.addDependency("household", "person");
+    scheduler.addDependency("person", "visit");
+    // not being imported, so ignored
+    scheduler.addDependency("visit", "missing");
+    scheduler.run();
+    assertThat(log).containsExactly("visit", "person", "household");
+  }
+
+  @Test
+  public void cyclesStillFinish() throws Exception {
+    List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    TableImportScheduler scheduler = new TableImportScheduler(4);
+    scheduler.add("a", record(log, "a"));
+    scheduler.add("b", record(log, "b"));
+    scheduler.addDependency("a", "b");
+    scheduler.addDependency("b", "a");
+    scheduler.addDependency("a", "a");
+    scheduler.run();
+    assertThat(log).containsExactly("a", "b");
+  }
+
+  @Test
+  public void aTableOnTheCycleIsStartedRatherThanOneWaitingOnIt() throws Exception {
+    List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    TableImportScheduler scheduler = new TableImportScheduler(4);
+    scheduler.add("report", record(log, "report"));
+    scheduler.add("a", record(log, "a"));
+    scheduler.add("b", record(log, "b"));
+    // report is added first but is not on the cycle
+    scheduler.addDependency("report", "b");
+    scheduler.addDependency("a", "b");
+    scheduler.addDependency("b", "a");
+    scheduler.run();
+    assertThat(log).containsExactly("a", "b", "report");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void failuresAreRethrown() throws Exception {
+    TableImportScheduler scheduler = new TableImportScheduler(2);
+    scheduler.add("a", new Runnable() {
+      @Override
+      public void run() {
+        throw new IllegalStateException("bad csv");
+      }
+    });
+    scheduler.run();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void poolSizeMustBePositive() {
+    new TableImportScheduler(0);
+  }
+}
@@ -0,0 +1,135 @@
+package org.opendatakit.tables.utils;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ZipExtractorTest {
+
+  private File root;
+  private File zip;
+  private File destination;
+
+  private static class RecordingListener implements ZipExtractor.Listener {
+    final List<String> written = new ArrayList<String>();
+    final List<String> skipped = new ArrayList<String>();
+    long lastBytesProcessed = -1;
+    long lastTotalBytes = -1;
+    boolean cancel = false;
+
+    @Override
+    public boolean isCancelled() {
+      return cancel;
+    }
+
+    @Override
+    public void onEntryStarted(ZipEntry entry, int index, int total) {
+    }
+
+    @Override
+    public void onBytesProcessed(long bytesProcessed, long totalBytes) {
+      lastBytesProcessed = bytesProcessed;
+      lastTotalBytes = totalBytes;
+    }
+
+    @Override
+    public void onEntryFinished(ZipEntry entry, boolean skipped) {
+      if (!entry.isDirectory()) {
+        (skipped ? this.skipped : this.written).add(entry.getName());
+      }
+    }
+  }
+
+  @Before
+  public void before() throws IOException {
+    root = File.createTempFile("zipExtractorTest", "");
+    root.delete();
+    root.mkdirs();
+    zip = new File(root, "test.zip");
+    destination = new File(root, "out");
+    destination.mkdirs();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+    try {
+      out.putNextEntry(new ZipEntry("assets/"));
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("assets/index.html"));
+      out.write("<html></html>".getBytes("UTF-8"));
+      out.closeEntry();
+      // no directory entry for this one
+      out.putNextEntry(new ZipEntry("assets/js/app.js"));
+      byte[] large = new byte[300 * 1024];
+      for (int i = 0; i < large.length; ++i) {
+        large[i] = (byte) (i % 251);
+      }
+      out.write(large);
+      out.closeEntry();
+    } finally {
+      out.close();
+    }
+  }
+
+  @After
+  public void after() throws IOException {
+    FileUtils.deleteDirectory(root);
+  }
+
+  private RecordingListener extract() throws IOException {
+    RecordingListener listener = new RecordingListener();
+    ZipFile zipFile = new ZipFile(zip);
+    try {
+      assertThat(new ZipExtractor(listener).extract(zipFile, destination)).isEqualTo(3);
+    } finally {
+      zipFile.close();
+    }
+    return listener;
+  }
+
+  @Test
+  public void everyEntryIsExtracted() throws IOException {
+    RecordingListener listener = extract();
+    assertThat(listener.written).containsExactly("assets/index.html", "assets/js/app.js");
+    assertThat(FileUtils.readFileToString(new File(destination, "assets/index.html"), "UTF-8"))
+        .isEqualTo("<html></html>");
+    assertThat(new File(destination, "assets/js/app.js").length()).isEqualTo(300 * 1024);
+    assertThat(listener.lastBytesProcessed).isEqualTo(listener.lastTotalBytes);
+  }
+
+  @Test
+  public void unchangedFilesAreSkipped() throws IOException {
+    extract();
+    // same size, different content
+    FileUtils.writeStringToFile(new File(destination, "assets/index.html"), "<html></htm!>",
+        "UTF-8");
+    RecordingListener listener = extract();
+    assertThat(listener.skipped).containsExactly("assets/js/app.js");
+    assertThat(listener.written).containsExactly("assets/index.html");
+    assertThat(FileUtils.readFileToString(new File(destination, "assets/index.html"), "UTF-8"))
+        .isEqualTo("<html></html>");
+    assertThat(listener.lastBytesProcessed).isEqualTo(listener.lastTotalBytes);
+  }
+
+  @Test
+  public void cancellingStopsTheExtraction() throws IOException {
+    RecordingListener listener = new RecordingListener();
+    listener.cancel = true;
+    ZipFile zipFile = new ZipFile(zip);
+    try {
+      assertThat(new ZipExtractor(listener).extract(zipFile, destination)).isEqualTo(-1);
+    } finally {
+      zipFile.close();
+    }
+    assertThat(new File(destination, "assets/index.html").exists()).isFalse();
+  }
+}
@@ -4,7 +4,9 @@ import java.util.ArrayList;
 import java.util.Map;
 
 import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.utilities.DataUtil;
 import org.opendatakit.tables.activities.AbsBaseActivity;
+import org.opendatakit.tables.utils.DatabaseSession;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -31,6 +33,14 @@ public class ControlStub extends Control {
     return CONTENT_VALUES;
   }
   
+  @Override
+  protected ContentValues getContentValuesFromMap(
+      DatabaseSession session, DataUtil dataUtil, String tableId,
+      ArrayList<ColumnDefinition> orderedDefns,
+      Map<String, String> elementKeyToValue) {
+    return CONTENT_VALUES;
+  }
+  
   @Override
   protected String generateRowId() {
     return GENERATED_ROW_ID;
@@ -22,6 +22,7 @@ import org.mockito.Matchers;
 import org.opendatakit.aggregate.odktables.rest.ElementDataType;
 import org.opendatakit.aggregate.odktables.rest.entity.Column;
 import org.opendatakit.common.android.database.DatabaseFactory;
+import org.opendatakit.common.android.provider.DataTableColumns;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
 import org.opendatakit.tables.activities.AbsBaseActivityStub;
 import org.opendatakit.tables.activities.TableDisplayActivity;
@@ -345,6 +346,68 @@ public class ControlTest {
     this.assertRowIdIsNotPresent(intent);
   }
 
+  @Test
+  public void queryAsyncRejectsInvalidCallbackNames() {
+    assertThat(this.control.queryAsync(PRESENT_TABLE_ID, null, null, "alert(1);x", "id", null,
+        10)).isFalse();
+    assertThat(this.control.queryAsync(PRESENT_TABLE_ID, null, null, null, "id", null, 10))
+        .isFalse();
+  }
+
+  @Test
+  public void getQueryResultIsNullForUnknownRequest() {
+    assertThat(this.control.getQueryResult("unknownRequestId")).isNull();
+  }
+
+  @Test
+  public void addRowsReturnsNullIfTableDoesNotExist() {
+    List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+    rows.add(getValidMap());
+    assertThat(this.control.addRows(MISSING_TABLE_ID, WebViewUtil.stringify(rows))).isNull();
+    assertThat(this.control.addRows(PRESENT_TABLE_ID, "not an array")).isNull();
+  }
+
+  @Test
+  public void updateRowsWritesOnlyRowsWithIds() {
+    ContentValues contentValues = getContentValuesForValidMap();
+    ControlStub.CONTENT_VALUES = contentValues;
+    List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+    Map<String, String> withId = getValidMap();
+    withId.put(DataTableColumns.ID, "aRowId");
+    rows.add(withId);
+    rows.add(getValidMap());
+    String result = this.control.updateRows(PRESENT_TABLE_ID, WebViewUtil.stringify(rows));
+    verify(ODKDatabaseUtils.get(), times(1)).updateDataInExistingDBTableWithId(
+        any(SQLiteDatabase.class),
+        eq(PRESENT_TABLE_ID),
+        Matchers.any(ArrayList.class),
+        eq(contentValues),
+        eq("aRowId"));
+    assertThat(result).contains("\"success\":true").contains("\"success\":false");
+  }
+
+  @Test
+  public void addRowsWithNullContentValuesWritesNothing() {
+    ControlStub.CONTENT_VALUES = null;
+    ControlStub.GENERATED_ROW_ID = "aRowId";
+    List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+    rows.add(getValidMap());
+    String result = this.control.addRows(PRESENT_TABLE_ID, WebViewUtil.stringify(rows));
+    verify(ODKDatabaseUtils.get(), times(0)).insertDataIntoExistingDBTableWithId(
+        any(SQLiteDatabase.class),
+        any(String.class),
+        Matchers.any(ArrayList.class),
+        any(ContentValues.class),
+        any(String.class));
+    assertThat(result).contains("\"success\":false").doesNotContain("\"success\":true");
+  }
+
+  @Test
+  public void javascriptUrlEscapesPercentSigns() {
+    String url = Control.toJavascriptUrl("cb(\"1\",{\"rows\":[[\"100%\"]]});");
+    assertThat(url).isEqualTo("javascript:cb(\"1\",{\"rows\":[[\"100%25\"]]});");
+  }
+
   /**
    * Get a map with valid values of the map returned by
    * {@link TestConstants#getMapOfElementKeyToValue(String, String)}.
@@ -0,0 +1,56 @@
+package org.opendatakit.tables.views.webkits;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.common.android.data.KeyValueStoreEntry;
+import org.opendatakit.common.android.database.DatabaseFactory;
+import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+@RunWith(RobolectricTestRunner.class)
+public class GraphDataTest {
+
+  ODKDatabaseUtils wrapperMock;
+
+  @Before
+  public void before() {
+    SQLiteDatabase stubDb = SQLiteDatabase.create(null);
+    DatabaseFactory factoryMock = mock(DatabaseFactory.class);
+    doReturn(stubDb).when(factoryMock).getDatabase(any(Context.class), any(String.class));
+    DatabaseFactory.set(factoryMock);
+    wrapperMock = mock(ODKDatabaseUtils.class);
+    doReturn(new ArrayList<KeyValueStoreEntry>()).when(wrapperMock).getDBTableMetadata(
+        any(SQLiteDatabase.class), anyString(), anyString(), anyString(), anyString());
+    ODKDatabaseUtils.set(wrapperMock);
+  }
+
+  @Test
+  public void settingsAreReadOnceAndChangesAreSeenAtOnce() {
+    GraphData graphData = new GraphData(Robolectric.application,
+        TestConstants.TABLES_DEFAULT_APP_NAME, "tableId", "graph");
+    assertThat(graphData.getGraphXAxis()).isEmpty();
+    assertThat(graphData.getGraphType()).isEmpty();
+    assertThat(graphData.isModifiable()).isTrue();
+    graphData.saveSelection("selectx", "column");
+    assertThat(graphData.isModified()).isTrue();
+    assertThat(graphData.getGraphXAxis()).isEqualTo("column");
+    verify(wrapperMock, times(1)).getDBTableMetadata(any(SQLiteDatabase.class), anyString(),
+        anyString(), anyString(), anyString());
+  }
+}
@@ -0,0 +1,105 @@
+package org.opendatakit.tables.views.webkits;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class QueryResultRegistryTest {
+
+  private TableData getTableDataMock(String tableId, long sizeInBytes) {
+    TableData tableData = mock(TableData.class);
+    doReturn(tableId).when(tableData).getTableId();
+    doReturn(sizeInBytes).when(tableData).getApproximateSizeInBytes();
+    doReturn(TestConstants.TABLES_DEFAULT_APP_NAME).when(tableData).getAppName();
+    doCallRealMethod().when(tableData).setQueryHandle(anyString(),
+        any(QueryResultRegistry.class));
+    doCallRealMethod().when(tableData).markQueryResultUsed();
+    return tableData;
+  }
+
+  @Test
+  public void leastRecentlyUsedResultsAreReleasedOverBudget() {
+    QueryResultRegistry registry = new QueryResultRegistry(250);
+    TableData first = getTableDataMock("a", 100);
+    TableData second = getTableDataMock("a", 100);
+    String firstHandle = registry.register(first);
+    String secondHandle = registry.register(second);
+    // using the first result makes the second the least recently used
+    assertThat(registry.get(firstHandle)).isSameAs(first);
+    String thirdHandle = registry.register(getTableDataMock("b", 100));
+    assertThat(registry.get(secondHandle)).isNull();
+    assertThat(registry.get(firstHandle)).isSameAs(first);
+    assertThat(registry.get(thirdHandle)).isNotNull();
+    assertThat(registry.getBytesInUse()).isEqualTo(200);
+  }
+
+  @Test
+  public void readingThroughTheInterfaceMarksResultUsed() {
+    QueryResultRegistry registry = new QueryResultRegistry(250);
+    TableData first = getTableDataMock("a", 100);
+    TableData second = getTableDataMock("a", 100);
+    registry.register(first);
+    String secondHandle = registry.register(second);
+    new TableDataIf(first).getCount();
+    registry.register(getTableDataMock("b", 100));
+    assertThat(registry.get(secondHandle)).isNull();
+    assertThat(registry.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void newestResultIsKeptEvenOverBudget() {
+    QueryResultRegistry registry = new QueryResultRegistry(50);
+    registry.register(getTableDataMock("a", 10));
+    String handle = registry.register(getTableDataMock("a", 100));
+    assertThat(registry.size()).isEqualTo(1);
+    assertThat(registry.get(handle)).isNotNull();
+  }
+
+  @Test
+  public void releaseTableOnlyReleasesThatTable() {
+    QueryResultRegistry registry = new QueryResultRegistry(1000);
+    registry.register(getTableDataMock("a", 10));
+    registry.register(getTableDataMock("a", 10));
+    String other = registry.register(getTableDataMock("b", 10));
+    assertThat(registry.releaseTable("a")).isEqualTo(2);
+    assertThat(registry.size()).isEqualTo(1);
+    assertThat(registry.get(other)).isNotNull();
+    assertThat(registry.getBytesInUse()).isEqualTo(10);
+  }
+
+  @Test
+  public void releaseTableIgnoresNull() {
+    QueryResultRegistry registry = new QueryResultRegistry(1000);
+    registry.register(getTableDataMock("a", 10));
+    assertThat(registry.releaseTable(null)).isEqualTo(0);
+    assertThat(registry.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void releaseByHandle() {
+    QueryResultRegistry registry = new QueryResultRegistry(1000);
+    String handle = registry.register(getTableDataMock("a", 10));
+    assertThat(registry.release(handle)).isTrue();
+    assertThat(registry.release(handle)).isFalse();
+    assertThat(registry.getBytesInUse()).isEqualTo(0);
+  }
+
+  @Test
+  public void loweringTheBudgetReleasesResults() {
+    QueryResultRegistry registry = new QueryResultRegistry(1000);
+    registry.register(getTableDataMock("a", 100));
+    registry.register(getTableDataMock("a", 100));
+    registry.register(getTableDataMock("a", 100));
+    registry.setBudget(150);
+    assertThat(registry.size()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,130 @@
+package org.opendatakit.tables.views.webkits;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import org.json.JSONArray;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.data.UserTable.Row;
+import org.opendatakit.testutils.TestConstants;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Compares the bytes allocated and the time taken to serialize one column
+ * of 5000 rows with the streaming writer in {@link TableData} against the
+ * list and {@link JSONArray} copies it replaced. The numbers are printed so
+ * they can be compared across runs; nothing is asserted, so that allocation
+ * and timing noise cannot fail a build. TableDataTest checks the output.
+ * It is not a test and is not part of the test run, so run it by hand:
+ *
+ * <pre>
+ * java -cp bin:... org.opendatakit.tables.views.webkits.TableDataColumnBenchmark
+ * </pre>
+ *
+ * TableData needs the Android classes, so the measurement itself runs under
+ * Robolectric.
+ */
+public class TableDataColumnBenchmark {
+
+  private static final String ELEMENT_KEY = TestConstants.ElementKeys.NUMBER_COLUMN;
+  private static final int NUMBER_OF_ROWS = 5000;
+  private static final int WARMUP_RUNS = 5;
+  private static final int MEASURED_RUNS = 20;
+
+  public static void main(String[] args) {
+    Result result = JUnitCore.runClasses(Measurement.class);
+    for (Failure failure : result.getFailures()) {
+      System.out.println("TableDataColumnBenchmark: " + failure.getMessage());
+    }
+  }
+
+  @RunWith(RobolectricTestRunner.class)
+  public static class Measurement {
+
+    private UserTable table;
+    private TableData tableData;
+
+    private void setUp() {
+      this.table = TestConstants.getUserTableMock();
+      doReturn(NUMBER_OF_ROWS).when(table).getNumberOfRows();
+      for (int i = 0; i < NUMBER_OF_ROWS; ++i) {
+        Row row = mock(Row.class);
+        doReturn(i % 10 == 0 ? null : Double.toString(i * 1.5)).when(row)
+            .getRawDataOrMetadataByElementKey(ELEMENT_KEY);
+        doReturn(row).when(table).getRowAtIndex(i);
+      }
+      this.tableData = new TableData(table);
+    }
+
+    /**
+     * The serialization TableData used before it streamed its columns.
+     */
+    private String getColumnDataWithJSONArray() {
+      ArrayList<String> rowValues = new ArrayList<String>();
+      for (int i = 0; i < NUMBER_OF_ROWS; i++) {
+        Row row = table.getRowAtIndex(tableData.getIndexIntoDataTable(i));
+        rowValues.add(row.getRawDataOrMetadataByElementKey(ELEMENT_KEY));
+      }
+      return new JSONArray(rowValues).toString();
+    }
+
+    private String getColumnDataStreamed() {
+      return tableData.getColumnDataForElementKey(ELEMENT_KEY, NUMBER_OF_ROWS);
+    }
+
+    @Test
+    public void measure() {
+      setUp();
+      for (int i = 0; i < WARMUP_RUNS; ++i) {
+        getColumnDataWithJSONArray();
+        getColumnDataStreamed();
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < MEASURED_RUNS; ++i) {
+        getColumnDataWithJSONArray();
+      }
+      long jsonArrayNanos = (System.nanoTime() - start) / MEASURED_RUNS;
+      start = System.nanoTime();
+      for (int i = 0; i < MEASURED_RUNS; ++i) {
+        getColumnDataStreamed();
+      }
+      long streamedNanos = (System.nanoTime() - start) / MEASURED_RUNS;
+      System.out.println("TableDataColumnBenchmark: " + NUMBER_OF_ROWS
+          + " rows, microseconds per column: JSONArray " + (jsonArrayNanos / 1000)
+          + ", streamed " + (streamedNanos / 1000));
+
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (!(bean instanceof com.sun.management.ThreadMXBean)
+          || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+        System.out.println("TableDataColumnBenchmark: allocation counters not available");
+        return;
+      }
+      com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+      long threadId = Thread.currentThread().getId();
+      long startBytes = allocations.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < MEASURED_RUNS; ++i) {
+        getColumnDataWithJSONArray();
+      }
+      long jsonArrayBytes = (allocations.getThreadAllocatedBytes(threadId) - startBytes)
+          / MEASURED_RUNS;
+      startBytes = allocations.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < MEASURED_RUNS; ++i) {
+        getColumnDataStreamed();
+      }
+      long streamedBytes = (allocations.getThreadAllocatedBytes(threadId) - startBytes)
+          / MEASURED_RUNS;
+      System.out.println("TableDataColumnBenchmark: " + NUMBER_OF_ROWS
+          + " rows, bytes allocated per column: JSONArray " + jsonArrayBytes + ", streamed "
+          + streamedBytes);
+    }
+  }
+}
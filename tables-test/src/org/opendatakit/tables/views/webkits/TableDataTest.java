@@ -8,14 +8,22 @@ import static org.mockito.Mockito.mock;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.aggregate.odktables.rest.ElementType;
 import org.opendatakit.aggregate.odktables.rest.entity.Column;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.data.UserTable.Row;
 import org.opendatakit.common.android.database.DatabaseFactory;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.tables.activities.AbsBaseActivityStub;
 import org.opendatakit.tables.activities.AbsTableActivityStub;
 import org.opendatakit.testutils.TestCaseUtils;
@@ -169,6 +177,105 @@ public class TableDataTest {
     assertThat(three).isEqualTo(3);
   }
   
+  @Test
+  public void indicesCorrectForSubset() {
+    this.tableData.setSubsetOfIndicesToDisplay(new int[] { 2, 4, 5, 9 });
+    assertThat(this.tableData.displayIndexMustBeCalculated()).isTrue();
+    assertThat(this.tableData.getCount()).isEqualTo(4);
+    assertThat(this.tableData.getIndexIntoDataTable(0)).isEqualTo(2);
+    assertThat(this.tableData.getIndexIntoDataTable(3)).isEqualTo(9);
+    this.tableData.setAllIndicesToDisplay();
+    this.assertIndicesAreNotRemapped();
+  }
+
+  @Test
+  public void indicesCorrectForSubsetWithSelectedMarker() {
+    // displayIndex: 0  1  2  3
+    // dataIndex   : 5  2  4  9
+    this.tableData.setSubsetOfIndicesToDisplay(new int[] { 2, 4, 5, 9 });
+    this.tableData.setSelectedMapIndex(5);
+    assertThat(this.tableData.getCount()).isEqualTo(4);
+    assertThat(this.tableData.getIndexIntoDataTable(0)).isEqualTo(5);
+    assertThat(this.tableData.getIndexIntoDataTable(1)).isEqualTo(2);
+    assertThat(this.tableData.getIndexIntoDataTable(2)).isEqualTo(4);
+    assertThat(this.tableData.getIndexIntoDataTable(3)).isEqualTo(9);
+  }
+
+  @Test
+  public void selectedMarkerOutsideSubsetIsStillListed() {
+    // displayIndex: 0  1  2
+    // dataIndex   : 7  2  4
+    this.tableData.setSubsetOfIndicesToDisplay(new int[] { 2, 4 });
+    this.tableData.setSelectedMapIndex(7);
+    assertThat(this.tableData.getCount()).isEqualTo(3);
+    assertThat(this.tableData.getIndexIntoDataTable(0)).isEqualTo(7);
+    assertThat(this.tableData.getIndexIntoDataTable(1)).isEqualTo(2);
+    assertThat(this.tableData.getIndexIntoDataTable(2)).isEqualTo(4);
+  }
+
+  @Test
+  public void dataChangedDetailDescribesTheRows() throws Exception {
+    this.tableData.setSubsetOfIndicesToDisplay(new int[] { 2, 4 });
+    this.tableData.setSelectedMapIndex(7);
+    JSONObject detail = this.tableData.getDataChangedDetail();
+    assertThat(detail.getInt("count")).isEqualTo(3);
+    assertThat(detail.getBoolean("hasSelectedRow")).isTrue();
+    this.tableData.setNoItemSelected();
+    assertThat(this.tableData.getDataChangedDetail().getBoolean("hasSelectedRow")).isFalse();
+  }
+
+  @Test
+  public void getRowsReturnsTheRequestedRange() throws Exception {
+    String elementKey = TestConstants.ElementKeys.STRING_COLUMN;
+    ElementType type = mock(ElementType.class);
+    doReturn(ElementDataType.string).when(type).getDataType();
+    ColumnDefinition cd = TestConstants.getColumnDefinitionMock(elementKey, type);
+    doReturn(new ArrayList<ColumnDefinition>()).when(cd).getChildren();
+    ArrayList<ColumnDefinition> orderedDefns = new ArrayList<ColumnDefinition>();
+    orderedDefns.add(cd);
+    UserTable table = TestConstants.getUserTableMock();
+    doReturn(orderedDefns).when(table).getColumnDefinitions();
+    doReturn(3).when(table).getNumberOfRows();
+    for (int i = 0; i < 3; ++i) {
+      Row row = mock(Row.class);
+      doReturn("row" + i).when(row).getRowId();
+      doReturn("value" + i).when(row).getRawDataOrMetadataByElementKey(elementKey);
+      doReturn(row).when(table).getRowAtIndex(i);
+    }
+    TableData data = new TableData(table);
+    String result = data.getRows(1, 5, "[\"" + elementKey + "\"]");
+    List<?> rows = ODKFileUtils.mapper.readValue(result, ArrayList.class);
+    assertThat(rows).hasSize(2);
+    Map<?, ?> first = (Map<?, ?>) rows.get(0);
+    assertThat(first.get(elementKey)).isEqualTo("value1");
+    assertThat(first.get("_id")).isEqualTo("row1");
+  }
+
+  @Test
+  public void columnDataIsAJsonArrayOfTheValues() throws Exception {
+    String elementKey = TestConstants.ElementKeys.NUMBER_COLUMN;
+    UserTable table = TestConstants.getUserTableMock();
+    int numberOfRows = 25;
+    doReturn(numberOfRows).when(table).getNumberOfRows();
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < numberOfRows; ++i) {
+      String value = (i % 10 == 0) ? null : Double.toString(i * 1.5);
+      Row row = mock(Row.class);
+      doReturn(value).when(row).getRawDataOrMetadataByElementKey(elementKey);
+      doReturn(row).when(table).getRowAtIndex(i);
+      expected.add(value);
+    }
+    TableData data = new TableData(table);
+    String result = data.getColumnDataForElementKey(elementKey, numberOfRows);
+    List<?> actual = ODKFileUtils.mapper.readValue(result, ArrayList.class);
+    assertThat(actual).isEqualTo(expected);
+  }
+
+  @Test
+  public void getRowsReturnsNullForUnparseablePaths() {
+    assertThat(this.tableData.getRows(0, 1, "not json")).isNull();
+  }
+
   /**
    * Asserts that the requested index values are spit out unmodified.
    */
@@ -0,0 +1,85 @@
+package org.opendatakit.testutils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.opendatakit.tables.utils.GridClusterer.Points;
+
+/**
+ * Map points held in arrays, for the clustering and spatial index tests,
+ * along with the brute force search their results are checked against.
+ */
+public class ArrayPoints implements Points {
+
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final float[] hues;
+
+  public ArrayPoints(double[] latitudes, double[] longitudes, float[] hues) {
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.hues = hues;
+  }
+
+  /**
+   * Points spread evenly over latitudes and longitudes from -20 to 20.
+   *
+   * @param random
+   * @param size
+   * @return
+   */
+  public static ArrayPoints random(Random random, int size) {
+    double[] latitudes = new double[size];
+    double[] longitudes = new double[size];
+    for (int i = 0; i < size; ++i) {
+      latitudes[i] = random.nextDouble() * 40 - 20;
+      longitudes[i] = random.nextDouble() * 40 - 20;
+    }
+    return new ArrayPoints(latitudes, longitudes, new float[size]);
+  }
+
+  @Override
+  public int size() {
+    return latitudes.length;
+  }
+
+  @Override
+  public double getLatitude(int point) {
+    return latitudes[point];
+  }
+
+  @Override
+  public double getLongitude(int point) {
+    return longitudes[point];
+  }
+
+  @Override
+  public float getHue(int point) {
+    return hues[point];
+  }
+
+  /**
+   * Find the points in the box by looking at every point. If west is greater
+   * than east the box crosses the antimeridian.
+   *
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return the points inside the box, in ascending order
+   */
+  public int[] scan(double south, double west, double north, double east) {
+    int count = 0;
+    int[] result = new int[size()];
+    for (int i = 0; i < size(); ++i) {
+      double latitude = latitudes[i];
+      double longitude = longitudes[i];
+      boolean insideLongitudes = (west <= east) ? (longitude >= west && longitude <= east)
+          : (longitude >= west || longitude <= east);
+      if (latitude >= south && latitude <= north && insideLongitudes) {
+        result[count++] = i;
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+}
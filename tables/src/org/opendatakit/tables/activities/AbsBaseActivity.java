@@ -18,12 +18,13 @@ package org.opendatakit.tables.activities;
 import java.util.ArrayList;
 import java.util.Iterator;
 
-import org.opendatakit.common.android.database.DatabaseFactory;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.DatabaseSession;
 import org.opendatakit.tables.utils.TableFileUtils;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
 import android.app.Activity;
 import android.content.ActivityNotFoundException;
@@ -48,10 +49,14 @@ public abstract class AbsBaseActivity extends Activity {
   Bundle mCheckpointTables = new Bundle();
   Bundle mConflictTables = new Bundle();
 
+  /** Held from onCreate to onDestroy. */
+  private DatabaseSession mDatabaseSession;
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     this.mAppName = retrieveAppNameFromIntent();
+    this.mDatabaseSession = DatabaseSession.open(this, this.mAppName);
     if ( savedInstanceState != null ) {
       if ( savedInstanceState.containsKey(Constants.IntentKeys.ACTION_TABLE_ID) ) {
         mActionTableId = savedInstanceState.getString(Constants.IntentKeys.ACTION_TABLE_ID);
@@ -71,6 +76,14 @@ public abstract class AbsBaseActivity extends Activity {
   }
   
   
+  @Override
+  protected void onResume() {
+    super.onResume();
+    // ODK Sync, or another activity, may have changed table settings while
+    // this one was in the background.
+    TableMetadataSnapshot.invalidateAll();
+  }
+
   @Override
   protected void onSaveInstanceState(Bundle outState) {
     super.onSaveInstanceState(outState);
@@ -86,6 +99,35 @@ public abstract class AbsBaseActivity extends Activity {
     }
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    if (this.mDatabaseSession != null) {
+      this.mDatabaseSession.release();
+      this.mDatabaseSession = null;
+    }
+    WebLogger.getLogger(getAppName()).d(this.getClass().getSimpleName(),
+        "[onDestroy] database sessions acquired: " + DatabaseSession.getAcquisitionCount()
+            + ", database opens: " + DatabaseSession.getOpenCount());
+  }
+
+  /**
+   * Get the database session held for the lifetime of this activity. Work
+   * done on the activity's behalf should {@link DatabaseSession#acquire()}
+   * and {@link DatabaseSession#release()} it rather than opening the
+   * database itself, so that the database is opened once and shared.
+   *
+   * @return
+   */
+  public DatabaseSession getDatabaseSession() {
+    if (this.mDatabaseSession == null) {
+      // not created yet, or already destroyed. Hand out a session of its own
+      // that closes as soon as the caller releases it.
+      return new DatabaseSession(this, getAppName());
+    }
+    return this.mDatabaseSession;
+  }
+
   public String getActionTableId() {
     return mActionTableId;
   }
@@ -98,10 +140,10 @@ public abstract class AbsBaseActivity extends Activity {
     long now = System.currentTimeMillis();
     WebLogger.getLogger(getAppName()).i(this.getClass().getSimpleName(), "scanAllTables -- searching for conflicts and checkpoints ");
     
-    SQLiteDatabase db = null;
+    DatabaseSession session = getDatabaseSession().acquire();
 
     try {
-      db = DatabaseFactory.get().getDatabase(this, getAppName());
+      SQLiteDatabase db = session.getDatabase();
       ArrayList<String> tableIds = ODKDatabaseUtils.get().getAllTableIds(db);
       
       Bundle checkpointTables = new Bundle();
@@ -120,9 +162,7 @@ public abstract class AbsBaseActivity extends Activity {
       mCheckpointTables = checkpointTables;
       mConflictTables = conflictTables;
     } finally {
-      if ( db != null ) {
-        db.close();
-      }
+      session.release();
     }
     
     long elapsed = System.currentTimeMillis() - now;
@@ -31,11 +31,15 @@ import org.opendatakit.tables.fragments.MapListViewFragment;
 import org.opendatakit.tables.fragments.SpreadsheetFragment;
 import org.opendatakit.tables.fragments.TableMapInnerFragment;
 import org.opendatakit.tables.fragments.TableMapInnerFragment.TableMapInnerFragmentListener;
+import org.opendatakit.tables.tasks.TableLoadTask;
+import org.opendatakit.tables.tasks.TableLoadTask.TableLoadListener;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.CollectUtil;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.utils.SQLQueryStruct;
+import org.opendatakit.tables.utils.WindowedUserTable;
+import org.opendatakit.tables.utils.WindowedUserTable.RowPatchedListener;
 
 import android.app.Activity;
 import android.app.Fragment;
@@ -43,6 +47,7 @@ import android.app.FragmentManager;
 import android.app.FragmentTransaction;
 import android.content.Intent;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -57,10 +62,18 @@ import android.widget.Toast;
  * @author sudar.sam@gmail.com
  *
  */
-public class TableDisplayActivity extends AbsTableActivity implements TableMapInnerFragmentListener {
+public class TableDisplayActivity extends AbsTableActivity implements
+    TableMapInnerFragmentListener, TableLoadListener, RowPatchedListener {
 
   private static final String TAG = TableDisplayActivity.class.getSimpleName();
   private static final String INTENT_KEY_CURRENT_FRAGMENT = "saveInstanceCurrentFragment";
+  /**
+   * The tags of the fragments that display the backing table.
+   */
+  private static final String[] DISPLAY_FRAGMENT_TAGS = { Constants.FragmentTags.SPREADSHEET,
+      Constants.FragmentTags.LIST, Constants.FragmentTags.GRAPH_MANAGER,
+      Constants.FragmentTags.GRAPH_VIEW, Constants.FragmentTags.MAP_LIST,
+      Constants.FragmentTags.MAP_INNER_MAP, Constants.FragmentTags.DETAIL_FRAGMENT };
 
   /**
    * The fragment types this activity could be displaying.
@@ -73,9 +86,34 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   }
 
   /**
-   * The {@link UserTable} that is being displayed in this activity.
+   * The {@link UserTable} that is being displayed in this activity. When a
+   * {@link #mWindowedUserTable} is available this is only materialized in the
+   * background, for the fragments that need every row.
    */
   private UserTable mUserTable;
+  /**
+   * The paged view of the same rows as {@link #mUserTable}. Fragments that
+   * only need the visible rows should read from this instead.
+   */
+  private WindowedUserTable mWindowedUserTable;
+  /**
+   * The task loading the backing table, or null if nothing is loading.
+   */
+  private TableLoadTask mTableLoadTask;
+  /**
+   * True once there is enough of the backing table to show the display
+   * fragment.
+   */
+  private boolean mBackingTableReady;
+  /**
+   * True if the display fragment was asked for before the backing table was
+   * ready, and should be shown once it is.
+   */
+  private boolean mDisplayFragmentPending;
+  /**
+   * Whether the pending display fragment should be created anew.
+   */
+  private boolean mDisplayFragmentPendingCreateNew;
   /**
    * The type of fragment that is currently being displayed.
    */
@@ -85,9 +123,36 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     // see if we saved the state
-    this.initializeBackingTable();
     this.mCurrentFragmentType = this.retrieveFragmentTypeToDisplay(savedInstanceState);
+    this.initializeBackingTable();
     this.setContentView(R.layout.activity_table_display_activity);
+    if (savedInstanceState != null && !this.mBackingTableReady) {
+      this.removeRestoredDisplayFragments();
+    }
+  }
+
+  /**
+   * Remove the display fragments that were restored with the activity. They
+   * read the backing table when their views are created, which happens
+   * before it has been loaded. They are created again once it has.
+   */
+  private void removeRestoredDisplayFragments() {
+    FragmentManager fragmentManager = this.getFragmentManager();
+    FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
+    boolean removed = false;
+    for (String tag : DISPLAY_FRAGMENT_TAGS) {
+      Fragment fragment = fragmentManager.findFragmentByTag(tag);
+      if (fragment != null) {
+        WebLogger.getLogger(getAppName()).d(TAG,
+            "[removeRestoredDisplayFragments] removing " + tag);
+        fragmentTransaction.remove(fragment);
+        removed = true;
+      }
+    }
+    if (removed) {
+      fragmentTransaction.commit();
+      fragmentManager.executePendingTransactions();
+    }
   }
 
   @Override
@@ -101,6 +166,8 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   @Override
   protected void onDestroy() {
     super.onDestroy();
+    this.cancelTableLoad();
+    this.closeWindowedUserTable();
     WebLogger.getLogger(getAppName()).d(TAG, "[onDestroy]");
   }
 
@@ -223,13 +290,11 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
       if (resultCode == Activity.RESULT_OK) {
         WebLogger.getLogger(getAppName()).d(TAG,
             "[onActivityResult] result ok, refreshing backing table");
-        CollectUtil.handleOdkCollectAddReturn(getBaseContext(), getAppName(), getTableId(),
-            resultCode, data);
-
-        this.refreshDataTable();
-        // We also want to cause the fragments to redraw themselves, as their
-        // data may have changed.
-        this.refreshDisplayFragment();
+        String rowId = CollectUtil.handleOdkCollectAddReturn(getBaseContext(), getAppName(),
+            getTableId(), resultCode, data);
+        // Only the returned row can have changed, so patch it in rather than
+        // reloading the whole table where possible.
+        this.refreshDataTableForRow(rowId);
       } else {
         WebLogger.getLogger(getAppName()).d(TAG,
             "[onActivityResult] result canceled, not refreshing backing " + "table");
@@ -239,13 +304,11 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
       if (resultCode == Activity.RESULT_OK) {
         WebLogger.getLogger(getAppName()).d(TAG,
             "[onActivityResult] result ok, refreshing backing table");
-        CollectUtil.handleOdkCollectEditReturn(getBaseContext(), getAppName(), getTableId(),
-            resultCode, data);
-
-        this.refreshDataTable();
-        // We also want to cause the fragments to redraw themselves, as their
-        // data may have changed.
-        this.refreshDisplayFragment();
+        String rowId = CollectUtil.handleOdkCollectEditReturn(getBaseContext(), getAppName(),
+            getTableId(), resultCode, data);
+        // Only the returned row can have changed, so patch it in rather than
+        // reloading the whole table where possible.
+        this.refreshDataTableForRow(rowId);
       } else {
         WebLogger.getLogger(getAppName()).d(TAG,
             "[onActivityResult] result canceled, not refreshing backing " + "table");
@@ -347,6 +410,14 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
    * present in Intent.
    */
   private void helperInitializeDisplayFragment(boolean createNew) {
+    if (!this.mBackingTableReady) {
+      // the table is still loading. Show the fragment once it is ready.
+      WebLogger.getLogger(getAppName()).d(TAG,
+          "[helperInitializeDisplayFragment] deferring until table is loaded");
+      this.mDisplayFragmentPending = true;
+      this.mDisplayFragmentPendingCreateNew |= createNew;
+      return;
+    }
     switch (this.mCurrentFragmentType) {
     case SPREADSHEET:
       this.showSpreadsheetFragment(createNew);
@@ -477,22 +548,179 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   }
 
   /**
-   * Initialize {@link TableDisplayActivity#mUserTable}.
+   * Start loading {@link TableDisplayActivity#mWindowedUserTable} in the
+   * background, falling back to materializing
+   * {@link TableDisplayActivity#mUserTable} on this thread if a windowed table
+   * is not available. Display fragments asked for before the first window has
+   * been read are deferred until it has. Until then the previous tables, if
+   * any, are left in place for fragments that are still showing them.
    */
   private void initializeBackingTable() {
-    UserTable userTable = this.retrieveUserTable();
-    this.mUserTable = userTable;
+    this.cancelTableLoad();
+    WindowedUserTable windowedTable = this.createWindowedUserTable();
+    if (windowedTable == null) {
+      this.closeWindowedUserTable();
+      this.mUserTable = this.retrieveUserTable();
+      this.mBackingTableReady = true;
+      return;
+    }
+    this.mBackingTableReady = false;
+    this.mTableLoadTask = new TableLoadTask(windowedTable,
+        this.needsFullUserTable(this.mCurrentFragmentType), this);
+    this.mTableLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+  }
+
+  /**
+   * @param fragmentType
+   * @return true if the fragment reads the whole {@link UserTable} rather than
+   *         the {@link WindowedUserTable}
+   */
+  private boolean needsFullUserTable(ViewFragmentType fragmentType) {
+    return fragmentType != ViewFragmentType.SPREADSHEET;
   }
 
   /**
-   * Get the {@link UserTable} that is being held by this activity.
+   * Put off showing a fragment that reads the whole {@link UserTable} when
+   * only the {@link WindowedUserTable} has been read, so that every row is
+   * not read on this thread. The full table is read in the background and
+   * the fragment is shown once it has been.
    * 
-   * @return
+   * @param fragmentType
+   * @param createNew
+   * @return true if the fragment has been put off
+   */
+  private boolean deferUntilUserTableLoaded(ViewFragmentType fragmentType, boolean createNew) {
+    if (this.mUserTable != null || this.mWindowedUserTable == null
+        || !this.needsFullUserTable(fragmentType)) {
+      return false;
+    }
+    WebLogger.getLogger(getAppName()).d(TAG,
+        "[deferUntilUserTableLoaded] reading the full table for " + fragmentType);
+    boolean readingFullTable = !this.mBackingTableReady && this.mTableLoadTask != null
+        && this.needsFullUserTable(this.mCurrentFragmentType);
+    this.setCurrentFragmentType(fragmentType);
+    if (!readingFullTable) {
+      this.initializeBackingTable();
+      if (this.mBackingTableReady) {
+        // the table was read on this thread after all.
+        return false;
+      }
+    }
+    this.mDisplayFragmentPending = true;
+    this.mDisplayFragmentPendingCreateNew |= createNew;
+    return true;
+  }
+
+  private void cancelTableLoad() {
+    if (this.mTableLoadTask != null) {
+      this.mTableLoadTask.cancelAndDetach();
+      this.mTableLoadTask = null;
+    }
+  }
+
+  @Override
+  public boolean onFirstWindowLoaded(WindowedUserTable table) {
+    WebLogger.getLogger(getAppName()).d(TAG,
+        "[onFirstWindowLoaded] " + table.getNumberOfRows() + " rows");
+    if (this.needsFullUserTable(this.mCurrentFragmentType)) {
+      // the task keeps the table until the full table has been read.
+      return false;
+    }
+    this.swapBackingTables(table, null);
+    this.onBackingTableReady();
+    return true;
+  }
+
+  @Override
+  public void onTableLoaded(WindowedUserTable table, UserTable fullTable) {
+    WebLogger.getLogger(getAppName()).d(TAG, "[onTableLoaded]");
+    this.mTableLoadTask = null;
+    if (table != this.mWindowedUserTable || fullTable != null) {
+      this.swapBackingTables(table, fullTable);
+    }
+    this.onBackingTableReady();
+  }
+
+  /**
+   * Tell the user that the table could not be read. The rows read before,
+   * if any, stay on the screen; otherwise there is nothing to display.
+   */
+  @Override
+  public void onTableLoadFailed(WindowedUserTable table) {
+    WebLogger.getLogger(getAppName()).e(TAG, "[onTableLoadFailed] unable to read the table");
+    this.mTableLoadTask = null;
+    if (table != this.mWindowedUserTable) {
+      table.close();
+    }
+    Toast.makeText(this, getString(R.string.error_reading_table), Toast.LENGTH_LONG).show();
+    if (this.mWindowedUserTable == null && this.mUserTable == null) {
+      this.finish();
+      return;
+    }
+    this.mDisplayFragmentPending = false;
+    this.mDisplayFragmentPendingCreateNew = false;
+    this.mBackingTableReady = true;
+  }
+
+  /**
+   * Replace the backing tables with freshly loaded ones, closing the old
+   * windowed table.
+   * 
+   * @param windowedTable
+   * @param fullTable
+   *          the matching full table, or null to materialize it on demand
+   */
+  private void swapBackingTables(WindowedUserTable windowedTable, UserTable fullTable) {
+    if (this.mWindowedUserTable != windowedTable) {
+      this.closeWindowedUserTable();
+      this.mWindowedUserTable = windowedTable;
+    }
+    this.mUserTable = fullTable;
+  }
+
+  private void onBackingTableReady() {
+    if (this.mBackingTableReady) {
+      return;
+    }
+    this.mBackingTableReady = true;
+    if (this.mDisplayFragmentPending && !this.isFinishing()) {
+      boolean createNew = this.mDisplayFragmentPendingCreateNew;
+      this.mDisplayFragmentPending = false;
+      this.mDisplayFragmentPendingCreateNew = false;
+      this.helperInitializeDisplayFragment(createNew);
+    }
+  }
+
+  private void closeWindowedUserTable() {
+    if (this.mWindowedUserTable != null) {
+      this.mWindowedUserTable.close();
+      this.mWindowedUserTable = null;
+    }
+  }
+
+  /**
+   * Get the {@link UserTable} that is being held by this activity. This holds
+   * every row of the table in memory, so fragments that can work from
+   * {@link #getWindowedUserTable()} should prefer it. When there is a
+   * windowed table the full table is only read in the background, so this
+   * is null until {@link #onTableLoaded(WindowedUserTable, UserTable)} has
+   * delivered it. The fragments that need it are not shown until then.
+   * 
+   * @return the full table, or null if it has not been read
    */
   public UserTable getUserTable() {
     return this.mUserTable;
   }
 
+  /**
+   * Get the {@link WindowedUserTable} that is being held by this activity.
+   * 
+   * @return the windowed table, or null if one could not be created
+   */
+  public WindowedUserTable getWindowedUserTable() {
+    return this.mWindowedUserTable;
+  }
+
   /**
    * Refresh the data being displayed.
    */
@@ -500,6 +728,64 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
     this.initializeBackingTable();
   }
 
+  /**
+   * Refresh the data being displayed after the single row with the given id
+   * has been added, edited or deleted. When the spreadsheet is showing a
+   * {@link WindowedUserTable}, only that row is read back, on a background
+   * thread, and the rows after it are redrawn once it has been. Otherwise, or
+   * if the row cannot be patched in, this falls back to
+   * {@link #refreshDataTable()} and {@link #refreshDisplayFragment()}.
+   * 
+   * @param rowId
+   *          the id of the changed row, or null if it is not known
+   */
+  public void refreshDataTableForRow(String rowId) {
+    WindowedUserTable windowedTable = this.mWindowedUserTable;
+    if (rowId == null || windowedTable == null || !this.mBackingTableReady
+        || this.mTableLoadTask != null
+        || this.mCurrentFragmentType != ViewFragmentType.SPREADSHEET) {
+      this.refreshDataTable();
+      this.refreshDisplayFragment();
+      return;
+    }
+    // the row is read back in the background; the views are updated once it
+    // has been.
+    windowedTable.requestPatchRow(rowId, this);
+  }
+
+  @Override
+  public void onRowPatched(WindowedUserTable table, String rowId, int firstChanged,
+      int oldNumberOfRows) {
+    if (table != this.mWindowedUserTable || this.mTableLoadTask != null || this.isFinishing()) {
+      // the table has been, or is being, reloaded since the patch was asked
+      // for.
+      return;
+    }
+    if (firstChanged == WindowedUserTable.PATCH_FAILED) {
+      WebLogger.getLogger(getAppName()).d(TAG,
+          "[onRowPatched] unable to patch row " + rowId + ", reloading");
+      this.refreshDataTable();
+      this.refreshDisplayFragment();
+      return;
+    }
+    // the full table is read again only if something asks for it.
+    this.mUserTable = null;
+    if (table.getNumberOfRows() != oldNumberOfRows) {
+      // the views are sized to the row count, so they must be rebuilt. The
+      // rows themselves are not read again.
+      this.refreshDisplayFragment();
+      return;
+    }
+    if (firstChanged < oldNumberOfRows
+        && this.mCurrentFragmentType == ViewFragmentType.SPREADSHEET) {
+      SpreadsheetFragment spreadsheetFragment = (SpreadsheetFragment) this.getFragmentManager()
+          .findFragmentByTag(Constants.FragmentTags.SPREADSHEET);
+      if (spreadsheetFragment != null) {
+        spreadsheetFragment.onRowsChanged(firstChanged);
+      }
+    }
+  }
+
   /**
    * Get the {@link UserTable} from the database that should be displayed.
    * 
@@ -522,6 +808,19 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
     }
   }
 
+  /**
+   * Create a {@link WindowedUserTable} over the rows that should be
+   * displayed. Nothing is read from the database until it is loaded.
+   * 
+   * @return
+   */
+  WindowedUserTable createWindowedUserTable() {
+    SQLQueryStruct sqlQueryStruct = this.retrieveSQLQueryStatStructFromIntent();
+    WindowedUserTable result = new WindowedUserTable(this, this.getAppName(),
+        this.getTableId(), getColumnDefinitions(), sqlQueryStruct);
+    return result;
+  }
+
   /**
    * Retrieve the {@link SQLQueryStruct} specified in the {@link Intent} that
    * restricts the current table.
@@ -562,6 +861,11 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
       WebLogger.getLogger(getAppName()).d(TAG,
           "[showSpreadsheetFragment] existing spreadsheet fragment " + "found");
     }
+    if (spreadsheetFragment != null && !createNew
+        && !spreadsheetFragment.isBackedBy(this.mWindowedUserTable)) {
+      // the table it was built from has been replaced while it was hidden.
+      createNew = true;
+    }
     WebLogger.getLogger(getAppName())
         .d(TAG, "[showSpreadsheetFragment] createNew is: " + createNew);
     if (spreadsheetFragment == null || createNew) {
@@ -641,6 +945,9 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   }
 
   public void showMapFragment(boolean createNew) {
+    if (this.deferUntilUserTableLoaded(ViewFragmentType.MAP, createNew)) {
+      return;
+    }
     this.setCurrentFragmentType(ViewFragmentType.MAP);
     this.updateChildViewVisibility(ViewFragmentType.MAP);
     // Set the list view file name.
@@ -732,6 +1039,9 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   }
 
   public void showListFragment(boolean createNew) {
+    if (this.deferUntilUserTableLoaded(ViewFragmentType.LIST, createNew)) {
+      return;
+    }
     this.setCurrentFragmentType(ViewFragmentType.LIST);
     this.updateChildViewVisibility(ViewFragmentType.LIST);
     // Try to use a passed file name. If one doesn't exist, try to use the
@@ -791,6 +1101,9 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   }
 
   public void showGraphFragment(boolean createNew) {
+    if (this.deferUntilUserTableLoaded(ViewFragmentType.GRAPH_MANAGER, createNew)) {
+      return;
+    }
     this.setCurrentFragmentType(ViewFragmentType.GRAPH_MANAGER);
     this.updateChildViewVisibility(ViewFragmentType.GRAPH_MANAGER);
     FragmentManager fragmentManager = this.getFragmentManager();
@@ -833,6 +1146,11 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
 
   public void showGraphViewFragment(String graphName, boolean createNew) {
     WebLogger.getLogger(getAppName()).d(TAG, "[showGraphViewFragment] graph name: " + graphName);
+    // the deferred fragment reads the graph name back from the intent
+    this.getIntent().putExtra(Constants.IntentKeys.GRAPH_NAME, graphName);
+    if (this.deferUntilUserTableLoaded(ViewFragmentType.GRAPH_VIEW, createNew)) {
+      return;
+    }
     this.setCurrentFragmentType(ViewFragmentType.GRAPH_VIEW);
     this.updateChildViewVisibility(ViewFragmentType.GRAPH_VIEW);
     // Try and use the default.
@@ -882,6 +1200,9 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
   }
 
   public void showDetailFragment(boolean createNew) {
+    if (this.deferUntilUserTableLoaded(ViewFragmentType.DETAIL, createNew)) {
+      return;
+    }
     this.setCurrentFragmentType(ViewFragmentType.DETAIL);
     this.updateChildViewVisibility(ViewFragmentType.DETAIL);
     FragmentManager fragmentManager = this.getFragmentManager();
@@ -1024,6 +1345,21 @@ public class TableDisplayActivity extends AbsTableActivity implements TableMapIn
     }
   }
 
+  /**
+   * Invoked by TableMapInnerFragment when the markers in view have changed
+   */
+  @Override
+  public void onSetSubsetOfIndicesToDisplay(int[] indices) {
+    MapListViewFragment mapListViewFragment = this.findMapListViewFragment();
+    if (mapListViewFragment == null) {
+      WebLogger.getLogger(getAppName()).e(TAG,
+          "[onSetSubsetOfIndicesToDisplay] mapListViewFragment is null! Returning");
+      return;
+    } else {
+      mapListViewFragment.setSubsetOfIndicesToDisplay(indices);
+    }
+  }
+
   /**
    * Find a {@link MapListViewFragment} that is associated with this activity.
    * If not present, returns null.
@@ -34,6 +34,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.TableFileUtils;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
 import android.content.ActivityNotFoundException;
 import android.content.Context;
@@ -545,6 +546,14 @@ public class TablePropertiesManager extends PreferenceActivity {
     return relativePath;
   }
 
+  @Override
+  protected void onPause() {
+    super.onPause();
+    // settings are written throughout this activity; make sure whatever is
+    // shown next reads them afresh.
+    TableMetadataSnapshot.invalidate(appName, tableId);
+  }
+
   @Override
   public void onBackPressed() {
     setResult(RESULT_OK);
@@ -16,10 +16,12 @@ package org.opendatakit.tables.application;
 
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Set;
 
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.utils.LocalizedNameCache;
 
 import android.app.Application;
 import android.content.pm.PackageInfo;
@@ -35,6 +37,7 @@ public class Tables extends Application {
   private Set<String> appNameHasBeenInitialized = new HashSet<String>();
   private SimpleWebServer server = null;
   private volatile Thread webServer = null;
+  private Locale currentLocale = null;
 
   private static Tables singleton = null;
 
@@ -119,6 +122,7 @@ public class Tables extends Application {
     singleton = this;
 
     super.onCreate();
+    currentLocale = getResources().getConfiguration().locale;
 
     webServer = new Thread(null, new Runnable() {
       @Override
@@ -147,6 +151,11 @@ public class Tables extends Application {
   public void onConfigurationChanged(Configuration newConfig) {
     super.onConfigurationChanged(newConfig);
     Log.i(t, "onConfigurationChanged");
+    if (newConfig.locale != null && !newConfig.locale.equals(currentLocale)) {
+      currentLocale = newConfig.locale;
+      // the cached display names are in the old locale
+      LocalizedNameCache.invalidateAll();
+    }
   }
 
   @Override
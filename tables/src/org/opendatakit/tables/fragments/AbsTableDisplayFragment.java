@@ -20,6 +20,7 @@ import java.util.ArrayList;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.tables.activities.TableDisplayActivity;
+import org.opendatakit.tables.utils.WindowedUserTable;
 
 import android.app.Activity;
 import android.app.Fragment;
@@ -45,8 +46,8 @@ public abstract class AbsTableDisplayFragment extends AbsBaseFragment {
    * @return
    */
   public String getTableId() {
-    UserTable table = this.getUserTable();
-    return table.getTableId();
+    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
+    return activity.getTableId();
   }
   
   /**
@@ -61,7 +62,7 @@ public abstract class AbsTableDisplayFragment extends AbsBaseFragment {
   
   /**
    * Get the {@link UserTable} being held by the {@link TableDisplayActivity}.
-   * @return
+   * @return the full table, or null if it has not been read yet
    */
   public UserTable getUserTable() {
     TableDisplayActivity activity = (TableDisplayActivity) getActivity();
@@ -69,6 +70,17 @@ public abstract class AbsTableDisplayFragment extends AbsBaseFragment {
     return result;
   }
   
+  /**
+   * Get the {@link WindowedUserTable} being held by the
+   * {@link TableDisplayActivity}. Unlike {@link #getUserTable()}, this does
+   * not require every row to be in memory.
+   * @return the windowed table, or null if the activity does not have one
+   */
+  public WindowedUserTable getWindowedUserTable() {
+    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
+    return activity.getWindowedUserTable();
+  }
+  
   /** Return the type of this fragment. */
   public abstract TableDisplayActivity.ViewFragmentType getFragmentType();
 
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.tables.activities.AbsTableActivity;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
 import android.os.Bundle;
 import android.preference.EditTextPreference;
@@ -60,6 +61,14 @@ public abstract class AbsTableLevelPreferenceFragment
     return activity.getTableId();
   }
   
+  /**
+   * Must be called after this fragment writes a table or column setting, so
+   * that views read the new value rather than a cached one.
+   */
+  void invalidateTableMetadata() {
+    TableMetadataSnapshot.invalidate(getAppName(), getTableId());
+  }
+
   ArrayList<ColumnDefinition> getColumnDefinitions() {
     AbsTableActivity activity = (AbsTableActivity) this.getActivity();
     return activity.getColumnDefinitions();
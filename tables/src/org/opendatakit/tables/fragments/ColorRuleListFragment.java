@@ -25,6 +25,7 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 import org.opendatakit.tables.views.components.ColorRuleAdapter;
 
 import android.app.Activity;
@@ -237,7 +238,7 @@ public class ColorRuleListFragment extends ListFragment {
           // store.
           WebLogger.getLogger(appName).d(TAG, "trying to delete rule at position: " + position);
           mColorRuleGroup.getColorRules().remove(position);
-          mColorRuleGroup.saveRuleList(ColorRuleListFragment.this.getActivity());
+          ColorRuleListFragment.this.saveColorRules();
           mColorRuleAdapter.notifyDataSetChanged();
         }
       });
@@ -273,7 +274,7 @@ public class ColorRuleListFragment extends ListFragment {
       List<ColorRule> newList = new ArrayList<ColorRule>();
       newList.addAll(ColorRuleUtil.getDefaultSyncStateColorRules());
       this.mColorRuleGroup.replaceColorRuleList(newList);
-      this.mColorRuleGroup.saveRuleList(ColorRuleListFragment.this.getActivity());
+      this.saveColorRules();
       this.mColorRuleAdapter.notifyDataSetChanged();
       break;
     case COLUMN:
@@ -281,7 +282,7 @@ public class ColorRuleListFragment extends ListFragment {
       // We want to just wipe all the columns for both of these types.
       List<ColorRule> emptyList = new ArrayList<ColorRule>();
       this.mColorRuleGroup.replaceColorRuleList(emptyList);
-      this.mColorRuleGroup.saveRuleList(ColorRuleListFragment.this.getActivity());
+      this.saveColorRules();
       this.mColorRuleAdapter.notifyDataSetChanged();
       break;
     default:
@@ -309,6 +310,15 @@ public class ColorRuleListFragment extends ListFragment {
     TableLevelPreferencesActivity result = retrieveTableLevelPreferencesActivity();
     return result.getTableId();
   }
+
+  /**
+   * Write the rules of the group and drop the cached settings of the table,
+   * so that views read the new rules.
+   */
+  void saveColorRules() {
+    this.mColorRuleGroup.saveRuleList(this.getActivity());
+    TableMetadataSnapshot.invalidate(getAppName(), getTableId());
+  }
   
   ColorRuleGroup retrieveColorRuleGroup() {
     ColorRuleGroup.Type type = this.retrieveColorRuleType();
@@ -20,11 +20,11 @@ import java.util.List;
 
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.database.DatabaseFactory;
-import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.TableUtil;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.activities.AbsTableActivity;
 import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
+import org.opendatakit.tables.utils.LocalizedNameCache;
 
 import android.app.Activity;
 import android.app.ListFragment;
@@ -124,8 +124,8 @@ public class ColumnListFragment extends ListFragment {
     try {
       db = DatabaseFactory.get().getDatabase(activity, activity.getAppName());
       for (String elementKey : elementKeys) {
-        String localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(db,
-            activity.getTableId(), elementKey);
+        String localizedDisplayName = LocalizedNameCache.getColumnDisplayName(db,
+            activity.getAppName(), activity.getTableId(), elementKey);
         result.add(localizedDisplayName);
       }
     } finally {
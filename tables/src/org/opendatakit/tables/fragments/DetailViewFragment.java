@@ -83,6 +83,7 @@ public class DetailViewFragment extends AbsWebTableFragment {
     this.initializeTable();
     WebView result = WebViewUtil.getODKCompliantWebView((AbsBaseActivity) getActivity());
     Control control = this.createControlObject();
+    control.setWebView(result);
     result.addJavascriptInterface(control.getJavascriptInterfaceWithWeakReference(),
         Constants.JavaScriptHandles.CONTROL);
     TableData tableData = this.createDataObject();
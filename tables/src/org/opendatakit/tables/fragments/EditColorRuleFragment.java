@@ -378,6 +378,7 @@ public class EditColorRuleFragment extends AbsTableLevelPreferenceFragment imple
       this.mColorRuleGroup.getColorRules().set(mRulePosition, newRule);
     }
     mColorRuleGroup.saveRuleList(getActivity());
+    invalidateTableMetadata();
     updateStateOfSaveButton();
   }
 
@@ -66,6 +66,7 @@ public class GraphViewFragment extends AbsWebTableFragment {
   public WebView buildView() {
     WebView result = WebViewUtil.getODKCompliantWebView((AbsBaseActivity) getActivity());
     Control control = this.createControlObject();
+    control.setWebView(result);
     result.addJavascriptInterface(control.getJavascriptInterfaceWithWeakReference(),
         Constants.JavaScriptHandles.CONTROL);
     TableData tableData = this.createDataObject();
@@ -87,6 +88,15 @@ public class GraphViewFragment extends AbsWebTableFragment {
     return result;
   }
 
+  @Override
+  public void onPause() {
+    super.onPause();
+    // queue a write of the graph settings changed since the last write
+    if (this.mGraphDataStrongReference != null) {
+      this.mGraphDataStrongReference.flush();
+    }
+  }
+
   @Override
   protected TableData createDataObject() {
     // Graph view displays everything.
@@ -35,4 +35,12 @@ public interface IMapListViewCallbacks {
    */
   public void setNoItemSelected();
 
+  /**
+   * Only list the rows with these indices, e.g. the rows whose markers are in
+   * view on the map.
+   * @param indices the indices of the rows, in ascending order, or null to
+   * list every row
+   */
+  public void setSubsetOfIndicesToDisplay(int[] indices);
+
 }
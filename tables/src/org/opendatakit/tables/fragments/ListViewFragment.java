@@ -40,6 +40,7 @@ public class ListViewFragment extends AbsWebTableFragment {
     WebLogger.getLogger(getAppName()).d(TAG, "[buildView]");
     WebView result = WebViewUtil.getODKCompliantWebView((AbsBaseActivity) getActivity());
     Control control = this.createControlObject();
+    control.setWebView(result);
     result.addJavascriptInterface(
         control.getJavascriptInterfaceWithWeakReference(),
         Constants.JavaScriptHandles.CONTROL);
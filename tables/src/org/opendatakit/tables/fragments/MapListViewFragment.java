@@ -15,10 +15,16 @@
  */
 package org.opendatakit.tables.fragments;
 
+import java.util.Arrays;
+
 import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.tables.utils.Constants;
+import org.opendatakit.tables.utils.WebViewUtil;
 import org.opendatakit.tables.views.webkits.TableData;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.webkit.WebView;
 
 /**
@@ -43,6 +49,35 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
   protected int mSelectedItemIndex;
   protected static final int INVALID_INDEX = -1;
 
+  /**
+   * The indices of the rows to list, or null to list every row.
+   */
+  protected int[] mSubsetOfIndices = null;
+
+  /**
+   * True if {@link #mSubsetOfIndices} has changed since it was last handed
+   * to the {@link TableData}.
+   */
+  private boolean mSubsetChanged = false;
+
+  /**
+   * How long the rows in view must stay the same before the list is
+   * updated, so that dragging the map does not update it on every frame.
+   */
+  static final long SUBSET_REDRAW_DELAY_MS = 300L;
+
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+  private final Runnable mSubsetRedraw = new Runnable() {
+
+    @Override
+    public void run() {
+      if (getView() != null) {
+        resetView();
+      }
+    }
+  };
+
   int retrieveSelectedItemIndexFromBundle(Bundle bundle) {
     if (bundle != null && bundle.containsKey(INTENT_KEY_SELECTED_INDEX)) {
       return bundle.getInt(INTENT_KEY_SELECTED_INDEX);
@@ -73,19 +108,42 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
     } else {
       result.setNoItemSelected();
     }
+    if (mSubsetOfIndices != null) {
+      result.setSubsetOfIndicesToDisplay(this.mSubsetOfIndices);
+    }
+    this.mSubsetChanged = false;
     return result;
   }
 
   /**
-   * Resets the webview (the list), and sets the visibility to visible.
+   * Resets the webview (the list), and sets the visibility to visible. A
+   * page that listens for changes is told of them with an event and updates
+   * itself; any other page is reloaded.
    */
   void resetView() {
     WebLogger.getLogger(getAppName()).d(TAG, "[resetView]");
+    // this covers any redraw still waiting for the map to settle
+    this.mHandler.removeCallbacks(this.mSubsetRedraw);
+    if (this.mSubsetChanged) {
+      // the page only sees the new rows together with the redraw, so that
+      // it never reads them with the count of the old ones
+      this.mSubsetChanged = false;
+      if (this.mSubsetOfIndices == null) {
+        this.mTableDataReference.setAllIndicesToDisplay();
+      } else {
+        this.mTableDataReference.setSubsetOfIndicesToDisplay(this.mSubsetOfIndices);
+      }
+    }
     if (this.getFileName() == null) {
       // don't need to do anything, as the view won't be getting updated.
       return;
     }
     WebView currentView = (WebView) this.getView();
+    if (this.mTableDataReference.isListeningForChanges()) {
+      WebViewUtil.dispatchEventInWebView(currentView, Constants.JavaScriptEvents.DATA_CHANGED,
+          this.mTableDataReference.getDataChangedDetail());
+      return;
+    }
     // Just reload the page.
     currentView.reload();
   }
@@ -105,6 +163,12 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
     WebLogger.getLogger(getAppName()).d(TAG, "[onResume]");
   }
 
+  @Override
+  public void onDestroyView() {
+    this.mHandler.removeCallbacks(this.mSubsetRedraw);
+    super.onDestroyView();
+  }
+
   /**
    * Sets the index of the list view, which will be the row of the data wanting
    * to be displayed.
@@ -127,4 +191,23 @@ public class MapListViewFragment extends ListViewFragment implements IMapListVie
     this.resetView();
   }
 
+  /**
+   * Only lists the rows with the given indices. The row that is selected, if
+   * any, is listed at the top even if it is not among them. The list and
+   * its {@link TableData} are updated once the rows have stayed the same for
+   * {@link #SUBSET_REDRAW_DELAY_MS}, as they change with every move of the
+   * map.
+   */
+  @Override
+  public void setSubsetOfIndicesToDisplay(int[] indices) {
+    if (Arrays.equals(this.mSubsetOfIndices, indices)) {
+      // the camera moved without changing the rows in view
+      return;
+    }
+    this.mSubsetOfIndices = indices;
+    this.mSubsetChanged = true;
+    this.mHandler.removeCallbacks(this.mSubsetRedraw);
+    this.mHandler.postDelayed(this.mSubsetRedraw, SUBSET_REDRAW_DELAY_MS);
+  }
+
 }
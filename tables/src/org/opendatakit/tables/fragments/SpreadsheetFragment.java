@@ -41,6 +41,8 @@ import org.opendatakit.tables.utils.Constants.IntentKeys;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.utils.ParseUtil;
 import org.opendatakit.tables.utils.SQLQueryStruct;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
+import org.opendatakit.tables.utils.WindowedUserTable;
 import org.opendatakit.tables.views.CellInfo;
 import org.opendatakit.tables.views.CellValueView;
 import org.opendatakit.tables.views.SpreadsheetUserTable;
@@ -104,7 +106,12 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
   @Override
   public View onCreateView(android.view.LayoutInflater inflater, ViewGroup container,
       Bundle savedInstanceState) {
-    spreadsheetTable = new SpreadsheetUserTable(this, this.getUserTable());
+    WindowedUserTable windowedTable = this.getWindowedUserTable();
+    if (windowedTable != null) {
+      spreadsheetTable = new SpreadsheetUserTable(this, windowedTable);
+    } else {
+      spreadsheetTable = new SpreadsheetUserTable(this, this.getUserTable());
+    }
     if (!spreadsheetTable.hasData()) {
       TextView textView = new TextView(getActivity());
       textView.setText(getString(R.string.no_data));
@@ -114,6 +121,14 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
     }
   }
 
+  /**
+   * @param windowedTable
+   * @return true if the spreadsheet shows the rows of the windowed table
+   */
+  public boolean isBackedBy(WindowedUserTable windowedTable) {
+    return spreadsheetTable != null && spreadsheetTable.isBackedBy(windowedTable);
+  }
+
   /**
    * Build a {@link SpreadsheetView} view to display.
    *
@@ -145,6 +160,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
         db.endTransaction();
         db.close();
       }
+      TableMetadataSnapshot.invalidate(getAppName(), getTableId());
     }
   }
 
@@ -169,6 +185,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
         db.endTransaction();
         db.close();
       }
+      TableMetadataSnapshot.invalidate(getAppName(), getTableId());
     }
   }
 
@@ -189,6 +206,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
         db.endTransaction();
         db.close();
       }
+      TableMetadataSnapshot.invalidate(getAppName(), getTableId());
     }
   }
 
@@ -210,6 +228,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
         db.endTransaction();
         db.close();
       }
+      TableMetadataSnapshot.invalidate(getAppName(), getTableId());
     }
   }
 
@@ -282,6 +301,29 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
     activity.refreshDisplayFragment();
   }
 
+  /**
+   * Bring the display up to date after a single row was changed.
+   *
+   * @param rowId
+   */
+  private void refreshRow(String rowId) {
+    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
+    activity.refreshDataTableForRow(rowId);
+  }
+
+  /**
+   * Redraw the rows from firstRowIndex onwards, which have been changed in
+   * place in the backing table. The number of rows must be unchanged.
+   *
+   * @param firstRowIndex
+   */
+  public void onRowsChanged(int firstRowIndex) {
+    View view = this.getView();
+    if (view instanceof SpreadsheetView) {
+      ((SpreadsheetView) view).onRowsChanged(firstRowIndex);
+    }
+  }
+
   private void deleteRow(String rowId) {
     SQLiteDatabase db = null;
     try {
@@ -321,7 +363,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
       alert.setPositiveButton(getString(R.string.ok), new DialogInterface.OnClickListener() {
         public void onClick(DialogInterface dialog, int whichButton) {
           deleteRow(rowId);
-          init();
+          refreshRow(rowId);
         }
       });
 
@@ -646,7 +688,7 @@ public class SpreadsheetFragment extends AbsTableDisplayFragment implements
             }
           }
 
-          init();
+          refreshRow(cell.row.getRowId());
           dismiss();
         }
       });
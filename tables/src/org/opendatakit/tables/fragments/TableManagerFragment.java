@@ -20,7 +20,6 @@ import java.util.List;
 
 import org.opendatakit.common.android.database.DatabaseFactory;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
-import org.opendatakit.common.android.utilities.TableUtil;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
@@ -32,6 +31,7 @@ import org.opendatakit.tables.activities.TableLevelPreferencesActivity;
 import org.opendatakit.tables.utils.ActivityUtil;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.IntentUtil;
+import org.opendatakit.tables.utils.LocalizedNameCache;
 import org.opendatakit.tables.utils.TableNameStruct;
 import org.opendatakit.tables.views.components.TableNameStructAdapter;
 
@@ -138,7 +138,8 @@ public class TableManagerFragment extends ListFragment {
       List<String> tableIds = ODKDatabaseUtils.get().getAllTableIds(db);
 
       for (String tableId : tableIds) {
-        String localizedDisplayName = TableUtil.get().getLocalizedDisplayName(db, tableId);
+        String localizedDisplayName = LocalizedNameCache.getTableDisplayName(db,
+            baseActivity.getAppName(), tableId);
 
         TableNameStruct tableNameStruct = new TableNameStruct(tableId, localizedDisplayName);
 
@@ -198,14 +199,18 @@ public class TableManagerFragment extends ListFragment {
     final String tableIdOfSelectedItem = selectedStruct.getTableId();
     final AbsBaseActivity baseActivity = (AbsBaseActivity) getActivity();
 
-    String localizedDisplayName;
-    SQLiteDatabase db = null;
-    try {
-      db = DatabaseFactory.get().getDatabase(baseActivity, baseActivity.getAppName());
-      localizedDisplayName = TableUtil.get().getLocalizedDisplayName(db, tableIdOfSelectedItem);
-    } finally {
-      if (db != null) {
-        db.close();
+    String localizedDisplayName = LocalizedNameCache.peekTableDisplayName(
+        baseActivity.getAppName(), tableIdOfSelectedItem);
+    if (localizedDisplayName == null) {
+      SQLiteDatabase db = null;
+      try {
+        db = DatabaseFactory.get().getDatabase(baseActivity, baseActivity.getAppName());
+        localizedDisplayName = LocalizedNameCache.getTableDisplayName(db,
+            baseActivity.getAppName(), tableIdOfSelectedItem);
+      } finally {
+        if (db != null) {
+          db.close();
+        }
       }
     }
 
@@ -17,16 +17,12 @@ package org.opendatakit.tables.fragments;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
-import org.opendatakit.common.android.data.ColorGuide;
 import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.UserTable;
-import org.opendatakit.common.android.data.UserTable.Row;
 import org.opendatakit.common.android.utilities.GeoColumnUtil;
 import org.opendatakit.common.android.utilities.KeyValueStoreHelper;
 import org.opendatakit.common.android.utilities.LocalKeyValueStoreConstants;
@@ -35,9 +31,21 @@ import org.opendatakit.tables.R;
 import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.activities.TablePropertiesManager;
+import org.opendatakit.tables.utils.ColorVector;
+import org.opendatakit.tables.utils.ColumnarUserTable;
+import org.opendatakit.tables.utils.CompiledColorRuleGroup;
+import org.opendatakit.tables.utils.GridClusterer;
+import org.opendatakit.tables.utils.GridClusterer.Cluster;
+import org.opendatakit.tables.utils.MapMarkerModel;
+import org.opendatakit.tables.utils.SpatialIndex;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
 import android.app.Activity;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -45,13 +53,17 @@ import android.view.ViewGroup;
 import android.widget.Toast;
 
 import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.GoogleMap.OnCameraChangeListener;
 import com.google.android.gms.maps.GoogleMap.OnMapClickListener;
 import com.google.android.gms.maps.GoogleMap.OnMapLongClickListener;
 import com.google.android.gms.maps.GoogleMap.OnMarkerClickListener;
 import com.google.android.gms.maps.MapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 
@@ -73,6 +85,15 @@ public class TableMapInnerFragment extends MapFragment {
   /** The default hue for markers if no color rules are applied. */
   private static final float DEFAULT_SELECTED_MARKER_HUE = BitmapDescriptorFactory.HUE_GREEN;
 
+  /** The number of grid cells across the visible region when clustering. */
+  private static final int GRID_CELLS_ACROSS = 8;
+  /** Grid cells with fewer markers than this show their markers. */
+  private static final int MIN_CLUSTER_SIZE = 4;
+  /** The diameter of a cluster bubble, in dp. */
+  private static final int CLUSTER_ICON_SIZE_DP = 40;
+  /** The number of cluster icons to keep before starting afresh. */
+  private static final int MAX_CLUSTER_ICONS = 64;
+
   /**
    * The index of the currently selected marker. Used when saving the instance.
    */
@@ -106,25 +127,69 @@ public class TableMapInnerFragment extends MapFragment {
      */
     void setNoItemSelected();
 
+    /**
+     * Sets the indices of the rows whose markers are in view, in ascending
+     * order.
+     */
+    void onSetSubsetOfIndicesToDisplay(int[] indices);
+
   }
 
   /** The object that is listening in on events. */
   public TableMapInnerFragmentListener listener;
 
   /**
-   * A mapping of all markers to index to determine which marker is selected.
+   * A mapping of the markers on the map to the index of their row, to
+   * determine which marker is selected.
    */
   private Map<Marker, Integer> mMarkerIds;
 
-  /** A set of all the visible markers. */
-  private Set<Marker> mVisibleMarkers;
+  /** The cluster bubbles on the map. */
+  private Map<Marker, Cluster> mClusterMarkers;
 
   /** The currently selected marker. */
   private Marker mCurrentMarker;
 
+  /**
+   * The index of the row of the selected marker, kept while the marker is
+   * clustered or out of view, or -1 if no marker is selected.
+   */
+  private int mSelectedRowIndex = INVALID_INDEX;
+
   /** Used for coloring markers. */
   private ColorRuleGroup mColorGroup;
 
+  /**
+   * The positions and hues of the markers of {@link #retrieveUserTable()},
+   * built in the background once per table and color group.
+   */
+  private MapMarkerModel mMarkerModel;
+
+  /**
+   * The typed columns of the table of {@link #mMarkerModel}, kept so that the
+   * locations are not parsed again when only the color group changes.
+   */
+  private ColumnarUserTable mColumnarTable;
+
+  /**
+   * The index over the markers of {@link #mMarkerModel}, built alongside it,
+   * to find the markers in view without looking at every marker.
+   */
+  private SpatialIndex mSpatialIndex;
+
+  /** The task building {@link #mMarkerModel}, or null if none is running. */
+  private MarkerModelTask mMarkerModelTask;
+
+  /**
+   * The marker icons in use, one per distinct hue, shared by every marker of
+   * that hue.
+   */
+  private final Map<Float, BitmapDescriptor> mMarkerIcons = new HashMap<Float, BitmapDescriptor>();
+
+  /** The cluster bubbles in use, by hue and count label. */
+  private final Map<String, BitmapDescriptor> mClusterIcons =
+      new HashMap<String, BitmapDescriptor>();
+
   /**
    * This value is only set after the activity was saved and then reinstated. It
    * is used to figure out which marker was selected before the activity was
@@ -152,10 +217,7 @@ public class TableMapInnerFragment extends MapFragment {
     super.onSaveInstanceState(outState);
     AbsBaseActivity activity = (AbsBaseActivity) getActivity();
     WebLogger.getLogger(activity.getAppName()).d(TAG, "[onSaveInstanceState]");
-    int markerIndexToSave = INVALID_INDEX;
-    if (mCurrentMarker != null) {
-      markerIndexToSave = mMarkerIds.get(mCurrentMarker);
-    }
+    int markerIndexToSave = mSelectedRowIndex;
     WebLogger.getLogger(activity.getAppName()).d(TAG,
         "[onSaveInstanceState] saving markder index: " + markerIndexToSave);
     outState.putInt(SAVE_KEY_INDEX, markerIndexToSave);
@@ -187,6 +249,7 @@ public class TableMapInnerFragment extends MapFragment {
     }
     getMap().setOnMapLongClickListener(getOnMapLongClickListener());
     getMap().setOnMapClickListener(getOnMapClickListener());
+    getMap().setOnCameraChangeListener(getOnCameraChangeListener());
   }
 
   @Override
@@ -231,10 +294,11 @@ public class TableMapInnerFragment extends MapFragment {
     super.onDestroy();
     AbsBaseActivity activity = (AbsBaseActivity) getActivity();
     WebLogger.getLogger(activity.getAppName()).d(TAG, "[onDestroy]");
+    cancelMarkerModelTask();
     // Clear up any memory references. When destroyed, there cannot be any
     // references to the markers, otherwise leaks will happen.
     mMarkerIds.clear();
-    mVisibleMarkers.clear();
+    mClusterMarkers.clear();
     mCurrentMarker = null;
   }
 
@@ -278,11 +342,14 @@ public class TableMapInnerFragment extends MapFragment {
     if (colorType == null) {
       kvsHelper.setString(TablePropertiesManager.KEY_COLOR_RULE_TYPE,
           TablePropertiesManager.COLOR_TYPE_NONE);
+      TableMetadataSnapshot.invalidate(activity.getAppName(), activity.getTableId());
       colorType = TablePropertiesManager.COLOR_TYPE_NONE;
     }
 
     // Create a guide depending on what type of color rule is selected.
     mColorGroup = null;
+    mMarkerModel = null;
+    mSpatialIndex = null;
     if (colorType.equals(TablePropertiesManager.COLOR_TYPE_TABLE)) {
       mColorGroup = ColorRuleGroup.getTableColorRuleGroup(getActivity(), activity.getAppName(),
           activity.getTableId());
@@ -313,20 +380,20 @@ public class TableMapInnerFragment extends MapFragment {
 
   /**
    * Sets the location markers based off of the columns set in the table
-   * properties.
+   * properties. The markers are placed from {@link #mMarkerModel}, which is
+   * built in the background first if the table or color group has changed.
    */
   private void setMarkers() {
-    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
-
     if (mMarkerIds != null) {
       mMarkerIds.clear();
     }
-    if (mVisibleMarkers != null) {
-      mVisibleMarkers.clear();
+    if (mClusterMarkers != null) {
+      mClusterMarkers.clear();
     }
 
     mMarkerIds = new HashMap<Marker, Integer>();
-    mVisibleMarkers = new HashSet<Marker>();
+    mClusterMarkers = new HashMap<Marker, Cluster>();
+    mCurrentMarker = null;
 
     String latitudeElementKey = getLatitudeElementKey();
     String longitudeElementKey = getLongitudeElementKey();
@@ -337,50 +404,192 @@ public class TableMapInnerFragment extends MapFragment {
     }
 
     UserTable table = this.retrieveUserTable();
+    if (table == null) {
+      return;
+    }
+    if (mMarkerModel != null && mMarkerModel.getSource() == table) {
+      showMarkers(mMarkerModel);
+      return;
+    }
 
-    ArrayList<ColumnDefinition> orderedDefns = activity.getColumnDefinitions();
-    // Try to find the map columns in the store.
-    ColumnDefinition latitudeColumn = ColumnDefinition.find(orderedDefns, latitudeElementKey);
-    ColumnDefinition longitudeColumn = ColumnDefinition.find(orderedDefns, longitudeElementKey);
-
-    // Find the locations from entries in the table.
-    LatLng firstLocation = null;
-
-    // Go through each row and create a marker at the specified location.
-    for (int i = 0; i < table.getNumberOfRows(); i++) {
-      Row row = table.getRowAtIndex(i);
-      String latitudeString = row.getRawDataOrMetadataByElementKey(latitudeColumn.getElementKey());
-      String longitudeString = row
-          .getRawDataOrMetadataByElementKey(longitudeColumn.getElementKey());
-      if (latitudeString == null || longitudeString == null || latitudeString.length() == 0
-          || longitudeString.length() == 0) {
-        continue;
-      }
+    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
+    CompiledColorRuleGroup compiledColorGroup = (mColorGroup == null) ? null
+        : CompiledColorRuleGroup.compile(mColorGroup, activity.getColumnDefinitions());
+    cancelMarkerModelTask();
+    ColumnarUserTable columnarTable = (mColumnarTable != null
+        && mColumnarTable.getTable() == table) ? mColumnarTable : null;
+    mMarkerModelTask = new MarkerModelTask(table, columnarTable, latitudeElementKey,
+        longitudeElementKey, compiledColorGroup);
+    mMarkerModelTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+  }
 
-      // Create a LatLng from the latitude and longitude strings.
-      LatLng location = parseLocationFromString(latitudeColumn, latitudeString, longitudeColumn,
-          longitudeString);
-      if (location == null) {
-        continue;
-      }
-      if (firstLocation == null) {
-        firstLocation = location;
-      }
+  private void cancelMarkerModelTask() {
+    if (mMarkerModelTask != null) {
+      mMarkerModelTask.cancel(false);
+      mMarkerModelTask = null;
+    }
+  }
 
-      Marker marker = getMap().addMarker(
-          new MarkerOptions().position(location).draggable(false)
-              .icon(BitmapDescriptorFactory.defaultMarker(getHueForRow(i))));
-      mMarkerIds.put(marker, i);
-      if (mCurrentIndex == i) {
-        WebLogger.getLogger(activity.getAppName()).d(TAG, "[setMarkers] selecting marker: " + i);
-        selectMarker(marker);
-      }
+  /**
+   * Called on the UI thread once a marker model has been built.
+   *
+   * @param task
+   * @param model
+   */
+  private void onMarkerModelBuilt(MarkerModelTask task, MapMarkerModel model) {
+    if (task != mMarkerModelTask || getActivity() == null) {
+      return;
     }
+    mMarkerModelTask = null;
+    mMarkerModel = model;
+    mColumnarTable = task.mColumnarTable;
+    mSpatialIndex = task.mSpatialIndex;
+    showMarkers(model);
+  }
 
-    if (firstLocation != null) {
+  /**
+   * Center the map on the first marker of the model and show the markers in
+   * view.
+   *
+   * @param model
+   */
+  private void showMarkers(MapMarkerModel model) {
+    if (mCurrentIndex != INVALID_INDEX) {
+      mSelectedRowIndex = mCurrentIndex;
+    }
+    if (model.size() != 0) {
+      LatLng firstLocation = new LatLng(model.getLatitude(0), model.getLongitude(0));
       getMap().moveCamera(CameraUpdateFactory.newLatLngZoom(firstLocation, 12f));
       getMap().setOnMarkerClickListener(getOnMarkerClickListener());
     }
+    renderVisibleMarkers();
+  }
+
+  /**
+   * Replace the markers on the map with the markers and cluster bubbles of
+   * the visible region. Markers outside the region are not added at all, and
+   * the list only shows the rows of the markers in the region.
+   */
+  private void renderVisibleMarkers() {
+    if (mMarkerModel == null || mSpatialIndex == null || mMarkerIds == null) {
+      return;
+    }
+    GoogleMap map = getMap();
+    LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+    double south = bounds.southwest.latitude;
+    double north = bounds.northeast.latitude;
+    double west = bounds.southwest.longitude;
+    double east = bounds.northeast.longitude;
+    int[] visibleMarkers = mSpatialIndex.query(south, west, north, east);
+    int[] visibleRows = new int[visibleMarkers.length];
+    for (int i = 0; i < visibleMarkers.length; ++i) {
+      visibleRows[i] = mMarkerModel.getRowIndex(visibleMarkers[i]);
+    }
+    listener.onSetSubsetOfIndicesToDisplay(visibleRows);
+
+    double span = east - west;
+    if (span <= 0) {
+      // the region crosses the antimeridian
+      span += 360;
+    }
+    // at the closest zoom clusters can no longer be split, so show them all
+    int minClusterSize = (map.getCameraPosition().zoom >= map.getMaxZoomLevel() - 1)
+        ? Integer.MAX_VALUE : MIN_CLUSTER_SIZE;
+    List<Cluster> clusters = GridClusterer.cluster(mMarkerModel, visibleMarkers, south, west,
+        north, east, span / GRID_CELLS_ACROSS, minClusterSize);
+
+    removeMarkersFromMap();
+    for (Cluster cluster : clusters) {
+      LatLng position = new LatLng(cluster.getLatitude(), cluster.getLongitude());
+      if (cluster.isSinglePoint()) {
+        int marker = cluster.getFirstPoint();
+        int rowIndex = mMarkerModel.getRowIndex(marker);
+        boolean isSelected = (rowIndex == mSelectedRowIndex);
+        Marker mapMarker = map.addMarker(new MarkerOptions().position(position).draggable(false)
+            .icon(getMarkerIcon(isSelected ? DEFAULT_SELECTED_MARKER_HUE
+                : mMarkerModel.getHue(marker))));
+        mMarkerIds.put(mapMarker, rowIndex);
+        if (isSelected) {
+          mCurrentMarker = mapMarker;
+        }
+      } else {
+        Marker mapMarker = map.addMarker(new MarkerOptions().position(position).draggable(false)
+            .anchor(0.5f, 0.5f)
+            .icon(getClusterIcon(cluster.getDominantHue(), cluster.getCount())));
+        mClusterMarkers.put(mapMarker, cluster);
+      }
+    }
+  }
+
+  private void removeMarkersFromMap() {
+    for (Marker marker : mMarkerIds.keySet()) {
+      marker.remove();
+    }
+    for (Marker marker : mClusterMarkers.keySet()) {
+      marker.remove();
+    }
+    mMarkerIds.clear();
+    mClusterMarkers.clear();
+    mCurrentMarker = null;
+  }
+
+  /**
+   * Show the markers in view once the camera has moved.
+   */
+  private OnCameraChangeListener getOnCameraChangeListener() {
+    return new OnCameraChangeListener() {
+      @Override
+      public void onCameraChange(CameraPosition position) {
+        renderVisibleMarkers();
+      }
+    };
+  }
+
+  /**
+   * @param hue
+   * @param count
+   * @return a bubble in the hue showing the count
+   */
+  private BitmapDescriptor getClusterIcon(float hue, int count) {
+    String label = (count > 999) ? "999+" : Integer.toString(count);
+    String key = hue + ":" + label;
+    BitmapDescriptor icon = mClusterIcons.get(key);
+    if (icon != null) {
+      return icon;
+    }
+    if (mClusterIcons.size() >= MAX_CLUSTER_ICONS) {
+      mClusterIcons.clear();
+    }
+    float density = getResources().getDisplayMetrics().density;
+    int size = Math.round(CLUSTER_ICON_SIZE_DP * density);
+    Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    paint.setColor(Color.WHITE);
+    canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+    paint.setColor(Color.HSVToColor(new float[] { hue, 0.8f, 0.9f }));
+    canvas.drawCircle(size / 2f, size / 2f, size / 2f - 2 * density, paint);
+    paint.setColor(Color.WHITE);
+    paint.setTextAlign(Paint.Align.CENTER);
+    paint.setTextSize(size / 3f);
+    paint.setFakeBoldText(true);
+    canvas.drawText(label, size / 2f, size / 2f - (paint.descent() + paint.ascent()) / 2, paint);
+    icon = BitmapDescriptorFactory.fromBitmap(bitmap);
+    mClusterIcons.put(key, icon);
+    return icon;
+  }
+
+  /**
+   * @param hue
+   * @return the marker icon of the hue, shared by every marker of that hue
+   */
+  private BitmapDescriptor getMarkerIcon(float hue) {
+    BitmapDescriptor icon = mMarkerIcons.get(hue);
+    if (icon == null) {
+      icon = BitmapDescriptorFactory.defaultMarker(hue);
+      mMarkerIcons.put(hue, icon);
+    }
+    return icon;
   }
 
   /**
@@ -393,22 +602,69 @@ public class TableMapInnerFragment extends MapFragment {
    *         marker color if no rules apply to the row.
    */
   private float getHueForRow(int index) {
-    TableDisplayActivity activity = (TableDisplayActivity) getActivity();
+    if (mMarkerModel != null) {
+      int marker = mMarkerModel.getMarkerOfRow(index);
+      if (marker != -1) {
+        return mMarkerModel.getHue(marker);
+      }
+    }
+    return DEFAULT_MARKER_HUE;
+  }
 
-    UserTable table = this.retrieveUserTable();
-    // Create a guide depending on the color group.
-    if (mColorGroup != null) {
-      ColorGuide guide = mColorGroup.getColorGuide(activity.getColumnDefinitions(),
-          table.getRowAtIndex(index));
-      // Based on if the guide matched or not, grab the hue.
-      if (guide != null) {
-        float[] hsv = new float[3];
-        Color.colorToHSV(guide.getBackground(), hsv);
-        return hsv[0];
+  /**
+   * Evaluates the color rules, reads the locations of the rows of a table and
+   * indexes them off the UI thread.
+   */
+  private class MarkerModelTask extends AsyncTask<Void, Void, MapMarkerModel> {
+
+    private final UserTable mTable;
+    private final String mLatitudeElementKey;
+    private final String mLongitudeElementKey;
+    private final CompiledColorRuleGroup mCompiledColorGroup;
+    /**
+     * The typed columns of the table, built in the background if they were
+     * not passed in. Set before {@link #onPostExecute}.
+     */
+    ColumnarUserTable mColumnarTable;
+    /** The index over the result, set before {@link #onPostExecute}. */
+    SpatialIndex mSpatialIndex;
+
+    /**
+     * @param table
+     * @param columnarTable
+     *          the typed columns of the table, or null to build them
+     * @param latitudeElementKey
+     * @param longitudeElementKey
+     * @param compiledColorGroup
+     */
+    MarkerModelTask(UserTable table, ColumnarUserTable columnarTable, String latitudeElementKey,
+        String longitudeElementKey, CompiledColorRuleGroup compiledColorGroup) {
+      this.mTable = table;
+      this.mColumnarTable = columnarTable;
+      this.mLatitudeElementKey = latitudeElementKey;
+      this.mLongitudeElementKey = longitudeElementKey;
+      this.mCompiledColorGroup = compiledColorGroup;
+    }
+
+    @Override
+    protected MapMarkerModel doInBackground(Void... params) {
+      if (mColumnarTable == null) {
+        mColumnarTable = ColumnarUserTable.wrap(mTable);
+      }
+      ColorVector colors = null;
+      if (mCompiledColorGroup != null) {
+        colors = mCompiledColorGroup.evaluate(mColumnarTable);
       }
+      MapMarkerModel model = MapMarkerModel.build(mColumnarTable, mLatitudeElementKey,
+          mLongitudeElementKey, colors, DEFAULT_MARKER_HUE);
+      mSpatialIndex = SpatialIndex.build(model);
+      return model;
     }
 
-    return DEFAULT_MARKER_HUE;
+    @Override
+    protected void onPostExecute(MapMarkerModel result) {
+      onMarkerModelBuilt(this, result);
+    }
   }
 
   private String getLatitudeElementKey() {
@@ -429,6 +685,7 @@ public class TableMapInnerFragment extends MapFragment {
         if (GeoColumnUtil.get().isLatitudeColumnDefinition(geoPointCols, cd)) {
           latitudeElementKey = cd.getElementKey();
           kvsHelper.setString(LocalKeyValueStoreConstants.Map.KEY_MAP_LAT_COL, latitudeElementKey);
+          TableMetadataSnapshot.invalidate(activity.getAppName(), activity.getTableId());
           break;
         }
       }
@@ -455,6 +712,7 @@ public class TableMapInnerFragment extends MapFragment {
           longitudeElementKey = cd.getElementKey();
           kvsHelper
               .setString(LocalKeyValueStoreConstants.Map.KEY_MAP_LONG_COL, longitudeElementKey);
+          TableMetadataSnapshot.invalidate(activity.getAppName(), activity.getTableId());
           break;
         }
       }
@@ -479,21 +737,6 @@ public class TableMapInnerFragment extends MapFragment {
     return null;
   }
 
-  /**
-   * Parses the latitude and longitude strings and creates a LatLng.
-   */
-  private LatLng parseLocationFromString(ColumnDefinition latitudeColumn, String latitude,
-      ColumnDefinition longitudeColumn, String longitude) {
-    try {
-      return new LatLng(Double.parseDouble(latitude), Double.parseDouble(longitude));
-    } catch (Exception e) {
-      AbsBaseActivity activity = (AbsBaseActivity) getActivity();
-      WebLogger.getLogger(activity.getAppName()).e(TAG,
-          "The following location did not parse correctly: " + latitude + "," + longitude);
-    }
-    return null;
-  }
-
   /**
    * If a marker is selected, deselect it.
    */
@@ -564,6 +807,12 @@ public class TableMapInnerFragment extends MapFragment {
     return new OnMarkerClickListener() {
       @Override
       public boolean onMarkerClick(Marker arg0) {
+        if (mClusterMarkers.containsKey(arg0)) {
+          // zoom in towards the markers of the cluster
+          float zoom = getMap().getCameraPosition().zoom;
+          getMap().animateCamera(CameraUpdateFactory.newLatLngZoom(arg0.getPosition(), zoom + 2));
+          return true;
+        }
         int index = (mCurrentMarker != null) ? mMarkerIds.get(mCurrentMarker) : INVALID_INDEX;
         // Make the marker visible if it is either invisible or a
         // new marker.
@@ -592,8 +841,9 @@ public class TableMapInnerFragment extends MapFragment {
   private void selectMarker(Marker marker) {
     if (mCurrentMarker == marker)
       return;
-    marker.setIcon(BitmapDescriptorFactory.defaultMarker(DEFAULT_SELECTED_MARKER_HUE));
+    marker.setIcon(getMarkerIcon(DEFAULT_SELECTED_MARKER_HUE));
     mCurrentMarker = marker;
+    mSelectedRowIndex = mMarkerIds.get(marker);
   }
 
   /**
@@ -602,11 +852,17 @@ public class TableMapInnerFragment extends MapFragment {
    */
   private void deselectCurrentMarker() {
     if (mCurrentMarker == null) {
+      // the selected marker may be in a cluster or out of view
+      if (mSelectedRowIndex != INVALID_INDEX) {
+        mSelectedRowIndex = INVALID_INDEX;
+        listener.setNoItemSelected();
+      }
       return;
     }
     int index = mMarkerIds.get(mCurrentMarker);
-    mCurrentMarker.setIcon(BitmapDescriptorFactory.defaultMarker(getHueForRow(index)));
+    mCurrentMarker.setIcon(getMarkerIcon(getHueForRow(index)));
     mCurrentMarker = null;
+    mSelectedRowIndex = INVALID_INDEX;
     listener.setNoItemSelected();
   }
 }
@@ -134,6 +134,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment {
     KeyValueStoreHelper kvsh = new KeyValueStoreHelper(getActivity(), getAppName(), getTableId(),
         KeyValueStoreConstants.PARTITION_TABLE);
     kvsh.setString(LocalKeyValueStoreConstants.Tables.KEY_LIST_VIEW_FILE_NAME, relativePath);
+    invalidateTableMetadata();
   }
 
   /**
@@ -145,6 +146,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment {
     KeyValueStoreHelper kvsh = new KeyValueStoreHelper(getActivity(), getAppName(), getTableId(),
         KeyValueStoreConstants.PARTITION_TABLE);
     kvsh.setString(LocalKeyValueStoreConstants.Tables.KEY_DETAIL_VIEW_FILE_NAME, relativePath);
+    invalidateTableMetadata();
   }
 
   /**
@@ -156,6 +158,7 @@ public class TablePreferenceFragment extends AbsTableLevelPreferenceFragment {
     KeyValueStoreHelper kvsh = new KeyValueStoreHelper(getActivity(), getAppName(), getTableId(),
         KeyValueStoreConstants.PARTITION_TABLE);
     kvsh.setString(LocalKeyValueStoreConstants.Tables.KEY_MAP_LIST_VIEW_FILE_NAME, relativePath);
+    invalidateTableMetadata();
   }
 
   /**
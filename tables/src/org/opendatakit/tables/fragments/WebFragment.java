@@ -99,6 +99,7 @@ public class WebFragment extends AbsBaseFragment implements IWebFragment {
     WebLogger.getLogger(getAppName()).d(TAG, "[buildView] activity is: " + this.getActivity());
     WebView result = WebViewUtil.getODKCompliantWebView((AbsBaseActivity) getActivity());
     Control control = this.createControlObject();
+    control.setWebView(result);
     result.addJavascriptInterface(
         control.getJavascriptInterfaceWithWeakReference(),
         Constants.JavaScriptHandles.CONTROL);
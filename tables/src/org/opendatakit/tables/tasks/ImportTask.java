@@ -18,6 +18,7 @@ package org.opendatakit.tables.tasks;
 import org.opendatakit.common.android.utilities.CsvUtil;
 import org.opendatakit.common.android.utilities.CsvUtil.ImportListener;
 import org.opendatakit.tables.activities.ImportCSVActivity;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
 import android.os.AsyncTask;
 
@@ -63,6 +64,8 @@ extends AsyncTask<ImportRequest, Integer, Boolean> implements ImportListener {
 	}
 
 	protected void onPostExecute(Boolean result) {
+		// an import may bring in table and column settings.
+		TableMetadataSnapshot.invalidateAll();
 		this.importCSVActivity.dismissDialog(ImportCSVActivity.IMPORT_IN_PROGRESS_DIALOG);
 		if (result) {
 			this.importCSVActivity.showDialog(ImportCSVActivity.CSVIMPORT_SUCCESS_DIALOG);
@@ -15,25 +15,24 @@
  */
 package org.opendatakit.tables.tasks;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.CharEncoding;
 import org.opendatakit.common.android.data.Preferences;
 import org.opendatakit.common.android.database.DatabaseFactory;
 import org.opendatakit.common.android.utilities.CsvUtil;
@@ -44,9 +43,11 @@ import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.R;
 import org.opendatakit.tables.application.Tables;
 import org.opendatakit.tables.fragments.InitializeTaskDialogFragment;
+import org.opendatakit.tables.utils.TableImportScheduler;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
+import org.opendatakit.tables.utils.ZipExtractor;
 
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.AsyncTask;
 
@@ -64,10 +65,16 @@ public class InitializeTask extends AsyncTask<Void, String, Boolean> implements
 
   private static final String TAG = "InitializeTask";
 
+  /**
+   * The most tables imported at the same time. Parsing the CSV files runs in
+   * parallel while their writes to the database take turns.
+   */
+  private static final int IMPORT_POOL_SIZE = Math.max(1,
+      Math.min(4, Runtime.getRuntime().availableProcessors()));
+
   private InitializeTaskDialogFragment mDialogFragment;
   private final Context mContext;
   private final String mAppName;
-  private String filename;
   private Map<String, Boolean> importStatus;
   private Set<String> mFileNotFoundSet = new HashSet<String>();
   /** Stores the table's key to its filename. */
@@ -75,6 +82,15 @@ public class InitializeTask extends AsyncTask<Void, String, Boolean> implements
 
   private boolean mPendingSuccess = false;
 
+  /**
+   * Guards the state the table imports update from their threads. This is not
+   * the task itself, whose lock is held by doInBackground while they run.
+   */
+  private final Object mProgressLock = new Object();
+
+  /** The overall message of each running table import -> its detail. */
+  private final Map<String, String> mRunningImports = new LinkedHashMap<String, String>();
+
   public boolean caughtDuplicateTableException = false;
   public boolean problemImportingKVSEntries = false;
   private boolean poorlyFormatedConfigFile = false;
@@ -224,15 +240,12 @@ public class InitializeTask extends AsyncTask<Void, String, Boolean> implements
         String[] keys = table_keys.replace(SPACE, EMPTY_STRING).split(COMMA);
         int fileCount = keys.length;
         int curFileCount = 0;
-        String detail = mContext.getString(R.string.processing_file);
-
-        File file;
-        CsvUtil cu = new CsvUtil(this.mContext, this.mAppName);
-        for (String key : keys) {
+        TableImportScheduler scheduler = new TableImportScheduler(IMPORT_POOL_SIZE);
+        for (final String key : keys) {
           curFileCount++;
-          filename = prop.getProperty(key + KEY_SUFFIX_CSV_FILENAME);
+          final String filename = prop.getProperty(key + KEY_SUFFIX_CSV_FILENAME);
           this.importStatus.put(key, false);
-          file = new File(ODKFileUtils.getAppFolder(mAppName), filename);
+          File file = new File(ODKFileUtils.getAppFolder(mAppName), filename);
           this.mKeyToFileMap.put(key, filename);
           if (!file.exists()) {
             mFileNotFoundSet.add(key);
@@ -240,56 +253,59 @@ public class InitializeTask extends AsyncTask<Void, String, Boolean> implements
             continue;
           }
 
-          // update dialog message with current filename
-          publishProgress(mContext.getString(R.string.importing_file_without_detail, curFileCount,
-              fileCount, filename), detail);
-          ImportRequest request = null;
-
           // If the import file is in the assets/csv directory
           // and if it is of the form tableId.csv or tableId.fileQualifier.csv
           // and fileQualifier is not 'properties', then assume it is the
           // new-style CSV format.
           //
-          String[] pathParts = filename.split("/");
-          if ((pathParts.length == 3) && pathParts[0].equals("assets")
-              && pathParts[1].equals("csv")) {
-            String[] terms = pathParts[2].split("\\.");
-            if (terms.length == 2 && terms[1].equals("csv")) {
-              String tableId = terms[0];
-              String fileQualifier = null;
-              request = new ImportRequest(tableId, fileQualifier);
-            } else if (terms.length == 3 && terms[1].equals("properties") && terms[2].equals("csv")) {
-              String tableId = terms[0];
-              String fileQualifier = null;
-              request = new ImportRequest(tableId, fileQualifier);
-            } else if (terms.length == 3 && terms[2].equals("csv")) {
-              String tableId = terms[0];
-              String fileQualifier = terms[1];
-              request = new ImportRequest(tableId, fileQualifier);
-            } else if (terms.length == 4 && terms[2].equals("properties") && terms[3].equals("csv")) {
-              String tableId = terms[0];
-              String fileQualifier = terms[1];
-              request = new ImportRequest(tableId, fileQualifier);
-            }
+          final ImportRequest request = getImportRequest(filename);
+          if (request == null) {
+            // import the files before this one, as was done when they were
+            // imported one after another
+            poorlyFormatedConfigFile = true;
+            break;
+          }
 
-            if (request != null) {
-              boolean success = false;
-              success = cu.importSeparable(this, request.getTableId(), request.getFileQualifier(),
-                  true);
-              importStatus.put(key, success);
-              if (success) {
-                detail = mContext.getString(R.string.import_success);
-                publishProgress(mContext.getString(R.string.importing_file_without_detail,
-                    curFileCount, fileCount, filename), detail);
+          final String overall = mContext.getString(R.string.importing_file_without_detail,
+              curFileCount, fileCount, filename);
+          scheduler.add(request.getTableId(), new Runnable() {
+            @Override
+            public void run() {
+              if (isCancelled()) {
+                return;
+              }
+              TableImportListener listener = new TableImportListener(overall);
+              listener.updateProgressDetail(mContext.getString(R.string.processing_file));
+              // each import has its own CsvUtil, as they run at the same time
+              CsvUtil cu = new CsvUtil(mContext, mAppName);
+              boolean success = cu.importSeparable(listener, request.getTableId(),
+                  request.getFileQualifier(), true);
+              synchronized (mProgressLock) {
+                importStatus.put(key, success);
               }
+              listener.finished(success ? mContext.getString(R.string.import_success) : null);
             }
-          }
+          });
+        }
 
-          if (request == null) {
-            poorlyFormatedConfigFile = true;
-            return false;
+        // tables whose properties refer to another table being imported wait
+        // for it
+        Set<String> importTableIds = scheduler.getTableIds();
+        for (String tableId : importTableIds) {
+          for (String referencedTableId : findReferencedTableIds(tableId, importTableIds)) {
+            scheduler.addDependency(tableId, referencedTableId);
           }
         }
+        try {
+          scheduler.run();
+        } catch (InterruptedException e) {
+          WebLogger.getLogger(mAppName).printStackTrace(e);
+          Thread.currentThread().interrupt();
+          return false;
+        }
+        if (poorlyFormatedConfigFile) {
+          return false;
+        }
       } else {
         poorlyFormatedConfigFile = true;
         return false;
@@ -298,163 +314,226 @@ public class InitializeTask extends AsyncTask<Void, String, Boolean> implements
     return true;
   }
 
-  private void extractFromRawZip(int resourceId, boolean overwrite, ArrayList<String> result) {
-    String message = null;
-    AssetFileDescriptor fd = null;
-    try {
-      fd = mContext.getResources().openRawResourceFd(resourceId);
-      final long size = fd.getLength() / 2L; // apparently over-counts by 2x?
-      InputStream rawInputStream = null;
-      try {
-        rawInputStream = fd.createInputStream();
-        ZipInputStream zipInputStream = null;
-        ZipEntry entry = null;
-        try {
+  /**
+   * Parse the name of a file listed in the init configuration.
+   *
+   * @param filename
+   * @return the request to import it, or null if it is not of the form
+   *         assets/csv/tableId[.fileQualifier][.properties].csv
+   */
+  private ImportRequest getImportRequest(String filename) {
+    String[] pathParts = filename.split("/");
+    if ((pathParts.length != 3) || !pathParts[0].equals("assets")
+        || !pathParts[1].equals("csv")) {
+      return null;
+    }
+    String[] terms = pathParts[2].split("\\.");
+    if (terms.length == 2 && terms[1].equals("csv")) {
+      return new ImportRequest(terms[0], null);
+    } else if (terms.length == 3 && terms[1].equals("properties") && terms[2].equals("csv")) {
+      return new ImportRequest(terms[0], null);
+    } else if (terms.length == 3 && terms[2].equals("csv")) {
+      return new ImportRequest(terms[0], terms[1]);
+    } else if (terms.length == 4 && terms[2].equals("properties") && terms[3].equals("csv")) {
+      return new ImportRequest(terms[0], terms[1]);
+    }
+    return null;
+  }
 
-          // count the number of files in the zip
-          zipInputStream = new ZipInputStream(rawInputStream);
-          int totalFiles = 0;
-          while ((entry = zipInputStream.getNextEntry()) != null) {
-            message = null;
-            if (isCancelled()) {
-              message = "cancelled";
-              result.add(entry.getName() + " " + message);
-              break;
-            }
-            ++totalFiles;
+  /**
+   * Find the other tables that the properties of a table refer to, e.g. as
+   * the table of a list view or a join, by looking for their tableIds in its
+   * properties files.
+   *
+   * @param tableId
+   * @param tableIds
+   *          the tableIds to look for
+   * @return the tableIds that are referred to
+   */
+  private Set<String> findReferencedTableIds(String tableId, Set<String> tableIds) {
+    Set<String> referenced = new HashSet<String>();
+    File[] propertiesFiles = new File[] {
+        new File(ODKFileUtils.getTablePropertiesCsvFile(mAppName, tableId)),
+        new File(ODKFileUtils.getAppFolder(mAppName), "assets/csv/" + tableId
+            + ".properties.csv") };
+    for (File propertiesFile : propertiesFiles) {
+      if (!propertiesFile.isFile()) {
+        continue;
+      }
+      try {
+        String properties = FileUtils.readFileToString(propertiesFile, CharEncoding.UTF_8);
+        for (String token : properties.split("[^A-Za-z0-9_]+")) {
+          if (tableIds.contains(token) && !token.equals(tableId)) {
+            referenced.add(token);
           }
-          zipInputStream.close();
-
-          // and re-open the stream, reading it this time...
-          fd = mContext.getResources().openRawResourceFd(resourceId);
-          rawInputStream = fd.createInputStream();
-          zipInputStream = new ZipInputStream(rawInputStream);
-
-          long bytesProcessed = 0L;
-          long lastBytesProcessedThousands = 0L;
-          int nFiles = 0;
-          while ((entry = zipInputStream.getNextEntry()) != null) {
-            message = null;
-            if (isCancelled()) {
-              message = "cancelled";
-              result.add(entry.getName() + " " + message);
-              break;
-            }
-            ++nFiles;
-            File tempFile = new File(ODKFileUtils.getAppFolder(mAppName), entry.getName());
-            String formattedString = mContext.getString(
-                R.string.expansion_unzipping_without_detail, entry.getName(), nFiles, totalFiles);
-            String detail;
-            if (entry.isDirectory()) {
-              detail = mContext.getString(R.string.expansion_create_dir_detail);
-              publishProgress(formattedString, detail);
-              tempFile.mkdirs();
-            } else {
-              int bufferSize = 8192;
-              OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile, false),
-                  bufferSize);
-              byte buffer[] = new byte[bufferSize];
-              int bread;
-              while ((bread = zipInputStream.read(buffer)) != -1) {
-                bytesProcessed += bread;
-                long curThousands = (bytesProcessed / 1000L);
-                if (curThousands != lastBytesProcessedThousands) {
-                  detail = mContext.getString(R.string.expansion_unzipping_detail, bytesProcessed,
-                      size);
-                  publishProgress(formattedString, detail);
-                  lastBytesProcessedThousands = curThousands;
-                }
-                out.write(buffer, 0, bread);
-              }
-              out.flush();
-              out.close();
+        }
+      } catch (IOException e) {
+        // then nothing is known to be referred to
+        WebLogger.getLogger(mAppName).printStackTrace(e);
+      }
+    }
+    return referenced;
+  }
 
-              detail = mContext
-                  .getString(R.string.expansion_unzipping_detail, bytesProcessed, size);
-              publishProgress(formattedString, detail);
-            }
-            WebLogger.getLogger(mAppName).i(TAG, "Extracted ZipEntry: " + entry.getName());
+  /**
+   * Show the progress of every table import that is running, one per line.
+   */
+  private void publishImportProgress() {
+    StringBuilder overall = new StringBuilder();
+    synchronized (mProgressLock) {
+      for (Map.Entry<String, String> runningImport : mRunningImports.entrySet()) {
+        if (overall.length() != 0) {
+          overall.append("\n");
+        }
+        overall.append(runningImport.getKey());
+        if (runningImport.getValue() != null) {
+          overall.append(" (").append(runningImport.getValue()).append(")");
+        }
+      }
+    }
+    publishProgress(overall.toString(), null);
+  }
 
-            message = mContext.getString(R.string.success);
-            result.add(entry.getName() + " " + message);
-          }
+  /**
+   * Receives the progress of the import of one file, which may run at the
+   * same time as others.
+   */
+  private class TableImportListener implements ImportListener {
 
-          ODKFileUtils.assertConfiguredTablesApp(mAppName, 
-              Tables.getInstance().getVersionCodeString());
+    private final String mOverall;
 
-          String completionString = mContext.getString(R.string.expansion_unzipping_complete,
-              totalFiles);
-          publishProgress(completionString, null);
-        } catch (IOException e) {
-          WebLogger.getLogger(mAppName).printStackTrace(e);
-          mPendingSuccess = false;
-          if (e.getCause() != null) {
-            message = e.getCause().getMessage();
-          } else {
-            message = e.getMessage();
-          }
-          if (entry != null) {
-            result.add(entry.getName() + " " + message);
-          } else {
-            result.add("Error accessing zipfile resource " + message);
-          }
-        } finally {
-          if (zipInputStream != null) {
-            try {
-              zipInputStream.close();
-              rawInputStream = null;
-              fd = null;
-            } catch (IOException e) {
-              WebLogger.getLogger(mAppName).printStackTrace(e);
-              WebLogger.getLogger(mAppName).e(TAG, "Closing of ZipFile failed: " + e.toString());
-            }
-          }
-          if (rawInputStream != null) {
-            try {
-              rawInputStream.close();
-              fd = null;
-            } catch (IOException e) {
-              WebLogger.getLogger(mAppName).printStackTrace(e);
-              WebLogger.getLogger(mAppName).e(TAG, "Closing of ZipFile failed: " + e.toString());
-            }
-          }
-          if (fd != null) {
-            try {
-              fd.close();
-            } catch (IOException e) {
-              WebLogger.getLogger(mAppName).printStackTrace(e);
-              WebLogger.getLogger(mAppName).e(TAG, "Closing of ZipFile failed: " + e.toString());
-            }
-          }
+    TableImportListener(String overall) {
+      this.mOverall = overall;
+    }
+
+    @Override
+    public void updateProgressDetail(String displayDetail) {
+      synchronized (mProgressLock) {
+        mRunningImports.put(mOverall, displayDetail);
+      }
+      publishImportProgress();
+    }
+
+    @Override
+    public void importComplete(boolean outcome) {
+      InitializeTask.this.importComplete(outcome);
+    }
+
+    /**
+     * @param detail
+     *          shown if this was the last import running, or null
+     */
+    void finished(String detail) {
+      boolean lastRunning;
+      synchronized (mProgressLock) {
+        mRunningImports.remove(mOverall);
+        lastRunning = mRunningImports.isEmpty();
+      }
+      if (lastRunning) {
+        publishProgress(mOverall, detail);
+      } else {
+        publishImportProgress();
+      }
+    }
+  }
+
+  /**
+   * Extract a zip from the raw resources into the app folder. The zip is
+   * first copied out of the APK, as {@link ZipFile} can only open files, and
+   * then extracted in one pass; files that are already up to date are left
+   * alone.
+   *
+   * @param resourceId
+   * @param overwrite
+   * @param result
+   *          the outcome of each entry is added to this
+   */
+  private void extractFromRawZip(int resourceId, boolean overwrite,
+      final ArrayList<String> result) {
+    String message = null;
+    File zipCopy = new File(mContext.getCacheDir(), "raw-" + resourceId + ".zip");
+    final ZipEntry[] currentEntry = new ZipEntry[1];
+    ZipExtractor extractor = new ZipExtractor(new ZipExtractor.Listener() {
+
+      private String formattedString;
+
+      @Override
+      public boolean isCancelled() {
+        if (InitializeTask.this.isCancelled()) {
+          result.add(((currentEntry[0] == null) ? "" : currentEntry[0].getName()) + " cancelled");
+          return true;
         }
-      } catch (Exception e) {
-        WebLogger.getLogger(mAppName).printStackTrace(e);
-        mPendingSuccess = false;
-        if (e.getCause() != null) {
-          message = e.getCause().getMessage();
-        } else {
-          message = e.getMessage();
+        return false;
+      }
+
+      @Override
+      public void onEntryStarted(ZipEntry entry, int index, int total) {
+        currentEntry[0] = entry;
+        formattedString = mContext.getString(R.string.expansion_unzipping_without_detail,
+            entry.getName(), index, total);
+        if (entry.isDirectory()) {
+          publishProgress(formattedString,
+              mContext.getString(R.string.expansion_create_dir_detail));
         }
-        result.add("Error accessing zipfile resource " + message);
+      }
+
+      @Override
+      public void onBytesProcessed(long bytesProcessed, long totalBytes) {
+        publishProgress(formattedString, mContext.getString(R.string.expansion_unzipping_detail,
+            bytesProcessed, totalBytes));
+      }
+
+      @Override
+      public void onEntryFinished(ZipEntry entry, boolean skipped) {
+        WebLogger.getLogger(mAppName).i(TAG,
+            (skipped ? "Unchanged ZipEntry: " : "Extracted ZipEntry: ") + entry.getName());
+        result.add(entry.getName() + " " + mContext.getString(R.string.success));
+      }
+    });
+
+    ZipFile zipFile = null;
+    try {
+      InputStream rawInputStream = mContext.getResources().openRawResource(resourceId);
+      try {
+        extractor.copyToFile(rawInputStream, zipCopy);
       } finally {
-        if (rawInputStream != null) {
-          try {
-            rawInputStream.close();
-          } catch (IOException e) {
-            WebLogger.getLogger(mAppName).printStackTrace(e);
-          }
-        }
+        rawInputStream.close();
+      }
+      zipFile = new ZipFile(zipCopy);
+      int totalFiles = extractor.extract(zipFile, new File(ODKFileUtils.getAppFolder(mAppName)));
+      if (totalFiles == -1) {
+        return;
+      }
+
+      ODKFileUtils.assertConfiguredTablesApp(mAppName,
+          Tables.getInstance().getVersionCodeString());
+
+      String completionString = mContext.getString(R.string.expansion_unzipping_complete,
+          totalFiles);
+      publishProgress(completionString, null);
+    } catch (IOException e) {
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      mPendingSuccess = false;
+      if (e.getCause() != null) {
+        message = e.getCause().getMessage();
+      } else {
+        message = e.getMessage();
+      }
+      if (currentEntry[0] != null) {
+        result.add(currentEntry[0].getName() + " " + message);
+      } else {
+        result.add("Error accessing zipfile resource " + message);
       }
     } finally {
-      if (fd != null) {
+      if (zipFile != null) {
         try {
-          fd.close();
+          zipFile.close();
         } catch (IOException e) {
           WebLogger.getLogger(mAppName).printStackTrace(e);
+          WebLogger.getLogger(mAppName).e(TAG, "Closing of ZipFile failed: " + e.toString());
         }
-      } else {
-        result.add("Error accessing zipfile resource.");
       }
+      zipCopy.delete();
     }
   }
 
@@ -481,13 +560,17 @@ public class InitializeTask extends AsyncTask<Void, String, Boolean> implements
 
   @Override
   public void importComplete(boolean outcome) {
-    problemImportingKVSEntries = problemImportingKVSEntries || !outcome;
+    synchronized (mProgressLock) {
+      problemImportingKVSEntries = problemImportingKVSEntries || !outcome;
+    }
   }
 
   // dismiss ProgressDialog and create an AlertDialog with one
   // button to confirm that the user read the postExecute message
   @Override
   protected void onPostExecute(Boolean result) {
+    // imported tables bring their settings with them.
+    TableMetadataSnapshot.invalidateAll();
     // refresh TableManager to show newly imported tables
     if (this.mDialogFragment == null) {
       WebLogger.getLogger(mAppName).e(TAG,
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.tasks;
+
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.tables.utils.WindowedUserTable;
+
+import android.os.AsyncTask;
+
+/**
+ * Loads a {@link WindowedUserTable} off the UI thread in stages. The first
+ * window is posted as soon as it has been read, so that a fragment can paint
+ * it while the following windows, or the full {@link UserTable} if one was
+ * asked for, are still being read.
+ */
+public class TableLoadTask extends AsyncTask<Void, Integer, UserTable> {
+
+  private static final String TAG = TableLoadTask.class.getSimpleName();
+
+  /** How many windows past the first to read before finishing. */
+  private static final int WINDOWS_TO_WARM = 2;
+  private static final int PROGRESS_FIRST_WINDOW = 0;
+
+  /**
+   * Receives the stages of a {@link TableLoadTask} on the UI thread. None of
+   * these are called once the task has been cancelled.
+   */
+  public interface TableLoadListener {
+    /**
+     * The row count and the first window of the table are available.
+     *
+     * @param table
+     * @return true if the listener has taken the table and will close it,
+     *         false if it waits for {@link #onTableLoaded} instead
+     */
+    boolean onFirstWindowLoaded(WindowedUserTable table);
+
+    /**
+     * Loading is complete.
+     *
+     * @param table
+     * @param fullTable
+     *          the materialized table, or null if it was not requested
+     */
+    void onTableLoaded(WindowedUserTable table, UserTable fullTable);
+
+    /**
+     * Loading failed. The table should not be used.
+     *
+     * @param table
+     */
+    void onTableLoadFailed(WindowedUserTable table);
+  }
+
+  private final WindowedUserTable mTable;
+  private final boolean mMaterialize;
+  private TableLoadListener mListener;
+  private boolean mFailed = false;
+  /** True once the listener has taken the table. */
+  private boolean mDelivered = false;
+
+  /**
+   * @param table
+   *          the table to load. Its {@link WindowedUserTable#load()} must not
+   *          have been called yet.
+   * @param materialize
+   *          true if the full {@link UserTable} should also be read
+   * @param listener
+   */
+  public TableLoadTask(WindowedUserTable table, boolean materialize, TableLoadListener listener) {
+    this.mTable = table;
+    this.mMaterialize = materialize;
+    this.mListener = listener;
+  }
+
+  public WindowedUserTable getTable() {
+    return mTable;
+  }
+
+  /**
+   * Cancel the task and drop the listener, so that nothing is delivered to
+   * it even if the current stage completes.
+   */
+  public synchronized void cancelAndDetach() {
+    mListener = null;
+    cancel(true);
+  }
+
+  @Override
+  protected UserTable doInBackground(Void... params) {
+    String appName = mTable.getAppName();
+    try {
+      mTable.load();
+      if (isCancelled()) {
+        return null;
+      }
+      publishProgress(PROGRESS_FIRST_WINDOW);
+
+      if (mMaterialize) {
+        // every row is read below, so reading windows ahead is wasted work.
+        return isCancelled() ? null : mTable.materialize();
+      }
+
+      // read ahead so that the first scroll does not have to wait.
+      int windowSize = mTable.getWindowSize();
+      for (int i = 1; i <= WINDOWS_TO_WARM && !isCancelled(); ++i) {
+        int firstRow = i * windowSize;
+        if (firstRow >= mTable.getNumberOfRows()) {
+          break;
+        }
+        mTable.ensureRangeLoaded(firstRow, firstRow + windowSize - 1);
+      }
+      return null;
+    } catch (Exception e) {
+      WebLogger.getLogger(appName).e(TAG,
+          "[doInBackground] failed to load table " + mTable.getTableId());
+      WebLogger.getLogger(appName).printStackTrace(e);
+      mFailed = true;
+      return null;
+    }
+  }
+
+  @Override
+  protected synchronized void onProgressUpdate(Integer... values) {
+    if (mListener != null && !isCancelled() && values[0] == PROGRESS_FIRST_WINDOW) {
+      mDelivered = mListener.onFirstWindowLoaded(mTable);
+    }
+  }
+
+  @Override
+  protected synchronized void onPostExecute(UserTable result) {
+    if (mListener == null) {
+      return;
+    }
+    if (mFailed) {
+      mListener.onTableLoadFailed(mTable);
+    } else {
+      mListener.onTableLoaded(mTable, result);
+    }
+    mListener = null;
+  }
+
+  @Override
+  protected synchronized void onCancelled(UserTable result) {
+    mListener = null;
+    // once handed over, the table belongs to whoever is displaying it.
+    if (!mDelivered) {
+      mTable.close();
+    }
+  }
+}
@@ -20,6 +20,7 @@ import org.opendatakit.common.android.utilities.KeyValueHelper;
 import org.opendatakit.common.android.utilities.KeyValueStoreHelper;
 import org.opendatakit.tables.utils.CollectUtil.CollectFormParameters;
 import org.opendatakit.tables.utils.SurveyUtil.SurveyFormParameters;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
@@ -96,6 +97,7 @@ public class FormType {
         db.endTransaction();
         db.close();
       }
+      TableMetadataSnapshot.invalidate(appName, tableId);
     }
   }
 
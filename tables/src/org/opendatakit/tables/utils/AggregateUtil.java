@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Aggregates over the columns of a table, so that graphs and dashboards can
+ * be handed summaries rather than whole columns. The simple aggregates are
+ * left to SQLite's GROUP BY; quantiles and box plots are computed from a
+ * single pass over the non-null values of the column.
+ * <p>
+ * The element keys passed in are used as column names and must have been
+ * checked against the table's columns by the caller.
+ */
+public class AggregateUtil {
+
+  public static final String COUNT = "count";
+  public static final String SUM = "sum";
+  public static final String AVG = "avg";
+  public static final String MIN = "min";
+  public static final String MAX = "max";
+
+  /** The keys of each row returned by {@link #aggregate}. */
+  public static final String KEY_GROUP = "group";
+  public static final String KEY_VALUE = "value";
+
+  private static final Set<String> FUNCTIONS = new HashSet<String>(Arrays.asList(COUNT, SUM,
+      AVG, MIN, MAX));
+
+  /** The span of the whiskers of a box plot, in interquartile ranges. */
+  private static final double WHISKER_SPAN = 1.5;
+
+  /**
+   * The summary of the values of one group for drawing a box plot. The
+   * whiskers reach the most extreme values within 1.5 interquartile ranges of
+   * the quartiles; the values beyond them are outliers.
+   */
+  public static class BoxPlot {
+    public final String group;
+    public final int count;
+    public final double min;
+    public final double firstQuartile;
+    public final double median;
+    public final double thirdQuartile;
+    public final double max;
+    public final double lowerWhisker;
+    public final double upperWhisker;
+    public final int outliers;
+
+    BoxPlot(String group, int count, double min, double firstQuartile, double median,
+        double thirdQuartile, double max, double lowerWhisker, double upperWhisker, int outliers) {
+      this.group = group;
+      this.count = count;
+      this.min = min;
+      this.firstQuartile = firstQuartile;
+      this.median = median;
+      this.thirdQuartile = thirdQuartile;
+      this.max = max;
+      this.lowerWhisker = lowerWhisker;
+      this.upperWhisker = upperWhisker;
+      this.outliers = outliers;
+    }
+  }
+
+  /**
+   * @param function
+   * @return true if function is one of {@link #COUNT}, {@link #SUM},
+   *         {@link #AVG}, {@link #MIN} or {@link #MAX}
+   */
+  public static boolean isSupportedFunction(String function) {
+    return function != null && FUNCTIONS.contains(function);
+  }
+
+  /**
+   * Run function over the value column, grouped by the group by column.
+   *
+   * @param db
+   * @param tableId
+   * @param function
+   *          one of {@link #COUNT}, {@link #SUM}, {@link #AVG}, {@link #MIN}
+   *          or {@link #MAX}
+   * @param valueElementKey
+   *          the column to aggregate. May only be null for {@link #COUNT}, in
+   *          which case the rows are counted.
+   * @param groupByElementKey
+   *          the column to group by, or null to aggregate over all the rows
+   * @param whereClause
+   * @param selectionArgs
+   * @return a map of {@link #KEY_GROUP} and {@link #KEY_VALUE} for each group,
+   *         ordered by group
+   */
+  public static List<Map<String, Object>> aggregate(SQLiteDatabase db, String tableId,
+      String function, String valueElementKey, String groupByElementKey, String whereClause,
+      String[] selectionArgs) {
+    if (!isSupportedFunction(function)) {
+      throw new IllegalArgumentException("unsupported aggregate: " + function);
+    }
+    if (valueElementKey == null && !COUNT.equals(function)) {
+      throw new IllegalArgumentException("a column is needed for " + function);
+    }
+    boolean isGrouped = groupByElementKey != null;
+    StringBuilder projection = new StringBuilder();
+    if (isGrouped) {
+      projection.append(quote(groupByElementKey)).append(", ");
+    }
+    projection.append(function.toUpperCase()).append("(");
+    projection.append((valueElementKey == null) ? "*" : quote(valueElementKey)).append(")");
+    StringBuilder sql = new StringBuilder(buildSelect(projection.toString(), tableId,
+        whereClause, null));
+    if (isGrouped) {
+      sql.append(" GROUP BY ").append(quote(groupByElementKey));
+      sql.append(" ORDER BY ").append(quote(groupByElementKey));
+    }
+
+    List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+    Cursor c = null;
+    try {
+      c = db.rawQuery(sql.toString(), selectionArgs);
+      int valueIndex = isGrouped ? 1 : 0;
+      while (c.moveToNext()) {
+        Map<String, Object> group = new LinkedHashMap<String, Object>();
+        group.put(KEY_GROUP, isGrouped ? c.getString(0) : null);
+        if (c.isNull(valueIndex)) {
+          group.put(KEY_VALUE, null);
+        } else if (COUNT.equals(function)) {
+          group.put(KEY_VALUE, c.getLong(valueIndex));
+        } else {
+          group.put(KEY_VALUE, c.getDouble(valueIndex));
+        }
+        result.add(group);
+      }
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Get the quantiles of the non-null values of a column.
+   *
+   * @param db
+   * @param tableId
+   * @param valueElementKey
+   * @param whereClause
+   * @param selectionArgs
+   * @param quantiles
+   *          the quantiles to compute, each between 0 and 1
+   * @return the value at each of the quantiles, or null if the column has no
+   *         values
+   */
+  public static double[] getQuantiles(SQLiteDatabase db, String tableId, String valueElementKey,
+      String whereClause, String[] selectionArgs, double[] quantiles) {
+    String sql = buildSelect(quote(valueElementKey), tableId, whereClause, valueElementKey);
+    Values values = new Values();
+    Cursor c = null;
+    try {
+      c = db.rawQuery(sql, selectionArgs);
+      while (c.moveToNext()) {
+        values.add(c.getDouble(0));
+      }
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+    if (values.size == 0) {
+      return null;
+    }
+    return computeQuantiles(values.values, values.size, quantiles);
+  }
+
+  /**
+   * Get the box plot statistics of the non-null values of a column.
+   *
+   * @param db
+   * @param tableId
+   * @param valueElementKey
+   * @param groupByElementKey
+   *          the column to group by, or null for a single box plot of all the
+   *          rows
+   * @param whereClause
+   * @param selectionArgs
+   * @return a box plot for each group that has values, ordered by group
+   */
+  public static List<BoxPlot> getBoxPlots(SQLiteDatabase db, String tableId,
+      String valueElementKey, String groupByElementKey, String whereClause,
+      String[] selectionArgs) {
+    boolean isGrouped = groupByElementKey != null;
+    String projection = isGrouped ? quote(groupByElementKey) + ", " + quote(valueElementKey)
+        : quote(valueElementKey);
+    StringBuilder sql = new StringBuilder(buildSelect(projection, tableId, whereClause,
+        valueElementKey));
+    if (isGrouped) {
+      sql.append(" ORDER BY ").append(quote(groupByElementKey));
+    }
+
+    List<BoxPlot> result = new ArrayList<BoxPlot>();
+    // the values of one group at a time, reused from group to group
+    Values values = new Values();
+    String currentGroup = null;
+    Cursor c = null;
+    try {
+      c = db.rawQuery(sql.toString(), selectionArgs);
+      int valueIndex = isGrouped ? 1 : 0;
+      while (c.moveToNext()) {
+        String group = isGrouped ? c.getString(0) : null;
+        if (values.size != 0 && !equals(group, currentGroup)) {
+          result.add(computeBoxPlot(currentGroup, values.values, values.size));
+          values.size = 0;
+        }
+        currentGroup = group;
+        values.add(c.getDouble(valueIndex));
+      }
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+    if (values.size != 0) {
+      result.add(computeBoxPlot(currentGroup, values.values, values.size));
+    }
+    return result;
+  }
+
+  /**
+   * Compute quantiles of the first length values. The values are sorted in
+   * place.
+   *
+   * @param values
+   * @param length
+   *          must be at least 1
+   * @param quantiles
+   *          each between 0 and 1
+   * @return
+   */
+  static double[] computeQuantiles(double[] values, int length, double[] quantiles) {
+    Arrays.sort(values, 0, length);
+    double[] result = new double[quantiles.length];
+    for (int i = 0; i < quantiles.length; ++i) {
+      result[i] = getQuantile(values, length, quantiles[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Compute the box plot of the first length values. The values are sorted
+   * in place.
+   *
+   * @param group
+   * @param values
+   * @param length
+   *          must be at least 1
+   * @return
+   */
+  static BoxPlot computeBoxPlot(String group, double[] values, int length) {
+    Arrays.sort(values, 0, length);
+    double firstQuartile = getQuantile(values, length, 0.25);
+    double median = getQuantile(values, length, 0.5);
+    double thirdQuartile = getQuantile(values, length, 0.75);
+    double span = WHISKER_SPAN * (thirdQuartile - firstQuartile);
+    double lowerFence = firstQuartile - span;
+    double upperFence = thirdQuartile + span;
+    // the values are sorted, so walk in from either end to the fences
+    int lower = 0;
+    while (values[lower] < lowerFence) {
+      ++lower;
+    }
+    int upper = length - 1;
+    while (values[upper] > upperFence) {
+      --upper;
+    }
+    int outliers = lower + (length - 1 - upper);
+    return new BoxPlot(group, length, values[0], firstQuartile, median, thirdQuartile,
+        values[length - 1], values[lower], values[upper], outliers);
+  }
+
+  /**
+   * Interpolate the quantile of the first length values, which are already
+   * sorted. This is the estimate commons-math's Percentile makes, without
+   * the copy and sort it does on every call.
+   *
+   * @param sorted
+   * @param length
+   *          must be at least 1
+   * @param quantile
+   *          between 0 and 1
+   * @return
+   */
+  private static double getQuantile(double[] sorted, int length, double quantile) {
+    double position = Math.max(0.0, Math.min(1.0, quantile)) * (length + 1);
+    if (position < 1) {
+      return sorted[0];
+    }
+    if (position >= length) {
+      return sorted[length - 1];
+    }
+    int below = (int) Math.floor(position);
+    double fraction = position - below;
+    double lower = sorted[below - 1];
+    double upper = sorted[below];
+    return lower + fraction * (upper - lower);
+  }
+
+  private static boolean equals(String a, String b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+
+  private static String quote(String elementKey) {
+    return "\"" + elementKey + "\"";
+  }
+
+  /**
+   * Build a SELECT over the table, restricted by the where clause and, if
+   * notNullElementKey is not null, to the rows where that column has a
+   * value.
+   */
+  private static String buildSelect(String projection, String tableId, String whereClause,
+      String notNullElementKey) {
+    StringBuilder b = new StringBuilder();
+    b.append("SELECT ").append(projection).append(" FROM ").append(quote(tableId));
+    boolean hasWhereClause = whereClause != null && whereClause.length() != 0;
+    if (hasWhereClause || notNullElementKey != null) {
+      b.append(" WHERE ");
+      if (notNullElementKey != null) {
+        b.append(quote(notNullElementKey)).append(" IS NOT NULL");
+        if (hasWhereClause) {
+          b.append(" AND ");
+        }
+      }
+      if (hasWhereClause) {
+        b.append("(").append(whereClause).append(")");
+      }
+    }
+    return b.toString();
+  }
+
+  /**
+   * A growable array of doubles, so that large columns are not boxed.
+   */
+  private static class Values {
+    double[] values = new double[1024];
+    int size = 0;
+
+    void add(double value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+  }
+}
@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
 
@@ -47,7 +48,6 @@ import org.opendatakit.aggregate.odktables.rest.TableConstants;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.database.DatabaseFactory;
 import org.opendatakit.common.android.provider.DataTableColumns;
-import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.DataUtil;
 import org.opendatakit.common.android.utilities.GeoColumnUtil;
 import org.opendatakit.common.android.utilities.KeyValueHelper;
@@ -195,9 +195,11 @@ public class CollectUtil {
    *          the title of the form
    * @param formId
    *          the id of the form
+   * @param session
+   *          a session on the app's database, which is used for every lookup
    * @return true if the file was successfully written
    */
-  private static boolean buildBlankForm(Context context, String appName, String tableId,
+  private static boolean buildBlankForm(DatabaseSession session, String appName, String tableId,
       ArrayList<ColumnDefinition> orderedDefns, File file, String formId) {
 
     OutputStreamWriter writer = null;
@@ -209,16 +211,8 @@ public class CollectUtil {
 
       ArrayList<ColumnDefinition> orderedElements = orderedDefns;
 
-      String localizedDisplayName;
-      SQLiteDatabase db = null;
-      try {
-        db = DatabaseFactory.get().getDatabase(context, appName);
-        localizedDisplayName = TableUtil.get().getLocalizedDisplayName(db, tableId);
-      } finally {
-        if (db != null) {
-          db.close();
-        }
-      }
+      SQLiteDatabase db = session.getDatabase();
+      String localizedDisplayName = LocalizedNameCache.getTableDisplayName(db, appName, tableId);
 
       FileOutputStream out = new FileOutputStream(file);
       writer = new OutputStreamWriter(out, CharEncoding.UTF_8);
@@ -316,16 +310,8 @@ public class CollectUtil {
           }
         }
 
-        db = null;
-        try {
-          db = DatabaseFactory.get().getDatabase(context, appName);
-          localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(db, tableId,
-              cd.getElementKey());
-        } finally {
-          if (db != null) {
-            db.close();
-          }
-        }
+        localizedDisplayName = LocalizedNameCache.getColumnDisplayName(db, appName, tableId,
+            cd.getElementKey());
 
         // ok. we are directly processing this... and possibly sucking values
         // out of sub-elements...
@@ -926,23 +912,20 @@ public class CollectUtil {
     ContentResolver resolver = context.getContentResolver();
 
     CollectUtil.deleteForm(resolver, appName, params.getFormId());
-    // First we want to write the file.
-    boolean writeSuccessful = CollectUtil.buildBlankForm(context, appName, tableId, orderedDefns,
-        getAddRowFormFile(appName, tableId), params.getFormId());
-    if (!writeSuccessful) {
-      WebLogger.getLogger(appName).e(TAG, "problem writing file for add row");
-      return false;
-    }
-
     String localizedDisplayName;
-    SQLiteDatabase db = null;
+    DatabaseSession session = DatabaseSession.open(context, appName);
     try {
-      db = DatabaseFactory.get().getDatabase(context, appName);
-      localizedDisplayName = TableUtil.get().getLocalizedDisplayName(db, tableId);
-    } finally {
-      if (db != null) {
-        db.close();
+      // First we want to write the file.
+      boolean writeSuccessful = CollectUtil.buildBlankForm(session, appName, tableId,
+          orderedDefns, getAddRowFormFile(appName, tableId), params.getFormId());
+      if (!writeSuccessful) {
+        WebLogger.getLogger(appName).e(TAG, "problem writing file for add row");
+        return false;
       }
+      localizedDisplayName = TableUtil.get().getLocalizedDisplayName(session.getDatabase(),
+          tableId);
+    } finally {
+      session.release();
     }
 
     // Now we want to insert the file.
@@ -1193,10 +1176,12 @@ public class CollectUtil {
    * 
    * TODO: add support for select-multiple
    *
+   * @param session
+   *          a session on the app's database, used to look up display choices
    * @return
    */
-  public static ContentValues getMapForInsertion(Context context, String appName, String tableId,
-      ArrayList<ColumnDefinition> orderedDefns, FormValues formValues) {
+  public static ContentValues getMapForInsertion(DatabaseSession session, String appName,
+      String tableId, ArrayList<ColumnDefinition> orderedDefns, FormValues formValues) {
 
     DataUtil du = new DataUtil(Locale.ENGLISH, TimeZone.getDefault());
 
@@ -1329,19 +1314,12 @@ public class CollectUtil {
         }
       } else if (cd.isUnitOfRetention()) {
 
-        ArrayList<Map<String, Object>> choices;
-        SQLiteDatabase db = null;
-        try {
-          db = DatabaseFactory.get().getDatabase(context, appName);
-          choices = (ArrayList<Map<String, Object>>) ColumnUtil.get().getDisplayChoicesList(db,
-              tableId, cd.getElementKey());
-        } finally {
-          if (db != null) {
-            db.close();
-          }
-        }
+        ArrayList<Map<String, Object>> choices = DisplayChoicesCache.get(session, tableId,
+            cd.getElementKey());
         String value = formValues.formValues.get(cd.getElementKey());
-        value = ParseUtil.validifyValue(appName, du, choices, cd,
+        Set<String> choiceValues = DisplayChoicesCache.getChoiceValues(session, tableId,
+            cd.getElementKey());
+        value = ParseUtil.validifyValue(appName, du, choices, choiceValues, cd,
             formValues.formValues.get(cd.getElementKey()));
 
         if (value != null) {
@@ -1457,7 +1435,7 @@ public class CollectUtil {
     return tableId;
   }
 
-  private static boolean updateRowFromOdkCollectInstance(Context context, String appName,
+  private static String updateRowFromOdkCollectInstance(Context context, String appName,
       String tableId, int instanceId) {
     // First we need to check to make sure the row id is in the shared
     // preferences. If it's not, something has gone wrong.
@@ -1469,21 +1447,21 @@ public class CollectUtil {
     if (rowId == null) {
       // Then it wasn't retained and something went wrong.
       WebLogger.getLogger(appName).e(TAG, "rowId retrieved from shared preferences was null.");
-      return false;
+      return null;
     }
     FormValues formValues = CollectUtil.getOdkCollectFormValuesFromInstanceId(context, appName,
         instanceId);
     if (formValues == null) {
-      return false;
+      return null;
     }
 
     ArrayList<ColumnDefinition> orderedDefns;
-    SQLiteDatabase db = null;
+    DatabaseSession session = DatabaseSession.open(context, appName);
     try {
-      db = DatabaseFactory.get().getDatabase(context, appName);
+      SQLiteDatabase db = session.getDatabase();
       orderedDefns = TableUtil.get().getColumnDefinitions(db, appName, tableId);
 
-      ContentValues values = CollectUtil.getMapForInsertion(context, appName, tableId,
+      ContentValues values = CollectUtil.getMapForInsertion(session, appName, tableId,
           orderedDefns, formValues);
       values.put(DataTableColumns.ID, rowId);
       values.put(DataTableColumns.FORM_ID, formValues.formId);
@@ -1496,20 +1474,18 @@ public class CollectUtil {
       ODKDatabaseUtils.get().updateDataInExistingDBTableWithId(db, tableId, orderedDefns, values,
           rowId);
     } finally {
-      if (db != null) {
-        db.close();
-      }
+      session.release();
     }
     // If we made it here and there were no errors, then clear the row id
     // from the shared preferences. This is just a bit of housekeeping that
     // will mean there's no you could accidentally wind up overwriting the
     // wrong row.
     sharedPreferences.edit().remove(PREFERENCE_KEY_EDITED_ROW_ID).commit();
-    return true;
+    return rowId;
   }
 
   /**
-   * Returns false if the returnCode is not ok or if the instance pointed to by
+   * Returns null if the returnCode is not ok or if the instance pointed to by
    * the intent was not marked as finalized.
    * <p>
    * Otherwise returns the result of
@@ -1520,28 +1496,28 @@ public class CollectUtil {
    * @param tableId
    * @param returnCode
    * @param data
-   * @return
+   * @return the id of the updated row, or null if no row was updated
    */
-  public static boolean handleOdkCollectEditReturn(Context context, String appName, String tableId,
+  public static String handleOdkCollectEditReturn(Context context, String appName, String tableId,
       int returnCode, Intent data) {
     if (returnCode != Activity.RESULT_OK) {
       WebLogger.getLogger(appName).i(TAG, "return code wasn't OK not inserting " + "edited data.");
-      return false;
+      return null;
     }
     if (data.getData() == null) {
       WebLogger.getLogger(appName).i(TAG, "data was null --not editing row");
-      return false;
+      return null;
     }
     int instanceId = Integer.valueOf(data.getData().getLastPathSegment());
     if (!instanceIsFinalized(context, instanceId)) {
       WebLogger.getLogger(appName).i(TAG, "instance wasn't marked as finalized--not updating");
-      return false;
+      return null;
     }
     return updateRowFromOdkCollectInstance(context, appName, tableId, instanceId);
   }
 
   /**
-   * Returns false if the returnCode is not ok or if the instance pointed to by
+   * Returns null if the returnCode is not ok or if the instance pointed to by
    * the intent was not marked as finalized.
    * <p>
    * Otherwise returns the result of
@@ -1552,40 +1528,40 @@ public class CollectUtil {
    * @param tableId
    * @param returnCode
    * @param data
-   * @return
+   * @return the id of the added row, or null if no row was added
    */
-  public static boolean handleOdkCollectAddReturn(Context context, String appName, String tableId,
+  public static String handleOdkCollectAddReturn(Context context, String appName, String tableId,
       int returnCode, Intent data) {
     if (returnCode != Activity.RESULT_OK) {
       WebLogger.getLogger(appName).i(TAG, "return code wasn't OK --not adding row");
-      return false;
+      return null;
     }
     if (data.getData() == null) {
       WebLogger.getLogger(appName).i(TAG, "data was null --not adding row");
-      return false;
+      return null;
     }
     int instanceId = Integer.valueOf(data.getData().getLastPathSegment());
     if (!instanceIsFinalized(context, instanceId)) {
       WebLogger.getLogger(appName).i(TAG, "instance wasn't finalized--not adding");
-      return false;
+      return null;
     }
     return addRowFromOdkCollectInstance(context, appName, tableId, instanceId);
   }
 
-  private static boolean addRowFromOdkCollectInstance(Context context, String appName,
+  private static String addRowFromOdkCollectInstance(Context context, String appName,
       String tableId, int instanceId) {
     FormValues formValues = CollectUtil.getOdkCollectFormValuesFromInstanceId(context, appName,
         instanceId);
     if (formValues == null) {
-      return false;
+      return null;
     }
     ArrayList<ColumnDefinition> orderedDefns;
-    SQLiteDatabase db = null;
+    DatabaseSession session = DatabaseSession.open(context, appName);
     try {
-      db = DatabaseFactory.get().getDatabase(context, appName);
+      SQLiteDatabase db = session.getDatabase();
       orderedDefns = TableUtil.get().getColumnDefinitions(db, appName, tableId);
 
-      ContentValues values = CollectUtil.getMapForInsertion(context, appName, tableId,
+      ContentValues values = CollectUtil.getMapForInsertion(session, appName, tableId,
           orderedDefns, formValues);
       values.put(DataTableColumns.ID, formValues.instanceID);
       values.put(DataTableColumns.FORM_ID, formValues.formId);
@@ -1598,11 +1574,9 @@ public class CollectUtil {
       ODKDatabaseUtils.get().insertDataIntoExistingDBTableWithId(db, tableId, orderedDefns, values,
           formValues.instanceID);
     } finally {
-      if (db != null) {
-        db.close();
-      }
+      session.release();
     }
-    return true;
+    return formValues.instanceID;
   }
 
   public static Intent getIntentForOdkCollectAddRowByQuery(Context context, String appName,
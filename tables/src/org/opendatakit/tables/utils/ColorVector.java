@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+/**
+ * The result of running one {@link CompiledColorRuleGroup} over a run of
+ * rows: the foreground and background color of each row, and whether any
+ * rule matched it at all. Lookups are plain array reads, so they are cheap
+ * enough to do for every cell of every frame.
+ */
+public class ColorVector {
+
+  private final int[] mForeground;
+  private final int[] mBackground;
+  /** Bit i is set if a rule matched row i. */
+  private final long[] mMatched;
+
+  public ColorVector(int size) {
+    this.mForeground = new int[size];
+    this.mBackground = new int[size];
+    this.mMatched = new long[(size + 63) >>> 6];
+  }
+
+  public int size() {
+    return mForeground.length;
+  }
+
+  void set(int index, int foreground, int background) {
+    mForeground[index] = foreground;
+    mBackground[index] = background;
+    mMatched[index >>> 6] |= 1L << (index & 63);
+  }
+
+  /**
+   * @param index
+   * @return true if a rule matched the row
+   */
+  public boolean isMatched(int index) {
+    return (mMatched[index >>> 6] & (1L << (index & 63))) != 0;
+  }
+
+  /**
+   * @param index
+   * @param defaultColor
+   * @return the foreground color of the row, or defaultColor if no rule
+   *         matched it
+   */
+  public int getForeground(int index, int defaultColor) {
+    return isMatched(index) ? mForeground[index] : defaultColor;
+  }
+
+  /**
+   * @param index
+   * @param defaultColor
+   * @return the background color of the row, or defaultColor if no rule
+   *         matched it
+   */
+  public int getBackground(int index, int defaultColor) {
+    return isMatched(index) ? mBackground[index] : defaultColor;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.utilities.ColumnUtil;
+
+/**
+ * Hash lookups over the ordered {@link ColumnDefinition}s of a table, built
+ * once so that resolving a column no longer scans the whole list the way
+ * {@link ColumnDefinition#find(ArrayList, String)} does. The index is
+ * immutable apart from the memo of element paths, and can be shared between
+ * threads.
+ */
+public class ColumnIndex {
+
+  private final ArrayList<ColumnDefinition> mOrderedDefns;
+  private final Map<String, ColumnDefinition> mElementKeyToDefn;
+  private final Map<String, Integer> mElementKeyToOrdinal;
+  /**
+   * The element keys of the element paths that have been asked for. Only
+   * paths that resolve to columns of the table are kept, so this is bounded
+   * by the number of columns.
+   */
+  private final ConcurrentHashMap<String, String> mElementPathToKey = new ConcurrentHashMap<String, String>();
+
+  /**
+   * @param orderedDefns
+   *          the column definitions of the table, as returned by
+   *          TableUtil.getColumnDefinitions. The list must not be changed
+   *          afterwards.
+   */
+  public ColumnIndex(ArrayList<ColumnDefinition> orderedDefns) {
+    this.mOrderedDefns = orderedDefns;
+    this.mElementKeyToDefn = new HashMap<String, ColumnDefinition>(orderedDefns.size() * 2);
+    this.mElementKeyToOrdinal = new HashMap<String, Integer>(orderedDefns.size() * 2);
+    for (int i = 0; i < orderedDefns.size(); ++i) {
+      ColumnDefinition cd = orderedDefns.get(i);
+      mElementKeyToDefn.put(cd.getElementKey(), cd);
+      mElementKeyToOrdinal.put(cd.getElementKey(), i);
+    }
+  }
+
+  public ArrayList<ColumnDefinition> getColumnDefinitions() {
+    return mOrderedDefns;
+  }
+
+  /**
+   * @param elementKey
+   * @return the column, or null if the table has no such column
+   */
+  public ColumnDefinition get(String elementKey) {
+    return mElementKeyToDefn.get(elementKey);
+  }
+
+  /**
+   * The drop-in replacement for {@link ColumnDefinition#find}.
+   *
+   * @param elementKey
+   * @return the column
+   * @throws IllegalArgumentException
+   *           if the table has no such column
+   */
+  public ColumnDefinition find(String elementKey) {
+    ColumnDefinition cd = mElementKeyToDefn.get(elementKey);
+    if (cd == null) {
+      throw new IllegalArgumentException("column definition for elementKey " + elementKey
+          + " not found");
+    }
+    return cd;
+  }
+
+  public boolean contains(String elementKey) {
+    return mElementKeyToDefn.containsKey(elementKey);
+  }
+
+  /**
+   * @param elementKey
+   * @return the position of the column in the ordered column definitions, or
+   *         -1 if the table has no such column
+   */
+  public int getOrdinal(String elementKey) {
+    Integer ordinal = mElementKeyToOrdinal.get(elementKey);
+    return (ordinal == null) ? -1 : ordinal;
+  }
+
+  /**
+   * Resolve an element path as {@link ColumnUtil#getElementKeyFromElementPath}
+   * does, remembering the answer for the paths of this table's columns.
+   *
+   * @param elementPath
+   * @return the element key, or null if the path is null
+   */
+  public String getElementKeyFromElementPath(String elementPath) {
+    if (elementPath == null) {
+      return null;
+    }
+    String elementKey = mElementPathToKey.get(elementPath);
+    if (elementKey != null) {
+      return elementKey;
+    }
+    elementKey = ColumnUtil.get().getElementKeyFromElementPath(elementPath);
+    if (elementKey != null && mElementKeyToDefn.containsKey(elementKey)) {
+      mElementPathToKey.put(elementPath, elementKey);
+    }
+    return elementKey;
+  }
+}
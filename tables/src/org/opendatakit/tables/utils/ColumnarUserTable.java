@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.data.UserTable.Row;
+
+/**
+ * The columns of a {@link UserTable}, held as typed arrays so that loops over
+ * every row do not go back through the strings of each {@link Row}. A column
+ * read as numbers is parsed once into a long[] or double[], with a bitmap of
+ * the rows that have no value. A column read as strings is dictionary
+ * encoded, so that a comparison against its values can be made once per
+ * distinct value rather than once per row.
+ * <p>
+ * A column is only built the first time it is asked for, and is then kept
+ * for as long as the table is, so one of these should be held per query
+ * result and shared by everything that reads it. Building a column reads
+ * every row, so it should be done off the UI thread. The table must not
+ * change while this is in use.
+ */
+public class ColumnarUserTable {
+
+  private final UserTable mTable;
+  /** The rows of the table, by their index in it. */
+  private final Row[] mRows;
+  /** The data type of each column of the table, by element key. */
+  private final Map<String, ElementDataType> mDataTypes;
+  /** The columns read as numbers, by element key. Guarded by this. */
+  private final Map<String, NumberColumn> mNumberColumns = new HashMap<String, NumberColumn>();
+  /** The columns read as strings, by element key. Guarded by this. */
+  private final Map<String, StringColumn> mStringColumns = new HashMap<String, StringColumn>();
+
+  private ColumnarUserTable(UserTable table) {
+    this.mTable = table;
+    int numberOfRows = table.getNumberOfRows();
+    this.mRows = new Row[numberOfRows];
+    for (int i = 0; i < numberOfRows; ++i) {
+      mRows[i] = table.getRowAtIndex(i);
+    }
+    this.mDataTypes = new HashMap<String, ElementDataType>();
+    List<ColumnDefinition> orderedDefns = table.getColumnDefinitions();
+    if (orderedDefns != null) {
+      for (ColumnDefinition cd : orderedDefns) {
+        mDataTypes.put(cd.getElementKey(), cd.getType().getDataType());
+      }
+    }
+  }
+
+  /**
+   * @param table
+   * @return the columns of the table, none of which have been built yet
+   */
+  public static ColumnarUserTable wrap(UserTable table) {
+    return new ColumnarUserTable(table);
+  }
+
+  /**
+   * @return the table the columns are read from
+   */
+  public UserTable getTable() {
+    return mTable;
+  }
+
+  public int getNumberOfRows() {
+    return mRows.length;
+  }
+
+  /**
+   * @param rowIndex
+   * @return the row at the index in the table
+   */
+  public Row getRowAtIndex(int rowIndex) {
+    return mRows[rowIndex];
+  }
+
+  /**
+   * Get the values of the column as numbers. The values of an integer column
+   * are held as longs if they all parse as one; any other column is held as
+   * doubles. Rows whose value is null, empty or not a number are null.
+   *
+   * @param elementKey
+   *          a user or admin column
+   * @return
+   */
+  public synchronized NumberColumn getNumberColumn(String elementKey) {
+    NumberColumn column = mNumberColumns.get(elementKey);
+    if (column == null) {
+      if (mDataTypes.get(elementKey) == ElementDataType.integer) {
+        column = LongColumn.build(mRows, elementKey);
+      }
+      if (column == null) {
+        column = DoubleColumn.build(mRows, elementKey);
+      }
+      mNumberColumns.put(elementKey, column);
+    }
+    return column;
+  }
+
+  /**
+   * Get the values of the column as they are stored in the rows.
+   *
+   * @param elementKey
+   *          a user or admin column
+   * @return
+   */
+  public synchronized StringColumn getStringColumn(String elementKey) {
+    StringColumn column = mStringColumns.get(elementKey);
+    if (column == null) {
+      column = StringColumn.build(mRows, elementKey);
+      mStringColumns.put(elementKey, column);
+    }
+    return column;
+  }
+
+  /**
+   * A bitmap recording which rows of a column have no value.
+   */
+  static final class NullBitmap {
+    private final long[] mBits;
+
+    NullBitmap(int size) {
+      mBits = new long[(size + 63) >>> 6];
+    }
+
+    void setNull(int index) {
+      mBits[index >>> 6] |= (1L << (index & 63));
+    }
+
+    boolean isNull(int index) {
+      return (mBits[index >>> 6] & (1L << (index & 63))) != 0;
+    }
+  }
+
+  /**
+   * The values of a single column, parsed as numbers.
+   */
+  public abstract static class NumberColumn {
+
+    private final NullBitmap mNulls;
+
+    NumberColumn(NullBitmap nulls) {
+      this.mNulls = nulls;
+    }
+
+    /**
+     * @param rowIndex
+     * @return true if the row has no value, or one that is not a number
+     */
+    public boolean isNull(int rowIndex) {
+      return mNulls.isNull(rowIndex);
+    }
+
+    /**
+     * @param rowIndex
+     * @return the value of the row, or 0 if it is null
+     */
+    public abstract double getDouble(int rowIndex);
+  }
+
+  static final class LongColumn extends NumberColumn {
+    private final long[] mValues;
+
+    private LongColumn(long[] values, NullBitmap nulls) {
+      super(nulls);
+      this.mValues = values;
+    }
+
+    /**
+     * @return the column, or null if a value is not null and does not parse
+     *         as a long
+     */
+    static LongColumn build(Row[] rows, String elementKey) {
+      long[] values = new long[rows.length];
+      NullBitmap nulls = new NullBitmap(rows.length);
+      for (int i = 0; i < rows.length; ++i) {
+        String value = rows[i].getRawDataOrMetadataByElementKey(elementKey);
+        if (value == null || value.length() == 0) {
+          nulls.setNull(i);
+          continue;
+        }
+        try {
+          values[i] = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          return null;
+        }
+      }
+      return new LongColumn(values, nulls);
+    }
+
+    @Override
+    public double getDouble(int rowIndex) {
+      return mValues[rowIndex];
+    }
+
+    /**
+     * @param rowIndex
+     * @return the value of the row, or 0 if it is null
+     */
+    public long getLong(int rowIndex) {
+      return mValues[rowIndex];
+    }
+  }
+
+  static final class DoubleColumn extends NumberColumn {
+    private final double[] mValues;
+
+    private DoubleColumn(double[] values, NullBitmap nulls) {
+      super(nulls);
+      this.mValues = values;
+    }
+
+    static DoubleColumn build(Row[] rows, String elementKey) {
+      double[] values = new double[rows.length];
+      NullBitmap nulls = new NullBitmap(rows.length);
+      for (int i = 0; i < rows.length; ++i) {
+        String value = rows[i].getRawDataOrMetadataByElementKey(elementKey);
+        if (value == null || value.length() == 0) {
+          nulls.setNull(i);
+          continue;
+        }
+        try {
+          values[i] = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+          nulls.setNull(i);
+        }
+      }
+      return new DoubleColumn(values, nulls);
+    }
+
+    @Override
+    public double getDouble(int rowIndex) {
+      return mValues[rowIndex];
+    }
+  }
+
+  /**
+   * The values of a single column as strings, held as a code per row into a
+   * dictionary of the distinct values.
+   */
+  public static final class StringColumn {
+    /** The code of a row whose value is null. */
+    public static final int NULL_CODE = -1;
+
+    private final String[] mDictionary;
+    private final int[] mCodes;
+
+    private StringColumn(String[] dictionary, int[] codes) {
+      this.mDictionary = dictionary;
+      this.mCodes = codes;
+    }
+
+    static StringColumn build(Row[] rows, String elementKey) {
+      int[] codes = new int[rows.length];
+      Map<String, Integer> valueToCode = new HashMap<String, Integer>();
+      ArrayList<String> dictionary = new ArrayList<String>();
+      for (int i = 0; i < rows.length; ++i) {
+        String value = rows[i].getRawDataOrMetadataByElementKey(elementKey);
+        if (value == null) {
+          codes[i] = NULL_CODE;
+          continue;
+        }
+        Integer code = valueToCode.get(value);
+        if (code == null) {
+          code = dictionary.size();
+          valueToCode.put(value, code);
+          dictionary.add(value);
+        }
+        codes[i] = code;
+      }
+      return new StringColumn(dictionary.toArray(new String[dictionary.size()]), codes);
+    }
+
+    /**
+     * @return the number of distinct values in the column
+     */
+    public int getDictionarySize() {
+      return mDictionary.length;
+    }
+
+    /**
+     * @param code
+     * @return the value with the code
+     */
+    public String getDictionaryValue(int code) {
+      return mDictionary[code];
+    }
+
+    /**
+     * @param rowIndex
+     * @return the code of the value of the row, or {@link #NULL_CODE}
+     */
+    public int getCode(int rowIndex) {
+      return mCodes[rowIndex];
+    }
+
+    /**
+     * @param rowIndex
+     * @return the value of the row, or null
+     */
+    public String getString(int rowIndex) {
+      int code = mCodes[rowIndex];
+      return (code == NULL_CODE) ? null : mDictionary[code];
+    }
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
+import org.opendatakit.common.android.data.ColorGuide;
+import org.opendatakit.common.android.data.ColorRule;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable.Row;
+import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
+import org.opendatakit.tables.utils.ColumnarUserTable.NumberColumn;
+import org.opendatakit.tables.utils.ColumnarUserTable.StringColumn;
+
+/**
+ * The rules of a {@link ColorRuleGroup}, compiled once so that they can be
+ * run over many rows. The column of each rule is resolved, its operator is
+ * turned into a comparison and, for numeric columns, its value is parsed up
+ * front rather than for every row.
+ * <p>
+ * Rules on the admin columns, such as the sync state of a status column
+ * rule, compare the value as a string, as the group itself does. A group
+ * holding a rule that cannot be compiled (an operator other than the
+ * comparisons, or a column that is neither an admin column nor part of the
+ * table) is run through
+ * {@link ColorRuleGroup#getColorGuide(ArrayList, Row)} instead, so the
+ * results are always the same as the group's own.
+ * <p>
+ * The results are written to a {@link ColorVector}, which is what renderers
+ * should read while drawing.
+ */
+public class CompiledColorRuleGroup {
+
+  private static final int LESS_THAN = 0;
+  private static final int LESS_THAN_OR_EQUAL = 1;
+  private static final int EQUAL = 2;
+  private static final int GREATER_THAN_OR_EQUAL = 3;
+  private static final int GREATER_THAN = 4;
+
+  /** A group with no rules, which never matches. */
+  private static final CompiledColorRuleGroup EMPTY = new CompiledColorRuleGroup();
+
+  private final ArrayList<ColumnDefinition> mOrderedDefns;
+  /** The lookups over mOrderedDefns, used to resolve the columns of the rules. */
+  private final ColumnIndex mColumnIndex;
+  /** The group to ask instead, if its rules could not all be compiled. */
+  private final ColorRuleGroup mFallback;
+  private final String[] mElementKeys;
+  private final int[] mComparisons;
+  /** True where the rule is on a numeric column, and so uses mDoubleValues. */
+  private final boolean[] mNumeric;
+  private final double[] mDoubleValues;
+  private final String[] mStringValues;
+  private final int[] mForegrounds;
+  private final int[] mBackgrounds;
+
+  private CompiledColorRuleGroup() {
+    this.mOrderedDefns = null;
+    this.mColumnIndex = null;
+    this.mFallback = null;
+    this.mElementKeys = new String[0];
+    this.mComparisons = new int[0];
+    this.mNumeric = new boolean[0];
+    this.mDoubleValues = new double[0];
+    this.mStringValues = new String[0];
+    this.mForegrounds = new int[0];
+    this.mBackgrounds = new int[0];
+  }
+
+  private CompiledColorRuleGroup(ArrayList<ColumnDefinition> orderedDefns,
+      ColumnIndex columnIndex, ColorRuleGroup fallback, int size) {
+    this.mOrderedDefns = orderedDefns;
+    this.mColumnIndex = columnIndex;
+    this.mFallback = fallback;
+    this.mElementKeys = new String[size];
+    this.mComparisons = new int[size];
+    this.mNumeric = new boolean[size];
+    this.mDoubleValues = new double[size];
+    this.mStringValues = new String[size];
+    this.mForegrounds = new int[size];
+    this.mBackgrounds = new int[size];
+  }
+
+  /**
+   * Compile the rules of the group.
+   *
+   * @param group
+   *          may be null, in which case no row matches
+   * @param orderedDefns
+   *          the columns of the table the rules will be run against
+   * @return
+   */
+  public static CompiledColorRuleGroup compile(ColorRuleGroup group,
+      ArrayList<ColumnDefinition> orderedDefns) {
+    if (group == null) {
+      return EMPTY;
+    }
+    List<ColorRule> rules = group.getColorRules();
+    if (rules == null || rules.isEmpty()) {
+      return EMPTY;
+    }
+    CompiledColorRuleGroup compiled = new CompiledColorRuleGroup(orderedDefns,
+        new ColumnIndex(orderedDefns), null, rules.size());
+    List<String> adminColumns = ODKDatabaseUtils.get().getAdminColumns();
+    for (int i = 0; i < rules.size(); ++i) {
+      if (!compiled.compileRule(i, rules.get(i), adminColumns)) {
+        return new CompiledColorRuleGroup(orderedDefns, null, group, 0);
+      }
+    }
+    return compiled;
+  }
+
+  /**
+   * @param adminColumns
+   *          the element keys of the admin columns, whose values are
+   *          compared as strings
+   * @return false if the rule cannot be compiled
+   */
+  private boolean compileRule(int i, ColorRule rule, List<String> adminColumns) {
+    if (rule.getOperator() == null) {
+      return false;
+    }
+    int comparison = getComparison(rule.getOperator().getSymbol());
+    if (comparison == -1 || rule.getVal() == null) {
+      return false;
+    }
+    boolean isAdminColumn = adminColumns.contains(rule.getColumnElementKey());
+    ColumnDefinition cd = isAdminColumn ? null : mColumnIndex.get(rule.getColumnElementKey());
+    if (!isAdminColumn && cd == null) {
+      return false;
+    }
+    mElementKeys[i] = rule.getColumnElementKey();
+    mComparisons[i] = comparison;
+    mStringValues[i] = rule.getVal();
+    mForegrounds[i] = rule.getForeground();
+    mBackgrounds[i] = rule.getBackground();
+    if (isAdminColumn) {
+      return true;
+    }
+    ElementDataType dataType = cd.getType().getDataType();
+    if (dataType == ElementDataType.integer || dataType == ElementDataType.number) {
+      try {
+        mDoubleValues[i] = Double.parseDouble(rule.getVal());
+        mNumeric[i] = true;
+      } catch (NumberFormatException e) {
+        // a rule that can never be parsed can never match; let the group
+        // decide what to do with it.
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int getComparison(String symbol) {
+    if ("<".equals(symbol)) {
+      return LESS_THAN;
+    } else if ("<=".equals(symbol)) {
+      return LESS_THAN_OR_EQUAL;
+    } else if ("=".equals(symbol)) {
+      return EQUAL;
+    } else if (">=".equals(symbol)) {
+      return GREATER_THAN_OR_EQUAL;
+    } else if (">".equals(symbol)) {
+      return GREATER_THAN;
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if no row can match
+   */
+  public boolean isEmpty() {
+    return mFallback == null && mElementKeys.length == 0;
+  }
+
+  /**
+   * Run the rules against the row and record the colors of the first match,
+   * if any, at the given index of the vector.
+   *
+   * @param row
+   * @param vector
+   * @param index
+   * @return true if a rule matched
+   */
+  public boolean evaluate(Row row, ColorVector vector, int index) {
+    if (row == null) {
+      return false;
+    }
+    if (mFallback != null) {
+      ColorGuide guide = mFallback.getColorGuide(mOrderedDefns, row);
+      if (guide == null) {
+        return false;
+      }
+      vector.set(index, guide.getForeground(), guide.getBackground());
+      return true;
+    }
+    for (int i = 0; i < mElementKeys.length; ++i) {
+      if (matches(i, row.getRawDataOrMetadataByElementKey(mElementKeys[i]))) {
+        vector.set(index, mForegrounds[i], mBackgrounds[i]);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Run the rules against each of the rows.
+   *
+   * @param rows
+   *          entries may be null, which never match
+   * @return the colors of the rows, by their index in the list
+   */
+  public ColorVector evaluate(List<Row> rows) {
+    ColorVector vector = new ColorVector(rows.size());
+    if (!isEmpty()) {
+      for (int i = 0; i < rows.size(); ++i) {
+        evaluate(rows.get(i), vector, i);
+      }
+    }
+    return vector;
+  }
+
+  /**
+   * Run the rules against every row of the table. The columns of the rules
+   * are read from the table's typed columns, so a numeric value is never
+   * parsed more than once per query, and a string rule is compared once per
+   * distinct value of its column rather than once per row.
+   *
+   * @param table
+   * @return the colors of the rows, by their index in the table
+   */
+  public ColorVector evaluate(ColumnarUserTable table) {
+    int numberOfRows = table.getNumberOfRows();
+    ColorVector vector = new ColorVector(numberOfRows);
+    if (isEmpty()) {
+      return vector;
+    }
+    if (mFallback != null) {
+      for (int i = 0; i < numberOfRows; ++i) {
+        evaluate(table.getRowAtIndex(i), vector, i);
+      }
+      return vector;
+    }
+    int numberOfRules = mElementKeys.length;
+    NumberColumn[] numberColumns = new NumberColumn[numberOfRules];
+    StringColumn[] stringColumns = new StringColumn[numberOfRules];
+    // whether each distinct value of the column of a string rule matches it
+    boolean[][] dictionaryMatches = new boolean[numberOfRules][];
+    for (int r = 0; r < numberOfRules; ++r) {
+      if (mNumeric[r]) {
+        numberColumns[r] = table.getNumberColumn(mElementKeys[r]);
+      } else {
+        StringColumn column = table.getStringColumn(mElementKeys[r]);
+        boolean[] matches = new boolean[column.getDictionarySize()];
+        for (int code = 0; code < matches.length; ++code) {
+          String value = column.getDictionaryValue(code);
+          matches[code] = satisfies(r, value.compareTo(mStringValues[r]));
+        }
+        stringColumns[r] = column;
+        dictionaryMatches[r] = matches;
+      }
+    }
+    for (int i = 0; i < numberOfRows; ++i) {
+      for (int r = 0; r < numberOfRules; ++r) {
+        boolean matched;
+        if (mNumeric[r]) {
+          NumberColumn column = numberColumns[r];
+          matched = !column.isNull(i)
+              && satisfies(r, Double.compare(column.getDouble(i), mDoubleValues[r]));
+        } else {
+          int code = stringColumns[r].getCode(i);
+          matched = code != StringColumn.NULL_CODE && dictionaryMatches[r][code];
+        }
+        if (matched) {
+          vector.set(i, mForegrounds[r], mBackgrounds[r]);
+          break;
+        }
+      }
+    }
+    return vector;
+  }
+
+  private boolean matches(int i, String value) {
+    if (value == null) {
+      return false;
+    }
+    int compareTo;
+    if (mNumeric[i]) {
+      if (value.length() == 0) {
+        return false;
+      }
+      try {
+        compareTo = Double.compare(Double.parseDouble(value), mDoubleValues[i]);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    } else {
+      compareTo = value.compareTo(mStringValues[i]);
+    }
+    return satisfies(i, compareTo);
+  }
+
+  /**
+   * @param i
+   *          the rule
+   * @param compareTo
+   *          the value compared to the value of the rule
+   * @return true if the comparison of the rule holds
+   */
+  private boolean satisfies(int i, int compareTo) {
+    switch (mComparisons[i]) {
+    case LESS_THAN:
+      return compareTo < 0;
+    case LESS_THAN_OR_EQUAL:
+      return compareTo <= 0;
+    case EQUAL:
+      return compareTo == 0;
+    case GREATER_THAN_OR_EQUAL:
+      return compareTo >= 0;
+    case GREATER_THAN:
+      return compareTo > 0;
+    default:
+      return false;
+    }
+  }
+}
@@ -228,4 +228,16 @@ public class Constants {
     public static final String GRAPH = "graph_data";
   }
 
+  /**
+   * The names of the events dispatched on the window of a loaded page.
+   */
+  public static class JavaScriptEvents {
+    /**
+     * The rows of the data object have changed, e.g. a map marker was
+     * selected. The detail holds the new count and whether a row is selected
+     * and shown first.
+     */
+    public static final String DATA_CHANGED = "odkDataChanged";
+  }
+
 }
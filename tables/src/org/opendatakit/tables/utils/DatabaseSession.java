@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opendatakit.common.android.database.DatabaseFactory;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * A reference-counted handle on the database of an app. The database is
+ * opened through {@link DatabaseFactory} the first time it is asked for and
+ * closed when the last reference is released, so that helpers which are
+ * handed a session can run many queries against a single open database.
+ * <p>
+ * An activity or task holds a reference for its lifetime, and anything that
+ * does database work on its behalf acquires and releases its own reference:
+ *
+ * <pre>
+ * DatabaseSession session = activity.getDatabaseSession().acquire();
+ * try {
+ *   SQLiteDatabase db = session.getDatabase();
+ *   ...
+ * } finally {
+ *   session.release();
+ * }
+ * </pre>
+ *
+ * The number of acquisitions and of actual database opens are counted across
+ * all sessions, so the reuse rate can be checked with
+ * {@link #getAcquisitionCount()} and {@link #getOpenCount()}.
+ */
+public class DatabaseSession {
+
+  private static final AtomicLong sAcquisitionCount = new AtomicLong();
+  private static final AtomicLong sOpenCount = new AtomicLong();
+
+  private final Context mContext;
+  private final String mAppName;
+  private int mReferenceCount = 0;
+  private SQLiteDatabase mDatabase = null;
+
+  public DatabaseSession(Context context, String appName) {
+    this.mContext = context.getApplicationContext();
+    this.mAppName = appName;
+  }
+
+  /**
+   * Create a session and acquire the first reference to it. The caller must
+   * {@link #release()} it.
+   *
+   * @param context
+   * @param appName
+   * @return
+   */
+  public static DatabaseSession open(Context context, String appName) {
+    return new DatabaseSession(context, appName).acquire();
+  }
+
+  public String getAppName() {
+    return mAppName;
+  }
+
+  /**
+   * Add a reference to the session. Every call must be matched by a call to
+   * {@link #release()}.
+   *
+   * @return this session
+   */
+  public synchronized DatabaseSession acquire() {
+    ++mReferenceCount;
+    sAcquisitionCount.incrementAndGet();
+    return this;
+  }
+
+  /**
+   * Drop a reference to the session, closing the database if it was the last
+   * one.
+   */
+  public synchronized void release() {
+    if (mReferenceCount <= 0) {
+      throw new IllegalStateException("session for " + mAppName + " released too many times");
+    }
+    --mReferenceCount;
+    if (mReferenceCount == 0 && mDatabase != null) {
+      mDatabase.close();
+      mDatabase = null;
+    }
+  }
+
+  /**
+   * Get the database, opening it if this session does not already have it
+   * open. The database must not be closed by the caller.
+   *
+   * @return
+   * @throws IllegalStateException
+   *           if no reference to the session is held
+   */
+  public synchronized SQLiteDatabase getDatabase() {
+    if (mReferenceCount <= 0) {
+      throw new IllegalStateException("session for " + mAppName + " used without acquire()");
+    }
+    if (mDatabase == null) {
+      mDatabase = DatabaseFactory.get().getDatabase(mContext, mAppName);
+      sOpenCount.incrementAndGet();
+    }
+    return mDatabase;
+  }
+
+  /**
+   * @return true if the database is currently held open by this session
+   */
+  public synchronized boolean isOpen() {
+    return mDatabase != null;
+  }
+
+  /**
+   * @return the number of times a reference to any session has been acquired
+   */
+  public static long getAcquisitionCount() {
+    return sAcquisitionCount.get();
+  }
+
+  /**
+   * @return the number of times any session has had to open the database
+   */
+  public static long getOpenCount() {
+    return sOpenCount.get();
+  }
+
+  /**
+   * Reset the counters reported by {@link #getAcquisitionCount()} and
+   * {@link #getOpenCount()}.
+   */
+  public static void resetCounts() {
+    sAcquisitionCount.set(0);
+    sOpenCount.set(0);
+  }
+}
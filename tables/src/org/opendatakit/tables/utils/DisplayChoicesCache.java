@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.opendatakit.common.android.utilities.ColumnUtil;
+
+/**
+ * The parsed display choices of the columns of each table, so that
+ * validating a value does not read and parse the choices list from the key
+ * value store every time. This matters when many rows are validated at once,
+ * as when rows are added from javascript or ingested from Collect.
+ * <p>
+ * The data values of the choices are also kept as a set, so that checking
+ * that a value is one of the choices does not walk the list.
+ * <p>
+ * The choices of a table are dropped whenever its {@link TableMetadataSnapshot}
+ * is invalidated, as anything that writes column settings already does.
+ */
+public class DisplayChoicesCache {
+
+  /** The key of the value stored for a choice, as opposed to its display text. */
+  static final String DATA_VALUE = "data_value";
+
+  /**
+   * appName/tableId -> elementKey -> choices list, which is null for a column
+   * without choices. Guarded by itself.
+   */
+  private static final Map<String, Map<String, ArrayList<Map<String, Object>>>> sChoices =
+      new HashMap<String, Map<String, ArrayList<Map<String, Object>>>>();
+  /**
+   * appName/tableId -> elementKey -> the data values of the choices, which is
+   * null for a column without choices. Guarded by {@link #sChoices}.
+   */
+  private static final Map<String, Map<String, Set<String>>> sChoiceValues =
+      new HashMap<String, Map<String, Set<String>>>();
+
+  /**
+   * Get the display choices of the column, reading them if they are not
+   * cached.
+   *
+   * @param session
+   *          a session on the app's database, which the caller has acquired
+   * @param tableId
+   * @param elementKey
+   * @return the choices list as returned by
+   *         {@link ColumnUtil#getDisplayChoicesList}, or null if the column
+   *         has none
+   */
+  @SuppressWarnings("unchecked")
+  public static ArrayList<Map<String, Object>> get(DatabaseSession session, String tableId,
+      String elementKey) {
+    String cacheKey = getCacheKey(session.getAppName(), tableId);
+    synchronized (sChoices) {
+      Map<String, ArrayList<Map<String, Object>>> tableChoices = sChoices.get(cacheKey);
+      if (tableChoices != null && tableChoices.containsKey(elementKey)) {
+        return tableChoices.get(elementKey);
+      }
+    }
+    ArrayList<Map<String, Object>> choices = (ArrayList<Map<String, Object>>) ColumnUtil.get()
+        .getDisplayChoicesList(session.getDatabase(), tableId, elementKey);
+    put(session.getAppName(), tableId, elementKey, choices);
+    return choices;
+  }
+
+  /**
+   * Get the data values of the display choices of the column, reading the
+   * choices if they are not cached.
+   *
+   * @param session
+   *          a session on the app's database, which the caller has acquired
+   * @param tableId
+   * @param elementKey
+   * @return the data values, or null if the column has no choices
+   */
+  public static Set<String> getChoiceValues(DatabaseSession session, String tableId,
+      String elementKey) {
+    get(session, tableId, elementKey);
+    return peekChoiceValues(session.getAppName(), tableId, elementKey);
+  }
+
+  /**
+   * @param appName
+   * @param tableId
+   * @param elementKey
+   * @return the cached data values of the choices of the column, or null if
+   *         it has none or they are not cached
+   */
+  static Set<String> peekChoiceValues(String appName, String tableId, String elementKey) {
+    synchronized (sChoices) {
+      Map<String, Set<String>> tableValues = sChoiceValues.get(getCacheKey(appName, tableId));
+      return (tableValues == null) ? null : tableValues.get(elementKey);
+    }
+  }
+
+  /**
+   * Cache the choices of the column.
+   *
+   * @param appName
+   * @param tableId
+   * @param elementKey
+   * @param choices
+   *          null if the column has none
+   */
+  static void put(String appName, String tableId, String elementKey,
+      ArrayList<Map<String, Object>> choices) {
+    String cacheKey = getCacheKey(appName, tableId);
+    Set<String> values = getDataValues(choices);
+    synchronized (sChoices) {
+      Map<String, ArrayList<Map<String, Object>>> tableChoices = sChoices.get(cacheKey);
+      Map<String, Set<String>> tableValues = sChoiceValues.get(cacheKey);
+      if (tableChoices == null) {
+        tableChoices = new HashMap<String, ArrayList<Map<String, Object>>>();
+        sChoices.put(cacheKey, tableChoices);
+      }
+      if (tableValues == null) {
+        tableValues = new HashMap<String, Set<String>>();
+        sChoiceValues.put(cacheKey, tableValues);
+      }
+      tableChoices.put(elementKey, choices);
+      tableValues.put(elementKey, values);
+    }
+  }
+
+  /**
+   * @param choices
+   *          null if the column has none
+   * @return the data value of each choice as a string, or null if there are
+   *         no choices
+   */
+  private static Set<String> getDataValues(ArrayList<Map<String, Object>> choices) {
+    if (choices == null) {
+      return null;
+    }
+    Set<String> values = new HashSet<String>();
+    for (Map<String, Object> choice : choices) {
+      Object dataValue = (choice == null) ? null : choice.get(DATA_VALUE);
+      if (dataValue != null) {
+        values.add(dataValue.toString());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @param appName
+   * @param tableId
+   * @param elementKey
+   * @return true if the choices of the column are cached, even if it has none
+   */
+  static boolean isCached(String appName, String tableId, String elementKey) {
+    synchronized (sChoices) {
+      Map<String, ArrayList<Map<String, Object>>> tableChoices =
+          sChoices.get(getCacheKey(appName, tableId));
+      return tableChoices != null && tableChoices.containsKey(elementKey);
+    }
+  }
+
+  /**
+   * Drop the choices of every column of the table.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public static void invalidate(String appName, String tableId) {
+    String cacheKey = getCacheKey(appName, tableId);
+    synchronized (sChoices) {
+      sChoices.remove(cacheKey);
+      sChoiceValues.remove(cacheKey);
+    }
+  }
+
+  /**
+   * Drop the choices of every table.
+   */
+  public static void invalidateAll() {
+    synchronized (sChoices) {
+      sChoices.clear();
+      sChoiceValues.clear();
+    }
+  }
+
+  private static String getCacheKey(String appName, String tableId) {
+    return appName + "/" + tableId;
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the points inside a bounding box into the cells of a square grid,
+ * so that a map can draw one bubble per crowded cell instead of one marker
+ * per point. The grid is anchored at latitude -90 and longitude -180, so the
+ * same point falls in the same cell however the box is panned.
+ * <p>
+ * This has no Android dependencies and is cheap enough to run every time the
+ * camera stops moving: it is a single pass over the points.
+ */
+public class GridClusterer {
+
+  /**
+   * The points to cluster, e.g. the markers of a {@link MapMarkerModel}.
+   */
+  public interface Points {
+    int size();
+
+    double getLatitude(int point);
+
+    double getLongitude(int point);
+
+    float getHue(int point);
+  }
+
+  /**
+   * A cell of the grid, or a single point that is drawn on its own.
+   */
+  public static class Cluster {
+    private final int mFirstPoint;
+    private int mCount = 0;
+    private double mLatitudeSum = 0;
+    private double mLongitudeSum = 0;
+    private final Map<Float, Integer> mHueCounts = new HashMap<Float, Integer>();
+    private float mDominantHue;
+    private int mDominantHueCount = 0;
+
+    Cluster(int firstPoint) {
+      this.mFirstPoint = firstPoint;
+    }
+
+    void add(double latitude, double longitude, float hue) {
+      ++mCount;
+      mLatitudeSum += latitude;
+      mLongitudeSum += longitude;
+      Integer hueCount = mHueCounts.get(hue);
+      int newHueCount = (hueCount == null) ? 1 : hueCount + 1;
+      mHueCounts.put(hue, newHueCount);
+      // ties go to the hue that got there first
+      if (newHueCount > mDominantHueCount) {
+        mDominantHueCount = newHueCount;
+        mDominantHue = hue;
+      }
+    }
+
+    /**
+     * @return the number of points in the cluster
+     */
+    public int getCount() {
+      return mCount;
+    }
+
+    /**
+     * @return true if the cluster is a point drawn on its own
+     */
+    public boolean isSinglePoint() {
+      return mCount == 1;
+    }
+
+    /**
+     * @return the first of the points in the cluster, which is the point
+     *         itself for a single point
+     */
+    public int getFirstPoint() {
+      return mFirstPoint;
+    }
+
+    /**
+     * @return the latitude of the centroid of the points
+     */
+    public double getLatitude() {
+      return mLatitudeSum / mCount;
+    }
+
+    /**
+     * @return the longitude of the centroid of the points
+     */
+    public double getLongitude() {
+      return mLongitudeSum / mCount;
+    }
+
+    /**
+     * @return the hue shared by the most points in the cluster
+     */
+    public float getDominantHue() {
+      return mDominantHue;
+    }
+  }
+
+  /**
+   * Cluster the points inside the bounding box. If west is greater than east
+   * the box crosses the antimeridian.
+   *
+   * @param points
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @param cellSize
+   *          the width and height of a cell of the grid, in degrees
+   * @param minClusterSize
+   *          cells holding fewer points than this are returned as their
+   *          single points
+   * @return the clusters and single points, in the order of the first point
+   *         of each
+   */
+  public static List<Cluster> cluster(Points points, double south, double west, double north,
+      double east, double cellSize, int minClusterSize) {
+    return cluster(points, null, south, west, north, east, cellSize, minClusterSize);
+  }
+
+  /**
+   * Cluster some of the points inside the bounding box, e.g. the result of a
+   * {@link SpatialIndex} query, so that the points outside the box are not
+   * looked at.
+   *
+   * @param points
+   * @param candidates
+   *          the points to consider, in ascending order, or null for all of
+   *          them
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @param cellSize
+   * @param minClusterSize
+   * @return the clusters and single points, in the order of the first point
+   *         of each
+   */
+  public static List<Cluster> cluster(Points points, int[] candidates, double south,
+      double west, double north, double east, double cellSize, int minClusterSize) {
+    if (cellSize <= 0) {
+      throw new IllegalArgumentException("cellSize must be positive: " + cellSize);
+    }
+    Map<Long, List<Integer>> cells = new LinkedHashMap<Long, List<Integer>>();
+    long cellsAround = (long) Math.ceil(360.0 / cellSize) + 1;
+    int count = (candidates == null) ? points.size() : candidates.length;
+    for (int c = 0; c < count; ++c) {
+      int i = (candidates == null) ? c : candidates[c];
+      double latitude = points.getLatitude(i);
+      double longitude = points.getLongitude(i);
+      if (!isInside(latitude, longitude, south, west, north, east)) {
+        continue;
+      }
+      long row = (long) Math.floor((latitude + 90.0) / cellSize);
+      long column = (long) Math.floor((longitude + 180.0) / cellSize);
+      Long cell = row * cellsAround + column;
+      List<Integer> cellPoints = cells.get(cell);
+      if (cellPoints == null) {
+        cellPoints = new ArrayList<Integer>();
+        cells.put(cell, cellPoints);
+      }
+      cellPoints.add(i);
+    }
+
+    List<Cluster> result = new ArrayList<Cluster>(cells.size());
+    for (List<Integer> cellPoints : cells.values()) {
+      if (cellPoints.size() < minClusterSize) {
+        for (int point : cellPoints) {
+          Cluster single = new Cluster(point);
+          single.add(points.getLatitude(point), points.getLongitude(point),
+              points.getHue(point));
+          result.add(single);
+        }
+      } else {
+        Cluster cluster = new Cluster(cellPoints.get(0));
+        for (int point : cellPoints) {
+          cluster.add(points.getLatitude(point), points.getLongitude(point),
+              points.getHue(point));
+        }
+        result.add(cluster);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if the point is inside the bounding box, which crosses the
+   *         antimeridian if west is greater than east
+   */
+  static boolean isInside(double latitude, double longitude, double south, double west,
+      double north, double east) {
+    if (latitude < south || latitude > north) {
+      return false;
+    }
+    if (west <= east) {
+      return longitude >= west && longitude <= east;
+    }
+    return longitude >= west || longitude <= east;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import org.opendatakit.common.android.utilities.ColumnUtil;
+import org.opendatakit.common.android.utilities.StaticStateManipulator;
+import org.opendatakit.common.android.utilities.StaticStateManipulator.IStaticFieldManipulator;
+import org.opendatakit.common.android.utilities.TableUtil;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The localized display names of tables and columns, shared across the app.
+ * Lists of tables and columns otherwise read and localize the display name
+ * of every entry from the key value store each time they are built.
+ * <p>
+ * Names are kept per app, table, column and locale. The names of a table
+ * and its columns are dropped when its {@link TableMetadataSnapshot} is
+ * invalidated, as anything that writes table properties already does, and
+ * every name is dropped when the locale changes.
+ */
+public class LocalizedNameCache {
+
+  /** appName/tableId/elementKey/locale -> name. Guarded by itself. */
+  private static final Map<String, String> sNames = new HashMap<String, String>();
+
+  static {
+    StaticStateManipulator.get().register(90, new IStaticFieldManipulator() {
+      @Override
+      public void reset() {
+        invalidateAll();
+      }});
+  }
+
+  /**
+   * @param db
+   * @param appName
+   * @param tableId
+   * @return the display name of the table in the current locale
+   */
+  public static String getTableDisplayName(SQLiteDatabase db, String appName, String tableId) {
+    String cacheKey = getCacheKey(appName, tableId, null);
+    String name = lookup(cacheKey);
+    if (name == null) {
+      name = TableUtil.get().getLocalizedDisplayName(db, tableId);
+      store(cacheKey, name);
+    }
+    return name;
+  }
+
+  /**
+   * @param db
+   * @param appName
+   * @param tableId
+   * @param elementKey
+   * @return the display name of the column in the current locale
+   */
+  public static String getColumnDisplayName(SQLiteDatabase db, String appName, String tableId,
+      String elementKey) {
+    String cacheKey = getCacheKey(appName, tableId, elementKey);
+    String name = lookup(cacheKey);
+    if (name == null) {
+      name = ColumnUtil.get().getLocalizedDisplayName(db, tableId, elementKey);
+      store(cacheKey, name);
+    }
+    return name;
+  }
+
+  /**
+   * @param appName
+   * @param tableId
+   * @return the display name of the table if it is cached, else null, so
+   *         that callers can avoid opening a database when it is not needed
+   */
+  public static String peekTableDisplayName(String appName, String tableId) {
+    return lookup(getCacheKey(appName, tableId, null));
+  }
+
+  /**
+   * @param appName
+   * @param tableId
+   * @param elementKey
+   * @return the display name of the column if it is cached, else null
+   */
+  public static String peekColumnDisplayName(String appName, String tableId, String elementKey) {
+    return lookup(getCacheKey(appName, tableId, elementKey));
+  }
+
+  /**
+   * Drop the names of the table and its columns.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public static void invalidate(String appName, String tableId) {
+    String prefix = appName + "/" + tableId + "/";
+    synchronized (sNames) {
+      Iterator<String> iter = sNames.keySet().iterator();
+      while (iter.hasNext()) {
+        if (iter.next().startsWith(prefix)) {
+          iter.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Drop every name, e.g. when the locale has changed.
+   */
+  public static void invalidateAll() {
+    synchronized (sNames) {
+      sNames.clear();
+    }
+  }
+
+  private static String lookup(String cacheKey) {
+    synchronized (sNames) {
+      return sNames.get(cacheKey);
+    }
+  }
+
+  private static void store(String cacheKey, String name) {
+    if (name == null) {
+      return;
+    }
+    synchronized (sNames) {
+      sNames.put(cacheKey, name);
+    }
+  }
+
+  static String getCacheKey(String appName, String tableId, String elementKey) {
+    return appName + "/" + tableId + "/" + ((elementKey == null) ? "" : elementKey) + "/"
+        + Locale.getDefault().toString();
+  }
+}
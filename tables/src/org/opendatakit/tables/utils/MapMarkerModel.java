@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.tables.utils.ColumnarUserTable.NumberColumn;
+
+import android.graphics.Color;
+
+/**
+ * The markers of a map: the position and hue of every row that has a valid
+ * location, held in primitive arrays. It is built once per query, off the UI
+ * thread, so that drawing the map does not parse coordinates or evaluate
+ * color rules row by row.
+ */
+public class MapMarkerModel implements GridClusterer.Points {
+
+  private final UserTable mSource;
+  /** The index in the table of the row of each marker, ascending. */
+  private final int[] mRowIndices;
+  private final double[] mLatitudes;
+  private final double[] mLongitudes;
+  private final float[] mHues;
+  private final int mSize;
+
+  MapMarkerModel(UserTable source, int[] rowIndices, double[] latitudes, double[] longitudes,
+      float[] hues, int size) {
+    this.mSource = source;
+    this.mRowIndices = rowIndices;
+    this.mLatitudes = latitudes;
+    this.mLongitudes = longitudes;
+    this.mHues = hues;
+    this.mSize = size;
+  }
+
+  /**
+   * Read the locations and hues of the rows of the table. The locations are
+   * taken from the table's number columns, so they are only parsed once per
+   * query however often the markers are rebuilt. Rows whose location is
+   * missing or cannot be parsed have no marker.
+   *
+   * @param table
+   * @param latitudeElementKey
+   * @param longitudeElementKey
+   * @param colors
+   *          the colors of the rows of the table, or null if there are no
+   *          color rules
+   * @param defaultHue
+   *          the hue of the rows that no color rule matched
+   * @return
+   */
+  public static MapMarkerModel build(ColumnarUserTable table, String latitudeElementKey,
+      String longitudeElementKey, ColorVector colors, float defaultHue) {
+    NumberColumn latitudeColumn = table.getNumberColumn(latitudeElementKey);
+    NumberColumn longitudeColumn = table.getNumberColumn(longitudeElementKey);
+    int numberOfRows = table.getNumberOfRows();
+    int[] rowIndices = new int[numberOfRows];
+    double[] latitudes = new double[numberOfRows];
+    double[] longitudes = new double[numberOfRows];
+    float[] hues = new float[numberOfRows];
+    // few distinct colors are in use, so convert each to a hue only once
+    Map<Integer, Float> colorToHue = new HashMap<Integer, Float>();
+    float[] hsv = new float[3];
+    int size = 0;
+    for (int i = 0; i < numberOfRows; ++i) {
+      if (latitudeColumn.isNull(i) || longitudeColumn.isNull(i)) {
+        continue;
+      }
+      latitudes[size] = latitudeColumn.getDouble(i);
+      longitudes[size] = longitudeColumn.getDouble(i);
+      float hue = defaultHue;
+      if (colors != null && colors.isMatched(i)) {
+        int color = colors.getBackground(i, Color.BLACK);
+        Float colorHue = colorToHue.get(color);
+        if (colorHue == null) {
+          Color.colorToHSV(color, hsv);
+          colorHue = hsv[0];
+          colorToHue.put(color, colorHue);
+        }
+        hue = colorHue;
+      }
+      hues[size] = hue;
+      rowIndices[size] = i;
+      ++size;
+    }
+    return new MapMarkerModel(table.getTable(), rowIndices, latitudes, longitudes, hues, size);
+  }
+
+  /**
+   * @return the table the model was built from
+   */
+  public UserTable getSource() {
+    return mSource;
+  }
+
+  /**
+   * @return the number of markers
+   */
+  public int size() {
+    return mSize;
+  }
+
+  /**
+   * @param marker
+   * @return the index in the table of the row of the marker
+   */
+  public int getRowIndex(int marker) {
+    return mRowIndices[marker];
+  }
+
+  public double getLatitude(int marker) {
+    return mLatitudes[marker];
+  }
+
+  public double getLongitude(int marker) {
+    return mLongitudes[marker];
+  }
+
+  public float getHue(int marker) {
+    return mHues[marker];
+  }
+
+  /**
+   * @param rowIndex
+   *          the index of a row in the table
+   * @return the marker of the row, or -1 if the row has no marker
+   */
+  public int getMarkerOfRow(int rowIndex) {
+    int marker = Arrays.binarySearch(mRowIndices, 0, mSize, rowIndex);
+    return (marker < 0) ? -1 : marker;
+  }
+}
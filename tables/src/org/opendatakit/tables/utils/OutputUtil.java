@@ -28,7 +28,6 @@ import org.apache.commons.lang3.CharEncoding;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.database.DatabaseFactory;
-import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.common.android.utilities.TableUtil;
@@ -39,7 +38,6 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
@@ -109,7 +107,7 @@ public class OutputUtil {
       for (String tableId : tableIds) {
 
         String localizedDisplayName;
-        localizedDisplayName = TableUtil.get().getLocalizedDisplayName(db, tableId);
+        localizedDisplayName = LocalizedNameCache.getTableDisplayName(db, appName, tableId);
         tableIdToDisplayName.put(tableId, localizedDisplayName);
         Map<String, Object> controlTable = getMapForControlTable(db, appName, tableId);
         tableIdToControlTable.put(tableId, controlTable);
@@ -164,7 +162,7 @@ public class OutputUtil {
         pathToKey.put(cd.getElementName(), cd.getElementKey());
 
         String localizedDisplayName;
-        localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(db, tableId,
+        localizedDisplayName = LocalizedNameCache.getColumnDisplayName(db, appName, tableId,
             cd.getElementKey());
 
         keyToDisplayName.put(cd.getElementKey(), localizedDisplayName);
@@ -237,35 +235,20 @@ public class OutputUtil {
       }
       partialData[i] = rowOut;
     }
-    // And now construct the object storing the columns data.
-    JsonParser jsonParser = new JsonParser();
+    // And now construct the object storing the columns data. The raw values
+    // are taken straight from the tableData rather than round-tripping them
+    // through its json string.
     Map<String, Object> elementKeyToColumnData = new HashMap<String, Object>();
     for (String elementKey : columnKeys) {
-      // The tableData object returns a string, so we'll have to parse it back
-      // into json.
-      String strColumnData = tableData.getColumnDataForElementKey(elementKey, numRowsToWrite);
-      if (strColumnData == null)
-        continue;
-      JsonArray columnData = (JsonArray) jsonParser.parse(strColumnData);
-      // Now that it's json, we want to convert it to an array. Otherwise it
-      // serializes to an object with a single key "elements". Oh gson.
-      String[] columnDataArray = new String[columnData.size()];
-      for (int i = 0; i < columnDataArray.length; i++) {
-        JsonElement e = columnData.get(i);
-        if (e == JsonNull.INSTANCE) {
-          columnDataArray[i] = null;
-        } else {
-          columnDataArray[i] = e.getAsString();
-        }
-      }
-      elementKeyToColumnData.put(elementKey, columnDataArray);
+      elementKeyToColumnData.put(elementKey,
+          tableData.getColumnValuesForElementKey(elementKey, numRowsToWrite));
     }
     Gson gson = new Gson();
     // We need to parse some of the String objects returned by TableData into
     // json so that they're output as objects rather than strings.
     String columnString = tableData.getColumns();
-    JsonObject columnJson = (JsonObject) jsonParser.parse(columnString);
-    // Here, as with JsonArray, we need to convert this to a map or else we'll
+    JsonObject columnJson = (JsonObject) new JsonParser().parse(columnString);
+    // Here we need to convert this to a map or else we'll
     // serialize as the object to a "members" key.
     Map<String, Object> columnJsonMap = new HashMap<String, Object>();
     for (Map.Entry<String, JsonElement> entry : columnJson.entrySet()) {
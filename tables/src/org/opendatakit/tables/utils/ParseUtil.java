@@ -16,15 +16,34 @@
 package org.opendatakit.tables.utils;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.opendatakit.aggregate.odktables.rest.ElementDataType;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.utilities.DataUtil;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.tables.utils.ElementTypeManipulator.ITypeManipulatorFragment;
 
 public class ParseUtil {
 
-  public static String validifyValue(String appName, DataUtil du, ArrayList<Map<String,Object>> choices, ColumnDefinition cd, String input) {
+  /**
+   * Normalize the value for the column, and check it against the choices of
+   * the column if it has any.
+   *
+   * @param appName
+   * @param du
+   * @param choices
+   *          the display choices of the column, or null if it has none
+   * @param choiceValues
+   *          the data values of choices, as given by
+   *          {@link DisplayChoicesCache#getChoiceValues}, or null
+   * @param cd
+   * @param input
+   * @return the normalized value, or null if it is not valid
+   */
+  public static String validifyValue(String appName, DataUtil du, ArrayList<Map<String,Object>> choices, Set<String> choiceValues, ColumnDefinition cd, String input) {
       if ( input == null ) {
         // TODO: should we check for required values?
         // null values are always accepted (???)
@@ -33,7 +52,41 @@ public class ParseUtil {
       ElementTypeManipulator m = ElementTypeManipulatorFactory.getInstance(appName);
       ITypeManipulatorFragment r = m.getDefaultRenderer(cd.getType());
 
-      return r.verifyValidityAndNormalizeValue(du, choices, input);
+      String value = r.verifyValidityAndNormalizeValue(du, choices, input);
+      if ( value != null && choiceValues != null && !isChoice(choiceValues, cd, value) ) {
+        return null;
+      }
+      return value;
+  }
+
+  /**
+   * @param choiceValues
+   *          the data values of the choices of the column
+   * @param cd
+   * @param value
+   *          a normalized value. For an array column, i.e. a multiple
+   *          select, this is a JSON array and every element must be a choice.
+   * @return true if the value is one of the choices
+   */
+  static boolean isChoice(Set<String> choiceValues, ColumnDefinition cd, String value) {
+    if ( cd.getType().getDataType() != ElementDataType.array ) {
+      return choiceValues.contains(value);
+    }
+    List<?> selected;
+    try {
+      selected = ODKFileUtils.mapper.readValue(value, List.class);
+    } catch (Exception e) {
+      return false;
+    }
+    if ( selected == null ) {
+      return false;
+    }
+    for ( Object item : selected ) {
+      if ( item == null || !choiceValues.contains(item.toString()) ) {
+        return false;
+      }
+    }
+    return true;
   }
 
 }
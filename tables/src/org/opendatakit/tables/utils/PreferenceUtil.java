@@ -69,6 +69,7 @@ public class PreferenceUtil {
         db.endTransaction();
         db.close();
       }
+      TableMetadataSnapshot.invalidate(appName, tableId);
     }
   }
   
@@ -124,6 +125,7 @@ public class PreferenceUtil {
         db.endTransaction();
         db.close();
       }
+      TableMetadataSnapshot.invalidate(appName, tableId);
     }
   }
 
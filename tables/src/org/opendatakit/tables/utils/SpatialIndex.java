@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.Arrays;
+
+import org.opendatakit.tables.utils.GridClusterer.Points;
+
+/**
+ * A uniform grid over the bounding box of a set of points, so that the points
+ * inside a bounding box, or the point nearest a location, can be found
+ * without looking at every point. The grid has about
+ * {@link #POINTS_PER_CELL} points per cell and is packed into two int arrays:
+ * the points of each cell, in ascending order, and where each cell starts.
+ * <p>
+ * Building the index is a pass over the points to size the grid and two more
+ * to fill it, so it is meant to be built once, off the UI thread, next to the
+ * {@link MapMarkerModel} it indexes. Like {@link GridClusterer} it has no
+ * Android dependencies.
+ */
+public class SpatialIndex {
+
+  /** The average number of points per cell the grid is sized for. */
+  static final int POINTS_PER_CELL = 4;
+
+  private final Points mPoints;
+  private final double mSouth;
+  private final double mWest;
+  private final double mCellHeight;
+  private final double mCellWidth;
+  private final int mRows;
+  private final int mColumns;
+  /** The points of each cell, cell after cell. */
+  private final int[] mCellPoints;
+  /**
+   * Where the points of each cell start in {@link #mCellPoints}, plus one
+   * final entry holding the number of points.
+   */
+  private final int[] mCellStarts;
+
+  private SpatialIndex(Points points, double south, double west, double cellHeight,
+      double cellWidth, int rows, int columns, int[] cellPoints, int[] cellStarts) {
+    this.mPoints = points;
+    this.mSouth = south;
+    this.mWest = west;
+    this.mCellHeight = cellHeight;
+    this.mCellWidth = cellWidth;
+    this.mRows = rows;
+    this.mColumns = columns;
+    this.mCellPoints = cellPoints;
+    this.mCellStarts = cellStarts;
+  }
+
+  /**
+   * Index the points. The points must not change while the index is in use.
+   *
+   * @param points
+   * @return
+   */
+  public static SpatialIndex build(Points points) {
+    int size = points.size();
+    double south = Double.POSITIVE_INFINITY;
+    double north = Double.NEGATIVE_INFINITY;
+    double west = Double.POSITIVE_INFINITY;
+    double east = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < size; ++i) {
+      double latitude = points.getLatitude(i);
+      double longitude = points.getLongitude(i);
+      south = Math.min(south, latitude);
+      north = Math.max(north, latitude);
+      west = Math.min(west, longitude);
+      east = Math.max(east, longitude);
+    }
+    if (size == 0) {
+      south = north = west = east = 0;
+    }
+    int cellsAcross = Math.max(1, (int) Math.ceil(Math.sqrt((double) size / POINTS_PER_CELL)));
+    // a box with no height or width gets a single row or column
+    int rows = (north > south) ? cellsAcross : 1;
+    int columns = (east > west) ? cellsAcross : 1;
+    double cellHeight = (north > south) ? (north - south) / rows : 1;
+    double cellWidth = (east > west) ? (east - west) / columns : 1;
+
+    // count the points of each cell, then place them, so that the points of
+    // every cell stay in ascending order
+    int[] pointCells = new int[size];
+    int[] cellStarts = new int[rows * columns + 1];
+    for (int i = 0; i < size; ++i) {
+      int row = clamp((int) ((points.getLatitude(i) - south) / cellHeight), rows);
+      int column = clamp((int) ((points.getLongitude(i) - west) / cellWidth), columns);
+      pointCells[i] = row * columns + column;
+      ++cellStarts[pointCells[i] + 1];
+    }
+    for (int cell = 0; cell < rows * columns; ++cell) {
+      cellStarts[cell + 1] += cellStarts[cell];
+    }
+    int[] cellPoints = new int[size];
+    int[] nextInCell = Arrays.copyOf(cellStarts, rows * columns);
+    for (int i = 0; i < size; ++i) {
+      cellPoints[nextInCell[pointCells[i]]++] = i;
+    }
+    return new SpatialIndex(points, south, west, cellHeight, cellWidth, rows, columns,
+        cellPoints, cellStarts);
+  }
+
+  /**
+   * @return the points that are indexed
+   */
+  public Points getPoints() {
+    return mPoints;
+  }
+
+  /**
+   * Find the points inside the bounding box. If west is greater than east
+   * the box crosses the antimeridian.
+   *
+   * @param south
+   * @param west
+   * @param north
+   * @param east
+   * @return the points inside the box, in ascending order
+   */
+  public int[] query(double south, double west, double north, double east) {
+    IntArray result = new IntArray();
+    if (west <= east) {
+      collect(south, west, north, east, result);
+    } else {
+      collect(south, west, north, 180.0, result);
+      collect(south, -180.0, north, east, result);
+    }
+    int[] points = result.toArray();
+    Arrays.sort(points);
+    return points;
+  }
+
+  private void collect(double south, double west, double north, double east, IntArray result) {
+    if (mPoints.size() == 0 || north < mSouth || south > mSouth + mRows * mCellHeight
+        || east < mWest || west > mWest + mColumns * mCellWidth) {
+      return;
+    }
+    int firstRow = clamp((int) Math.floor((south - mSouth) / mCellHeight), mRows);
+    int lastRow = clamp((int) Math.floor((north - mSouth) / mCellHeight), mRows);
+    int firstColumn = clamp((int) Math.floor((west - mWest) / mCellWidth), mColumns);
+    int lastColumn = clamp((int) Math.floor((east - mWest) / mCellWidth), mColumns);
+    for (int row = firstRow; row <= lastRow; ++row) {
+      // cells strictly inside the box need no per point check
+      boolean rowInside = row > firstRow && row < lastRow;
+      for (int column = firstColumn; column <= lastColumn; ++column) {
+        boolean cellInside = rowInside && column > firstColumn && column < lastColumn;
+        int cell = row * mColumns + column;
+        for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; ++i) {
+          int point = mCellPoints[i];
+          if (cellInside
+              || GridClusterer.isInside(mPoints.getLatitude(point), mPoints.getLongitude(point),
+                  south, west, north, east)) {
+            result.add(point);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the point nearest the location. Distances are measured on a plane
+   * tangent to the location, with degrees of longitude shortened by the
+   * cosine of its latitude, which is accurate at the scale of a map screen.
+   * The search does not wrap around the antimeridian.
+   *
+   * @param latitude
+   * @param longitude
+   * @return the nearest point, or -1 if there are no points
+   */
+  public int nearest(double latitude, double longitude) {
+    if (mPoints.size() == 0) {
+      return -1;
+    }
+    double longitudeScale = Math.max(Math.cos(Math.toRadians(latitude)), 1e-6);
+    double ringStep = Math.min(mCellHeight, mCellWidth * longitudeScale);
+    int centerRow = clamp((int) Math.floor((latitude - mSouth) / mCellHeight), mRows);
+    int centerColumn = clamp((int) Math.floor((longitude - mWest) / mCellWidth), mColumns);
+    int maxRing = Math.max(mRows, mColumns);
+    int best = -1;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int ring = 0; ring <= maxRing; ++ring) {
+      // every point in this ring and beyond is at least this far away
+      double ringDistance = Math.max(0, ring - 1) * ringStep;
+      if (ringDistance * ringDistance > bestDistance) {
+        break;
+      }
+      for (int row = centerRow - ring; row <= centerRow + ring; ++row) {
+        if (row < 0 || row >= mRows) {
+          continue;
+        }
+        boolean edgeRow = (row == centerRow - ring || row == centerRow + ring);
+        // only the edge of the ring is new; its inside was searched already
+        int columnStep = edgeRow ? 1 : Math.max(1, 2 * ring);
+        for (int column = centerColumn - ring; column <= centerColumn + ring;
+            column += columnStep) {
+          if (column < 0 || column >= mColumns) {
+            continue;
+          }
+          int cell = row * mColumns + column;
+          for (int i = mCellStarts[cell]; i < mCellStarts[cell + 1]; ++i) {
+            int point = mCellPoints[i];
+            double dLatitude = mPoints.getLatitude(point) - latitude;
+            double dLongitude = (mPoints.getLongitude(point) - longitude) * longitudeScale;
+            double distance = dLatitude * dLatitude + dLongitude * dLongitude;
+            if (distance < bestDistance) {
+              bestDistance = distance;
+              best = point;
+            }
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  private static int clamp(int index, int count) {
+    return (index < 0) ? 0 : (index >= count) ? count - 1 : index;
+  }
+
+  /**
+   * A growable array of ints, to avoid boxing every point of a query.
+   */
+  private static class IntArray {
+    private int[] mValues = new int[16];
+    private int mSize = 0;
+
+    void add(int value) {
+      if (mSize == mValues.length) {
+        mValues = Arrays.copyOf(mValues, mSize * 2);
+      }
+      mValues[mSize++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(mValues, mSize);
+    }
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the imports of several tables on a bounded pool of threads. The
+ * imports of one table run one after another, in the order they were added,
+ * while different tables are imported at the same time. A table that depends
+ * on another, e.g. because its properties refer to it, is not started until
+ * the other has finished.
+ * <p>
+ * Tables are started in the order they were first added, as far as their
+ * dependencies allow. If nothing can start because the dependencies form a
+ * cycle, the table of the cycle that was added first is started anyway, so
+ * that the import always finishes. Tables that only depend on the cycle wait
+ * for it as usual.
+ */
+public class TableImportScheduler {
+
+  private final int mPoolSize;
+
+  /** tableId -> the imports of the table, in order. */
+  private final Map<String, List<Runnable>> mImports =
+      new LinkedHashMap<String, List<Runnable>>();
+
+  /** tableId -> the tableIds that must be imported first. */
+  private final Map<String, Set<String>> mDependencies = new LinkedHashMap<String, Set<String>>();
+
+  /**
+   * @param poolSize
+   *          the most tables to import at the same time
+   */
+  public TableImportScheduler(int poolSize) {
+    if (poolSize < 1) {
+      throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+    }
+    this.mPoolSize = poolSize;
+  }
+
+  /**
+   * Add an import of the table, to run after any added before it for the
+   * same table.
+   *
+   * @param tableId
+   * @param tableImport
+   */
+  public void add(String tableId, Runnable tableImport) {
+    List<Runnable> imports = mImports.get(tableId);
+    if (imports == null) {
+      imports = new ArrayList<Runnable>();
+      mImports.put(tableId, imports);
+    }
+    imports.add(tableImport);
+  }
+
+  /**
+   * Do not start the imports of the table until those of another have
+   * finished. Dependencies on tables that have no imports are ignored.
+   *
+   * @param tableId
+   * @param dependsOnTableId
+   */
+  public void addDependency(String tableId, String dependsOnTableId) {
+    if (tableId.equals(dependsOnTableId)) {
+      return;
+    }
+    Set<String> dependencies = mDependencies.get(tableId);
+    if (dependencies == null) {
+      dependencies = new HashSet<String>();
+      mDependencies.put(tableId, dependencies);
+    }
+    dependencies.add(dependsOnTableId);
+  }
+
+  /**
+   * @return the tableIds that have imports, in the order they were added
+   */
+  public Set<String> getTableIds() {
+    return mImports.keySet();
+  }
+
+  /**
+   * Run every import and wait for them to finish.
+   *
+   * @throws InterruptedException
+   *           if the waiting thread is interrupted. The imports that are
+   *           running are interrupted too and no more are started.
+   * @throws RuntimeException
+   *           if an import throws. The imports that are running are
+   *           interrupted and no more are started.
+   */
+  public void run() throws InterruptedException {
+    if (mImports.isEmpty()) {
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(mPoolSize, mImports.size()));
+    try {
+      CompletionService<String> completion = new ExecutorCompletionService<String>(pool);
+      List<String> pending = new ArrayList<String>(mImports.keySet());
+      Set<String> finished = new HashSet<String>();
+      int running = 0;
+      while (!pending.isEmpty() || running != 0) {
+        // start every table whose dependencies have finished
+        Iterator<String> iter = pending.iterator();
+        while (iter.hasNext()) {
+          String tableId = iter.next();
+          if (isReady(tableId, finished)) {
+            iter.remove();
+            completion.submit(newTableImport(tableId));
+            ++running;
+          }
+        }
+        if (running == 0) {
+          // the rest depend on each other
+          String tableId = findTableOnCycle(pending, finished);
+          pending.remove(tableId);
+          completion.submit(newTableImport(tableId));
+          ++running;
+        }
+        try {
+          finished.add(completion.take().get());
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          throw new IllegalStateException("table import failed", cause);
+        }
+        --running;
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private boolean isReady(String tableId, Set<String> finished) {
+    Set<String> dependencies = mDependencies.get(tableId);
+    if (dependencies == null) {
+      return true;
+    }
+    for (String dependency : dependencies) {
+      if (mImports.containsKey(dependency) && !finished.contains(dependency)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Find a table to start when none of the pending tables is ready and none
+   * is running. Every pending table then waits on another pending table, so
+   * following those from any of them comes back round to a cycle.
+   *
+   * @param pending
+   *          the tables not started yet, in the order they were added
+   * @param finished
+   * @return the table of the cycle that was added first
+   */
+  private String findTableOnCycle(List<String> pending, Set<String> finished) {
+    List<String> path = new ArrayList<String>();
+    String tableId = pending.get(0);
+    while (!path.contains(tableId)) {
+      path.add(tableId);
+      tableId = getFirstPendingDependency(tableId, pending, finished);
+    }
+    List<String> cycle = path.subList(path.indexOf(tableId), path.size());
+    for (String candidate : pending) {
+      if (cycle.contains(candidate)) {
+        return candidate;
+      }
+    }
+    throw new IllegalStateException("no cycle among " + pending);
+  }
+
+  /**
+   * @param tableId
+   * @param pending
+   * @param finished
+   * @return the dependency of the table that was added first, of those that
+   *         have not finished
+   */
+  private String getFirstPendingDependency(String tableId, List<String> pending,
+      Set<String> finished) {
+    Set<String> dependencies = mDependencies.get(tableId);
+    for (String candidate : pending) {
+      if (dependencies.contains(candidate) && !finished.contains(candidate)) {
+        return candidate;
+      }
+    }
+    throw new IllegalStateException(tableId + " is not waiting on a pending table");
+  }
+
+  private Callable<String> newTableImport(final String tableId) {
+    final List<Runnable> imports = mImports.get(tableId);
+    return new Callable<String>() {
+      @Override
+      public String call() {
+        for (Runnable tableImport : imports) {
+          tableImport.run();
+        }
+        return tableId;
+      }
+    };
+  }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opendatakit.aggregate.odktables.rest.KeyValueStoreConstants;
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.KeyValueStoreEntry;
+import org.opendatakit.common.android.utilities.ODKDataUtils;
+import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
+import org.opendatakit.common.android.utilities.ODKFileUtils;
+import org.opendatakit.common.android.utilities.WebLogger;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+/**
+ * Every key value store entry of a single table, read with one query and
+ * then served from memory. Building a view of a wide table otherwise costs a
+ * query per setting per column.
+ * <p>
+ * Snapshots are shared per app and table until {@link #invalidate(String,
+ * String)} is called, which anything that writes table or column settings
+ * must do once the write has been committed. Settings can also be changed by
+ * other apps, e.g. ODK Sync, so every snapshot is dropped when an activity
+ * resumes and none is used for longer than {@link #MAX_AGE_MS}.
+ */
+public class TableMetadataSnapshot {
+
+  private static final String TAG = TableMetadataSnapshot.class.getSimpleName();
+
+  /** The longest a snapshot is used before the settings are read again. */
+  static final long MAX_AGE_MS = 30L * 1000L;
+
+  /** Guarded by itself. */
+  private static final Map<String, TableMetadataSnapshot> sSnapshots =
+      new HashMap<String, TableMetadataSnapshot>();
+  /**
+   * Bumped for a table whenever its snapshot is invalidated, so that a
+   * snapshot read before the invalidation is not cached after it. Guarded by
+   * {@link #sSnapshots}.
+   */
+  private static final Map<String, Integer> sGenerations = new HashMap<String, Integer>();
+
+  private final String mAppName;
+  private final String mTableId;
+  /** When the settings were read, from {@link SystemClock#elapsedRealtime()}. */
+  private final long mCreatedAt;
+  /** partition -> aspect -> key -> entry */
+  private final Map<String, Map<String, Map<String, KeyValueStoreEntry>>> mEntries;
+  /** The parsed column order. Never modified. */
+  private final List<String> mColumnOrder;
+  /**
+   * elementKey -> the parsed display name, a String or a Map of locale to
+   * name, for the columns that have a usable one.
+   */
+  private final Map<String, Object> mColumnDisplayNames;
+  /**
+   * elementKey -> the color rules of the column, read when first asked for.
+   * Guarded by itself.
+   */
+  private final Map<String, ColorRuleGroup> mColumnColorRuleGroups =
+      new HashMap<String, ColorRuleGroup>();
+
+  TableMetadataSnapshot(String appName, String tableId, List<KeyValueStoreEntry> entries) {
+    this(appName, tableId, entries, SystemClock.elapsedRealtime());
+  }
+
+  TableMetadataSnapshot(String appName, String tableId, List<KeyValueStoreEntry> entries,
+      long createdAt) {
+    this.mAppName = appName;
+    this.mTableId = tableId;
+    this.mCreatedAt = createdAt;
+    this.mEntries = new HashMap<String, Map<String, Map<String, KeyValueStoreEntry>>>();
+    for (KeyValueStoreEntry entry : entries) {
+      Map<String, Map<String, KeyValueStoreEntry>> aspects = mEntries.get(entry.partition);
+      if (aspects == null) {
+        aspects = new HashMap<String, Map<String, KeyValueStoreEntry>>();
+        mEntries.put(entry.partition, aspects);
+      }
+      Map<String, KeyValueStoreEntry> keys = aspects.get(entry.aspect);
+      if (keys == null) {
+        keys = new HashMap<String, KeyValueStoreEntry>();
+        aspects.put(entry.aspect, keys);
+      }
+      keys.put(entry.key, entry);
+    }
+    this.mColumnOrder = parseColumnOrder();
+    this.mColumnDisplayNames = parseColumnDisplayNames();
+  }
+
+  /**
+   * Get the snapshot of the table, reading it from the database if there is
+   * no valid one or it is older than {@link #MAX_AGE_MS}.
+   *
+   * @param session
+   *          a session on the app's database, which the caller has acquired
+   * @param tableId
+   * @return
+   */
+  public static TableMetadataSnapshot get(DatabaseSession session, String tableId) {
+    String cacheKey = getCacheKey(session.getAppName(), tableId);
+    int generation;
+    synchronized (sSnapshots) {
+      TableMetadataSnapshot snapshot = sSnapshots.get(cacheKey);
+      if (snapshot != null && !snapshot.isExpired(SystemClock.elapsedRealtime())) {
+        return snapshot;
+      }
+      generation = getGeneration(cacheKey);
+    }
+    TableMetadataSnapshot snapshot = load(session.getDatabase(), session.getAppName(), tableId);
+    synchronized (sSnapshots) {
+      // if the table was invalidated while it was read, this snapshot may
+      // already be out of date, so it is only used by this caller.
+      if (generation == getGeneration(cacheKey)) {
+        sSnapshots.put(cacheKey, snapshot);
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Read every key value store entry of the table.
+   *
+   * @param db
+   * @param appName
+   * @param tableId
+   * @return
+   */
+  static TableMetadataSnapshot load(SQLiteDatabase db, String appName, String tableId) {
+    List<KeyValueStoreEntry> entries = ODKDatabaseUtils.get().getDBTableMetadata(db, tableId,
+        null, null, null);
+    if (entries == null) {
+      entries = new ArrayList<KeyValueStoreEntry>();
+    }
+    WebLogger.getLogger(appName).d(TAG,
+        "[load] read " + entries.size() + " entries for " + tableId);
+    return new TableMetadataSnapshot(appName, tableId, entries);
+  }
+
+  /**
+   * Drop the snapshot of the table, so that the next {@link #get} reads the
+   * settings again. The cached display choices and display names of the table
+   * are dropped too.
+   *
+   * @param appName
+   * @param tableId
+   */
+  public static void invalidate(String appName, String tableId) {
+    String cacheKey = getCacheKey(appName, tableId);
+    synchronized (sSnapshots) {
+      sSnapshots.remove(cacheKey);
+      sGenerations.put(cacheKey, getGeneration(cacheKey) + 1);
+    }
+    DisplayChoicesCache.invalidate(appName, tableId);
+    LocalizedNameCache.invalidate(appName, tableId);
+  }
+
+  /**
+   * Drop every snapshot, e.g. after tables have been imported or when an
+   * activity resumes, as ODK Sync or another app may have changed them.
+   */
+  public static void invalidateAll() {
+    synchronized (sSnapshots) {
+      sSnapshots.clear();
+      for (Map.Entry<String, Integer> entry : sGenerations.entrySet()) {
+        entry.setValue(entry.getValue() + 1);
+      }
+    }
+    DisplayChoicesCache.invalidateAll();
+    LocalizedNameCache.invalidateAll();
+  }
+
+  private static String getCacheKey(String appName, String tableId) {
+    return appName + "/" + tableId;
+  }
+
+  /**
+   * Must hold the lock on {@link #sSnapshots}. A table is given a generation
+   * the first time it is read, so that {@link #invalidateAll()} bumps it.
+   */
+  private static int getGeneration(String cacheKey) {
+    Integer generation = sGenerations.get(cacheKey);
+    if (generation == null) {
+      generation = 0;
+      sGenerations.put(cacheKey, generation);
+    }
+    return generation;
+  }
+
+  /**
+   * @param now
+   *          from {@link SystemClock#elapsedRealtime()}
+   * @return true if the snapshot is too old to be used
+   */
+  boolean isExpired(long now) {
+    return now - mCreatedAt >= MAX_AGE_MS || now < mCreatedAt;
+  }
+
+  public String getAppName() {
+    return mAppName;
+  }
+
+  public String getTableId() {
+    return mTableId;
+  }
+
+  /**
+   * @param partition
+   * @param aspect
+   * @param key
+   * @return the entry, or null if it is not set
+   */
+  public KeyValueStoreEntry getEntry(String partition, String aspect, String key) {
+    Map<String, Map<String, KeyValueStoreEntry>> aspects = mEntries.get(partition);
+    if (aspects == null) {
+      return null;
+    }
+    Map<String, KeyValueStoreEntry> keys = aspects.get(aspect);
+    if (keys == null) {
+      return null;
+    }
+    return keys.get(key);
+  }
+
+  /**
+   * @param partition
+   * @param aspect
+   * @param key
+   * @return the raw value, or null if it is not set
+   */
+  public String getString(String partition, String aspect, String key) {
+    KeyValueStoreEntry entry = getEntry(partition, aspect, key);
+    return (entry == null) ? null : entry.value;
+  }
+
+  /**
+   * @param partition
+   * @param aspect
+   * @param key
+   * @return the value, or null if it is not set or is not an integer
+   */
+  public Integer getInteger(String partition, String aspect, String key) {
+    String value = getString(partition, aspect, key);
+    if (value == null || value.length() == 0) {
+      return null;
+    }
+    try {
+      return Integer.valueOf(value);
+    } catch (NumberFormatException e) {
+      WebLogger.getLogger(mAppName).e(TAG, "[getInteger] not an integer: " + partition + "/"
+          + aspect + "/" + key + " = " + value);
+      return null;
+    }
+  }
+
+  /**
+   * Same as {@link #getInteger(String, String, String)} for the default
+   * aspect of the partition.
+   */
+  public Integer getInteger(String partition, String key) {
+    return getInteger(partition, KeyValueStoreConstants.ASPECT_DEFAULT, key);
+  }
+
+  /**
+   * @param elementKey
+   * @param key
+   * @return the integer value of a per-column setting, or null if not set
+   */
+  public Integer getColumnInteger(String elementKey, String key) {
+    return getInteger(KeyValueStoreConstants.PARTITION_COLUMN, elementKey, key);
+  }
+
+  /**
+   * @return the element key of the frozen column, or null if none is set
+   */
+  public String getIndexColumn() {
+    String value = getString(KeyValueStoreConstants.PARTITION_TABLE,
+        KeyValueStoreConstants.ASPECT_DEFAULT, KeyValueStoreConstants.TABLE_INDEX_COL);
+    return (value == null || value.length() == 0) ? null : value;
+  }
+
+  /**
+   * @return the stored column order. This is empty if none has been set.
+   */
+  public ArrayList<String> getColumnOrder() {
+    return new ArrayList<String>(mColumnOrder);
+  }
+
+  /**
+   * @param elementKey
+   * @return the display name of the column in the current locale, or null if
+   *         there is no usable display name, in which case the caller should
+   *         fall back to the database
+   */
+  @SuppressWarnings("unchecked")
+  public String getColumnLocalizedDisplayName(String elementKey) {
+    Object displayName = mColumnDisplayNames.get(elementKey);
+    if (displayName instanceof String) {
+      return (String) displayName;
+    } else if (displayName instanceof Map) {
+      // the locale may change while the snapshot is in use
+      return ODKDataUtils.getLocalizedDisplayName((Map<String, Object>) displayName);
+    }
+    return null;
+  }
+
+  /**
+   * The color rules of a column, read the first time they are asked for and
+   * then served from memory until the snapshot is invalidated, as anything
+   * that saves color rules does. The group is shared, so callers must not
+   * change it; editors should read their own copy with
+   * {@link ColorRuleGroup#getColumnColorRuleGroup}.
+   *
+   * @param context
+   * @param elementKey
+   * @return
+   */
+  public ColorRuleGroup getColumnColorRuleGroup(Context context, String elementKey) {
+    synchronized (mColumnColorRuleGroups) {
+      ColorRuleGroup group = mColumnColorRuleGroups.get(elementKey);
+      if (group == null) {
+        group = ColorRuleGroup.getColumnColorRuleGroup(context, mAppName, mTableId, elementKey);
+        mColumnColorRuleGroups.put(elementKey, group);
+      }
+      return group;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<String> parseColumnOrder() {
+    String value = getString(KeyValueStoreConstants.PARTITION_TABLE,
+        KeyValueStoreConstants.ASPECT_DEFAULT, KeyValueStoreConstants.TABLE_COL_ORDER);
+    if (value == null || value.length() == 0) {
+      return Collections.emptyList();
+    }
+    try {
+      return new ArrayList<String>(ODKFileUtils.mapper.readValue(value, ArrayList.class));
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG, "[parseColumnOrder] unable to parse " + value);
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return Collections.emptyList();
+    }
+  }
+
+  private Map<String, Object> parseColumnDisplayNames() {
+    Map<String, Object> displayNames = new HashMap<String, Object>();
+    Map<String, Map<String, KeyValueStoreEntry>> columns =
+        mEntries.get(KeyValueStoreConstants.PARTITION_COLUMN);
+    if (columns == null) {
+      return displayNames;
+    }
+    for (Map.Entry<String, Map<String, KeyValueStoreEntry>> column : columns.entrySet()) {
+      KeyValueStoreEntry entry = column.getValue().get(KeyValueStoreConstants.COLUMN_DISPLAY_NAME);
+      if (entry == null || entry.value == null || entry.value.length() == 0) {
+        continue;
+      }
+      try {
+        Object displayName = ODKFileUtils.mapper.readValue(entry.value, Object.class);
+        if (displayName instanceof String || displayName instanceof Map) {
+          displayNames.put(column.getKey(), displayName);
+        }
+      } catch (Exception e) {
+        WebLogger.getLogger(mAppName).e(TAG,
+            "[parseColumnDisplayNames] unable to parse " + entry.value);
+      }
+    }
+    return displayNames;
+  }
+}
@@ -21,15 +21,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
+import org.json.JSONObject;
 import org.opendatakit.aggregate.odktables.rest.ElementDataType;
 import org.opendatakit.aggregate.odktables.rest.ElementType;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.data.UserTable.Row;
 import org.opendatakit.common.android.database.DatabaseFactory;
-import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.DataUtil;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
@@ -63,6 +64,13 @@ public class WebViewUtil {
   private static final TypeReference<HashMap<String, String>> MAP_REF = new TypeReference<HashMap<String, String>>() {
   };
 
+  /**
+   * A {@link TypeReference} for an {@link ArrayList} of maps as described by
+   * {@link #MAP_REF}.
+   */
+  private static final TypeReference<ArrayList<HashMap<String, String>>> LIST_OF_MAPS_REF = new TypeReference<ArrayList<HashMap<String, String>>>() {
+  };
+
   /**
    * The HTML to be displayed when loading a screen.
    */
@@ -89,6 +97,29 @@ public class WebViewUtil {
     return map;
   }
 
+  /**
+   * Retrieve a list of maps from a stringified json array of simple json
+   * maps. Numbers and booleans in the maps are returned as strings.
+   *
+   * @param appName
+   * @param jsonList
+   * @return null if the mapping fails, else the list
+   */
+  public static List<HashMap<String, String>> getListOfMapsFromJson(String appName,
+      String jsonList) {
+    List<HashMap<String, String>> list = null;
+    try {
+      list = ODKFileUtils.mapper.readValue(jsonList, LIST_OF_MAPS_REF);
+    } catch (JsonParseException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+    } catch (JsonMappingException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+    } catch (IOException e) {
+      WebLogger.getLogger(appName).printStackTrace(e);
+    }
+    return list;
+  }
+
   /**
    * Stringify the object. Convenience method, swallows all exceptions.
    * 
@@ -113,13 +144,15 @@ public class WebViewUtil {
    * Add a stringified value to the given content values. This respects the
    * column's type, as defined by {@link ColumnDefinition#getType()}.
    * 
+   * @param session
+   *          a session on the app's database, used to look up display choices
    * @param columnProperties
    * @param rawValue
    * @param contentValues
    * @return false if the data was invalid for the given type
    */
-  public static boolean addValueToContentValues(Context context, String appName, String tableId,
-      DataUtil du,
+  public static boolean addValueToContentValues(DatabaseSession session, String appName,
+      String tableId, DataUtil du,
       // TableProperties tp,
       ColumnDefinition colDefn, String rawValue, ContentValues contentValues) {
     // the value we're going to key things against in the database.
@@ -131,20 +164,14 @@ public class WebViewUtil {
       return true;
     } else {
       // we have to validate it -- get the choices list, if any
-      ArrayList<Map<String, Object>> choices;
-      SQLiteDatabase db = null;
-      try {
-        db = DatabaseFactory.get().getDatabase(context, appName);
-        choices = (ArrayList<Map<String, Object>>) ColumnUtil.get().getDisplayChoicesList(db,
-            tableId, colDefn.getElementKey());
-      } finally {
-        if (db != null) {
-          db.close();
-        }
-      }
+      ArrayList<Map<String, Object>> choices = DisplayChoicesCache.get(session, tableId,
+          colDefn.getElementKey());
       // we have to validate it. this validate function just returns null if
       // valid, rather than a boolean.
-      String nullMeansInvalid = ParseUtil.validifyValue(appName, du, choices, colDefn, rawValue);
+      Set<String> choiceValues = DisplayChoicesCache.getChoiceValues(session, tableId,
+          colDefn.getElementKey());
+      String nullMeansInvalid = ParseUtil.validifyValue(appName, du, choices, choiceValues,
+          colDefn, rawValue);
       if (nullMeansInvalid == null) {
         // return false, indicating that the value was not acceptable.
         WebLogger.getLogger(appName).e(
@@ -195,12 +222,46 @@ public class WebViewUtil {
     // could, but we'd probably have to have a known entity do the conversions
     // for us somehow on the js side, rather than expect the caller to craft up
     // whatever format we've landed on for pictures.
-    // This will contain the values we're going to insert into the database.
-    ContentValues result = new ContentValues();
+    DataUtil dataUtil = newDataUtil();
+    DatabaseSession session = DatabaseSession.open(context, appName);
+    try {
+      return getContentValuesFromMap(session, dataUtil, appName, tableId, orderedDefns,
+          elementKeyToValue);
+    } finally {
+      session.release();
+    }
+  }
+
+  /**
+   * Get the {@link DataUtil} that values written through the bridge are
+   * parsed with, so that a single row and many rows are parsed alike.
+   *
+   * @return
+   */
+  public static DataUtil newDataUtil() {
     // TODO: respect locale and timezone. Getting this structure from other
     // places it is used.
+    return new DataUtil(Locale.ENGLISH, TimeZone.getDefault());
+  }
 
-    DataUtil dataUtil = new DataUtil(Locale.ENGLISH, TimeZone.getDefault());
+  /**
+   * As {@link #getContentValuesFromMap(Context, String, String, ArrayList, Map)},
+   * but on a session and with a {@link DataUtil} that the caller holds across
+   * many rows.
+   *
+   * @param session
+   * @param dataUtil
+   * @param appName
+   * @param tableId
+   * @param orderedDefns
+   * @param elementKeyToValue
+   * @return null if a column does not exist or a value cannot be parsed
+   */
+  public static ContentValues getContentValuesFromMap(DatabaseSession session,
+      DataUtil dataUtil, String appName, String tableId, ArrayList<ColumnDefinition> orderedDefns,
+      Map<String, String> elementKeyToValue) {
+    // This will contain the values we're going to insert into the database.
+    ContentValues result = new ContentValues();
     for (Map.Entry<String, String> entry : elementKeyToValue.entrySet()) {
       String elementKey = entry.getKey();
       String rawValue = entry.getValue();
@@ -213,8 +274,8 @@ public class WebViewUtil {
         return null;
       }
       ElementType columnType = columnDefn.getType();
-      boolean parsedSuccessfully = addValueToContentValues(context, appName, tableId, dataUtil,
-          columnDefn, rawValue, result);
+      boolean parsedSuccessfully = addValueToContentValues(session, appName, tableId,
+          dataUtil, columnDefn, rawValue, result);
       if (!parsedSuccessfully) {
         WebLogger.getLogger(appName).e(TAG,
             "[addRow] could not parse value: " + rawValue + " for column type " + columnType);
@@ -265,6 +326,24 @@ public class WebViewUtil {
     return result;
   }
 
+  /**
+   * Dispatch an event on the window of the page loaded in the WebView, so that
+   * the page can update itself in place rather than being reloaded. This uses
+   * document.createEvent, as older WebViews lack the CustomEvent constructor.
+   * Must be called on the UI thread.
+   *
+   * @param webView
+   * @param eventName
+   * @param detail
+   *          the event's detail, or null
+   */
+  public static void dispatchEventInWebView(WebView webView, String eventName,
+      JSONObject detail) {
+    webView.loadUrl("javascript:(function(){var e=document.createEvent('CustomEvent');"
+        + "e.initCustomEvent(" + JSONObject.quote(eventName) + ",false,false,"
+        + ((detail == null) ? "null" : detail.toString()) + ");window.dispatchEvent(e);})();");
+  }
+
   /**
    * Display the file in the WebView.
    * 
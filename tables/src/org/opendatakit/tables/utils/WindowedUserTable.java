@@ -0,0 +1,838 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable;
+import org.opendatakit.common.android.data.UserTable.Row;
+import org.opendatakit.common.android.database.DatabaseFactory;
+import org.opendatakit.common.android.provider.DataTableColumns;
+import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
+import org.opendatakit.common.android.utilities.WebLogger;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * A read-only view of the rows matched by a {@link SQLQueryStruct} that only
+ * holds a few fixed-size windows of the result in memory at any time, rather
+ * than materializing the entire result into a single {@link UserTable}.
+ * <p>
+ * Each window is read with {@link ODKDatabaseUtils#rawSqlQuery}, restricted
+ * to a range of the ordered result. When a window is touched, its neighbours are fetched on a
+ * background thread so that scrolling rarely has to wait on the database.
+ * Rows that tie on the sort column are ordered by rowid, so that every row
+ * has a well defined position and a single changed row can be patched in
+ * with {@link #patchRow(String)} rather than reloading the table.
+ * <p>
+ * Queries with a group by clause cannot be paged this way, and are held as a
+ * single window containing the full result.
+ */
+public class WindowedUserTable {
+
+  private static final String TAG = WindowedUserTable.class.getSimpleName();
+
+  /** The number of rows held in a single window. */
+  public static final int DEFAULT_WINDOW_SIZE = 200;
+  /** The number of windows kept in memory, including the first window. */
+  private static final int MAX_CACHED_WINDOWS = 6;
+  /** Returned by {@link #patchRow(String)} if the table must be reloaded. */
+  public static final int PATCH_FAILED = -1;
+  /** How long the prefetch thread is kept once it has nothing to load. */
+  private static final long PREFETCH_KEEP_ALIVE_SECONDS = 30L;
+
+  private static final String PATCH_SORT_KEY = "odk_patch_sort_key";
+  private static final String PATCH_ROWID = "odk_patch_rowid";
+
+  /**
+   * Notified on the main thread when a window has been loaded in the
+   * background.
+   */
+  public interface WindowLoadedListener {
+    /**
+     * The rows from firstRowIndex to lastRowIndex, inclusive, are now
+     * available without hitting the database.
+     *
+     * @param table
+     * @param firstRowIndex
+     * @param lastRowIndex
+     */
+    void onWindowLoaded(WindowedUserTable table, int firstRowIndex, int lastRowIndex);
+  }
+
+  /**
+   * Notified on the main thread when a row queued with
+   * {@link WindowedUserTable#requestPatchRow(String, RowPatchedListener)} has
+   * been patched in the background.
+   */
+  public interface RowPatchedListener {
+    /**
+     * @param table
+     * @param rowId
+     * @param firstChanged
+     *          the result of {@link WindowedUserTable#patchRow(String)}
+     * @param oldNumberOfRows
+     *          the row count before the patch
+     */
+    void onRowPatched(WindowedUserTable table, String rowId, int firstChanged,
+        int oldNumberOfRows);
+  }
+
+  private final Context mContext;
+  private final String mAppName;
+  private final String mTableId;
+  private final ArrayList<ColumnDefinition> mColumnDefinitions;
+  private final SQLQueryStruct mQuery;
+  private final int mWindowSize;
+  private final boolean mIsPageable;
+  /** Windows by window number, in access order. Guarded by this. */
+  private final LinkedHashMap<Integer, Row[]> mWindows;
+  /** Window numbers with a background load in flight. Guarded by this. */
+  private final Set<Integer> mPendingWindows;
+  private final Handler mMainHandler;
+  /**
+   * Loads windows ahead of the view. Its thread exits once it has been idle
+   * for a while, so a table that is left open holds no thread.
+   */
+  private final ThreadPoolExecutor mPrefetchExecutor;
+  private WindowLoadedListener mListener;
+  /** The first window is always retained as it defines the table shape. */
+  private UserTable mFirstWindow;
+  /** Written under the lock, but read without it when sizing ranges. */
+  private volatile int mNumberOfRows;
+  /**
+   * Bumped whenever the rows are patched, so that windows read before the
+   * patch are not cached after it. Guarded by this.
+   */
+  private int mGeneration;
+  private volatile boolean mClosed;
+
+  public WindowedUserTable(Context context, String appName, String tableId,
+      ArrayList<ColumnDefinition> columnDefinitions, SQLQueryStruct query) {
+    this(context, appName, tableId, columnDefinitions, query, DEFAULT_WINDOW_SIZE);
+  }
+
+  public WindowedUserTable(Context context, String appName, String tableId,
+      ArrayList<ColumnDefinition> columnDefinitions, SQLQueryStruct query, int windowSize) {
+    if (windowSize <= 0) {
+      throw new IllegalArgumentException("window size must be positive: " + windowSize);
+    }
+    this.mContext = context.getApplicationContext();
+    this.mAppName = appName;
+    this.mTableId = tableId;
+    this.mColumnDefinitions = columnDefinitions;
+    this.mQuery = query;
+    this.mWindowSize = windowSize;
+    this.mIsPageable = (query.groupBy == null || query.groupBy.length == 0);
+    this.mWindows = new LinkedHashMap<Integer, Row[]>(MAX_CACHED_WINDOWS + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Row[]> eldest) {
+        return size() > MAX_CACHED_WINDOWS;
+      }
+    };
+    this.mPendingWindows = new HashSet<Integer>();
+    this.mMainHandler = new Handler(Looper.getMainLooper());
+    this.mPrefetchExecutor = newPrefetchExecutor();
+  }
+
+  private static ThreadPoolExecutor newPrefetchExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, PREFETCH_KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Count the rows matched by the query and load the first window. This hits
+   * the database and should be called before any of the row accessors.
+   */
+  public void load() {
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mContext, mAppName);
+      UserTable firstWindow;
+      int numberOfRows;
+      if (mIsPageable) {
+        numberOfRows = countRows(db);
+        firstWindow = queryWindow(db, 0);
+      } else {
+        firstWindow = queryAll(db);
+        numberOfRows = firstWindow.getNumberOfRows();
+      }
+      Row[] firstRows = mIsPageable ? orderWindow(db, 0, firstWindow) : toRows(firstWindow);
+      synchronized (this) {
+        this.mNumberOfRows = numberOfRows;
+        this.mFirstWindow = firstWindow;
+        this.mWindows.clear();
+        this.mWindows.put(0, firstRows);
+        ++this.mGeneration;
+      }
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+    WebLogger.getLogger(mAppName).d(TAG,
+        "[load] " + mTableId + " has " + mNumberOfRows + " rows, pageable: " + mIsPageable);
+  }
+
+  /**
+   * Materialize the full result of the query into a single {@link UserTable}.
+   * This is what callers that still need every row at once should use.
+   *
+   * @return
+   */
+  public UserTable materialize() {
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mContext, mAppName);
+      return queryAll(db);
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+  }
+
+  /**
+   * Stop any background work and drop the cached windows. The table should
+   * not be used after this call.
+   */
+  public synchronized void close() {
+    mClosed = true;
+    mListener = null;
+    mPrefetchExecutor.shutdownNow();
+    mWindows.clear();
+    mPendingWindows.clear();
+  }
+
+  public synchronized void setWindowLoadedListener(WindowLoadedListener listener) {
+    this.mListener = listener;
+  }
+
+  public String getAppName() {
+    return mAppName;
+  }
+
+  public String getTableId() {
+    return mTableId;
+  }
+
+  public ArrayList<ColumnDefinition> getColumnDefinitions() {
+    return mColumnDefinitions;
+  }
+
+  public SQLQueryStruct getQuery() {
+    return mQuery;
+  }
+
+  public int getWindowSize() {
+    return mIsPageable ? mWindowSize : Math.max(1, mNumberOfRows);
+  }
+
+  public synchronized int getNumberOfRows() {
+    return mNumberOfRows;
+  }
+
+  /**
+   * The index of the element key in the rows returned by this table. This is
+   * the same for every window.
+   *
+   * @param elementKey
+   * @return
+   */
+  public synchronized Integer getColumnIndexOfElementKey(String elementKey) {
+    return mFirstWindow.getColumnIndexOfElementKey(elementKey);
+  }
+
+  /**
+   * Get the row at the given position in the ordered result, loading its
+   * window on the calling thread if it is not already held. The neighbouring
+   * windows are then fetched in the background.
+   *
+   * @param index
+   * @return the row, or null if the index is no longer in the result
+   */
+  public Row getRowAtIndex(int index) {
+    int windowNumber = getWindowNumber(index);
+    Row[] window = getWindow(windowNumber);
+    prefetchNeighbours(windowNumber);
+    int offset = index - windowNumber * mWindowSize;
+    if (offset < 0 || offset >= window.length) {
+      return null;
+    }
+    return window[offset];
+  }
+
+  /**
+   * @param index
+   * @return true if the row at index can be returned without a database hit
+   */
+  public synchronized boolean isRowLoaded(int index) {
+    return mWindows.containsKey(getWindowNumber(index));
+  }
+
+  /**
+   * Make sure every window covering firstIndex to lastIndex, inclusive, is in
+   * memory, and queue up the windows on either side. This reads the missing
+   * windows on the calling thread, so it must not be called on the UI thread;
+   * views should use {@link #requestRangeLoaded(int, int)} instead.
+   *
+   * @param firstIndex
+   * @param lastIndex
+   */
+  public void ensureRangeLoaded(int firstIndex, int lastIndex) {
+    int numberOfRows = mNumberOfRows;
+    if (numberOfRows == 0) {
+      return;
+    }
+    int first = getWindowNumber(Math.max(0, firstIndex));
+    int last = getWindowNumber(Math.min(numberOfRows - 1, lastIndex));
+    for (int i = first; i <= last; ++i) {
+      getWindow(i);
+    }
+    prefetchNeighbours(first);
+    if (last != first) {
+      prefetchNeighbours(last);
+    }
+  }
+
+  /**
+   * Queue up a background load of every window covering firstIndex to
+   * lastIndex, inclusive, that is not in memory, followed by the windows on
+   * either side. This never touches the database on the calling thread, so a
+   * view can call it with its visible range before it draws. The
+   * {@link WindowLoadedListener} is told as each window arrives.
+   *
+   * @param firstIndex
+   * @param lastIndex
+   * @return true if every row of the range is already in memory
+   */
+  public boolean requestRangeLoaded(int firstIndex, int lastIndex) {
+    int numberOfRows = mNumberOfRows;
+    if (numberOfRows == 0) {
+      return true;
+    }
+    int first = getWindowNumber(Math.max(0, firstIndex));
+    int last = getWindowNumber(Math.min(numberOfRows - 1, lastIndex));
+    int numberOfWindows = getNumberOfWindows();
+    boolean loaded = true;
+    for (int i = first; i <= last; ++i) {
+      synchronized (this) {
+        if (mWindows.containsKey(i)) {
+          continue;
+        }
+      }
+      loaded = false;
+      schedulePrefetch(i, numberOfWindows);
+    }
+    prefetchNeighbours(first);
+    if (last != first) {
+      prefetchNeighbours(last);
+    }
+    return loaded;
+  }
+
+  /**
+   * Bring the held rows up to date after a single row was added, edited or
+   * deleted, without reloading the table. The row's old position is taken
+   * from the held windows and its new position is worked out from the sort
+   * column, so only one row is read back from the database. Windows at or
+   * after the first affected position are dropped and reloaded on demand.
+   * This reads the database on the calling thread, so it must not be called
+   * on the UI thread; views should use
+   * {@link #requestPatchRow(String, RowPatchedListener)} instead.
+   *
+   * @param rowId
+   *          the id of the row that changed
+   * @return the first row index whose content may have changed, the row
+   *         count if nothing visible changed, or {@link #PATCH_FAILED} if
+   *         the change could not be applied and the table must be reloaded
+   */
+  public int patchRow(String rowId) {
+    if (!mIsPageable || mClosed || rowId == null) {
+      return PATCH_FAILED;
+    }
+    int oldIndex;
+    int oldCount;
+    synchronized (this) {
+      oldCount = mNumberOfRows;
+      oldIndex = findLoadedRow(rowId);
+      if (oldIndex == -2) {
+        // conflict rows share the id; their order cannot be patched.
+        return PATCH_FAILED;
+      }
+    }
+    int newCount;
+    boolean matches;
+    int newIndex = -1;
+    Row newRow = null;
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mContext, mAppName);
+      newCount = countRows(db);
+      matches = rowMatches(db, rowId);
+      if (matches) {
+        newIndex = countPreceding(db, rowId);
+        UserTable table = ODKDatabaseUtils.get().getDataInExistingDBTableWithId(db, mAppName,
+            mTableId, mColumnDefinitions, rowId);
+        if (table == null || table.getNumberOfRows() != 1) {
+          return PATCH_FAILED;
+        }
+        newRow = table.getRowAtIndex(0);
+      }
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG, "[patchRow] unable to patch row " + rowId);
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return PATCH_FAILED;
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+
+    int delta = newCount - oldCount;
+    synchronized (this) {
+      if (mClosed || oldCount != mNumberOfRows) {
+        return PATCH_FAILED;
+      }
+      if (Math.abs(delta) > 1 || (delta == 1 && (!matches || oldIndex >= 0))
+          || (delta == -1 && matches)) {
+        // something other than this row changed as well.
+        return PATCH_FAILED;
+      }
+      if (delta == 0 && !matches) {
+        // the row was not, and is not, part of the result.
+        if (oldIndex >= 0) {
+          return PATCH_FAILED;
+        }
+        return mNumberOfRows;
+      }
+      ++mGeneration;
+      if (delta == 0 && oldIndex >= 0 && oldIndex == newIndex) {
+        Row[] window = mWindows.get(getWindowNumber(oldIndex));
+        // the window may have been evicted while the row was read, in which
+        // case it is read afresh when next needed.
+        if (window != null) {
+          window[oldIndex - getWindowNumber(oldIndex) * mWindowSize] = newRow;
+        }
+        return oldIndex;
+      }
+      int affectedFrom;
+      if (delta == 1) {
+        affectedFrom = newIndex;
+      } else if (delta == -1) {
+        // if the row was not held we cannot tell where it was.
+        affectedFrom = (oldIndex >= 0) ? oldIndex : 0;
+      } else {
+        affectedFrom = (oldIndex >= 0) ? Math.min(oldIndex, newIndex) : 0;
+      }
+      invalidateWindowsFrom(getWindowNumber(affectedFrom));
+      mNumberOfRows = newCount;
+      return affectedFrom;
+    }
+  }
+
+  /**
+   * Run {@link #patchRow(String)} on the background thread, so that the
+   * database is not read on the calling thread, and tell the listener on the
+   * main thread once it is done. The listener is not told if the table is
+   * closed first.
+   *
+   * @param rowId
+   * @param listener
+   */
+  public void requestPatchRow(final String rowId, final RowPatchedListener listener) {
+    try {
+      mPrefetchExecutor.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          final int oldNumberOfRows = getNumberOfRows();
+          final int firstChanged = patchRow(rowId);
+          mMainHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+              if (!mClosed) {
+                listener.onRowPatched(WindowedUserTable.this, rowId, firstChanged,
+                    oldNumberOfRows);
+              }
+            }
+          });
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      WebLogger.getLogger(mAppName).d(TAG, "[requestPatchRow] table closed, not patching "
+          + rowId);
+    }
+  }
+
+  /**
+   * @return the index of the row in the held windows, -1 if it is not held,
+   *         or -2 if it is held more than once. Must hold the lock.
+   */
+  private int findLoadedRow(String rowId) {
+    int found = -1;
+    for (Map.Entry<Integer, Row[]> entry : mWindows.entrySet()) {
+      Row[] window = entry.getValue();
+      for (int i = 0; i < window.length; ++i) {
+        if (rowId.equals(window[i].getRowId())) {
+          if (found != -1) {
+            return -2;
+          }
+          found = entry.getKey() * mWindowSize + i;
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Drop the windows from windowNumber onwards, keeping the first window's
+   * shape for the column indices. Must hold the lock.
+   */
+  private void invalidateWindowsFrom(int windowNumber) {
+    Set<Integer> held = new HashSet<Integer>(mWindows.keySet());
+    for (Integer i : held) {
+      if (i >= windowNumber) {
+        mWindows.remove(i);
+      }
+    }
+    mPendingWindows.clear();
+  }
+
+  private boolean rowMatches(SQLiteDatabase db, String rowId) {
+    StringBuilder sql = new StringBuilder(buildSelect("COUNT(*)"));
+    sql.append(hasWhereClause() ? " AND " : " WHERE ");
+    sql.append(DataTableColumns.ID).append(" = ?");
+    return queryCount(db, sql.toString(), appendArg(mQuery.selectionArgs, rowId)) > 0;
+  }
+
+  /**
+   * Count the rows of the result that come before the given row in the
+   * window order. SQLite sorts nulls first, so they precede every value in
+   * ascending order and follow every value in descending order.
+   */
+  private int countPreceding(SQLiteDatabase db, String rowId) {
+    String table = "\"" + mTableId + "\"";
+    String k = PATCH_SORT_KEY;
+    String r = PATCH_ROWID;
+    StringBuilder sql = new StringBuilder();
+    sql.append("SELECT COUNT(*) FROM ").append(table).append(", (SELECT ");
+    if (hasOrderBy()) {
+      sql.append("\"").append(mQuery.orderByElementKey).append("\" AS ").append(k).append(", ");
+    }
+    sql.append("rowid AS ").append(r).append(" FROM ").append(table);
+    sql.append(" WHERE ").append(DataTableColumns.ID).append(" = ? LIMIT 1)");
+    sql.append(" WHERE ");
+    if (hasWhereClause()) {
+      sql.append("(").append(mQuery.whereClause).append(") AND ");
+    }
+    String rowidBefore = table + ".rowid < " + r;
+    if (hasOrderBy()) {
+      String column = table + ".\"" + mQuery.orderByElementKey + "\"";
+      boolean desc = isDescending();
+      sql.append("(").append(column).append(desc ? " > " : " < ").append(k);
+      sql.append(" OR (").append(column).append(" IS ").append(k).append(" AND ")
+          .append(rowidBefore).append(")");
+      if (desc) {
+        sql.append(" OR (").append(column).append(" IS NOT NULL AND ").append(k)
+            .append(" IS NULL)");
+      } else {
+        sql.append(" OR (").append(column).append(" IS NULL AND ").append(k)
+            .append(" IS NOT NULL)");
+      }
+      sql.append(")");
+    } else {
+      sql.append(rowidBefore);
+    }
+    String[] args = new String[1 + (mQuery.selectionArgs == null ? 0 : mQuery.selectionArgs.length)];
+    args[0] = rowId;
+    if (mQuery.selectionArgs != null) {
+      System.arraycopy(mQuery.selectionArgs, 0, args, 1, mQuery.selectionArgs.length);
+    }
+    return queryCount(db, sql.toString(), args);
+  }
+
+  private static String[] appendArg(String[] args, String arg) {
+    if (args == null) {
+      return new String[] { arg };
+    }
+    String[] result = new String[args.length + 1];
+    System.arraycopy(args, 0, result, 0, args.length);
+    result[args.length] = arg;
+    return result;
+  }
+
+  private int getWindowNumber(int index) {
+    return mIsPageable ? index / mWindowSize : 0;
+  }
+
+  private int getNumberOfWindows() {
+    if (!mIsPageable) {
+      return 1;
+    }
+    return (mNumberOfRows + mWindowSize - 1) / mWindowSize;
+  }
+
+  private Row[] getWindow(int windowNumber) {
+    int generation;
+    synchronized (this) {
+      Row[] window = mWindows.get(windowNumber);
+      if (window != null) {
+        return window;
+      }
+      generation = mGeneration;
+    }
+    WebLogger.getLogger(mAppName).d(TAG, "[getWindow] loading window " + windowNumber
+        + " on the calling thread");
+    Row[] window = loadWindow(windowNumber);
+    synchronized (this) {
+      if (!mClosed && generation == mGeneration) {
+        mWindows.put(windowNumber, window);
+      }
+    }
+    return window;
+  }
+
+  private void prefetchNeighbours(int windowNumber) {
+    if (!mIsPageable) {
+      return;
+    }
+    int numberOfWindows = getNumberOfWindows();
+    schedulePrefetch(windowNumber + 1, numberOfWindows);
+    schedulePrefetch(windowNumber - 1, numberOfWindows);
+  }
+
+  private void schedulePrefetch(final int windowNumber, int numberOfWindows) {
+    if (windowNumber < 0 || windowNumber >= numberOfWindows) {
+      return;
+    }
+    synchronized (this) {
+      if (mClosed || mWindows.containsKey(windowNumber)
+          || mPendingWindows.contains(windowNumber)) {
+        return;
+      }
+      mPendingWindows.add(windowNumber);
+      try {
+        mPrefetchExecutor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            prefetchWindow(windowNumber);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        mPendingWindows.remove(windowNumber);
+      }
+    }
+  }
+
+  private void prefetchWindow(int windowNumber) {
+    int generation;
+    synchronized (this) {
+      generation = mGeneration;
+    }
+    Row[] window = null;
+    try {
+      if (!mClosed) {
+        window = loadWindow(windowNumber);
+      }
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG,
+          "[prefetchWindow] failed to load window " + windowNumber);
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+    }
+    final WindowLoadedListener listener;
+    synchronized (this) {
+      mPendingWindows.remove(windowNumber);
+      if (window == null || mClosed || generation != mGeneration) {
+        return;
+      }
+      mWindows.put(windowNumber, window);
+      listener = mListener;
+    }
+    if (listener != null) {
+      final int firstRowIndex = windowNumber * mWindowSize;
+      final int lastRowIndex = firstRowIndex + window.length - 1;
+      mMainHandler.post(new Runnable() {
+
+        @Override
+        public void run() {
+          if (!mClosed) {
+            listener.onWindowLoaded(WindowedUserTable.this, firstRowIndex, lastRowIndex);
+          }
+        }
+      });
+    }
+  }
+
+  private Row[] loadWindow(int windowNumber) {
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mContext, mAppName);
+      if (mIsPageable) {
+        return orderWindow(db, windowNumber, queryWindow(db, windowNumber));
+      } else {
+        return toRows(queryAll(db));
+      }
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+  }
+
+  private UserTable queryAll(SQLiteDatabase db) {
+    return ODKDatabaseUtils.get().rawSqlQuery(db, mAppName, mTableId, mColumnDefinitions,
+        mQuery.whereClause, mQuery.selectionArgs, mQuery.groupBy, mQuery.having,
+        mQuery.orderByElementKey, mQuery.orderByDirection);
+  }
+
+  private static Row[] toRows(UserTable table) {
+    Row[] rows = new Row[table.getNumberOfRows()];
+    for (int i = 0; i < rows.length; ++i) {
+      rows[i] = table.getRowAtIndex(i);
+    }
+    return rows;
+  }
+
+  /**
+   * Query a single window. The window is selected by restricting the original
+   * where clause to the rowids of the matching slice of the ordered result, so
+   * the rows come back in the same shape as a full query would give them.
+   */
+  private UserTable queryWindow(SQLiteDatabase db, int windowNumber) {
+    StringBuilder where = new StringBuilder();
+    where.append("rowid IN (").append(buildWindowSelect("rowid", windowNumber)).append(")");
+    return ODKDatabaseUtils.get().rawSqlQuery(db, mAppName, mTableId, mColumnDefinitions,
+        where.toString(), mQuery.selectionArgs, null, null, mQuery.orderByElementKey,
+        mQuery.orderByDirection);
+  }
+
+  /**
+   * Put the rows of a window into the order of the window's slice, which
+   * breaks ties on the sort column by rowid. rawSqlQuery only orders by the
+   * sort column itself.
+   */
+  private Row[] orderWindow(SQLiteDatabase db, int windowNumber, UserTable window) {
+    Map<String, LinkedList<Row>> rowsById = new HashMap<String, LinkedList<Row>>();
+    for (int i = 0; i < window.getNumberOfRows(); ++i) {
+      Row row = window.getRowAtIndex(i);
+      LinkedList<Row> rows = rowsById.get(row.getRowId());
+      if (rows == null) {
+        rows = new LinkedList<Row>();
+        rowsById.put(row.getRowId(), rows);
+      }
+      rows.add(row);
+    }
+    List<Row> ordered = new ArrayList<Row>(window.getNumberOfRows());
+    Cursor c = null;
+    try {
+      c = db.rawQuery(buildWindowSelect(DataTableColumns.ID, windowNumber),
+          mQuery.selectionArgs);
+      while (c.moveToNext()) {
+        LinkedList<Row> rows = rowsById.get(c.getString(0));
+        if (rows != null && !rows.isEmpty()) {
+          ordered.add(rows.removeFirst());
+        }
+      }
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+    if (ordered.size() != window.getNumberOfRows()) {
+      // the table changed between the two queries. Keep the order we were
+      // given; the next refresh will straighten it out.
+      return toRows(window);
+    }
+    return ordered.toArray(new Row[ordered.size()]);
+  }
+
+  private int countRows(SQLiteDatabase db) {
+    return queryCount(db, buildSelect("COUNT(*)"), mQuery.selectionArgs);
+  }
+
+  private static int queryCount(SQLiteDatabase db, String sql, String[] selectionArgs) {
+    Cursor c = null;
+    try {
+      c = db.rawQuery(sql, selectionArgs);
+      if (c.moveToFirst()) {
+        return c.getInt(0);
+      }
+      return 0;
+    } finally {
+      if (c != null && !c.isClosed()) {
+        c.close();
+      }
+    }
+  }
+
+  private boolean hasWhereClause() {
+    return mQuery.whereClause != null && mQuery.whereClause.length() != 0;
+  }
+
+  private boolean hasOrderBy() {
+    return mQuery.orderByElementKey != null && mQuery.orderByElementKey.length() != 0;
+  }
+
+  private boolean isDescending() {
+    return mQuery.orderByDirection != null
+        && mQuery.orderByDirection.trim().equalsIgnoreCase("DESC");
+  }
+
+  private String buildWindowSelect(String projection, int windowNumber) {
+    StringBuilder b = new StringBuilder(buildSelect(projection));
+    b.append(" ORDER BY ");
+    if (hasOrderBy()) {
+      b.append("\"").append(mQuery.orderByElementKey).append("\" ");
+      b.append(isDescending() ? "DESC" : "ASC").append(", ");
+    }
+    b.append("rowid ASC");
+    b.append(" LIMIT ").append(mWindowSize);
+    b.append(" OFFSET ").append(windowNumber * mWindowSize);
+    return b.toString();
+  }
+
+  private String buildSelect(String projection) {
+    StringBuilder b = new StringBuilder();
+    b.append("SELECT ").append(projection).append(" FROM \"").append(mTableId).append("\"");
+    if (hasWhereClause()) {
+      b.append(" WHERE (").append(mQuery.whereClause).append(")");
+    }
+    return b.toString();
+  }
+}
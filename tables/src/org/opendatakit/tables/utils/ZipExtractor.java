@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a zip file into a directory in a single pass. The number and sizes
+ * of the entries come from the central directory of the zip, so it does not
+ * have to be read once to count them. An entry whose file on disk already has
+ * the size and CRC recorded in the zip is not written again, so that an
+ * update only rewrites the files that changed.
+ * <p>
+ * One buffer is used for every read and write of an extraction.
+ */
+public class ZipExtractor {
+
+  /** The size of the buffer entries are copied and checked through. */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  /** The bytes processed between calls to {@link Listener#onBytesProcessed}. */
+  private static final long PROGRESS_INTERVAL_BYTES = 256L * 1024L;
+
+  /**
+   * Told of the progress of an extraction. Called on the extracting thread.
+   */
+  public interface Listener {
+
+    /**
+     * @return true to stop before the next entry
+     */
+    boolean isCancelled();
+
+    /**
+     * An entry is about to be extracted.
+     *
+     * @param entry
+     * @param index
+     *          the 1-based number of the entry
+     * @param total
+     *          the number of entries
+     */
+    void onEntryStarted(ZipEntry entry, int index, int total);
+
+    /**
+     * Bytes of the zip have been extracted or found unchanged.
+     *
+     * @param bytesProcessed
+     *          the uncompressed bytes of the entries processed so far
+     * @param totalBytes
+     *          the uncompressed bytes of every entry
+     */
+    void onBytesProcessed(long bytesProcessed, long totalBytes);
+
+    /**
+     * An entry has been extracted.
+     *
+     * @param entry
+     * @param skipped
+     *          true if its file was already up to date and was not written
+     */
+    void onEntryFinished(ZipEntry entry, boolean skipped);
+  }
+
+  private final byte[] mBuffer = new byte[BUFFER_SIZE];
+  private final Listener mListener;
+
+  private long mBytesProcessed;
+  private long mTotalBytes;
+  private long mLastReportedBytes;
+
+  public ZipExtractor(Listener listener) {
+    this.mListener = listener;
+  }
+
+  /**
+   * Copy a stream to a file through the buffer of this extractor, e.g. to
+   * put a zip that is only available as a stream where {@link ZipFile} can
+   * open it.
+   *
+   * @param in
+   *          closed by the caller
+   * @param file
+   * @throws IOException
+   */
+  public void copyToFile(InputStream in, File file) throws IOException {
+    OutputStream out = new FileOutputStream(file, false);
+    try {
+      int bread;
+      while ((bread = in.read(mBuffer)) != -1) {
+        out.write(mBuffer, 0, bread);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Extract the zip into the directory.
+   *
+   * @param zipFile
+   * @param destination
+   * @return the number of entries, or -1 if the extraction was cancelled
+   * @throws IOException
+   */
+  public int extract(ZipFile zipFile, File destination) throws IOException {
+    int total = zipFile.size();
+    mTotalBytes = 0L;
+    Enumeration<? extends ZipEntry> entries = zipFile.entries();
+    while (entries.hasMoreElements()) {
+      long size = entries.nextElement().getSize();
+      if (size > 0) {
+        mTotalBytes += size;
+      }
+    }
+    mBytesProcessed = 0L;
+    mLastReportedBytes = 0L;
+
+    int index = 0;
+    entries = zipFile.entries();
+    while (entries.hasMoreElements()) {
+      ZipEntry entry = entries.nextElement();
+      if (mListener.isCancelled()) {
+        return -1;
+      }
+      ++index;
+      mListener.onEntryStarted(entry, index, total);
+      File file = new File(destination, entry.getName());
+      if (entry.isDirectory()) {
+        file.mkdirs();
+        mListener.onEntryFinished(entry, false);
+        continue;
+      }
+      boolean skipped = isUnchanged(entry, file);
+      if (skipped) {
+        addBytesProcessed(entry.getSize());
+      } else {
+        File parent = file.getParentFile();
+        if (parent != null) {
+          parent.mkdirs();
+        }
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+          OutputStream out = new FileOutputStream(file, false);
+          try {
+            int bread;
+            while ((bread = in.read(mBuffer)) != -1) {
+              out.write(mBuffer, 0, bread);
+              addBytesProcessed(bread);
+            }
+          } finally {
+            out.close();
+          }
+        } finally {
+          in.close();
+        }
+      }
+      mListener.onEntryFinished(entry, skipped);
+    }
+    mListener.onBytesProcessed(mBytesProcessed, mTotalBytes);
+    return total;
+  }
+
+  /**
+   * @param entry
+   * @param file
+   * @return true if the file has the size and CRC the zip records for the
+   *         entry
+   * @throws IOException
+   */
+  boolean isUnchanged(ZipEntry entry, File file) throws IOException {
+    if (!file.isFile() || entry.getSize() < 0 || entry.getCrc() < 0
+        || file.length() != entry.getSize()) {
+      return false;
+    }
+    CRC32 crc = new CRC32();
+    InputStream in = new FileInputStream(file);
+    try {
+      int bread;
+      while ((bread = in.read(mBuffer)) != -1) {
+        crc.update(mBuffer, 0, bread);
+      }
+    } finally {
+      in.close();
+    }
+    return crc.getValue() == entry.getCrc();
+  }
+
+  private void addBytesProcessed(long bytes) {
+    mBytesProcessed += bytes;
+    if (mBytesProcessed - mLastReportedBytes >= PROGRESS_INTERVAL_BYTES) {
+      mLastReportedBytes = mBytesProcessed;
+      mListener.onBytesProcessed(mBytesProcessed, mTotalBytes);
+    }
+  }
+}
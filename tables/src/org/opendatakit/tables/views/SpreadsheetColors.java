@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opendatakit.common.android.data.ColorRuleGroup;
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable.Row;
+import org.opendatakit.tables.utils.ColorVector;
+import org.opendatakit.tables.utils.CompiledColorRuleGroup;
+import org.opendatakit.tables.utils.WindowedUserTable;
+
+/**
+ * The colors of the rows of a {@link SpreadsheetUserTable}. The table, status
+ * and column color rules are compiled once, when the spreadsheet is built,
+ * and evaluated a block of rows at a time into {@link ColorVector}s. Blocks
+ * next to the ones being drawn are evaluated in the background, so that
+ * scrolling only has to look the colors up.
+ */
+class SpreadsheetColors {
+
+  /** The number of blocks whose colors are kept. */
+  private static final int MAX_CACHED_BLOCKS = 8;
+
+  /** How long the thread of {@link #sEvaluator} waits for work before it exits. */
+  private static final long EVALUATOR_KEEP_ALIVE_SECONDS = 30L;
+
+  /**
+   * Evaluates the blocks that are about to be scrolled onto the screen. Its
+   * thread exits once it has been idle for a while, so that no thread is
+   * left behind when no spreadsheet is being scrolled.
+   */
+  private static final ThreadPoolExecutor sEvaluator = newEvaluator();
+
+  private static ThreadPoolExecutor newEvaluator() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, EVALUATOR_KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * The colors of a run of consecutive rows, for every rule scope.
+   */
+  static class RowBlock {
+    private final int mFirstRowIndex;
+    private final ColorVector mTableColors;
+    private final ColorVector mStatusColors;
+    private final Map<String, ColorVector> mColumnColors;
+
+    RowBlock(int firstRowIndex, ColorVector tableColors, ColorVector statusColors,
+        Map<String, ColorVector> columnColors) {
+      this.mFirstRowIndex = firstRowIndex;
+      this.mTableColors = tableColors;
+      this.mStatusColors = statusColors;
+      this.mColumnColors = columnColors;
+    }
+
+    /**
+     * @param rowIndex
+     *          the index of a row in the table
+     * @return the index of the row in this block's vectors
+     */
+    int getOffset(int rowIndex) {
+      return rowIndex - mFirstRowIndex;
+    }
+
+    ColorVector getTableColors() {
+      return mTableColors;
+    }
+
+    ColorVector getStatusColors() {
+      return mStatusColors;
+    }
+
+    /**
+     * @param elementKey
+     * @return the colors of the column, or null if it has no rules
+     */
+    ColorVector getColumnColors(String elementKey) {
+      return mColumnColors.get(elementKey);
+    }
+  }
+
+  private final SpreadsheetUserTable mTable;
+  private final int mBlockSize;
+  private final CompiledColorRuleGroup mTableRules;
+  private final CompiledColorRuleGroup mStatusRules;
+  /** Only the columns that have rules. */
+  private final Map<String, CompiledColorRuleGroup> mColumnRules;
+
+  /** Guarded by this. */
+  private final LinkedHashMap<Integer, RowBlock> mBlocks;
+  /** Blocks queued for evaluation. Guarded by this. */
+  private final Set<Integer> mPending = new HashSet<Integer>();
+  /**
+   * Bumped whenever rows change, so that evaluations started before the
+   * change are thrown away. Guarded by this.
+   */
+  private int mGeneration = 0;
+
+  /**
+   * @param table
+   * @param columnRules
+   *          the color rule group of each column
+   * @param blockSize
+   *          the number of rows evaluated together. This should match the
+   *          window size of a {@link WindowedUserTable}, so that a block is
+   *          either entirely in memory or not.
+   */
+  SpreadsheetColors(SpreadsheetUserTable table, Map<String, ColorRuleGroup> columnRules,
+      int blockSize) {
+    this.mTable = table;
+    this.mBlockSize = Math.max(1, blockSize);
+    ArrayList<ColumnDefinition> orderedDefns = table.getColumnDefinitions();
+    this.mTableRules = CompiledColorRuleGroup.compile(table.getTableColorRuleGroup(),
+        orderedDefns);
+    this.mStatusRules = CompiledColorRuleGroup.compile(table.getStatusColumnRuleGroup(),
+        orderedDefns);
+    this.mColumnRules = new HashMap<String, CompiledColorRuleGroup>();
+    for (Map.Entry<String, ColorRuleGroup> entry : columnRules.entrySet()) {
+      CompiledColorRuleGroup compiled = CompiledColorRuleGroup.compile(entry.getValue(),
+          orderedDefns);
+      if (!compiled.isEmpty()) {
+        mColumnRules.put(entry.getKey(), compiled);
+      }
+    }
+    this.mBlocks = new LinkedHashMap<Integer, RowBlock>(MAX_CACHED_BLOCKS + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, RowBlock> eldest) {
+        return size() > MAX_CACHED_BLOCKS;
+      }
+    };
+  }
+
+  /**
+   * Get the colors of the block holding the row, evaluating them now if the
+   * background evaluation has not got to them yet. The row must be loaded.
+   *
+   * @param rowIndex
+   * @return
+   */
+  RowBlock getBlock(int rowIndex) {
+    int blockNumber = rowIndex / mBlockSize;
+    int generation;
+    synchronized (this) {
+      RowBlock block = mBlocks.get(blockNumber);
+      if (block != null) {
+        return block;
+      }
+      generation = mGeneration;
+    }
+    RowBlock block = evaluateBlock(blockNumber);
+    synchronized (this) {
+      if (generation == mGeneration) {
+        mBlocks.put(blockNumber, block);
+      }
+    }
+    return block;
+  }
+
+  /**
+   * Evaluate, in the background, the blocks holding and surrounding the rows
+   * from first to last, inclusive, whose rows are in memory.
+   *
+   * @param first
+   * @param last
+   */
+  void prefetch(int first, int last) {
+    int lastBlock = (mTable.getNumberOfRows() - 1) / mBlockSize;
+    int from = Math.max(0, first / mBlockSize - 1);
+    int to = Math.min(lastBlock, last / mBlockSize + 1);
+    for (int blockNumber = from; blockNumber <= to; ++blockNumber) {
+      final int queued = blockNumber;
+      final int generation;
+      synchronized (this) {
+        if (mBlocks.containsKey(blockNumber) || mPending.contains(blockNumber)
+            || !mTable.isRowLoaded(blockNumber * mBlockSize)) {
+          continue;
+        }
+        mPending.add(blockNumber);
+        generation = mGeneration;
+      }
+      sEvaluator.execute(new Runnable() {
+
+        @Override
+        public void run() {
+          RowBlock block = null;
+          try {
+            block = evaluateBlock(queued);
+          } finally {
+            synchronized (SpreadsheetColors.this) {
+              mPending.remove(queued);
+              if (block != null && generation == mGeneration) {
+                mBlocks.put(queued, block);
+              }
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Drop the colors of the rows from firstRowIndex onwards, e.g. after a row
+   * has been changed in place.
+   *
+   * @param firstRowIndex
+   */
+  synchronized void invalidateFrom(int firstRowIndex) {
+    ++mGeneration;
+    int firstBlock = Math.max(0, firstRowIndex) / mBlockSize;
+    List<Integer> held = new ArrayList<Integer>(mBlocks.keySet());
+    for (Integer blockNumber : held) {
+      if (blockNumber >= firstBlock) {
+        mBlocks.remove(blockNumber);
+      }
+    }
+  }
+
+  private RowBlock evaluateBlock(int blockNumber) {
+    int first = blockNumber * mBlockSize;
+    int count = Math.max(0, Math.min(mBlockSize, mTable.getNumberOfRows() - first));
+    ColorVector tableColors = new ColorVector(count);
+    ColorVector statusColors = new ColorVector(count);
+    Map<String, ColorVector> columnColors = new HashMap<String, ColorVector>();
+    for (String elementKey : mColumnRules.keySet()) {
+      columnColors.put(elementKey, new ColorVector(count));
+    }
+    for (int i = 0; i < count; ++i) {
+      Row row = mTable.getRowAtIndex(first + i);
+      mTableRules.evaluate(row, tableColors, i);
+      mStatusRules.evaluate(row, statusColors, i);
+      for (Map.Entry<String, CompiledColorRuleGroup> entry : mColumnRules.entrySet()) {
+        entry.getValue().evaluate(row, columnColors.get(entry.getKey()), i);
+      }
+    }
+    return new RowBlock(first, tableColors, statusColors, columnColors);
+  }
+}
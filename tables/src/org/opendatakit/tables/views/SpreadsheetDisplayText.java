@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.opendatakit.common.android.data.ColumnDefinition;
+import org.opendatakit.common.android.data.UserTable.Row;
+
+import android.content.Context;
+
+/**
+ * The text shown in the cells of a {@link SpreadsheetUserTable}. Formatting
+ * a cell can mean parsing and formatting a date, which is too slow to do for
+ * every visible cell on every frame, so the text of recently drawn cells is
+ * kept, least recently used first out. The rows just beyond the ones being
+ * drawn are formatted in the background, so that they are ready by the time
+ * they are scrolled onto the screen.
+ */
+class SpreadsheetDisplayText {
+
+  /** The number of cells whose text is kept. */
+  private static final int MAX_CACHED_CELLS = 4096;
+
+  /** How long the thread of {@link #sFormatter} waits for work before it exits. */
+  private static final long FORMATTER_KEEP_ALIVE_SECONDS = 30L;
+
+  /**
+   * Formats the cells that are about to be scrolled onto the screen. Its
+   * thread exits once it has been idle for a while.
+   */
+  private static final ThreadPoolExecutor sFormatter = newFormatter();
+
+  private static ThreadPoolExecutor newFormatter() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, FORMATTER_KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private final Context mContext;
+  private final SpreadsheetUserTable mTable;
+  /** The number of columns of the spreadsheet, used to build the keys. */
+  private final int mWidth;
+
+  /**
+   * Maps row index * mWidth + spreadsheet column index to the text of the
+   * cell. Guarded by this.
+   */
+  private final LinkedHashMap<Long, String> mCells;
+  /**
+   * Bumped whenever rows change, so that text formatted before the change is
+   * thrown away. Guarded by this.
+   */
+  private int mGeneration = 0;
+  /** True while a prefetch is queued or running. Guarded by this. */
+  private boolean mPrefetching = false;
+  /** The last prefetch request, so that redraws do not repeat it. */
+  private int mPrefetchedFirst = -1;
+  private int mPrefetchedLast = -1;
+  private int[] mPrefetchedColumns = null;
+  private int mPrefetchedGeneration = -1;
+
+  SpreadsheetDisplayText(Context context, SpreadsheetUserTable table) {
+    this.mContext = context.getApplicationContext();
+    this.mTable = table;
+    this.mWidth = Math.max(1, table.getWidth());
+    this.mCells = new LinkedHashMap<Long, String>(MAX_CACHED_CELLS + 1, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+        return size() > MAX_CACHED_CELLS;
+      }
+    };
+  }
+
+  private long getKey(int rowIndex, int columnIndex) {
+    return ((long) rowIndex) * mWidth + columnIndex;
+  }
+
+  /**
+   * Get the text of a cell, formatting it now if it is not cached. The row
+   * must be loaded.
+   *
+   * @param rowIndex
+   * @param columnIndex
+   *          the index of the column in the spreadsheet
+   * @return the text, which is empty if the cell has no value
+   */
+  String get(int rowIndex, int columnIndex) {
+    long key = getKey(rowIndex, columnIndex);
+    int generation;
+    synchronized (this) {
+      String text = mCells.get(key);
+      if (text != null) {
+        return text;
+      }
+      generation = mGeneration;
+    }
+    String text = format(rowIndex, columnIndex);
+    synchronized (this) {
+      if (generation == mGeneration) {
+        mCells.put(key, text);
+      }
+    }
+    return text;
+  }
+
+  /**
+   * Format, in the background, the given columns of the rows that lie within
+   * one screen's worth of rows above and below first to last, inclusive.
+   * Only rows that are in memory are formatted.
+   *
+   * @param first
+   * @param last
+   * @param columnIndexes
+   *          the spreadsheet indexes of the visible columns. Negative entries
+   *          are ignored.
+   */
+  void prefetch(int first, int last, int[] columnIndexes) {
+    synchronized (this) {
+      if (first == mPrefetchedFirst && last == mPrefetchedLast
+          && mPrefetchedGeneration == mGeneration
+          && Arrays.equals(columnIndexes, mPrefetchedColumns)) {
+        return;
+      }
+    }
+    int visible = last - first + 1;
+    final List<Integer> rows = new ArrayList<Integer>();
+    // below the screen first, as that is the usual direction of scrolling
+    int end = Math.min(mTable.getNumberOfRows() - 1, last + visible);
+    for (int i = last + 1; i <= end; ++i) {
+      rows.add(i);
+    }
+    for (int i = first - 1; i >= Math.max(0, first - visible); --i) {
+      rows.add(i);
+    }
+    // resolve the columns here rather than on the formatting thread
+    final int[] columns = columnIndexes.clone();
+    final ColumnDefinition[] defns = new ColumnDefinition[columns.length];
+    for (int j = 0; j < columns.length; ++j) {
+      if (columns[j] >= 0) {
+        defns[j] = mTable.getColumnByIndex(columns[j]);
+      }
+    }
+    final int generation;
+    synchronized (this) {
+      if (mPrefetching || rows.isEmpty()) {
+        return;
+      }
+      mPrefetching = true;
+      generation = mGeneration;
+      mPrefetchedFirst = first;
+      mPrefetchedLast = last;
+      mPrefetchedColumns = columns;
+      mPrefetchedGeneration = generation;
+    }
+    sFormatter.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        try {
+          for (int rowIndex : rows) {
+            if (!mTable.isRowLoaded(rowIndex)) {
+              continue;
+            }
+            Row row = null;
+            for (int j = 0; j < columns.length; ++j) {
+              if (defns[j] == null) {
+                continue;
+              }
+              long key = getKey(rowIndex, columns[j]);
+              synchronized (SpreadsheetDisplayText.this) {
+                if (generation != mGeneration) {
+                  return;
+                }
+                if (mCells.containsKey(key)) {
+                  continue;
+                }
+              }
+              if (row == null) {
+                row = mTable.getRowAtIndex(rowIndex);
+              }
+              String text = format(row, defns[j]);
+              synchronized (SpreadsheetDisplayText.this) {
+                if (generation != mGeneration) {
+                  return;
+                }
+                mCells.put(key, text);
+              }
+            }
+          }
+        } finally {
+          synchronized (SpreadsheetDisplayText.this) {
+            mPrefetching = false;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Drop the text of the rows from firstRowIndex onwards, e.g. after a row
+   * has been changed in place.
+   *
+   * @param firstRowIndex
+   */
+  synchronized void invalidateFrom(int firstRowIndex) {
+    ++mGeneration;
+    long firstKey = getKey(Math.max(0, firstRowIndex), 0);
+    List<Long> held = new ArrayList<Long>(mCells.keySet());
+    for (Long key : held) {
+      if (key >= firstKey) {
+        mCells.remove(key);
+      }
+    }
+  }
+
+  private String format(int rowIndex, int columnIndex) {
+    return format(mTable.getRowAtIndex(rowIndex), mTable.getColumnByIndex(columnIndex));
+  }
+
+  private String format(Row row, ColumnDefinition cd) {
+    String text = row.getDisplayTextOfData(mContext, cd.getType(), cd.getElementKey(), true);
+    return (text == null) ? "" : text;
+  }
+}
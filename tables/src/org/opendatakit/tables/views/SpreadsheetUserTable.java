@@ -23,13 +23,15 @@ import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.data.UserTable.Row;
-import org.opendatakit.common.android.database.DatabaseFactory;
-import org.opendatakit.common.android.utilities.ColumnUtil;
-import org.opendatakit.common.android.utilities.TableUtil;
+import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.fragments.AbsTableDisplayFragment;
+import org.opendatakit.tables.utils.ColumnIndex;
+import org.opendatakit.tables.utils.DatabaseSession;
+import org.opendatakit.tables.utils.LocalizedNameCache;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
+import org.opendatakit.tables.utils.WindowedUserTable;
 
-import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
+import android.app.Activity;
 
 /**
  * Wrapper class for UserTable that presents the table in the way that the
@@ -43,79 +45,125 @@ public class SpreadsheetUserTable {
   private static final String TAG = "SpreadsheetUserTable";
 
   private final AbsTableDisplayFragment fragment;
+  /** The fully materialized table, or null if backed by windowedTable. */
   private final UserTable table;
+  /** The paged table, or null if backed by table. */
+  private final WindowedUserTable windowedTable;
+  private final String appName;
+  private final String tableId;
   private final String[] header;
   private final String[] spreadsheetIndexToElementKey;
   private final int[] spreadsheetIndexToUserTableIndexRemap;
   private final Map<String, Integer> elementKeyToSpreadsheetIndex;
+  /** The lookups over the table's columns. */
+  private final ColumnIndex columnIndex;
+  /** The column shown at each spreadsheet index. */
+  private final ColumnDefinition[] spreadsheetIndexToColumn;
+  /** The text of the cells, kept as they are drawn. */
+  private final SpreadsheetDisplayText displayText;
 
   public SpreadsheetUserTable(AbsTableDisplayFragment frag, UserTable table) {
+    this(frag, table, null, table.getAppName(), table.getTableId());
+  }
+
+  /**
+   * Present a {@link WindowedUserTable}, so that only the rows being drawn
+   * need to be held in memory.
+   *
+   * @param frag
+   * @param windowedTable
+   */
+  public SpreadsheetUserTable(AbsTableDisplayFragment frag, WindowedUserTable windowedTable) {
+    this(frag, null, windowedTable, windowedTable.getAppName(), windowedTable.getTableId());
+  }
+
+  private SpreadsheetUserTable(AbsTableDisplayFragment frag, UserTable table,
+      WindowedUserTable windowedTable, String appName, String tableId) {
     this.fragment = frag;
     this.table = table;
-    Context context = fragment.getActivity();
+    this.windowedTable = windowedTable;
+    this.appName = appName;
+    this.tableId = tableId;
+    this.columnIndex = new ColumnIndex(fragment.getColumnDefinitions());
 
-    ArrayList<String> colOrder;
-    SQLiteDatabase db = null;
+    DatabaseSession session = acquireDatabaseSession();
     try {
-      db = DatabaseFactory.get().getDatabase(context, table.getAppName());
-      colOrder = TableUtil.get().getColumnOrder(db, table.getTableId());
-    } finally {
-      if ( db != null ) {
-        db.close();
-      }
-    }
-
-    if (colOrder.isEmpty()) {
-      ArrayList<ColumnDefinition> orderedDefns = fragment.getColumnDefinitions();
-      for (ColumnDefinition cd : orderedDefns) {
-        if ( cd.isUnitOfRetention() ) {
-          colOrder.add(cd.getElementKey());
+      TableMetadataSnapshot metadata = TableMetadataSnapshot.get(session, tableId);
+      ArrayList<String> colOrder = metadata.getColumnOrder();
+
+      if (colOrder.isEmpty()) {
+        ArrayList<ColumnDefinition> orderedDefns = columnIndex.getColumnDefinitions();
+        for (ColumnDefinition cd : orderedDefns) {
+          if ( cd.isUnitOfRetention() ) {
+            colOrder.add(cd.getElementKey());
+          }
         }
       }
-    }
 
-    header = new String[colOrder.size()];
-    spreadsheetIndexToUserTableIndexRemap = new int[colOrder.size()];
-    spreadsheetIndexToElementKey = new String[colOrder.size()];
-    elementKeyToSpreadsheetIndex = new HashMap<String, Integer>();
-    db = null;
-    try {
-      db = DatabaseFactory.get().getDatabase(context, table.getAppName());
+      header = new String[colOrder.size()];
+      spreadsheetIndexToUserTableIndexRemap = new int[colOrder.size()];
+      spreadsheetIndexToElementKey = new String[colOrder.size()];
+      spreadsheetIndexToColumn = new ColumnDefinition[colOrder.size()];
+      elementKeyToSpreadsheetIndex = new HashMap<String, Integer>();
       for (int i = 0; i < colOrder.size(); ++i) {
         String elementKey = colOrder.get(i);
-        spreadsheetIndexToUserTableIndexRemap[i] = this.table
+        spreadsheetIndexToUserTableIndexRemap[i] = (this.table != null) ? this.table
+            .getColumnIndexOfElementKey(elementKey) : this.windowedTable
             .getColumnIndexOfElementKey(elementKey);
 
-        String localizedDisplayName;
-        localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(db, table.getTableId(),
-            elementKey);
+        String localizedDisplayName = metadata.getColumnLocalizedDisplayName(elementKey);
+        if (localizedDisplayName == null) {
+          localizedDisplayName = LocalizedNameCache.getColumnDisplayName(
+              session.getDatabase(), session.getAppName(), tableId, elementKey);
+        }
 
         header[i] = localizedDisplayName;
         spreadsheetIndexToElementKey[i] = elementKey;
+        spreadsheetIndexToColumn[i] = columnIndex.get(elementKey);
         elementKeyToSpreadsheetIndex.put(elementKey, i);
       }
     } finally {
-      if (db != null) {
-        db.close();
-      }
+      session.release();
+    }
+    this.displayText = new SpreadsheetDisplayText(fragment.getActivity(), this);
+  }
+
+  /**
+   * Acquire the activity's database session, so that the lookups made while
+   * building and touching the spreadsheet share one open database. Most
+   * settings are served by the table's {@link TableMetadataSnapshot}, which
+   * only touches the database when it has been invalidated.
+   *
+   * @return a session the caller must release
+   */
+  private DatabaseSession acquireDatabaseSession() {
+    Activity activity = fragment.getActivity();
+    if (activity instanceof AbsBaseActivity) {
+      return ((AbsBaseActivity) activity).getDatabaseSession().acquire();
     }
+    return DatabaseSession.open(activity, appName);
   }
 
   public String getTableId() {
-    return table.getTableId();
+    return tableId;
   }
 
   public String getAppName() {
-    return table.getAppName();
+    return appName;
   }
 
   public ArrayList<ColumnDefinition> getColumnDefinitions() {
-    return fragment.getColumnDefinitions();
+    return columnIndex.getColumnDefinitions();
   }
 
+  /**
+   * @param elementKey
+   * @return the color rules of the column, served by the table's
+   *         {@link TableMetadataSnapshot} so that they are not read again
+   *         for every column each time the spreadsheet is built
+   */
   public ColorRuleGroup getColumnColorRuleGroup(String elementKey) {
-    return ColorRuleGroup.getColumnColorRuleGroup(fragment.getActivity(),
-        getAppName(), getTableId(), elementKey);
+    return getMetadata().getColumnColorRuleGroup(fragment.getActivity(), elementKey);
   }
 
   public ColorRuleGroup getStatusColumnRuleGroup() {
@@ -129,40 +177,144 @@ public class SpreadsheetUserTable {
   }
 
   int getNumberOfRows() {
+    if (windowedTable != null) {
+      return windowedTable.getNumberOfRows();
+    }
     return table.getNumberOfRows();
   }
 
   public Row getRowAtIndex(int index) {
+    if (windowedTable != null) {
+      return windowedTable.getRowAtIndex(index);
+    }
     return table.getRowAtIndex(index);
   }
 
+  /**
+   * Start reading, in the background, any of the rows from first to last,
+   * inclusive, that are not in memory. Always true unless this is backed by
+   * a {@link WindowedUserTable}.
+   *
+   * @param first
+   * @param last
+   * @return true if every row can already be fetched without going to the
+   *         database
+   */
+  boolean requestRowsLoaded(int first, int last) {
+    if (windowedTable != null) {
+      return windowedTable.requestRangeLoaded(first, last);
+    }
+    return true;
+  }
+
+  /**
+   * Set the listener told when rows asked for by
+   * {@link #requestRowsLoaded(int, int)} have been read. Never called unless
+   * this is backed by a {@link WindowedUserTable}.
+   *
+   * @param listener
+   *          the listener, or null to stop listening
+   */
+  void setRowsLoadedListener(WindowedUserTable.WindowLoadedListener listener) {
+    if (windowedTable != null) {
+      windowedTable.setWindowLoadedListener(listener);
+    }
+  }
+
+  /**
+   * @param windowedTable
+   * @return true if this presents the rows of the windowed table
+   */
+  public boolean isBackedBy(WindowedUserTable windowedTable) {
+    return this.windowedTable == windowedTable;
+  }
+
+  /**
+   * @param index
+   * @return true if the row can be fetched without going to the database
+   */
+  boolean isRowLoaded(int index) {
+    if (windowedTable != null) {
+      return windowedTable.isRowLoaded(index);
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of rows that are brought into memory together
+   */
+  int getWindowSize() {
+    if (windowedTable != null) {
+      return windowedTable.getWindowSize();
+    }
+    return WindowedUserTable.DEFAULT_WINDOW_SIZE;
+  }
+
+  /**
+   * Get the text to show in a cell. The row must be loaded.
+   *
+   * @param rowIndex
+   * @param colNum
+   *          the index of the column in the spreadsheet
+   * @return the text, which is empty if the cell has no value
+   */
+  String getDisplayText(int rowIndex, int colNum) {
+    return displayText.get(rowIndex, colNum);
+  }
+
+  /**
+   * Format, in the background, the cells of the given columns in the rows
+   * around first to last, inclusive, so that they are ready when scrolled to.
+   *
+   * @param first
+   * @param last
+   * @param colNums
+   *          the indexes of the columns in the spreadsheet
+   */
+  void prefetchDisplayText(int first, int last, int[] colNums) {
+    displayText.prefetch(first, last, colNums);
+  }
+
+  /**
+   * Forget what has been cached about the rows from firstRowIndex onwards,
+   * which have been changed in place in the backing table.
+   *
+   * @param firstRowIndex
+   */
+  void onRowsChanged(int firstRowIndex) {
+    displayText.invalidateFrom(firstRowIndex);
+  }
+
   // ///////////////////////////////////////////////////////////////////////////
   // Whether or not we have a frozen column...
 
-  public String getIndexedColumnElementKey() {
-    String indexColumn;
-    SQLiteDatabase db = null;
+  /**
+   * @return the settings of the table, as of the last time they were written
+   */
+  TableMetadataSnapshot getMetadata() {
+    DatabaseSession session = acquireDatabaseSession();
     try {
-      db = DatabaseFactory.get().getDatabase(fragment.getActivity(), 
-          getAppName());
-      indexColumn = TableUtil.get().getIndexColumn(db, getTableId());
+      return TableMetadataSnapshot.get(session, getTableId());
     } finally {
-      if ( db != null ) {
-        db.close();
-      }
+      session.release();
     }
-    return indexColumn;
+  }
+
+  public String getIndexedColumnElementKey() {
+    return getMetadata().getIndexColumn();
   }
 
   boolean isIndexed() {
-    return getIndexedColumnElementKey() != null && getIndexedColumnElementKey().length() != 0;
+    String indexColumn = getIndexedColumnElementKey();
+    return indexColumn != null && indexColumn.length() != 0;
   }
 
   // ///////////////////////////////////
   // These need to be re-worked...
 
   public boolean hasData() {
-    return !(table == null || (spreadsheetIndexToUserTableIndexRemap.length == 0));
+    return !((table == null && windowedTable == null)
+        || (spreadsheetIndexToUserTableIndexRemap.length == 0));
   }
 
   public static class SpreadsheetCell {
@@ -178,8 +330,7 @@ public class SpreadsheetUserTable {
     cell.rowNum = cellInfo.rowId;
     cell.row = getRowAtIndex(cellInfo.rowId);
     cell.elementKey = cellInfo.elementKey;
-    ArrayList<ColumnDefinition> orderedDefns = getColumnDefinitions();
-    ColumnDefinition cd = ColumnDefinition.find(orderedDefns, cellInfo.elementKey);
+    ColumnDefinition cd = columnIndex.find(cellInfo.elementKey);
     cell.displayText = cell.row.getDisplayTextOfData(context, cd.getType(), cellInfo.elementKey,
         true);
     cell.value = cell.row.getRawDataOrMetadataByElementKey(cellInfo.elementKey);
@@ -187,12 +338,16 @@ public class SpreadsheetUserTable {
   }
 
   public ColumnDefinition getColumnByIndex(int headerCellNum) {
-    return getColumnByElementKey(spreadsheetIndexToElementKey[headerCellNum]);
+    ColumnDefinition cd = spreadsheetIndexToColumn[headerCellNum];
+    if (cd == null) {
+      // not a column of the table; fail as the lookup by element key does
+      return columnIndex.find(spreadsheetIndexToElementKey[headerCellNum]);
+    }
+    return cd;
   }
 
   public ColumnDefinition getColumnByElementKey(String elementKey) {
-    ArrayList<ColumnDefinition> orderedDefns = getColumnDefinitions();
-    return ColumnDefinition.find(orderedDefns, elementKey);
+    return columnIndex.find(elementKey);
   }
 
   public int getWidth() {
@@ -20,23 +20,21 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.opendatakit.aggregate.odktables.rest.KeyValueStoreConstants;
 import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.Preferences;
-import org.opendatakit.common.android.database.DatabaseFactory;
-import org.opendatakit.common.android.utilities.KeyValueHelper;
-import org.opendatakit.common.android.utilities.KeyValueStoreHelper;
 import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
+import org.opendatakit.tables.utils.WindowedUserTable;
 import org.opendatakit.tables.views.components.LockableHorizontalScrollView;
 import org.opendatakit.tables.views.components.LockableScrollView;
 
 import android.content.Context;
-import android.database.sqlite.SQLiteDatabase;
 import android.view.ContextMenu;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.HorizontalScrollView;
 import android.widget.LinearLayout;
 
@@ -80,7 +78,7 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   private final SpreadsheetUserTable table;
   private final int fontSize;
 
-  private final Map<String, ColorRuleGroup> mElementKeyToColorRuleGroup;
+  private final SpreadsheetColors mColors;
 
   // Keeping this for now in case someone else needs to work with the code
   // and relied on this variable.
@@ -94,6 +92,7 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
   private TabularView indexHeader;
   private TabularView mainData;
   private TabularView mainHeader;
+  private TabularView statusData;
 
   private View.OnTouchListener mainDataCellClickListener;
   private View.OnTouchListener mainHeaderCellClickListener;
@@ -102,43 +101,66 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
 
   private CellInfo lastHighlightedCellId;
 
+  /**
+   * Lets the tables know they have been scrolled, so that they can draw the
+   * tiles that have come into view.
+   */
+  private final ViewTreeObserver.OnScrollChangedListener scrollChangedListener =
+      new ViewTreeObserver.OnScrollChangedListener() {
+
+    @Override
+    public void onScrollChanged() {
+      TabularView[] views = { indexData, indexHeader, mainData, mainHeader, statusData };
+      for (TabularView view : views) {
+        if (view != null) {
+          view.onViewportChanged();
+        }
+      }
+    }
+  };
+
+  /**
+   * Redraws the data tables when rows they drew as placeholders have been
+   * read in the background.
+   */
+  private final WindowedUserTable.WindowLoadedListener rowsLoadedListener =
+      new WindowedUserTable.WindowLoadedListener() {
+
+    @Override
+    public void onWindowLoaded(WindowedUserTable windowedTable, int firstRowIndex,
+        int lastRowIndex) {
+      TabularView[] views = { indexData, mainData, statusData };
+      for (TabularView view : views) {
+        if (view != null) {
+          view.onRowsLoaded(firstRowIndex, lastRowIndex);
+        }
+      }
+    }
+  };
+
   public SpreadsheetView(Context context, Controller controller, SpreadsheetUserTable table) {
     super(context);
     this.context = context;
     this.controller = controller;
     this.table = table;
 
-    // TODO: figure out if we can invalidate a screen region
-    // to get it to render the screen rather than
-    // disabling the hardware acceleration on this view.
-    // Disable it so that you don't have to tap the screen to
-    // after a scroll action to see the new portion of the
-    // spreadsheet.
-    this.setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-
     // We have to initialize the items that will be shared across the
     // TabularView objects.
-    this.mElementKeyToColorRuleGroup = new HashMap<String, ColorRuleGroup>();
+    Map<String, ColorRuleGroup> elementKeyToColorRuleGroup = new HashMap<String, ColorRuleGroup>();
     for (ColumnDefinition cd : table.getColumnDefinitions()) {
-      mElementKeyToColorRuleGroup.put(cd.getElementKey(),
+      elementKeyToColorRuleGroup.put(cd.getElementKey(),
           table.getColumnColorRuleGroup(cd.getElementKey()));
     }
+    this.mColors = new SpreadsheetColors(table, elementKeyToColorRuleGroup,
+        table.getWindowSize());
 
     // if a custom font size is defined in the KeyValueStore, use that
     // if not, use the general font size defined in preferences
-    SQLiteDatabase db = null;
-    try {
-      db = DatabaseFactory.get().getDatabase(context, table.getAppName());
-      KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db, table.getTableId(), "SpreadsheetView");
-      if (kvsh.getInteger("fontSize") == null)
-        fontSize = (new Preferences(context, table.getAppName())).getFontSize();
-      else
-        fontSize = kvsh.getInteger("fontSize");
-    } finally {
-      if ( db != null ) {
-        db.close();
-      }
-    }
+    Integer customFontSize = getMetadata().getInteger(KVS_PARTITION, "fontSize");
+    if (customFontSize == null)
+      fontSize = (new Preferences(context, table.getAppName())).getFontSize();
+    else
+      fontSize = customFontSize;
 
     initListeners();
     if (!table.isIndexed()) {
@@ -382,9 +404,9 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
       colWidths = new int[1];
       colWidths[0] = completeColWidths[table.getColumnIndexOfElementKey(indexElementKey)];
       dataTable = TabularView.getIndexDataTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup);
+          colWidths, fontSize, this.mColors);
       headerTable = TabularView.getIndexHeaderTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup);
+          colWidths, fontSize, this.mColors);
     } else {
       int width = (indexElementKey == null || indexElementKey.length() == 0) ? table.getWidth() : table.getWidth() - 1;
       colWidths = new int[width];
@@ -399,9 +421,9 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
         addIndex++;
       }
       dataTable = TabularView.getMainDataTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup);
+          colWidths, fontSize, this.mColors);
       headerTable = TabularView.getMainHeaderTable(context, this, table, elementKeysToDisplay,
-          colWidths, fontSize, this.mElementKeyToColorRuleGroup);
+          colWidths, fontSize, this.mColors);
     }
 
     LockableScrollView dataScroll;
@@ -436,15 +458,16 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
 
     dataStatusScroll = new LockableScrollView(context);
     TabularView dataTable = TabularView.getStatusDataTable(context, this, table, colWidths,
-        fontSize, this.mElementKeyToColorRuleGroup);
+        fontSize, this.mColors);
     dataTable.setVerticalFadingEdgeEnabled(true);
     dataTable.setVerticalScrollBarEnabled(false);
     dataStatusScroll.addView(dataTable, new ViewGroup.LayoutParams(dataTable.getTableWidth(),
         dataTable.getTableHeight()));
+    statusData = dataTable;
     dataStatusScroll.setVerticalFadingEdgeEnabled(true);
     dataStatusScroll.setHorizontalFadingEdgeEnabled(true);
     TabularView headerTable = TabularView.getStatusHeaderTable(context, this, table, colWidths,
-        fontSize, this.mElementKeyToColorRuleGroup);
+        fontSize, this.mColors);
     LinearLayout wrapper = new LinearLayout(context);
     wrapper.setOrientation(LinearLayout.VERTICAL);
     wrapper.addView(headerTable, headerTable.getTableWidth(), headerTable.getTableHeight());
@@ -457,6 +480,40 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
     return wrapper;
   }
 
+  @Override
+  protected void onAttachedToWindow() {
+    super.onAttachedToWindow();
+    table.setRowsLoadedListener(rowsLoadedListener);
+    getViewTreeObserver().addOnScrollChangedListener(scrollChangedListener);
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    table.setRowsLoadedListener(null);
+    getViewTreeObserver().removeOnScrollChangedListener(scrollChangedListener);
+    super.onDetachedFromWindow();
+  }
+
+  /**
+   * Redraw the data rows from firstRowIndex onwards. Used when rows have been
+   * changed in place and the number of rows is unchanged.
+   *
+   * @param firstRowIndex
+   */
+  public void onRowsChanged(int firstRowIndex) {
+    table.onRowsChanged(firstRowIndex);
+    mColors.invalidateFrom(firstRowIndex);
+    if (indexData != null) {
+      indexData.invalidateRowsFrom(firstRowIndex);
+    }
+    if (mainData != null) {
+      mainData.invalidateRowsFrom(firstRowIndex);
+    }
+    if (statusData != null) {
+      statusData.invalidateRowsFrom(firstRowIndex);
+    }
+  }
+
   /**
    * Gets the x translation of the scroll. This is in particular how far you
    * have scrolled to look at columns that do not begin onscreen.
@@ -575,34 +632,25 @@ public class SpreadsheetView extends LinearLayout implements TabularView.Control
    * @return
    */
   public int[] getColumnWidths() {
-    // So what we want to do is go through and get the column widths for each
-    // column. A problem here is that there is no caching, and if you have a
-    // lot of columns you're really working the gut of the database.
+    // The widths all come out of the table's metadata snapshot, so this is
+    // a single query at most no matter how many columns there are.
     int numberOfDisplayColumns = table.getNumberOfDisplayColumns();
     int[] columnWidths = new int[numberOfDisplayColumns];
-    SQLiteDatabase db = null;
-    try {
-      db = DatabaseFactory.get().getDatabase(getContext(), table.getAppName());
-      KeyValueStoreHelper columnKVSH = 
-          new KeyValueStoreHelper(db, table.getTableId(), KeyValueStoreConstants.PARTITION_COLUMN);
-
-      for (int i = 0; i < numberOfDisplayColumns; i++) {
-        ColumnDefinition cd = table.getColumnByIndex(i);
-        String elementKey = cd.getElementKey();
-        KeyValueHelper aspectHelper = columnKVSH.getAspectHelper(elementKey);
-        Integer value = aspectHelper.getInteger(SpreadsheetView.KEY_COLUMN_WIDTH);
-        if (value == null) {
-          columnWidths[i] = DEFAULT_COL_WIDTH;
-        } else {
-          columnWidths[i] = value;
-        }
-      }
-      
-    } finally {
-      if ( db != null ) { 
-        db.close();
+    TableMetadataSnapshot metadata = getMetadata();
+    for (int i = 0; i < numberOfDisplayColumns; i++) {
+      ColumnDefinition cd = table.getColumnByIndex(i);
+      String elementKey = cd.getElementKey();
+      Integer value = metadata.getColumnInteger(elementKey, SpreadsheetView.KEY_COLUMN_WIDTH);
+      if (value == null) {
+        columnWidths[i] = DEFAULT_COL_WIDTH;
+      } else {
+        columnWidths[i] = value;
       }
     }
     return columnWidths;
   }
+
+  private TableMetadataSnapshot getMetadata() {
+    return table.getMetadata();
+  }
 }
@@ -17,19 +17,25 @@ package org.opendatakit.tables.views;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.opendatakit.common.android.data.ColorGuide;
-import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
-import org.opendatakit.common.android.data.UserTable.Row;
 import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.tables.utils.ColorVector;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.util.DisplayMetrics;
 import android.view.ContextMenu;
 import android.view.View;
@@ -70,6 +76,27 @@ class TabularView extends View {
   private static final int HORIZONTAL_CELL_PADDING = 5;
   private static final int VERTICAL_CELL_PADDING = 9;
   private static final int BORDER_WIDTH = 1;
+  /** The number of rows in a tile. */
+  private static final int ROWS_PER_TILE = 16;
+  /** Columns are grouped into tiles at least this many pixels wide. */
+  private static final int MIN_TILE_WIDTH = 256;
+
+  /** How long the thread of {@link #sTileRenderer} waits for work before it exits. */
+  private static final long TILE_RENDERER_KEEP_ALIVE_SECONDS = 30L;
+
+  /**
+   * Draws the tiles of every view, one at a time, so that drawing cells never
+   * holds up the UI thread and the paints of a view are only used by one
+   * thread. Its thread exits once it has been idle for a while.
+   */
+  private static final ThreadPoolExecutor sTileRenderer = newTileRenderer();
+
+  private static ThreadPoolExecutor newTileRenderer() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, TILE_RENDERER_KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
 
   private final Controller controller;
   private final int defaultBackgroundColor;
@@ -82,10 +109,13 @@ class TabularView extends View {
   private int totalWidth;
   private CellInfo highlightedCellInfo;
 
+  // used to draw the cells, only on the thread of sTileRenderer
   private final Paint textPaint;
   private final Paint bgPaint;
   private final Paint borderPaint;
+  // used on the UI thread
   private final Paint highlightPaint;
+  private final Paint placeholderPaint;
 
   /**
    * The abstraction of the table onto which this {@link TabularView} is
@@ -99,15 +129,42 @@ class TabularView extends View {
   private final List<String> mElementKeys;
 
   /**
-   * The map of element key to {@link ColorRuleGroup} objects for the columns of
-   * the table. This will be responsible for coloring the cells of a column.
+   * The colors of the rows and cells, evaluated from the table, status and
+   * column color rules. Drawing only looks them up.
+   */
+  private final SpreadsheetColors mColors;
+  /**
+   * The index in the {@link SpreadsheetUserTable} of each displayed column, or
+   * -1 if it is not there.
+   */
+  private final int[] mUserDataIndex;
+
+  /**
+   * The rasterized tiles of every view, holding those of this one under
+   * {@link #mTileOwner}.
+   */
+  private final TileCache mTiles = TileCache.getInstance();
+  private final int mTileOwner = TileCache.newOwner();
+  /**
+   * The tiles being drawn in the background, keyed by
+   * {@link #getTileKey(int, int)}. Only used on the UI thread.
+   */
+  private final Set<Long> mPendingTiles = new HashSet<Long>();
+  /**
+   * Bumped whenever the tiles are dropped, so that tiles drawn in the
+   * background before then are thrown away. Only changed on the UI thread.
+   */
+  private volatile int mTileGeneration = 0;
+  /**
+   * The first column of each block of columns drawn as one tile, followed by
+   * the number of columns.
    */
-  private Map<String, ColorRuleGroup> mColumnColorRules;
+  private final int[] mColumnBlockStarts;
   /**
-   * The {@link ColorRuleGroup} object for the table. This will be responsible
-   * for things like determining row color.
+   * The first and last row block and the first and last column block of the
+   * tiles last drawn.
    */
-  private ColorRuleGroup mRowColorRuleGroup;
+  private final int[] mDrawnTiles = { -1, -1, -1, -1 };
 
   // trying to get the dimensions of the screen
   private final DisplayMetrics metrics;
@@ -128,24 +185,22 @@ class TabularView extends View {
    * are applied.
    * 
    * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
+   *      List, int, int, int, int[], TabularView.TableLayoutType, int, SpreadsheetColors)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
+   * @param colors
    * @return
    */
   public static TabularView getMainDataTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup) {
+      int fontSize, SpreadsheetColors colors) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.MAIN_DATA, fontSize, elementKeyToColorRuleGroup);
+        columnWidths, TableLayoutType.MAIN_DATA, fontSize, colors);
   }
 
   /**
@@ -153,24 +208,22 @@ class TabularView extends View {
    * applied.
    * 
    * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
+   *      List, int, int, int, int[], TabularView.TableLayoutType, int, SpreadsheetColors)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
+   * @param colors
    * @return
    */
   public static TabularView getMainHeaderTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup) {
+      int fontSize, SpreadsheetColors colors) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.MAIN_HEADER, fontSize, elementKeyToColorRuleGroup);
+        columnWidths, TableLayoutType.MAIN_HEADER, fontSize, colors);
   }
 
   /**
@@ -178,24 +231,22 @@ class TabularView extends View {
    * applied.
    * 
    * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
+   *      List, int, int, int, int[], TabularView.TableLayoutType, int, SpreadsheetColors)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
+   * @param colors
    * @return
    */
   public static TabularView getIndexDataTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup) {
+      int fontSize, SpreadsheetColors colors) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.INDEX_DATA, fontSize, elementKeyToColorRuleGroup);
+        columnWidths, TableLayoutType.INDEX_DATA, fontSize, colors);
   }
 
   /**
@@ -203,24 +254,22 @@ class TabularView extends View {
    * are applied.
    * 
    * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
+   *      List, int, int, int, int[], TabularView.TableLayoutType, int, SpreadsheetColors)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param elementKeysToDisplay
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
+   * @param colors
    * @return
    */
   public static TabularView getIndexHeaderTable(Context context, Controller controller,
       SpreadsheetUserTable table, List<String> elementKeysToDisplay, int[] columnWidths,
-      int fontSize, Map<String, ColorRuleGroup> elementKeyToColorRuleGroup) {
+      int fontSize, SpreadsheetColors colors) {
     return new TabularView(context, controller, table, elementKeysToDisplay,
         DEFAULT_FOREGROUND_COLOR, DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR,
-        columnWidths, TableLayoutType.INDEX_HEADER, fontSize, elementKeyToColorRuleGroup);
+        columnWidths, TableLayoutType.INDEX_HEADER, fontSize, colors);
   }
 
   /**
@@ -228,27 +277,25 @@ class TabularView extends View {
    * No data is displayed in the status table.
    * 
    * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
+   *      List, int, int, int, int[], TabularView.TableLayoutType, int, SpreadsheetColors)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
+   * @param colors
    * @return
    */
   public static TabularView getStatusDataTable(Context context, Controller controller,
       SpreadsheetUserTable table, int[] columnWidths, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup) {
+      SpreadsheetColors colors) {
     List<String> dummyElementKeys = new ArrayList<String>();
     // We need to make this a size one so that the status table knows there's
     // something to display.
     dummyElementKeys.add("data");
     return new TabularView(context, controller, table, dummyElementKeys, DEFAULT_FOREGROUND_COLOR,
         DEFAULT_DATA_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths, TableLayoutType.STATUS_DATA,
-        fontSize, elementKeyToColorRuleGroup);
+        fontSize, colors);
   }
 
   /**
@@ -256,27 +303,25 @@ class TabularView extends View {
    * data is displayed in the status column.
    * 
    * @see TabularView#TabularView(Context, TabularView.Controller, SpreadsheetUserTable,
-   *      List, int, int, int, int[], TabularView.TableLayoutType, int, Map, Map)
+   *      List, int, int, int, int[], TabularView.TableLayoutType, int, SpreadsheetColors)
    * @param context
    * @param controller
-   * @param tp
    * @param table
    * @param columnWidths
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   * @param elementKeyToColorRuleGroup
+   * @param colors
    * @return
    */
   public static TabularView getStatusHeaderTable(Context context, Controller controller,
       SpreadsheetUserTable table, int[] columnWidths, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup) {
+      SpreadsheetColors colors) {
     List<String> dummyElementKeys = new ArrayList<String>();
     // We need to make this a size one so that the status table knows there's
     // something to display.
     dummyElementKeys.add("header");
     return new TabularView(context, controller, table, dummyElementKeys, DEFAULT_FOREGROUND_COLOR,
         DEFAULT_HEADER_BACKGROUND_COLOR, DEFAULT_BORDER_COLOR, columnWidths,
-        TableLayoutType.STATUS_HEADER, fontSize, elementKeyToColorRuleGroup);
+        TableLayoutType.STATUS_HEADER, fontSize, colors);
   }
 
   /**
@@ -291,7 +336,6 @@ class TabularView extends View {
    * 
    * @param context
    * @param controller
-   * @param tp
    * @param table
    *          the {@link SpreadsheetUserTable} into which this TabularView is
    *          providing a view.
@@ -307,18 +351,13 @@ class TabularView extends View {
    * @param columnWidths
    * @param type
    * @param fontSize
-   * @param elementKeyToColumnProperties
-   *          mapping of element key to the corresponding
-   *          {@link ColumnDefinition} object. Must be all the columns, NOT just
-   *          those displayed in thie TabularView.
-   * @param elementKeyToColorRuleGroup
-   *          mapping of element key to their corresponding
-   *          {@link ColorRuleGroup} objects.
+   * @param colors
+   *          the colors of the rows, as evaluated from the table's color rules
    */
   private TabularView(Context context, Controller controller, SpreadsheetUserTable table,
       List<String> elementKeys, int defaultForegroundColor, int defaultBackgroundColor,
       int borderColor, int[] columnWidths, TableLayoutType type, int fontSize,
-      Map<String, ColorRuleGroup> elementKeyToColorRuleGroup) {
+      SpreadsheetColors colors) {
     super(context);
     this.controller = controller;
     this.mTable = table;
@@ -338,12 +377,7 @@ class TabularView extends View {
           "Unrecognized TableType in constructor: " + this.type.name());
       this.mNumberOfRows = this.mTable.getNumberOfRows();
     }
-    this.mColumnColorRules = elementKeyToColorRuleGroup;
-    if (this.type != TableLayoutType.STATUS_DATA) {
-      this.mRowColorRuleGroup = mTable.getTableColorRuleGroup();
-    } else {
-      this.mRowColorRuleGroup = mTable.getStatusColumnRuleGroup();
-    }
+    this.mColors = colors;
     rowHeight = fontSize + ROW_HEIGHT_PADDING;
     highlightedCellInfo = null;
     textPaint = new Paint();
@@ -356,6 +390,8 @@ class TabularView extends View {
     highlightPaint = new Paint();
     highlightPaint.setColor(Color.CYAN);
     highlightPaint.setStrokeWidth(3);
+    placeholderPaint = new Paint();
+    placeholderPaint.setColor(defaultBackgroundColor);
     totalHeight = (rowHeight + BORDER_WIDTH) * this.mNumberOfRows + BORDER_WIDTH;
     totalWidth = BORDER_WIDTH;
     for (int i = 0; i < columnWidths.length; i++) {
@@ -385,6 +421,55 @@ class TabularView extends View {
         total += BORDER_WIDTH + columnWidths[i];
       }
     }
+    // precompute the correspondence between the displayed elementKeys and the
+    // SpreadsheetUserTable userData index
+    this.mUserDataIndex = new int[this.mElementKeys.size()];
+    for (int j = 0; j < this.mElementKeys.size(); ++j) {
+      Integer idx = this.mTable.getColumnIndexOfElementKey(this.mElementKeys.get(j));
+      mUserDataIndex[j] = (idx == null) ? -1 : idx;
+    }
+    List<Integer> blockStarts = new ArrayList<Integer>();
+    blockStarts.add(0);
+    int blockWidth = 0;
+    for (int i = 0; i < columnWidths.length; i++) {
+      blockWidth += columnWidths[i] + BORDER_WIDTH;
+      if (blockWidth >= MIN_TILE_WIDTH && i + 1 < columnWidths.length) {
+        blockStarts.add(i + 1);
+        blockWidth = 0;
+      }
+    }
+    blockStarts.add(columnWidths.length);
+    this.mColumnBlockStarts = new int[blockStarts.size()];
+    for (int i = 0; i < blockStarts.size(); i++) {
+      mColumnBlockStarts[i] = blockStarts.get(i);
+    }
+  }
+
+  /**
+   * Redraw if the scroll position has moved onto tiles that were not drawn.
+   * Scrolling within the drawn tiles needs no redraw, as a hardware
+   * accelerated view keeps what it drew. The owner of the view must call
+   * this whenever the scroll position changes.
+   */
+  void onViewportChanged() {
+    if (this.mNumberOfRows == 0 || this.mElementKeys.size() == 0) {
+      return;
+    }
+    int[] visible = getVisibleRange();
+    if (visible[0] / ROWS_PER_TILE != mDrawnTiles[0]
+        || visible[1] / ROWS_PER_TILE != mDrawnTiles[1]
+        || getColumnBlock(visible[2]) != mDrawnTiles[2]
+        || getColumnBlock(visible[3]) != mDrawnTiles[3]) {
+      invalidate();
+    }
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    mTiles.clear(mTileOwner);
+    discardPendingTiles();
+    Arrays.fill(mDrawnTiles, -1);
   }
 
   public int getTableHeight() {
@@ -415,6 +500,39 @@ class TabularView extends View {
     return info;
   }
 
+  /**
+   * Redraw the rows from firstRowIndex to the end of the table, e.g. after
+   * the backing table patched a row in place. The row count must not have
+   * changed.
+   *
+   * @param firstRowIndex
+   */
+  public void invalidateRowsFrom(int firstRowIndex) {
+    mTiles.invalidateRowBlocksFrom(mTileOwner, Math.max(0, firstRowIndex) / ROWS_PER_TILE);
+    discardPendingTiles();
+    int top = Math.max(0, firstRowIndex) * (rowHeight + BORDER_WIDTH);
+    if (top >= totalHeight) {
+      return;
+    }
+    invalidate(0, top, totalWidth, totalHeight);
+  }
+
+  /**
+   * Redraw rows that were drawn as empty cells because they had not been read
+   * yet.
+   *
+   * @param firstRowIndex
+   * @param lastRowIndex
+   */
+  void onRowsLoaded(int firstRowIndex, int lastRowIndex) {
+    int top = Math.max(0, firstRowIndex) * (rowHeight + BORDER_WIDTH);
+    int bottom = Math.min(totalHeight, (lastRowIndex + 1) * (rowHeight + BORDER_WIDTH));
+    if (top >= bottom) {
+      return;
+    }
+    invalidate(0, top, totalWidth, bottom);
+  }
+
   public void highlight(CellInfo highlightedCellInfo) {
     this.highlightedCellInfo = highlightedCellInfo;
     invalidate();
@@ -428,9 +546,6 @@ class TabularView extends View {
       return;
     }
 
-    // drawing the background--so you're redrawing the background every time...
-    canvas.drawRect(0, 0, totalWidth, totalHeight, bgPaint);
-
     /*
      * SS: I am going to try and fix this method. There are several things that
      * need to be considered. First, a spreadsheet view is composed of several
@@ -549,6 +664,47 @@ class TabularView extends View {
      * | | | |leftmost | | | | | | |
      */
 
+    int[] visible = getVisibleRange();
+    int topmost = visible[0];
+    int bottommost = visible[1];
+    int indexOfLeftmostColumn = visible[2];
+    int indexOfRightmostColumn = visible[3];
+    // tiles are drawn whole, so all of their rows have to be at hand
+    topmost = (topmost / ROWS_PER_TILE) * ROWS_PER_TILE;
+    bottommost = Math.min(this.mNumberOfRows - 1, (bottommost / ROWS_PER_TILE + 1)
+        * ROWS_PER_TILE - 1);
+
+    // read any visible rows that are not in memory in the background. They
+    // are drawn as empty cells until they arrive.
+    if (this.type == TableLayoutType.STATUS_DATA || this.type == TableLayoutType.INDEX_DATA
+        || this.type == TableLayoutType.MAIN_DATA) {
+      this.mTable.requestRowsLoaded(topmost, bottommost);
+      this.mColors.prefetch(topmost, bottommost);
+    }
+    if (this.type == TableLayoutType.INDEX_DATA || this.type == TableLayoutType.MAIN_DATA) {
+      int[] visibleColumns = Arrays.copyOfRange(mUserDataIndex, indexOfLeftmostColumn,
+          indexOfRightmostColumn + 1);
+      this.mTable.prefetchDisplayText(topmost, bottommost, visibleColumns);
+    }
+
+    drawTiles(canvas, topmost, bottommost, indexOfLeftmostColumn, indexOfRightmostColumn);
+    // highlighting cell (if necessary)
+    if (highlightedCellInfo != null) {
+      int rowNum = highlightedCellInfo.rowId;
+      int colPos = highlightedCellInfo.colPos;
+      highlightCell(canvas, xs[colPos], ((rowNum + 1) * BORDER_WIDTH) + (rowNum * rowHeight),
+          columnWidths[colPos]);
+    }
+  }
+
+  /**
+   * Work out which rows and columns are on the screen, from the scroll
+   * position of the spreadsheet.
+   *
+   * @return the topmost and bottommost row and the leftmost and rightmost
+   *         column, in that order
+   */
+  private int[] getVisibleRange() {
     int xScroll = controller.getMainScrollX();
     int yScroll = controller.getMainScrollY();
     if (xScroll < 0) {
@@ -558,15 +714,7 @@ class TabularView extends View {
       yScroll = 0;
     }
     int topmost;
-    int topmostBorder;
-    int leftmostBorder;
-    int topTopmost;
-    int topBottommostBorder;
     int bottommost;
-    int leftLeftmost;
-    int leftRightmost;
-    int rightRightmostBorder;
-    int bottomBottommost;
 
     // The first thing we must do is recognize that we have to undergo
     // different procedures if we are dealing with a header.
@@ -586,23 +734,32 @@ class TabularView extends View {
                                              // row
       }
     }
-    topmostBorder = topmost * (BORDER_WIDTH + rowHeight);
-    topTopmost = topmostBorder + BORDER_WIDTH;
-    topBottommostBorder = bottommost * (BORDER_WIDTH + rowHeight);
-    bottomBottommost = topBottommostBorder + BORDER_WIDTH + rowHeight;
     // And now let's get the correct column. The math here can't be as simple,
     // b/c unlike rowHeight, columnWidth is not a fixed unit.
     int indexOfLeftmostColumn = getLeftmostColumnBasedOnXScroll(xScroll);
-    @SuppressWarnings("unused")
-    String leftmostElementKey = this.mElementKeys.get(indexOfLeftmostColumn);
-    leftLeftmost = xs[indexOfLeftmostColumn];
-    leftmostBorder = leftLeftmost - BORDER_WIDTH;
     int indexOfRightmostColumn = getLeftmostColumnBasedOnXScroll(xScroll + metrics.widthPixels);
-    @SuppressWarnings("unused")
-    String rightmostElementKey = this.mElementKeys.get(indexOfRightmostColumn);
-    leftRightmost = xs[indexOfRightmostColumn];
+    return new int[] { topmost, bottommost, indexOfLeftmostColumn, indexOfRightmostColumn };
+  }
+
+  /**
+   * Draw the borders and cells of the rows from topmost to bottommost and the
+   * columns from indexOfLeftmostColumn to indexOfRightmostColumn, inclusive.
+   * Data rows that are not in memory are drawn as empty cells.
+   *
+   * @return true if every row was drawn, false if any was drawn empty
+   */
+  private boolean drawRegion(Canvas canvas, int topmost, int bottommost,
+      int indexOfLeftmostColumn, int indexOfRightmostColumn) {
+    int topmostBorder = topmost * (BORDER_WIDTH + rowHeight);
+    int topTopmost = topmostBorder + BORDER_WIDTH;
+    int topBottommostBorder = bottommost * (BORDER_WIDTH + rowHeight);
+    int bottomBottommost = topBottommostBorder + BORDER_WIDTH + rowHeight;
+    int leftLeftmost = xs[indexOfLeftmostColumn];
+    int leftmostBorder = leftLeftmost - BORDER_WIDTH;
+    int leftRightmost = xs[indexOfRightmostColumn];
     // i believe at the end, then, this should be total width, once it is all on the column?
-    rightRightmostBorder = leftRightmost + columnWidths[indexOfRightmostColumn] + BORDER_WIDTH; 
+    int rightRightmostBorder = leftRightmost + columnWidths[indexOfRightmostColumn]
+        + BORDER_WIDTH;
     int yCoord = topmostBorder;
     for (int i = topmost; i < bottommost + 1; i++) {
       canvas.drawRect(leftmostBorder, yCoord, rightRightmostBorder, yCoord + BORDER_WIDTH,
@@ -615,27 +772,31 @@ class TabularView extends View {
       xCoord += (i == this.mElementKeys.size()) ? 0 : columnWidths[i] + BORDER_WIDTH;
     }
 
-    // precompute the correspondence between the displayed elementKeys and the
-    // SpreadsheetUserTable userData index
-    int[] userDataIndex = new int[indexOfRightmostColumn + 1];
-    for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; ++j) {
-      String elementKey = this.mElementKeys.get(j);
-      Integer idx = this.mTable.getColumnIndexOfElementKey(elementKey);
-      userDataIndex[j] = (idx == null) ? -1 : idx;
-    }
-
     // drawing the cells
+    boolean complete = true;
     int y = topTopmost;
     for (int i = topmost; i < bottommost + 1; i++) {
-      Row theRow = null;
-
-      // we only need to fetch this once for a given row...
-      ColorGuide rowGuide = null;
-      if (this.type == TableLayoutType.STATUS_DATA || this.type == TableLayoutType.INDEX_DATA
-          || this.type == TableLayoutType.MAIN_DATA) {
-        // these are the only cases (below) where this value is used...
-        theRow = this.mTable.getRowAtIndex(i);
-        rowGuide = mRowColorRuleGroup.getColorGuide(this.mTable.getColumnDefinitions(), theRow);
+      // we only need to fetch these once for a given row...
+      SpreadsheetColors.RowBlock colors = null;
+      ColorVector rowColors = null;
+      int colorOffset = 0;
+      boolean isDataRow = this.type == TableLayoutType.STATUS_DATA
+          || this.type == TableLayoutType.INDEX_DATA || this.type == TableLayoutType.MAIN_DATA;
+      if (isDataRow && !this.mTable.isRowLoaded(i)) {
+        for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; j++) {
+          drawCell(canvas, xs[j], y, "", this.defaultBackgroundColor,
+              this.defaultForegroundColor, columnWidths[j]);
+        }
+        complete = false;
+        y += rowHeight + BORDER_WIDTH;
+        continue;
+      }
+      if (isDataRow) {
+        // these are the only cases (below) where these values are used...
+        colors = this.mColors.getBlock(i);
+        colorOffset = colors.getOffset(i);
+        rowColors = (this.type == TableLayoutType.STATUS_DATA) ? colors.getStatusColors()
+            : colors.getTableColors();
       }
 
       for (int j = indexOfLeftmostColumn; j < indexOfRightmostColumn + 1; j++) {
@@ -644,12 +805,9 @@ class TabularView extends View {
         if (this.type == TableLayoutType.STATUS_DATA || this.type == TableLayoutType.STATUS_HEADER) {
           datum = DEFAULT_STATUS_COLUMN_VALUE;
         } else if (this.type == TableLayoutType.INDEX_HEADER || this.type == TableLayoutType.MAIN_HEADER) {
-          datum = this.mTable.getHeader(userDataIndex[j]);
+          datum = this.mTable.getHeader(mUserDataIndex[j]);
         } else if (this.type == TableLayoutType.INDEX_DATA || this.type == TableLayoutType.MAIN_DATA) {
-
-          ColumnDefinition cd = this.mTable.getColumnByIndex(userDataIndex[j]);
-          datum = theRow.getDisplayTextOfData(this.getContext(), cd.getType(), cd.getElementKey(),
-              true);
+          datum = this.mTable.getDisplayText(i, mUserDataIndex[j]);
         } else {
           WebLogger.getLogger(this.mTable.getAppName()).e(TAG,
               "unrecognized table type: " + this.type.name());
@@ -662,36 +820,186 @@ class TabularView extends View {
         int backgroundColor = this.defaultBackgroundColor;
         if (type == TableLayoutType.INDEX_DATA || type == TableLayoutType.MAIN_DATA) {
           // First we check for a row rule.
-          if (rowGuide != null) {
-            foregroundColor = rowGuide.getForeground();
-            backgroundColor = rowGuide.getBackground();
-          }
-          ColorGuide columnGuide = mColumnColorRules.get(this.mElementKeys.get(j)).getColorGuide(
-              this.mTable.getColumnDefinitions(), theRow);
-          // Override the role rule if a column rule matched.
-          if (columnGuide != null) {
-            foregroundColor = columnGuide.getForeground();
-            backgroundColor = columnGuide.getBackground();
+          foregroundColor = rowColors.getForeground(colorOffset, foregroundColor);
+          backgroundColor = rowColors.getBackground(colorOffset, backgroundColor);
+          // Override the row rule if a column rule matched.
+          ColorVector columnColors = colors.getColumnColors(this.mElementKeys.get(j));
+          if (columnColors != null) {
+            foregroundColor = columnColors.getForeground(colorOffset, foregroundColor);
+            backgroundColor = columnColors.getBackground(colorOffset, backgroundColor);
           }
         }
         if (type == TableLayoutType.STATUS_DATA) {
-          if (rowGuide != null) {
-            foregroundColor = rowGuide.getForeground();
-            backgroundColor = rowGuide.getBackground();
-          }
+          foregroundColor = rowColors.getForeground(colorOffset, foregroundColor);
+          backgroundColor = rowColors.getBackground(colorOffset, backgroundColor);
         }
         drawCell(canvas, xs[j], y, datum, backgroundColor, foregroundColor, columnWidths[j]);
       }
       y += rowHeight + BORDER_WIDTH;
       /** adding to try and fix draw **/
     }
-    // highlighting cell (if necessary)
-    if (highlightedCellInfo != null) {
-      int rowNum = highlightedCellInfo.rowId;
-      int colPos = highlightedCellInfo.colPos;
-      highlightCell(canvas, xs[colPos], ((rowNum + 1) * BORDER_WIDTH) + (rowNum * rowHeight),
-          columnWidths[colPos]);
+    return complete;
+  }
+
+  /**
+   * Draw the tiles covering the rows from topmost to bottommost and the
+   * columns from indexOfLeftmostColumn to indexOfRightmostColumn. A tile that
+   * is not cached is drawn in the background, and left empty until it is
+   * ready.
+   */
+  private void drawTiles(Canvas canvas, int topmost, int bottommost,
+      int indexOfLeftmostColumn, int indexOfRightmostColumn) {
+    int firstRowBlock = topmost / ROWS_PER_TILE;
+    int lastRowBlock = bottommost / ROWS_PER_TILE;
+    int firstColumnBlock = getColumnBlock(indexOfLeftmostColumn);
+    int lastColumnBlock = getColumnBlock(indexOfRightmostColumn);
+    for (int rowBlock = firstRowBlock; rowBlock <= lastRowBlock; rowBlock++) {
+      for (int columnBlock = firstColumnBlock; columnBlock <= lastColumnBlock; columnBlock++) {
+        Rect bounds = getTileBounds(rowBlock, columnBlock);
+        Bitmap tile = mTiles.get(mTileOwner, rowBlock, columnBlock);
+        if (tile != null) {
+          canvas.drawBitmap(tile, bounds.left, bounds.top, null);
+          continue;
+        }
+        canvas.drawRect(bounds, placeholderPaint);
+        // a tile whose rows are still being read is asked for again once
+        // they arrive
+        int firstRow = rowBlock * ROWS_PER_TILE;
+        int lastRow = Math.min(this.mNumberOfRows - 1, firstRow + ROWS_PER_TILE - 1);
+        if (areRowsLoaded(firstRow, lastRow)) {
+          requestTile(rowBlock, columnBlock);
+        }
+      }
+    }
+    mDrawnTiles[0] = firstRowBlock;
+    mDrawnTiles[1] = lastRowBlock;
+    mDrawnTiles[2] = firstColumnBlock;
+    mDrawnTiles[3] = lastColumnBlock;
+  }
+
+  /**
+   * @param firstRow
+   * @param lastRow
+   * @return true if the rows are headers, or all of them are in memory
+   */
+  private boolean areRowsLoaded(int firstRow, int lastRow) {
+    if (this.type != TableLayoutType.STATUS_DATA && this.type != TableLayoutType.INDEX_DATA
+        && this.type != TableLayoutType.MAIN_DATA) {
+      return true;
     }
+    // the rows of a tile span at most two windows
+    return this.mTable.isRowLoaded(firstRow) && this.mTable.isRowLoaded(lastRow);
+  }
+
+  private static long getTileKey(int rowBlock, int columnBlock) {
+    return (((long) rowBlock) << 32) | (columnBlock & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @param rowBlock
+   * @param columnBlock
+   * @return the area of the view the tile covers
+   */
+  private Rect getTileBounds(int rowBlock, int columnBlock) {
+    int firstRow = rowBlock * ROWS_PER_TILE;
+    int lastRow = Math.min(this.mNumberOfRows - 1, firstRow + ROWS_PER_TILE - 1);
+    int firstColumn = mColumnBlockStarts[columnBlock];
+    int lastColumn = mColumnBlockStarts[columnBlock + 1] - 1;
+    int left = xs[firstColumn] - BORDER_WIDTH;
+    int top = firstRow * (BORDER_WIDTH + rowHeight);
+    int right = (lastColumn + 1 < xs.length) ? xs[lastColumn + 1] - BORDER_WIDTH : totalWidth;
+    int bottom = (lastRow + 1 < this.mNumberOfRows) ? (lastRow + 1) * (BORDER_WIDTH + rowHeight)
+        : totalHeight;
+    return new Rect(left, top, right, bottom);
+  }
+
+  /**
+   * Draw the tile on {@link #sTileRenderer}, then cache it and redraw the
+   * area it covers, unless the tiles have been dropped in the meantime.
+   *
+   * @param rowBlock
+   * @param columnBlock
+   */
+  private void requestTile(final int rowBlock, final int columnBlock) {
+    final Long key = getTileKey(rowBlock, columnBlock);
+    if (!mPendingTiles.add(key)) {
+      return;
+    }
+    final int generation = mTileGeneration;
+    sTileRenderer.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        Bitmap tile = null;
+        if (generation == mTileGeneration) {
+          try {
+            tile = drawTile(rowBlock, columnBlock);
+          } catch (RuntimeException e) {
+            WebLogger.getLogger(mTable.getAppName()).e(TAG, "[requestTile] unable to draw tile");
+            WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+          }
+        }
+        final Bitmap drawn = tile;
+        post(new Runnable() {
+
+          @Override
+          public void run() {
+            if (generation != mTileGeneration) {
+              return;
+            }
+            // a tile that could not be drawn whole is asked for again the
+            // next time its rows are drawn
+            mPendingTiles.remove(key);
+            if (drawn != null) {
+              mTiles.put(mTileOwner, rowBlock, columnBlock, drawn);
+              invalidate(getTileBounds(rowBlock, columnBlock));
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Forget the tiles being drawn in the background, e.g. because their rows
+   * have changed.
+   */
+  private void discardPendingTiles() {
+    ++mTileGeneration;
+    mPendingTiles.clear();
+  }
+
+  /**
+   * @param rowBlock
+   * @param columnBlock
+   * @return the tile, or null if some of its rows were evicted before they
+   *         could be drawn
+   */
+  private Bitmap drawTile(int rowBlock, int columnBlock) {
+    Rect bounds = getTileBounds(rowBlock, columnBlock);
+    int firstRow = rowBlock * ROWS_PER_TILE;
+    int lastRow = Math.min(this.mNumberOfRows - 1, firstRow + ROWS_PER_TILE - 1);
+    int firstColumn = mColumnBlockStarts[columnBlock];
+    int lastColumn = mColumnBlockStarts[columnBlock + 1] - 1;
+    Bitmap tile = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ARGB_8888);
+    Canvas tileCanvas = new Canvas(tile);
+    tileCanvas.drawColor(this.defaultBackgroundColor);
+    tileCanvas.translate(-bounds.left, -bounds.top);
+    if (!drawRegion(tileCanvas, firstRow, lastRow, firstColumn, lastColumn)) {
+      // keeping it would leave the empty rows on the screen once they are read
+      tile.recycle();
+      return null;
+    }
+    return tile;
+  }
+
+  /**
+   * @param column
+   * @return the block of columns, drawn as one tile, that holds the column
+   */
+  private int getColumnBlock(int column) {
+    int result = Arrays.binarySearch(mColumnBlockStarts, column);
+    return (result >= 0) ? result : -result - 2;
   }
 
   /**
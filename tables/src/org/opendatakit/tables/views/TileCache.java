@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * The rasterized tiles of the {@link TabularView}s. A tile covers a block of
+ * rows and a block of columns of one view, and is only drawn again once it
+ * has been evicted or invalidated, so that scrolling a hardware accelerated
+ * view mostly blits bitmaps that have already been drawn.
+ * <p>
+ * Every view keeps its tiles in the one cache returned by
+ * {@link #getInstance()}, under an owner from {@link #newOwner()}, so that
+ * the tiles of all the views on the screen share a single budget. Tiles are
+ * evicted least recently used first once their total size passes it.
+ */
+class TileCache {
+
+  private static final TileCache sInstance = new TileCache(getDefaultBudget());
+
+  private static final AtomicInteger sNextOwner = new AtomicInteger();
+
+  /**
+   * Identifies the tile of one view.
+   */
+  private static final class Key {
+    private final int mOwner;
+    private final int mRowBlock;
+    private final int mColumnBlock;
+
+    Key(int owner, int rowBlock, int columnBlock) {
+      this.mOwner = owner;
+      this.mRowBlock = rowBlock;
+      this.mColumnBlock = columnBlock;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return mOwner == other.mOwner && mRowBlock == other.mRowBlock
+          && mColumnBlock == other.mColumnBlock;
+    }
+
+    @Override
+    public int hashCode() {
+      return (mOwner * 31 + mRowBlock) * 31 + mColumnBlock;
+    }
+  }
+
+  private final LruCache<Key, Bitmap> mTiles;
+
+  /**
+   * @param maxBytes
+   *          the most memory the tiles may take up
+   */
+  TileCache(int maxBytes) {
+    this.mTiles = new LruCache<Key, Bitmap>(Math.max(1, maxBytes)) {
+
+      @Override
+      protected int sizeOf(Key key, Bitmap value) {
+        return value.getByteCount();
+      }
+    };
+  }
+
+  /**
+   * @return the cache shared by every view
+   */
+  static TileCache getInstance() {
+    return sInstance;
+  }
+
+  /**
+   * @return an owner that no other view has, to keep the tiles of a view
+   *         under
+   */
+  static int newOwner() {
+    return sNextOwner.getAndIncrement();
+  }
+
+  /**
+   * @return the budget for the tiles of every view together: a sixteenth of
+   *         the memory available to the app
+   */
+  static int getDefaultBudget() {
+    return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 16);
+  }
+
+  /**
+   * @param owner
+   * @param rowBlock
+   * @param columnBlock
+   * @return the tile, or null if it has to be drawn
+   */
+  Bitmap get(int owner, int rowBlock, int columnBlock) {
+    return mTiles.get(new Key(owner, rowBlock, columnBlock));
+  }
+
+  void put(int owner, int rowBlock, int columnBlock, Bitmap tile) {
+    mTiles.put(new Key(owner, rowBlock, columnBlock), tile);
+  }
+
+  /**
+   * Drop the tiles of the owner's row blocks from firstRowBlock onwards.
+   *
+   * @param owner
+   * @param firstRowBlock
+   */
+  void invalidateRowBlocksFrom(int owner, int firstRowBlock) {
+    List<Key> held = new ArrayList<Key>(mTiles.snapshot().keySet());
+    for (Key key : held) {
+      if (key.mOwner == owner && key.mRowBlock >= firstRowBlock) {
+        mTiles.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Drop every tile of the owner.
+   *
+   * @param owner
+   */
+  void clear(int owner) {
+    invalidateRowBlocksFrom(owner, 0);
+  }
+}
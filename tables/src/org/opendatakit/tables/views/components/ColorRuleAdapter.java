@@ -21,10 +21,10 @@ import org.opendatakit.aggregate.odktables.rest.SyncState;
 import org.opendatakit.common.android.data.ColorRule;
 import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.database.DatabaseFactory;
-import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.R;
+import org.opendatakit.tables.utils.LocalizedNameCache;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
@@ -103,14 +103,18 @@ public class ColorRuleAdapter extends ArrayAdapter<ColorRule> {
         }
       } else {
 
-        String localizedDisplayName;
-        SQLiteDatabase db = null;
-        try {
-          db = DatabaseFactory.get().getDatabase(mContext, mAppName);
-          localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(db, mTableId, elementKey);
-        } finally {
-          if (db != null) {
-            db.close();
+        String localizedDisplayName = LocalizedNameCache.peekColumnDisplayName(mAppName,
+            mTableId, elementKey);
+        if (localizedDisplayName == null) {
+          SQLiteDatabase db = null;
+          try {
+            db = DatabaseFactory.get().getDatabase(mContext, mAppName);
+            localizedDisplayName = LocalizedNameCache.getColumnDisplayName(db, mAppName,
+                mTableId, elementKey);
+          } finally {
+            if (db != null) {
+              db.close();
+            }
           }
         }
 
@@ -16,19 +16,25 @@
 package org.opendatakit.tables.views.webkits;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.database.DatabaseFactory;
+import org.opendatakit.common.android.provider.DataTableColumns;
 import org.opendatakit.common.android.utilities.ColumnUtil;
+import org.opendatakit.common.android.utilities.DataUtil;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.common.android.utilities.TableUtil;
@@ -38,10 +44,14 @@ import org.opendatakit.tables.activities.AbsBaseActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity;
 import org.opendatakit.tables.activities.TableDisplayActivity.ViewFragmentType;
 import org.opendatakit.tables.activities.WebViewActivity;
+import org.opendatakit.tables.utils.AggregateUtil;
 import org.opendatakit.tables.utils.CollectUtil;
 import org.opendatakit.tables.utils.CollectUtil.CollectFormParameters;
+import org.opendatakit.tables.utils.ColumnIndex;
 import org.opendatakit.tables.utils.Constants;
 import org.opendatakit.tables.utils.Constants.RequestCodes;
+import org.opendatakit.tables.utils.DatabaseSession;
+import org.opendatakit.tables.utils.LocalizedNameCache;
 import org.opendatakit.tables.utils.IntentUtil;
 import org.opendatakit.tables.utils.SurveyUtil;
 import org.opendatakit.tables.utils.SurveyUtil.SurveyFormParameters;
@@ -54,6 +64,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.webkit.WebView;
 
 public class Control {
 
@@ -62,7 +73,10 @@ public class Control {
   protected AbsBaseActivity mActivity;
   protected String mAppName;
   protected String mDefaultTableId;
+  /** Guarded by this, as the queries of {@link #queryAsync} fill it in too. */
   protected Map<String, ArrayList<ColumnDefinition>> mCachedOrderedDefns = new HashMap<String, ArrayList<ColumnDefinition>>();
+  /** The lookups over each list in {@link #mCachedOrderedDefns}. Guarded by this. */
+  protected Map<String, ColumnIndex> mCachedColumnIndexes = new HashMap<String, ColumnIndex>();
   protected ArrayList<String> mTableIds;
 
   public Object getJavascriptInterfaceWithWeakReference() {
@@ -70,7 +84,35 @@ public class Control {
   }
 
   // hold onto references to all the results returned to the WebKit
-  private LinkedList<TableData> queryResults = new LinkedList<TableData>();
+  private final QueryResultRegistry mQueryResults = new QueryResultRegistry(
+      QueryResultRegistry.getDefaultBudget());
+
+  /** The most queries issued by {@link #queryAsync} that run at the same time. */
+  private static final int QUERY_THREADS = 3;
+
+  /** How long the threads of {@link #sQueryExecutor} wait for work before they exit. */
+  private static final long QUERY_KEEP_ALIVE_SECONDS = 30L;
+
+  /**
+   * Runs the queries issued by {@link #queryAsync}, off the JavaBridge thread.
+   * A few run at once, so that a slow query does not hold up the others. Its
+   * threads exit once they have been idle for a while.
+   */
+  private static final ThreadPoolExecutor sQueryExecutor = newQueryExecutor();
+
+  private static ThreadPoolExecutor newQueryExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(QUERY_THREADS, QUERY_THREADS,
+        QUERY_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** The name of a javascript function, e.g. "foo" or "app.onResult". */
+  private static final Pattern CALLBACK_NAME = Pattern
+      .compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+
+  /** The view that the results of asynchronous queries are delivered to. */
+  private WeakReference<WebView> mWebView = new WeakReference<WebView>(null);
 
   /**
    * This construct requires an activity rather than a context because we want
@@ -100,6 +142,16 @@ public class Control {
     }
   }
 
+  /**
+   * Set the view whose javascript is called back when an asynchronous query
+   * completes. Only a weak reference is held.
+   *
+   * @param webView
+   */
+  public void setWebView(WebView webView) {
+    this.mWebView = new WeakReference<WebView>(webView);
+  }
+
   /**
    * Return the ordered array of ColumnDefinition objects.
    * 
@@ -119,6 +171,74 @@ public class Control {
     return answer;
   }
 
+  /**
+   * As {@link #retrieveColumnDefinitions(SQLiteDatabase, String)}, only
+   * opening the database if the columns have not been read yet.
+   *
+   * @param tableId
+   * @return
+   */
+  ArrayList<ColumnDefinition> retrieveColumnDefinitions(String tableId) {
+    synchronized (this) {
+      ArrayList<ColumnDefinition> answer = this.mCachedOrderedDefns.get(tableId);
+      if (answer != null) {
+        return answer;
+      }
+    }
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
+      return retrieveColumnDefinitions(db, tableId);
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+  }
+
+  /**
+   * Return the lookups over the columns of the table, built the first time
+   * they are asked for.
+   *
+   * @param db
+   * @param tableId
+   * @return
+   */
+  synchronized ColumnIndex retrieveColumnIndex(SQLiteDatabase db, String tableId) {
+    ColumnIndex index = this.mCachedColumnIndexes.get(tableId);
+    if (index != null) {
+      return index;
+    }
+    index = new ColumnIndex(retrieveColumnDefinitions(db, tableId));
+    this.mCachedColumnIndexes.put(tableId, index);
+    return index;
+  }
+
+  /**
+   * As {@link #retrieveColumnIndex(SQLiteDatabase, String)}, only opening the
+   * database if the index has not been built yet.
+   *
+   * @param tableId
+   * @return
+   */
+  ColumnIndex retrieveColumnIndex(String tableId) {
+    synchronized (this) {
+      ColumnIndex index = this.mCachedColumnIndexes.get(tableId);
+      if (index != null) {
+        return index;
+      }
+    }
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
+      return retrieveColumnIndex(db, tableId);
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+  }
+
   /**
    * Start the detail view.
    * 
@@ -305,13 +425,48 @@ public class Control {
    * @see {@link ControlIf#releaseQueryResources(String)}
    */
   public void releaseQueryResources(String tableId) {
-    Iterator<TableData> iter = queryResults.iterator();
-    while (iter.hasNext()) {
-      TableData td = iter.next();
-      if (td.getTableId().equals(tableId)) {
-        iter.remove();
-      }
+    mQueryResults.releaseTable(tableId);
+  }
+
+  /**
+   * @see {@link ControlIf#releaseQueryResult(String)}
+   */
+  public boolean releaseQueryResult(String handle) {
+    return mQueryResults.release(handle);
+  }
+
+  /**
+   * @see {@link ControlIf#getQueryResultHandles()}
+   */
+  public String getQueryResultHandles() {
+    List<Map<String, Object>> handles = new ArrayList<Map<String, Object>>();
+    for (QueryResultRegistry.Entry entry : mQueryResults.getEntries()) {
+      Map<String, Object> handle = new HashMap<String, Object>();
+      handle.put("handle", entry.handle);
+      handle.put("tableId", entry.tableData.getTableId());
+      handle.put("count", entry.tableData.getCount());
+      handle.put("bytes", entry.sizeInBytes);
+      handles.add(handle);
     }
+    return WebViewUtil.stringify(handles);
+  }
+
+  /**
+   * @see {@link ControlIf#getQueryMemoryUsage()}
+   */
+  public String getQueryMemoryUsage() {
+    Map<String, Object> usage = new HashMap<String, Object>();
+    usage.put("count", mQueryResults.size());
+    usage.put("bytesInUse", mQueryResults.getBytesInUse());
+    usage.put("budget", mQueryResults.getBudget());
+    return WebViewUtil.stringify(usage);
+  }
+
+  /**
+   * @see {@link ControlIf#setQueryMemoryBudget(int)}
+   */
+  public void setQueryMemoryBudget(int kilobytes) {
+    mQueryResults.setBudget(Math.max(0, kilobytes) * 1024L);
   }
 
   /**
@@ -347,10 +502,128 @@ public class Control {
      * IMPORTANT: remember the td. The interfaces will hold weak references to
      * them, so we need a strong reference to prevent GC.
      */
-    queryResults.add(tableData);
+    if (tableData != null) {
+      mQueryResults.register(tableData);
+    }
     return tableData;
   }
 
+  /**
+   * Run {@link #query} on a background thread and call the javascript
+   * function callbackName with the requestId and a summary of the result
+   * once it is ready, so that the WebView is not blocked while the query
+   * runs. The summary is a json object with the handle of the result, the
+   * tableId, the count of rows and, if elementPathsJson is not null, the
+   * first pageSize rows as returned by
+   * {@link TableData#getRows(int, int, String)}. It is null if the query
+   * failed. The full result is retrieved with
+   * {@link #getQueryResult(String)}.
+   *
+   * @see {@link ControlIf#queryAsync(String, String, String[], String, String, String, int)}
+   *
+   * @param tableId
+   * @param whereClause
+   * @param selectionArgs
+   * @param callbackName
+   *          the javascript function to call
+   * @param requestId
+   *          passed back to the callback to identify the query
+   * @param elementPathsJson
+   *          a stringified json array of the element paths of the columns to
+   *          return in the first page, or null for no rows
+   * @param pageSize
+   *          the number of rows in the first page
+   * @return false if the callback name is not a valid function name, in
+   *         which case the query is not run
+   */
+  public boolean queryAsync(final String tableId, final String whereClause,
+      final String[] selectionArgs, final String callbackName, final String requestId,
+      final String elementPathsJson, final int pageSize) {
+    if (callbackName == null || !CALLBACK_NAME.matcher(callbackName).matches()) {
+      WebLogger.getLogger(mAppName).e(TAG,
+          "[queryAsync] invalid callback name: " + callbackName);
+      return false;
+    }
+    sQueryExecutor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        String summary = null;
+        try {
+          TableData tableData = query(tableId, whereClause, selectionArgs, null, null, null,
+              null);
+          if (tableData != null) {
+            summary = getQuerySummary(tableData, elementPathsJson, pageSize);
+          }
+        } catch (Exception e) {
+          WebLogger.getLogger(mAppName).e(TAG,
+              "[queryAsync] query on table [" + tableId + "] failed");
+          WebLogger.getLogger(mAppName).printStackTrace(e);
+        }
+        callJavascript(callbackName + "(" + JSONObject.quote(requestId) + ","
+            + ((summary == null) ? "null" : summary) + ");");
+      }
+    });
+    return true;
+  }
+
+  /**
+   * Get a query result by its handle, e.g. that of an asynchronous query.
+   *
+   * @see {@link ControlIf#getQueryResult(String)}
+   *
+   * @param handle
+   * @return the result, or null if it has been released
+   */
+  public TableData getQueryResult(String handle) {
+    return mQueryResults.get(handle);
+  }
+
+  private String getQuerySummary(TableData tableData, String elementPathsJson, int pageSize) {
+    StringBuilder summary = new StringBuilder();
+    summary.append("{\"handle\":").append(JSONObject.quote(tableData.getQueryHandle()));
+    summary.append(",\"tableId\":").append(JSONObject.quote(tableData.getTableId()));
+    summary.append(",\"count\":").append(tableData.getCount());
+    if (elementPathsJson != null) {
+      String rows = tableData.getRows(0, pageSize, elementPathsJson);
+      summary.append(",\"rows\":").append((rows == null) ? "null" : rows);
+    }
+    summary.append("}");
+    return summary.toString();
+  }
+
+  /**
+   * Run the script in the WebView on the UI thread. Does nothing if the
+   * WebView has gone away.
+   *
+   * @param script
+   */
+  private void callJavascript(final String script) {
+    final WebView webView = mWebView.get();
+    if (webView == null || mActivity == null) {
+      WebLogger.getLogger(mAppName).w(TAG, "[callJavascript] no WebView to call back");
+      return;
+    }
+    mActivity.runOnUiThread(new Runnable() {
+
+      @Override
+      public void run() {
+        webView.loadUrl(toJavascriptUrl(script));
+      }
+    });
+  }
+
+  /**
+   * The WebView percent-decodes a javascript: url before running it, so a
+   * literal '%' in the script, e.g. in a row's data, must be escaped.
+   *
+   * @param script
+   * @return the url that runs the script
+   */
+  static String toJavascriptUrl(String script) {
+    return "javascript:" + script.replace("%", "%25");
+  }
+
   /**
    * @see {@link ControlIf#getAllTableIds()}
    */
@@ -366,6 +639,9 @@ public class Control {
    * @return
    */
   public String getElementKey(String tableId, String elementPath) {
+    if (mTableIds.contains(tableId)) {
+      return retrieveColumnIndex(tableId).getElementKeyFromElementPath(elementPath);
+    }
     return ColumnUtil.get().getElementKeyFromElementPath(elementPath);
   }
 
@@ -383,11 +659,16 @@ public class Control {
       return null;
     }
     try {
-      String localizedDisplayName;
+      String localizedDisplayName = LocalizedNameCache.peekColumnDisplayName(mAppName, tableId,
+          elementKey);
+      if (localizedDisplayName != null) {
+        return localizedDisplayName;
+      }
       SQLiteDatabase db = null;
       try {
         db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
-        localizedDisplayName = ColumnUtil.get().getLocalizedDisplayName(db, tableId, elementKey);
+        localizedDisplayName = LocalizedNameCache.getColumnDisplayName(db, mAppName, tableId,
+            elementKey);
       } finally {
         if (db != null) {
           db.close();
@@ -406,11 +687,14 @@ public class Control {
    * @return
    */
   public String getTableDisplayName(String tableId) {
-    String localizedDisplayName;
+    String localizedDisplayName = LocalizedNameCache.peekTableDisplayName(mAppName, tableId);
+    if (localizedDisplayName != null) {
+      return localizedDisplayName;
+    }
     SQLiteDatabase db = null;
     try {
       db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
-      localizedDisplayName = TableUtil.get().getLocalizedDisplayName(db, tableId);
+      localizedDisplayName = LocalizedNameCache.getTableDisplayName(db, mAppName, tableId);
     } finally {
       if (db != null) {
         db.close();
@@ -447,6 +731,142 @@ public class Control {
     }
   }
 
+  /**
+   * @see {@link ControlIf#addRows(String, String)}
+   */
+  public String addRows(String tableId, String stringifiedJSONArray) {
+    return helperAddOrUpdateRows(tableId, stringifiedJSONArray, false);
+  }
+
+  /**
+   * @see {@link ControlIf#updateRows(String, String)}
+   */
+  public String updateRows(String tableId, String stringifiedJSONArray) {
+    return helperAddOrUpdateRows(tableId, stringifiedJSONArray, true);
+  }
+
+  /**
+   * Add or update many rows at once. Every row is parsed and validated before
+   * any is written, and the valid rows are then written in a single
+   * transaction on one database session. If a write fails the whole
+   * transaction is rolled back and every row is reported as failed.
+   *
+   * @param tableId
+   * @param stringifiedJSONArray
+   *          a json array of objects mapping element key to value, each with
+   *          the row id under {@link DataTableColumns#ID}. The row id is
+   *          optional when adding.
+   * @param isUpdate
+   * @return a stringified json array with, for each row in order, an object
+   *         holding the row id, whether the row was written, and why not if
+   *         it was not. Null if the table or the array is invalid.
+   */
+  protected String helperAddOrUpdateRows(String tableId, String stringifiedJSONArray,
+      boolean isUpdate) {
+    if (!mTableIds.contains(tableId)) {
+      WebLogger.getLogger(mAppName).e(TAG,
+          "table [" + tableId + "] could not be found. " + "returning.");
+      return null;
+    }
+    List<HashMap<String, String>> rows = (stringifiedJSONArray == null) ? null : WebViewUtil
+        .getListOfMapsFromJson(mAppName, stringifiedJSONArray);
+    if (rows == null) {
+      WebLogger.getLogger(mAppName).e(TAG, "couldn't parse json array: " + stringifiedJSONArray);
+      return null;
+    }
+    int numberOfRows = rows.size();
+    String[] rowIds = new String[numberOfRows];
+    String[] errors = new String[numberOfRows];
+    ContentValues[] contentValues = new ContentValues[numberOfRows];
+
+    // parse the values as a single row's are
+    DataUtil dataUtil = WebViewUtil.newDataUtil();
+    DatabaseSession session = DatabaseSession.open(mActivity, mAppName);
+    try {
+      SQLiteDatabase db = session.getDatabase();
+      ArrayList<ColumnDefinition> orderedColumns = retrieveColumnDefinitions(db, tableId);
+      // validate every row before writing any of them
+      for (int i = 0; i < numberOfRows; ++i) {
+        HashMap<String, String> elementKeyToValue = rows.get(i);
+        if (elementKeyToValue == null) {
+          errors[i] = "row is not an object";
+          continue;
+        }
+        rowIds[i] = elementKeyToValue.remove(DataTableColumns.ID);
+        if (rowIds[i] == null) {
+          if (isUpdate) {
+            errors[i] = "row has no " + DataTableColumns.ID;
+            continue;
+          }
+          rowIds[i] = this.generateRowId();
+        }
+        try {
+          contentValues[i] = getContentValuesFromMap(session, dataUtil, tableId,
+              orderedColumns, elementKeyToValue);
+        } catch (IllegalArgumentException e) {
+          // a column that is not in the table
+          contentValues[i] = null;
+        }
+        if (contentValues[i] == null) {
+          errors[i] = "cannot assemble assignment data";
+        }
+      }
+
+      db.beginTransaction();
+      try {
+        for (int i = 0; i < numberOfRows; ++i) {
+          if (errors[i] != null) {
+            continue;
+          }
+          if (isUpdate) {
+            ODKDatabaseUtils.get().updateDataInExistingDBTableWithId(db, tableId,
+                orderedColumns, contentValues[i], rowIds[i]);
+          } else {
+            ODKDatabaseUtils.get().insertDataIntoExistingDBTableWithId(db, tableId,
+                orderedColumns, contentValues[i], rowIds[i]);
+          }
+        }
+        db.setTransactionSuccessful();
+      } catch (Exception e) {
+        WebLogger.getLogger(mAppName).e(TAG,
+            "[addOrUpdateRows] write to table [" + tableId + "] failed; rolling back");
+        WebLogger.getLogger(mAppName).printStackTrace(e);
+        for (int i = 0; i < numberOfRows; ++i) {
+          if (errors[i] == null) {
+            errors[i] = "write failed and was rolled back";
+          }
+        }
+      } finally {
+        db.endTransaction();
+      }
+    } finally {
+      session.release();
+    }
+
+    List<Map<String, Object>> result = new ArrayList<Map<String, Object>>(numberOfRows);
+    for (int i = 0; i < numberOfRows; ++i) {
+      Map<String, Object> outcome = new HashMap<String, Object>();
+      outcome.put(DataTableColumns.ID, rowIds[i]);
+      outcome.put("success", errors[i] == null);
+      if (errors[i] != null) {
+        outcome.put("error", errors[i]);
+      }
+      result.add(outcome);
+    }
+    return WebViewUtil.stringify(result);
+  }
+
+  /**
+   * As {@link #getContentValuesFromMap(Context, String, String, ArrayList, Map)},
+   * on a session and {@link DataUtil} shared by many rows.
+   */
+  protected ContentValues getContentValuesFromMap(DatabaseSession session, DataUtil dataUtil,
+      String tableId, ArrayList<ColumnDefinition> orderedDefns,
+      Map<String, String> elementKeyToValue) {
+    return WebViewUtil.getContentValuesFromMap(session, dataUtil, mAppName, tableId,
+        orderedDefns, elementKeyToValue);
+  }
+
   /**
    * Generate a row id. Eventually this should be moved to a common function
    * provided by {@link ODKDatabaseUtils} or something similar so that we can
@@ -588,27 +1008,122 @@ public class Control {
       return false;
     }
 
-    ArrayList<ColumnDefinition> orderedDefns;
-    if (this.mCachedOrderedDefns.containsKey(tableId)) {
-      orderedDefns = this.mCachedOrderedDefns.get(tableId);
-    } else {
-      SQLiteDatabase db = null;
-      try {
-        db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
-        orderedDefns = retrieveColumnDefinitions(db, tableId);
-      } finally {
-        if (db != null) {
-          db.close();
-        }
+    return retrieveColumnIndex(tableId).contains(elementKey);
+  }
+
+  /**
+   * @see {@link ControlIf#getAggregate(String, String, String, String, String, String[])}
+   */
+  public String getAggregate(String tableId, String function, String valueElementKey,
+      String groupByElementKey, String whereClause, String[] selectionArgs) {
+    if (!AggregateUtil.isSupportedFunction(function)
+        || (valueElementKey == null && !AggregateUtil.COUNT.equals(function))) {
+      WebLogger.getLogger(mAppName).e(TAG, "[getAggregate] unsupported aggregate: " + function);
+      return null;
+    }
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
+      if (!canAggregate(db, tableId, valueElementKey, groupByElementKey)) {
+        return null;
+      }
+      List<Map<String, Object>> result = AggregateUtil.aggregate(db, tableId, function,
+          valueElementKey, groupByElementKey, whereClause, selectionArgs);
+      return ODKFileUtils.mapper.writeValueAsString(result);
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG, "[getAggregate] failed on table [" + tableId + "]");
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return null;
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+  }
+
+  /**
+   * @see {@link ControlIf#getQuantiles(String, String, String, String, String[])}
+   */
+  public String getQuantiles(String tableId, String valueElementKey, String quantilesJson,
+      String whereClause, String[] selectionArgs) {
+    double[] quantiles;
+    try {
+      List<?> requested = ODKFileUtils.mapper.readValue(quantilesJson, ArrayList.class);
+      quantiles = new double[requested.size()];
+      for (int i = 0; i < quantiles.length; ++i) {
+        quantiles[i] = ((Number) requested.get(i)).doubleValue();
       }
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG,
+          "[getQuantiles] unable to parse quantiles: " + quantilesJson);
+      return null;
     }
+    SQLiteDatabase db = null;
+    try {
+      db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
+      if (valueElementKey == null || !canAggregate(db, tableId, valueElementKey, null)) {
+        return null;
+      }
+      double[] result = AggregateUtil.getQuantiles(db, tableId, valueElementKey, whereClause,
+          selectionArgs, quantiles);
+      return ODKFileUtils.mapper.writeValueAsString(result);
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG, "[getQuantiles] failed on table [" + tableId + "]");
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return null;
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+  }
 
+  /**
+   * @see {@link ControlIf#getBoxPlot(String, String, String, String, String[])}
+   */
+  public String getBoxPlot(String tableId, String valueElementKey, String groupByElementKey,
+      String whereClause, String[] selectionArgs) {
+    SQLiteDatabase db = null;
     try {
-      ColumnDefinition.find(orderedDefns, elementKey);
-      return true;
-    } catch (IllegalArgumentException e) {
+      db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
+      if (valueElementKey == null
+          || !canAggregate(db, tableId, valueElementKey, groupByElementKey)) {
+        return null;
+      }
+      List<AggregateUtil.BoxPlot> result = AggregateUtil.getBoxPlots(db, tableId,
+          valueElementKey, groupByElementKey, whereClause, selectionArgs);
+      return ODKFileUtils.mapper.writeValueAsString(result);
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG, "[getBoxPlot] failed on table [" + tableId + "]");
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      return null;
+    } finally {
+      if (db != null) {
+        db.close();
+      }
+    }
+  }
+
+  /**
+   * Check that the table exists and that the given element keys are columns
+   * of it, as they are used as column names in the aggregate SQL. Null
+   * element keys are skipped.
+   */
+  private boolean canAggregate(SQLiteDatabase db, String tableId, String... elementKeys) {
+    if (!mTableIds.contains(tableId)) {
+      WebLogger.getLogger(mAppName).e(TAG,
+          "table [" + tableId + "] could not be found. " + "returning.");
       return false;
     }
+    ColumnIndex index = retrieveColumnIndex(db, tableId);
+    for (String elementKey : elementKeys) {
+      if (elementKey != null && !index.contains(elementKey)) {
+        WebLogger.getLogger(mAppName).e(TAG,
+            "column [" + elementKey + "] could not be found in table [" + tableId + "]");
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -709,20 +1224,7 @@ public class Control {
       return false;
     }
 
-    ArrayList<ColumnDefinition> orderedDefns;
-    if (this.mCachedOrderedDefns.containsKey(tableId)) {
-      orderedDefns = this.mCachedOrderedDefns.get(tableId);
-    } else {
-      SQLiteDatabase db = null;
-      try {
-        db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
-        orderedDefns = retrieveColumnDefinitions(db, tableId);
-      } finally {
-        if (db != null) {
-          db.close();
-        }
-      }
-    }
+    ArrayList<ColumnDefinition> orderedDefns = retrieveColumnDefinitions(tableId);
 
     Map<String, String> map = null;
     if (jsonMap != null) {
@@ -828,20 +1330,7 @@ public class Control {
     }
     CollectFormParameters formParameters = null;
 
-    ArrayList<ColumnDefinition> orderedDefns;
-    if (this.mCachedOrderedDefns.containsKey(tableId)) {
-      orderedDefns = this.mCachedOrderedDefns.get(tableId);
-    } else {
-      SQLiteDatabase db = null;
-      try {
-        db = DatabaseFactory.get().getDatabase(mActivity, mAppName);
-        orderedDefns = retrieveColumnDefinitions(db, tableId);
-      } finally {
-        if (db != null) {
-          db.close();
-        }
-      }
-    }
+    ArrayList<ColumnDefinition> orderedDefns = retrieveColumnDefinitions(tableId);
 
     if (formId == null) {
       // Then we want to construct the form parameters using default
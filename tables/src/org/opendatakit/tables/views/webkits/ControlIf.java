@@ -190,6 +190,139 @@ public class ControlIf {
 		}
 	}
 
+	/**
+	 * Run the same query as {@link #query(String, String, String[])} on a
+	 * background thread, so that the page keeps running while it executes.
+	 * When the query completes the javascript function named by callbackName
+	 * is called as callbackName(requestId, summary), where summary is null if
+	 * the query failed and otherwise an object of the form:
+	 * <pre>
+	 * { handle: "...", tableId: "...", count: 120, rows: [ ... ] }
+	 * </pre>
+	 * rows holds the first pageSize rows in the format returned by
+	 * {@link TableDataIf#getRows(int, int, String)}, and is only present if
+	 * elementPathsJson is not null. The full result can then be retrieved
+	 * by passing the handle to {@link #getQueryResult(String)}.
+	 * @param tableId the tableId of the table
+	 * @param whereClause as for {@link #query(String, String, String[])}
+	 * @param selectionArgs as for {@link #query(String, String, String[])}
+	 * @param callbackName the name of a global javascript function, e.g.
+	 * "onQuery" or "dashboard.onQuery"
+	 * @param requestId handed back to the callback to identify the query
+	 * @param elementPathsJson a stringified json array of the element paths
+	 * of the columns to include in the first page of rows, or null
+	 * @param pageSize the number of rows in the first page
+	 * @return false if callbackName is not a valid function name, in which
+	 * case the query is not run
+	 */
+	// @JavascriptInterface
+	public boolean queryAsync(String tableId, String whereClause,
+			String[] selectionArgs, String callbackName, String requestId,
+			String elementPathsJson, int pageSize) {
+		return weakControl.get().queryAsync(
+		    tableId,
+		    whereClause,
+		    selectionArgs,
+		    callbackName,
+		    requestId,
+		    elementPathsJson,
+		    pageSize);
+	}
+
+	/**
+	 * Retrieve a query result by its handle, e.g. the handle passed to the
+	 * callback of
+	 * {@link #queryAsync(String, String, String[], String, String, String, int)}.
+	 * @param handle the handle of the result
+	 * @return a TableDataIf with the results of the query, or null if the
+	 * result has been released
+	 */
+	// @JavascriptInterface
+	public TableDataIf getQueryResult(String handle) {
+		TableData td = weakControl.get().getQueryResult(handle);
+		if (td != null) {
+			return td.getJavascriptInterfaceWithWeakReference();
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Aggregate a column of a table in the database rather than in
+	 * javascript, so that only the result crosses into the page. The rows are
+	 * restricted as for {@link #query(String, String, String[])}.
+	 * @param tableId the tableId of the table
+	 * @param function one of "count", "sum", "avg", "min" or "max"
+	 * @param valueElementKey the element key of the column to aggregate. May
+	 * be null for "count", which then counts the rows.
+	 * @param groupByElementKey the element key of the column to group by, or
+	 * null to aggregate over all the rows
+	 * @param whereClause as for {@link #query(String, String, String[])}
+	 * @param selectionArgs as for {@link #query(String, String, String[])}
+	 * @return a stringified json array of { group: ..., value: ... } objects,
+	 * ordered by group, or null if the arguments were invalid
+	 */
+	// @JavascriptInterface
+	public String getAggregate(String tableId, String function,
+			String valueElementKey, String groupByElementKey, String whereClause,
+			String[] selectionArgs) {
+		return weakControl.get().getAggregate(
+		    tableId,
+		    function,
+		    valueElementKey,
+		    groupByElementKey,
+		    whereClause,
+		    selectionArgs);
+	}
+
+	/**
+	 * Get quantiles of the non-null values of a numeric column.
+	 * @param tableId the tableId of the table
+	 * @param valueElementKey the element key of the column
+	 * @param quantilesJson a stringified json array of the quantiles to
+	 * compute, each between 0 and 1, e.g. [0.1, 0.5, 0.9]
+	 * @param whereClause as for {@link #query(String, String, String[])}
+	 * @param selectionArgs as for {@link #query(String, String, String[])}
+	 * @return a stringified json array with the value at each quantile, the
+	 * string "null" if the column has no values, or null if the arguments
+	 * were invalid
+	 */
+	// @JavascriptInterface
+	public String getQuantiles(String tableId, String valueElementKey,
+			String quantilesJson, String whereClause, String[] selectionArgs) {
+		return weakControl.get().getQuantiles(
+		    tableId,
+		    valueElementKey,
+		    quantilesJson,
+		    whereClause,
+		    selectionArgs);
+	}
+
+	/**
+	 * Get the statistics for drawing box plots of a numeric column.
+	 * @param tableId the tableId of the table
+	 * @param valueElementKey the element key of the column
+	 * @param groupByElementKey the element key of the column to draw a box
+	 * for each value of, or null for a single box
+	 * @param whereClause as for {@link #query(String, String, String[])}
+	 * @param selectionArgs as for {@link #query(String, String, String[])}
+	 * @return a stringified json array, ordered by group, of objects with the
+	 * keys group, count, min, firstQuartile, median, thirdQuartile, max,
+	 * lowerWhisker, upperWhisker and outliers, or null if the arguments were
+	 * invalid. The whiskers reach the most extreme values within 1.5
+	 * interquartile ranges of the quartiles.
+	 */
+	// @JavascriptInterface
+	public String getBoxPlot(String tableId, String valueElementKey,
+			String groupByElementKey, String whereClause, String[] selectionArgs) {
+		return weakControl.get().getBoxPlot(
+		    tableId,
+		    valueElementKey,
+		    groupByElementKey,
+		    whereClause,
+		    selectionArgs);
+	}
+
 	/**
 	 * Releases the results returned from the query() and queryWithSql()
 	 * statements, above. The object will be retained until this method is
@@ -202,6 +335,52 @@ public class ControlIf {
 		weakControl.get().releaseQueryResources(tableId);
 	}
 
+	/**
+	 * Release a single query result, leaving the other results from its
+	 * table in place.
+	 * @param handle the handle of the result, as returned by
+	 * {@link TableDataIf#getQueryHandle()}
+	 * @return true if the result was still held
+	 */
+	// @JavascriptInterface
+	public boolean releaseQueryResult(String handle) {
+		return weakControl.get().releaseQueryResult(handle);
+	}
+
+	/**
+	 * Get the query results that are currently held. Results are held until
+	 * they are released or until the results together exceed the memory
+	 * budget, at which point the least recently used are released. A
+	 * TableDataIf whose result has been released can no longer be used.
+	 * @return a stringified json array, least recently used first, of
+	 * { handle: ..., tableId: ..., count: ..., bytes: ... } objects, where
+	 * bytes is an estimate of the memory held by the result
+	 */
+	// @JavascriptInterface
+	public String getQueryResultHandles() {
+		return weakControl.get().getQueryResultHandles();
+	}
+
+	/**
+	 * Get the memory held by query results.
+	 * @return a stringified json object of the form
+	 * { count: ..., bytesInUse: ..., budget: ... }
+	 */
+	// @JavascriptInterface
+	public String getQueryMemoryUsage() {
+		return weakControl.get().getQueryMemoryUsage();
+	}
+
+	/**
+	 * Set the memory that query results may hold before the least recently
+	 * used are released. The most recent result is always kept.
+	 * @param kilobytes the budget in kilobytes
+	 */
+	// @JavascriptInterface
+	public void setQueryMemoryBudget(int kilobytes) {
+		weakControl.get().setQueryMemoryBudget(kilobytes);
+	}
+
 	/**
 	 * Get the table ids of all the tables in the database.
 	 * @return a stringified json array of the table ids
@@ -432,6 +611,43 @@ public class ControlIf {
 	  return weakControl.get().updateRow(tableId, stringifiedObject, rowId);
 	}
 	
+	/**
+	 * Add many rows to the table at once. Every row is validated before any is
+	 * written, and the valid rows are written in a single transaction.
+	 * <p>
+	 * Usage is the following:\n
+	 * <code>
+	 * var rows = [{'stringElementKey': 'howdy ho'},<br>
+	 *             {'_id': 'myRowId', 'stringElementKey': 'hi'}];<br>
+	 * var result = JSON.parse(control.addRows('tableId', JSON.stringify(rows)));<br>
+	 * </code>
+	 * @param tableId the id of the table you are adding to
+	 * @param stringifiedJSONArray a stringified JSON array of objects as passed
+	 * to {@link #addRow(String, String)}. An object may give the id of its row
+	 * under '_id'; otherwise one is generated.
+	 * @return a stringified JSON array with an object for each row, in order,
+	 * holding '_id', 'success' and, if the row was not added, 'error'. If the
+	 * transaction fails no rows are added. Null if the table cannot be found or
+	 * the array cannot be parsed.
+	 */
+	// @JavascriptInterface
+	public String addRows(String tableId, String stringifiedJSONArray) {
+	  return weakControl.get().addRows(tableId, stringifiedJSONArray);
+	}
+	
+	/**
+	 * Update many rows of the table at once, as
+	 * {@link #addRows(String, String)} adds them. Every object must give the id
+	 * of its row under '_id'.
+	 * @param tableId
+	 * @param stringifiedJSONArray
+	 * @return the per-row outcome, as for {@link #addRows(String, String)}
+	 */
+	// @JavascriptInterface
+	public String updateRows(String tableId, String stringifiedJSONArray) {
+	  return weakControl.get().updateRows(tableId, stringifiedJSONArray);
+	}
+	
 	/**
 	 * Determine if the column exist in the given table.
 	 * @param tableId
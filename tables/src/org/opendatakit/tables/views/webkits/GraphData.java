@@ -16,7 +16,15 @@
 package org.opendatakit.tables.views.webkits;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.opendatakit.common.android.data.KeyValueStoreEntry;
 import org.opendatakit.common.android.database.DatabaseFactory;
@@ -24,14 +32,38 @@ import org.opendatakit.common.android.utilities.KeyValueStoreHelper;
 import org.opendatakit.common.android.utilities.KeyValueStoreHelper.AspectHelper;
 import org.opendatakit.common.android.utilities.LocalKeyValueStoreConstants;
 import org.opendatakit.common.android.utilities.ODKDatabaseUtils;
+import org.opendatakit.common.android.utilities.WebLogger;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 
+/**
+ * The settings of a graph, for the graph view's javascript. The graph's
+ * aspect of the key value store is read once and served from memory, as the
+ * options pane reads the settings many times per render. Changed settings
+ * are written behind: they are gathered and written together in one
+ * transaction shortly after the last change, or when {@link #flush()} is
+ * called, as the fragment does when it is paused.
+ * <p>
+ * Every write and the deletion of the graph run one after another on the
+ * same executor, so that a write can never overlap another or land after
+ * the graph has been deleted.
+ */
 public class GraphData {
 
   private static final String TAG = "GraphData";
 
+  /** How long to wait after a change before writing the pending changes. */
+  private static final long FLUSH_DELAY_MS = 500;
+
+  /**
+   * Writes the pending changes of every graph, and deletes graphs, off the
+   * calling thread and in the order they were asked for.
+   */
+  private static final ScheduledExecutorService sWriteExecutor = Executors
+      .newSingleThreadScheduledExecutor();
+
   // These are the partition and aspect helpers for setting info in the KVS.
   private final Context mContext;
   private final String mAppName;
@@ -49,6 +81,23 @@ public class GraphData {
   private static final String BOX_VALUES = "box_values";
   private static final String MODIFIABLE = "modifiable";
 
+  /**
+   * The graph's aspect, including the pending changes, or null if it has not
+   * been read yet. Guarded by this.
+   */
+  private Map<String, String> mSelections = null;
+  /** Changes that have not yet been written. Guarded by this. */
+  private final Map<String, String> mPendingWrites = new LinkedHashMap<String, String>();
+  /** True if a write of the pending changes has been scheduled. Guarded by this. */
+  private boolean mFlushScheduled = false;
+
+  private final Runnable mFlushRunnable = new Runnable() {
+    @Override
+    public void run() {
+      writePendingChanges();
+    }
+  };
+
   public GraphDataIf getJavascriptInterfaceWithWeakReference() {
     return new GraphDataIf(this);
   }
@@ -73,23 +122,7 @@ public class GraphData {
 
   // determine if the graph is mutable or only for viewing
   public boolean isModifiable() {
-    SQLiteDatabase db = null;
-    try {
-      db = DatabaseFactory.get().getDatabase(mContext, mAppName);
-      KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db, 
-          mTableId, LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS);
-      AspectHelper aspectHelper = kvsh.getAspectHelper(graphString);
-      String result = aspectHelper.getString(MODIFIABLE);
-      if (result == null) {
-        return true;
-      } else {
-        return false;
-      }
-    } finally {
-      if ( db != null ) {
-        db.close();
-      }
-    }
+    return getSelection(MODIFIABLE) == null;
   }
 
   public void setPermissions(String graphName, boolean isImmutable) {
@@ -106,6 +139,14 @@ public class GraphData {
       if ( db != null ) {
         db.close();
       }
+      TableMetadataSnapshot.invalidate(mAppName, mTableId);
+    }
+    if (isImmutable && graphString.equals(graphName)) {
+      synchronized (this) {
+        if (mSelections != null) {
+          mSelections.put(MODIFIABLE, "immutable");
+        }
+      }
     }
   }
 
@@ -116,6 +157,8 @@ public class GraphData {
     if (graphName == null) {
       return;
     }
+    // the copy is read from the database
+    runOnWriteExecutor(mFlushRunnable);
     SQLiteDatabase db = null;
     try {
       db = DatabaseFactory.get().getDatabase(mContext, mAppName);
@@ -154,6 +197,7 @@ public class GraphData {
       if ( db != null ) {
         db.close();
       }
+      TableMetadataSnapshot.invalidate(mAppName, mTableId);
     }
   }
 
@@ -179,23 +223,11 @@ public class GraphData {
   }
 
   public String getGraphType() {
-    SQLiteDatabase db = null;
-    try {
-      db = DatabaseFactory.get().getDatabase(mContext, mAppName);
-      KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db, 
-          mTableId, LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS);
-      AspectHelper aspectHelper = kvsh.getAspectHelper(graphString);
-      String graphType = aspectHelper.getString(
-          LocalKeyValueStoreConstants.Graph.KEY_GRAPH_TYPE);
-      if (graphType == null || graphType.equals("unset type")) {
-        return "";
-      } else {
-        return graphType;
-      }
-    } finally {
-      if ( db != null ) {
-        db.close();
-      }
+    String graphType = getSelection(LocalKeyValueStoreConstants.Graph.KEY_GRAPH_TYPE);
+    if (graphType == null || graphType.equals("unset type")) {
+      return "";
+    } else {
+      return graphType;
     }
   }
 
@@ -231,57 +263,188 @@ public class GraphData {
     return loadSelection(AGREG);
   }
 
+  /**
+   * Change a setting of the graph. The change is seen by the getters at once
+   * and written to the database shortly after.
+   *
+   * @param aspect
+   *          the key of the setting
+   * @param value
+   */
   public void saveSelection(String aspect, String value) {
-    SQLiteDatabase db = null;
-    try {
-      db = DatabaseFactory.get().getDatabase(mContext, mAppName);
-      KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db, 
-          mTableId, LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS);
-      AspectHelper aspectHelper = kvsh.getAspectHelper(graphString);
-      String oldValue = aspectHelper.getString(aspect);
+    synchronized (this) {
+      Map<String, String> selections = getSelections();
+      String oldValue = selections.get(aspect);
       if (oldValue == null || !oldValue.equals(value)) {
         isModified = true;
       }
-      aspectHelper.setString(aspect, value);
-    } finally {
-      if ( db != null ) {
-        db.close();
+      selections.put(aspect, value);
+      mPendingWrites.put(aspect, value);
+      if (mFlushScheduled) {
+        return;
       }
+      mFlushScheduled = true;
     }
+    sWriteExecutor.schedule(mFlushRunnable, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
   }
 
-  private String loadSelection(String value) {
+  /**
+   * Queue a write of the pending changes, after any write or deletion
+   * already queued. Safe to call from any thread.
+   *
+   * @return done once the changes have been written
+   */
+  public Future<?> flush() {
+    return sWriteExecutor.submit(mFlushRunnable);
+  }
+
+  /**
+   * Write the pending changes in one transaction. A no-op if there are none.
+   * Only run on {@link #sWriteExecutor}.
+   */
+  private void writePendingChanges() {
+    Map<String, String> pendingWrites;
+    synchronized (this) {
+      mFlushScheduled = false;
+      if (mPendingWrites.isEmpty()) {
+        return;
+      }
+      pendingWrites = new LinkedHashMap<String, String>(mPendingWrites);
+      mPendingWrites.clear();
+    }
     SQLiteDatabase db = null;
     try {
       db = DatabaseFactory.get().getDatabase(mContext, mAppName);
-      KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db, 
-          mTableId, LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS);
-      AspectHelper aspectHelper = kvsh.getAspectHelper(graphString);
-      String result = aspectHelper.getString(value);
-      if (result == null) {
-        return "";
-      } else {
-        return result;
+      db.beginTransaction();
+      try {
+        KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db,
+            mTableId, LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS);
+        AspectHelper aspectHelper = kvsh.getAspectHelper(graphString);
+        for (Map.Entry<String, String> entry : pendingWrites.entrySet()) {
+          aspectHelper.setString(entry.getKey(), entry.getValue());
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
+    } catch (Exception e) {
+      WebLogger.getLogger(mAppName).e(TAG,
+          "[writePendingChanges] unable to write " + pendingWrites.size() + " settings of "
+              + graphString);
+      WebLogger.getLogger(mAppName).printStackTrace(e);
+      // try again with the next flush, unless they have been changed since
+      synchronized (this) {
+        for (Map.Entry<String, String> entry : pendingWrites.entrySet()) {
+          if (!mPendingWrites.containsKey(entry.getKey())) {
+            mPendingWrites.put(entry.getKey(), entry.getValue());
+          }
+        }
       }
     } finally {
       if ( db != null ) {
         db.close();
       }
+      TableMetadataSnapshot.invalidate(mAppName, mTableId);
     }
   }
 
-  public void deleteDefaultGraph() {
+  private String loadSelection(String value) {
+    String result = getSelection(value);
+    if (result == null) {
+      return "";
+    } else {
+      return result;
+    }
+  }
+
+  /**
+   * @param key
+   * @return the setting of the graph, or null if it is not set
+   */
+  private synchronized String getSelection(String key) {
+    return getSelections().get(key);
+  }
+
+  /**
+   * @return the settings of the graph, reading the graph's aspect if it has
+   *         not been read yet. Must be called holding the lock on this.
+   */
+  private Map<String, String> getSelections() {
+    if (mSelections != null) {
+      return mSelections;
+    }
+    List<KeyValueStoreEntry> entries = null;
     SQLiteDatabase db = null;
     try {
       db = DatabaseFactory.get().getDatabase(mContext, mAppName);
-      KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db, 
-          mTableId, LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS);
-      AspectHelper aspectHelper = kvsh.getAspectHelper(graphString);
-      aspectHelper.deleteAllEntriesInThisAspect();
+      entries = ODKDatabaseUtils.get().getDBTableMetadata(db, mTableId,
+          LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS, graphString, null);
     } finally {
       if ( db != null ) {
         db.close();
       }
     }
+    mSelections = new HashMap<String, String>();
+    if (entries != null) {
+      for (KeyValueStoreEntry entry : entries) {
+        mSelections.put(entry.key, entry.value);
+      }
+    }
+    // changes that have not been written yet win over the database
+    mSelections.putAll(mPendingWrites);
+    return mSelections;
+  }
+
+  /**
+   * Delete the graph's settings, including those not written yet. Waits for
+   * any write already queued, so that it cannot bring them back.
+   */
+  public void deleteDefaultGraph() {
+    synchronized (this) {
+      mPendingWrites.clear();
+      mSelections = new HashMap<String, String>();
+    }
+    runOnWriteExecutor(new Runnable() {
+      @Override
+      public void run() {
+        SQLiteDatabase db = null;
+        try {
+          db = DatabaseFactory.get().getDatabase(mContext, mAppName);
+          KeyValueStoreHelper kvsh = new KeyValueStoreHelper(db,
+              mTableId, LocalKeyValueStoreConstants.Graph.PARTITION_VIEWS);
+          AspectHelper aspectHelper = kvsh.getAspectHelper(graphString);
+          aspectHelper.deleteAllEntriesInThisAspect();
+        } finally {
+          if ( db != null ) {
+            db.close();
+          }
+          TableMetadataSnapshot.invalidate(mAppName, mTableId);
+        }
+      }
+    });
+  }
+
+  /**
+   * Run the work on {@link #sWriteExecutor}, after any write already queued,
+   * and wait for it to finish.
+   *
+   * @param work
+   */
+  private void runOnWriteExecutor(Runnable work) {
+    Future<?> done = sWriteExecutor.submit(work);
+    try {
+      done.get();
+    } catch (InterruptedException e) {
+      // the work still runs, just without anyone waiting for it
+      Thread.currentThread().interrupt();
+      WebLogger.getLogger(mAppName).w(TAG,
+          "[runOnWriteExecutor] interrupted while waiting on " + graphString);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IllegalStateException("graph write failed", cause);
+    }
   }
 }
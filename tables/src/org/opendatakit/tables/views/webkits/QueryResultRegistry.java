@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 University of Washington
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.opendatakit.tables.views.webkits;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the strong references to the query results handed to javascript by
+ * {@link Control}. The {@link TableDataIf} objects given to the page only
+ * hold weak references, so a result lives exactly as long as it is held
+ * here.
+ * <p>
+ * Each result is registered under a handle and with an estimate of its size.
+ * Once the results together pass the memory budget, the least recently used
+ * ones are released, so that a page that never releases its queries cannot
+ * grow without bound. A result is used whenever it is read through its
+ * {@link TableDataIf}. The most recently registered result is never released
+ * to make room, even if it alone is over the budget.
+ */
+class QueryResultRegistry {
+
+  /**
+   * A registered result.
+   */
+  static class Entry {
+    final String handle;
+    final TableData tableData;
+    final long sizeInBytes;
+
+    Entry(String handle, TableData tableData, long sizeInBytes) {
+      this.handle = handle;
+      this.tableData = tableData;
+      this.sizeInBytes = sizeInBytes;
+    }
+  }
+
+  /** Results by handle, least recently used first. Guarded by this. */
+  private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16,
+      0.75f, true);
+  private long mBudgetInBytes;
+  private long mBytesInUse = 0;
+  private int mNextHandle = 1;
+
+  /**
+   * @param budgetInBytes
+   *          the most memory the results may take up before the least
+   *          recently used are released
+   */
+  QueryResultRegistry(long budgetInBytes) {
+    this.mBudgetInBytes = budgetInBytes;
+  }
+
+  /**
+   * @return the default budget: an eighth of the memory available to the
+   *         app
+   */
+  static long getDefaultBudget() {
+    return Runtime.getRuntime().maxMemory() / 8;
+  }
+
+  /**
+   * Hold onto a result, releasing older results if the budget is exceeded.
+   *
+   * @param tableData
+   * @return the handle of the result, which is also set on the tableData
+   */
+  synchronized String register(TableData tableData) {
+    String handle = "query" + (mNextHandle++);
+    Entry entry = new Entry(handle, tableData, tableData.getApproximateSizeInBytes());
+    tableData.setQueryHandle(handle, this);
+    mEntries.put(handle, entry);
+    mBytesInUse += entry.sizeInBytes;
+    trimToBudget();
+    return handle;
+  }
+
+  /**
+   * Get a result, marking it as the most recently used.
+   *
+   * @param handle
+   * @return the result registered under handle, or null if it has been
+   *         released
+   */
+  synchronized TableData get(String handle) {
+    Entry entry = mEntries.get(handle);
+    return (entry == null) ? null : entry.tableData;
+  }
+
+  /**
+   * @param handle
+   * @return true if there was a result to release
+   */
+  synchronized boolean release(String handle) {
+    Entry entry = mEntries.remove(handle);
+    if (entry == null) {
+      return false;
+    }
+    mBytesInUse -= entry.sizeInBytes;
+    return true;
+  }
+
+  /**
+   * Release every result from the table.
+   *
+   * @param tableId
+   * @return the number of results released
+   */
+  synchronized int releaseTable(String tableId) {
+    int released = 0;
+    if (tableId == null) {
+      return released;
+    }
+    Iterator<Entry> iter = mEntries.values().iterator();
+    while (iter.hasNext()) {
+      Entry entry = iter.next();
+      if (tableId.equals(entry.tableData.getTableId())) {
+        iter.remove();
+        mBytesInUse -= entry.sizeInBytes;
+        ++released;
+      }
+    }
+    return released;
+  }
+
+  /**
+   * @return the registered results, least recently used first
+   */
+  synchronized List<Entry> getEntries() {
+    return new ArrayList<Entry>(mEntries.values());
+  }
+
+  synchronized int size() {
+    return mEntries.size();
+  }
+
+  synchronized long getBytesInUse() {
+    return mBytesInUse;
+  }
+
+  synchronized long getBudget() {
+    return mBudgetInBytes;
+  }
+
+  /**
+   * Change the budget, releasing results if they are now over it.
+   *
+   * @param budgetInBytes
+   */
+  synchronized void setBudget(long budgetInBytes) {
+    this.mBudgetInBytes = budgetInBytes;
+    trimToBudget();
+  }
+
+  private void trimToBudget() {
+    Iterator<Map.Entry<String, Entry>> iter = mEntries.entrySet().iterator();
+    // leave the most recently used result in place
+    while (mBytesInUse > mBudgetInBytes && mEntries.size() > 1 && iter.hasNext()) {
+      Entry eldest = iter.next().getValue();
+      iter.remove();
+      mBytesInUse -= eldest.sizeInBytes;
+    }
+  }
+}
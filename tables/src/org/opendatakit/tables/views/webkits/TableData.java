@@ -16,28 +16,47 @@
 package org.opendatakit.tables.views.webkits;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 import org.opendatakit.aggregate.odktables.rest.ElementDataType;
 import org.opendatakit.aggregate.odktables.rest.ElementType;
-import org.opendatakit.common.android.data.ColorGuide;
 import org.opendatakit.common.android.data.ColorRuleGroup;
 import org.opendatakit.common.android.data.ColumnDefinition;
 import org.opendatakit.common.android.data.UserTable;
 import org.opendatakit.common.android.data.UserTable.Row;
+import org.opendatakit.common.android.provider.DataTableColumns;
 import org.opendatakit.common.android.utilities.ColumnUtil;
 import org.opendatakit.common.android.utilities.ODKFileUtils;
 import org.opendatakit.common.android.utilities.WebLogger;
 import org.opendatakit.tables.application.Tables;
+import org.opendatakit.tables.utils.ColorVector;
+import org.opendatakit.tables.utils.ColumnIndex;
+import org.opendatakit.tables.utils.ColumnarUserTable;
+import org.opendatakit.tables.utils.CompiledColorRuleGroup;
+import org.opendatakit.tables.utils.DatabaseSession;
 import org.opendatakit.tables.utils.ElementTypeManipulator;
 import org.opendatakit.tables.utils.ElementTypeManipulator.ITypeManipulatorFragment;
 import org.opendatakit.tables.utils.ElementTypeManipulatorFactory;
+import org.opendatakit.tables.utils.TableMetadataSnapshot;
 
+import android.content.Context;
+
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 
@@ -65,19 +84,151 @@ public class TableData {
   protected static final int INVALID_INDEX = -1;
 
   /**
-   * A simple cache of color rules so they're not recreated unnecessarily each
-   * time. Maps the column display name to {@link ColorRuleGroup} for that
-   * column.
+   * The indices of the rows to display, in ascending order, e.g. the rows
+   * whose markers are in view on a map. Null if every row is displayed. The
+   * JavaBridge thread reads it while the UI thread replaces it, so read it
+   * once into a local.
+   */
+  protected volatile int[] mSubsetOfIndices = null;
+
+  /**
+   * True if the page has said it updates itself on an odkDataChanged event,
+   * so that changes to the selection or subset need not reload it.
+   */
+  private volatile boolean mListeningForChanges = false;
+
+  /**
+   * The colors of every row of {@link #mTable} for one rule scope. They are
+   * evaluated on {@link #sPreparer}, usually before the page first asks for
+   * them; a page that asks sooner waits for the evaluation to finish.
+   */
+  private abstract class RowColors {
+    /** Guarded by TableData.this. */
+    private Future<ColorVector> mColors = null;
+
+    abstract ColorRuleGroup getColorRuleGroup();
+
+    /**
+     * Queue the evaluation of the colors, if it has not been already.
+     *
+     * @return the pending or finished evaluation
+     */
+    Future<ColorVector> evaluateInBackground() {
+      synchronized (TableData.this) {
+        if (mColors == null) {
+          mColors = sPreparer.submit(new Callable<ColorVector>() {
+
+            @Override
+            public ColorVector call() {
+              try {
+                return evaluateColorRules(getColorRuleGroup());
+              } catch (RuntimeException e) {
+                // no rule matches, so every row gets the default color.
+                WebLogger.getLogger(mTable.getAppName()).e(TAG,
+                    "[evaluateInBackground] unable to evaluate the color rules");
+                WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+                return new ColorVector(mTable.getNumberOfRows());
+              }
+            }
+          });
+        }
+        return mColors;
+      }
+    }
+
+    /**
+     * Get the colors, waiting for their evaluation if it has not finished.
+     * If the wait is interrupted, the colors are evaluated on this thread.
+     *
+     * @return the colors
+     */
+    ColorVector get() {
+      try {
+        return evaluateInBackground().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // call() catches what the rules throw, so this is not expected.
+        WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+      }
+      return evaluateColorRules(getColorRuleGroup());
+    }
+  }
+
+  private final RowColors mRowColors = new RowColors() {
+
+    @Override
+    ColorRuleGroup getColorRuleGroup() {
+      return ColorRuleGroup.getTableColorRuleGroup(Tables.getInstance().getApplicationContext(),
+          mTable.getAppName(), mTable.getTableId());
+    }
+  };
+
+  private final RowColors mStatusColumnColors = new RowColors() {
+
+    @Override
+    ColorRuleGroup getColorRuleGroup() {
+      return ColorRuleGroup.getStatusColumnRuleGroup(Tables.getInstance()
+          .getApplicationContext(), mTable.getAppName(), mTable.getTableId());
+    }
+  };
+
+  /** Maps the element key of a column to its colors. Guarded by this. */
+  private final Map<String, RowColors> mElementKeyToColumnColors =
+      new HashMap<String, RowColors>();
+
+  /** How long the thread of {@link #sPreparer} waits for work before it exits. */
+  private static final long PREPARER_KEEP_ALIVE_SECONDS = 30L;
+
+  /**
+   * Prepares query results in the background, so that the JavaBridge thread
+   * does not have to the first time the page reads them. Its thread exits
+   * once it has been idle for a while.
    */
-  private Map<String, ColorRuleGroup> mElementKeyToColorRuleGroup = new HashMap<String, ColorRuleGroup>();
-  private ColorRuleGroup mStatusColumnColorRuleGroup = null;
-  private ColorRuleGroup mRowColorRuleGroup = null;
+  private static final ThreadPoolExecutor sPreparer = newPreparer();
+
+  private static ThreadPoolExecutor newPreparer() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, PREPARER_KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /** Built when first needed. Guarded by this. */
+  private ColumnarUserTable mColumnarTable = null;
+
+  /** The lookups over the columns of {@link #mTable}, built when first needed. */
+  private ColumnIndex mColumnIndex = null;
+
+  /**
+   * The characters a value of a column is expected to take up in JSON, used
+   * to size the buffer the column is written into.
+   */
+  private static final int COLUMN_VALUE_CHARS = 16;
+  /** The largest buffer allocated up front; a bigger column grows it. */
+  private static final int MAX_INITIAL_COLUMN_CHARS = 1 << 20;
+
+  /** The rows sampled to estimate the size of the table. */
+  private static final int SIZE_SAMPLE_ROWS = 32;
+  /** The approximate overhead of a row and of a String value on the heap. */
+  private static final int ROW_OVERHEAD_BYTES = 64;
+  private static final int VALUE_OVERHEAD_BYTES = 40;
+
+  /**
+   * The handle of this result in the {@link QueryResultRegistry}, or null if
+   * it is not the result of a query from javascript.
+   */
+  private String mQueryHandle = null;
+  private QueryResultRegistry mQueryResultRegistry = null;
 
   public TableData(UserTable table) {
     this.mTable = table;
     this.mSelectedMapMarkerIndex = INVALID_INDEX;
     WebLogger.getLogger(mTable.getAppName()).d(TAG, "calling TableData constructor with UserTable");
     initMaps();
+    // most pages color their rows, so have the colors ready by then
+    mRowColors.evaluateInBackground();
+    mStatusColumnColors.evaluateInBackground();
   }
 
   public boolean isGroupedBy() {
@@ -115,9 +266,85 @@ public class TableData {
     return mTable.getColumnDefinitions();
   }
 
+  private ColumnIndex getColumnIndex() {
+    if (mColumnIndex == null) {
+      mColumnIndex = new ColumnIndex(getColumnDefinitions());
+    }
+    return mColumnIndex;
+  }
+
   // Returns the number of rows in the table being viewed.
   public int getCount() {
-    return this.mTable.getNumberOfRows();
+    int[] subset = this.mSubsetOfIndices;
+    if (subset == null) {
+      return this.mTable.getNumberOfRows();
+    }
+    // a selected row outside the subset is still displayed at the top
+    int selected = this.mSelectedMapMarkerIndex;
+    if (selected != INVALID_INDEX && Arrays.binarySearch(subset, selected) < 0) {
+      return subset.length + 1;
+    }
+    return subset.length;
+  }
+
+  /**
+   * @see {@link TableDataIf#getQueryHandle()}
+   */
+  public String getQueryHandle() {
+    return mQueryHandle;
+  }
+
+  /**
+   * @param queryHandle
+   * @param registry
+   *          the registry holding this result under queryHandle
+   */
+  void setQueryHandle(String queryHandle, QueryResultRegistry registry) {
+    this.mQueryHandle = queryHandle;
+    this.mQueryResultRegistry = registry;
+  }
+
+  /**
+   * Tell the {@link QueryResultRegistry} holding this result, if any, that
+   * it is in use, so that it is not the next to be released.
+   */
+  void markQueryResultUsed() {
+    QueryResultRegistry registry = this.mQueryResultRegistry;
+    String queryHandle = this.mQueryHandle;
+    if (registry != null && queryHandle != null) {
+      registry.get(queryHandle);
+    }
+  }
+
+  String getAppName() {
+    return mTable.getAppName();
+  }
+
+  /**
+   * Estimate the memory held by the rows of the table from the values of a
+   * sample of them.
+   *
+   * @return the approximate size in bytes
+   */
+  public long getApproximateSizeInBytes() {
+    int count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+    ArrayList<ColumnDefinition> orderedDefns = getColumnDefinitions();
+    int sampleSize = Math.min(count, SIZE_SAMPLE_ROWS);
+    long sampledBytes = 0;
+    for (int s = 0; s < sampleSize; ++s) {
+      Row row = mTable.getRowAtIndex((int) ((long) s * count / sampleSize));
+      sampledBytes += ROW_OVERHEAD_BYTES;
+      for (ColumnDefinition cd : orderedDefns) {
+        String value = row.getRawDataOrMetadataByElementKey(cd.getElementKey());
+        if (value != null) {
+          sampledBytes += VALUE_OVERHEAD_BYTES + 2L * value.length();
+        }
+      }
+    }
+    return sampledBytes * count / sampleSize;
   }
 
   /**
@@ -138,29 +365,67 @@ public class TableData {
    *         for the given column name format: [row1, row2, row3, row4]
    */
   public String getColumnData(String elementPath, int requestedRows) {
-    String elementKey = ColumnUtil.get().getElementKeyFromElementPath(elementPath);
+    String elementKey = getColumnIndex().getElementKeyFromElementPath(elementPath);
     if (elementKey == null) {
       WebLogger.getLogger(mTable.getAppName()).e(TAG,
           "column not found with element path: " + elementPath);
       return null;
     }
-    ArrayList<String> rowValues = new ArrayList<String>();
-    for (int i = 0; i < requestedRows; i++) {
-      int correctedIndex = getIndexIntoDataTable(i);
-      Row row = this.mTable.getRowAtIndex(correctedIndex);
-      rowValues.add(row.getRawDataOrMetadataByElementKey(elementKey));
-    }
-    return new JSONArray(rowValues).toString();
+    return getColumnDataForElementKey(elementKey, requestedRows);
   }
 
+  /**
+   * Return a stringified JSON array of the data in the column. The values
+   * are streamed straight into a buffer sized from the number of rows, rather
+   * than being copied into a list and then into a {@link JSONArray}.
+   *
+   * @param elementKey
+   * @param requestedRows
+   * @return the column data in the format: [row1, row2, row3, row4]
+   */
   public String getColumnDataForElementKey(String elementKey, int requestedRows) {
-    ArrayList<String> rowValues = new ArrayList<String>();
+    int initialSize = (int) Math.min(MAX_INITIAL_COLUMN_CHARS,
+        2L + (long) Math.max(0, requestedRows) * COLUMN_VALUE_CHARS);
+    StringWriter buffer = new StringWriter(initialSize);
+    try {
+      JsonGenerator generator = ODKFileUtils.mapper.getFactory().createGenerator(buffer);
+      generator.writeStartArray();
+      for (int i = 0; i < requestedRows; i++) {
+        int correctedIndex = getIndexIntoDataTable(i);
+        Row row = this.mTable.getRowAtIndex(correctedIndex);
+        String value = row.getRawDataOrMetadataByElementKey(elementKey);
+        if (value == null) {
+          generator.writeNull();
+        } else {
+          generator.writeString(value);
+        }
+      }
+      generator.writeEndArray();
+      generator.close();
+    } catch (IOException e) {
+      // a StringWriter does not throw
+      WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+      throw new IllegalStateException("unable to write column data");
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Get the raw data of the column without serializing it, for callers that
+   * go on to write it out themselves.
+   *
+   * @param elementKey
+   * @param requestedRows
+   * @return the value of the column in each of the first requestedRows rows
+   */
+  public String[] getColumnValuesForElementKey(String elementKey, int requestedRows) {
+    String[] values = new String[requestedRows];
     for (int i = 0; i < requestedRows; i++) {
       int correctedIndex = getIndexIntoDataTable(i);
       Row row = this.mTable.getRowAtIndex(correctedIndex);
-      rowValues.add(row.getRawDataOrMetadataByElementKey(elementKey));
+      values[i] = row.getRawDataOrMetadataByElementKey(elementKey);
     }
-    return new JSONArray(rowValues).toString();
+    return values;
   }
 
   /**
@@ -184,72 +449,98 @@ public class TableData {
    * @return
    */
   private String getColumnTypeLabelForElementKey(String elementKey) {
-    ColumnDefinition cd = ColumnDefinition.find(getColumnDefinitions(), elementKey);
+    ColumnDefinition cd = getColumnIndex().find(elementKey);
     ElementTypeManipulator m = ElementTypeManipulatorFactory.getInstance(this.mTable.getAppName());
     ITypeManipulatorFragment r = m.getDefaultRenderer(cd.getType());
     String label = r.getElementTypeDisplayLabel();
     return label;
   }
 
+  /**
+   * @see {@link TableDataIf#getColumnForegroundColor(int, String)}
+   */
   public String getColumnForegroundColor(int rowNumber, String elementPath) {
-    int correctedIndex = getIndexIntoDataTable(rowNumber);
     int foregroundColor = -16777216;
 
-    String elementKey = ColumnUtil.get().getElementKeyFromElementPath(elementPath);
+    String elementKey = getColumnIndex().getElementKeyFromElementPath(elementPath);
     if (elementKey == null) {
       return String.format("#%06X", (0xFFFFFF & foregroundColor));
     }
-    ColorRuleGroup colRul = this.mElementKeyToColorRuleGroup.get(elementKey);
-    if (colRul == null) {
-      // If it's not already there, cache it for future use.
-      colRul = ColorRuleGroup.getColumnColorRuleGroup(Tables.getInstance().getApplicationContext(),
-          mTable.getAppName(), mTable.getTableId(), elementKey);
-      this.mElementKeyToColorRuleGroup.put(elementKey, colRul);
-    }
-
-    Row row = mTable.getRowAtIndex(correctedIndex);
-    ColorGuide guide = colRul.getColorGuide(getColumnDefinitions(), row);
-    if (guide != null) {
-      foregroundColor = guide.getForeground();
-    }
-    // I think this formatting needs to take place for javascript
-    return String.format("#%06X", (0xFFFFFF & foregroundColor));
+    return formatForegroundColor(getColumnColors(elementKey).get(), rowNumber);
   }
 
+  /**
+   * @see {@link TableDataIf#getStatusForegroundColor(int)}
+   */
   public String getStatusForegroundColor(int rowNumber) {
-    int correctedIndex = getIndexIntoDataTable(rowNumber);
-    int foregroundColor = -16777216;
+    return formatForegroundColor(mStatusColumnColors.get(), rowNumber);
+  }
 
-    if (mStatusColumnColorRuleGroup == null) {
-      mStatusColumnColorRuleGroup = ColorRuleGroup.getStatusColumnRuleGroup(Tables.getInstance()
-          .getApplicationContext(), mTable.getAppName(), mTable.getTableId());
-    }
+  /**
+   * @see {@link TableDataIf#getRowForegroundColor(int)}
+   */
+  public String getRowForegroundColor(int rowNumber) {
+    return formatForegroundColor(mRowColors.get(), rowNumber);
+  }
 
-    Row row = mTable.getRowAtIndex(correctedIndex);
-    ColorGuide guide = mStatusColumnColorRuleGroup.getColorGuide(getColumnDefinitions(), row);
-    if (guide != null) {
-      foregroundColor = guide.getForeground();
-    }
+  /**
+   * @param colors
+   * @param rowNumber
+   * @return the foreground color of the row
+   */
+  private String formatForegroundColor(ColorVector colors, int rowNumber) {
+    int correctedIndex = getIndexIntoDataTable(rowNumber);
+    int foregroundColor = colors.getForeground(correctedIndex, -16777216);
     // I think this formatting needs to take place for javascript
     return String.format("#%06X", (0xFFFFFF & foregroundColor));
   }
 
-  public String getRowForegroundColor(int rowNumber) {
-    int correctedIndex = getIndexIntoDataTable(rowNumber);
-    int foregroundColor = -16777216;
-
-    if (mRowColorRuleGroup == null) {
-      mRowColorRuleGroup = ColorRuleGroup.getTableColorRuleGroup(Tables.getInstance()
-          .getApplicationContext(), mTable.getAppName(), mTable.getTableId());
+  private synchronized RowColors getColumnColors(final String elementKey) {
+    RowColors colors = this.mElementKeyToColumnColors.get(elementKey);
+    if (colors == null) {
+      // If it's not already there, cache it for future use.
+      colors = new RowColors() {
+
+        @Override
+        ColorRuleGroup getColorRuleGroup() {
+          // served by the table's snapshot, so that the rules are not read
+          // again for every table a page queries.
+          Context context = Tables.getInstance().getApplicationContext();
+          DatabaseSession session = DatabaseSession.open(context, mTable.getAppName());
+          try {
+            return TableMetadataSnapshot.get(session, mTable.getTableId())
+                .getColumnColorRuleGroup(context, elementKey);
+          } finally {
+            session.release();
+          }
+        }
+      };
+      this.mElementKeyToColumnColors.put(elementKey, colors);
     }
+    return colors;
+  }
 
-    Row row = mTable.getRowAtIndex(correctedIndex);
-    ColorGuide guide = mRowColorRuleGroup.getColorGuide(getColumnDefinitions(), row);
-    if (guide != null) {
-      foregroundColor = guide.getForeground();
+  /**
+   * Run the rules of the group over every row of the table.
+   *
+   * @param group
+   * @return
+   */
+  private ColorVector evaluateColorRules(ColorRuleGroup group) {
+    return CompiledColorRuleGroup.compile(group, getColumnDefinitions()).evaluate(
+        getColumnarTable());
+  }
+
+  /**
+   * @return the typed columns of {@link #mTable}, shared by the color rules
+   *         of the rows, the status column and every other column, so that a
+   *         column is parsed once however many groups read it
+   */
+  private synchronized ColumnarUserTable getColumnarTable() {
+    if (mColumnarTable == null) {
+      mColumnarTable = ColumnarUserTable.wrap(mTable);
     }
-    // I think this formatting needs to take place for javascript
-    return String.format("#%06X", (0xFFFFFF & foregroundColor));
+    return mColumnarTable;
   }
 
   /**
@@ -264,14 +555,13 @@ public class TableData {
       return null;
     }
 
-    String elementKey = ColumnUtil.get().getElementKeyFromElementPath(elementPath);
+    String elementKey = getColumnIndex().getElementKeyFromElementPath(elementPath);
     if (elementKey == null) {
       WebLogger.getLogger(mTable.getAppName()).e(TAG,
           "column with elementPath: " + elementPath + " does not" + " exist.");
       return null;
     }
-    ArrayList<ColumnDefinition> orderedDefns = getColumnDefinitions();
-    ColumnDefinition cd = ColumnDefinition.find(orderedDefns, elementKey);
+    ColumnDefinition cd = getColumnIndex().find(elementKey);
     ElementDataType type = cd.getType().getDataType();
     if (type == ElementDataType.array) {
       String result = row.getRawDataOrMetadataByElementKey(elementKey);
@@ -303,6 +593,93 @@ public class TableData {
     }
   }
 
+  /**
+   * @see {@link TableDataIf#getRows(int, int, String)}.
+   */
+  public String getRows(int firstRowNumber, int numberOfRows, String elementPathsJson) {
+    List<?> elementPaths;
+    try {
+      elementPaths = ODKFileUtils.mapper.readValue(elementPathsJson, ArrayList.class);
+    } catch (Exception e) {
+      WebLogger.getLogger(mTable.getAppName()).e(TAG,
+          "[getRows] unable to parse element paths: " + elementPathsJson);
+      return null;
+    }
+
+    // resolve the columns once rather than for every row
+    ColumnIndex index = getColumnIndex();
+    int numberOfPaths = elementPaths.size();
+    String[] paths = new String[numberOfPaths];
+    String[] elementKeys = new String[numberOfPaths];
+    ColumnDefinition[] defns = new ColumnDefinition[numberOfPaths];
+    for (int j = 0; j < numberOfPaths; ++j) {
+      paths[j] = String.valueOf(elementPaths.get(j));
+      elementKeys[j] = index.getElementKeyFromElementPath(paths[j]);
+      if (elementKeys[j] == null) {
+        WebLogger.getLogger(mTable.getAppName()).e(TAG,
+            "[getRows] column with elementPath: " + paths[j] + " does not exist.");
+      } else {
+        defns[j] = index.get(elementKeys[j]);
+      }
+    }
+
+    int first = Math.max(0, firstRowNumber);
+    int end = Math.min(getCount(), first + Math.max(0, numberOfRows));
+    List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(Math.max(0, end - first));
+    try {
+      for (int i = first; i < end; ++i) {
+        int dataIndex = getIndexIntoDataTable(i);
+        Row row = mTable.getRowAtIndex(dataIndex);
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        values.put(DataTableColumns.ID, row.getRowId());
+        for (int j = 0; j < numberOfPaths; ++j) {
+          if (elementKeys[j] != null) {
+            values.put(paths[j], getRowValue(row, elementKeys[j], defns[j]));
+          }
+        }
+        rows.add(values);
+      }
+      return ODKFileUtils.mapper.writeValueAsString(rows);
+    } catch (JsonParseException e) {
+      WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+      throw new IllegalStateException("unable to parse JSON expression");
+    } catch (JsonMappingException e) {
+      WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+      throw new IllegalStateException("unable to parse JSON expression");
+    } catch (IOException e) {
+      WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+      throw new IllegalStateException("unable to parse JSON expression");
+    }
+  }
+
+  /**
+   * Get the value of a column of a row the way {@link #getData(int, String)}
+   * does, except that arrays and the values of composite columns such as
+   * geopoints are returned as objects rather than as JSON strings.
+   *
+   * @param row
+   * @param elementKey
+   * @param cd
+   *          the column, or null if it is a metadata column
+   * @return the value, or null if it is null
+   */
+  private Object getRowValue(Row row, String elementKey, ColumnDefinition cd)
+      throws JsonParseException, JsonMappingException, IOException {
+    if (cd == null) {
+      return row.getRawDataOrMetadataByElementKey(elementKey);
+    }
+    if (cd.getType().getDataType() == ElementDataType.array) {
+      String result = row.getRawDataOrMetadataByElementKey(elementKey);
+      return (result == null) ? null : ODKFileUtils.mapper.readValue(result, ArrayList.class);
+    }
+    if (cd.getChildren().isEmpty()) {
+      return row.getRawDataOrMetadataByElementKey(elementKey);
+    }
+    Map<String, Object> resultSet = new HashMap<String, Object>();
+    assembleNonNullParts(row, resultSet, cd.getChildren());
+    return resultSet.isEmpty() ? null : resultSet;
+  }
+
   private void assembleNonNullParts(Row row, Map<String, Object> resultSet,
       List<ColumnDefinition> colDefns) throws JsonParseException, JsonMappingException, IOException {
     for (ColumnDefinition colDefn : colDefns) {
@@ -345,6 +722,10 @@ public class TableData {
       // Then we can just return it directly.
       return displayIndex;
     }
+    int[] subset = this.mSubsetOfIndices;
+    if (subset != null) {
+      return this.getIndexIntoSubset(subset, displayIndex);
+    }
     // At the moment the only thing we have to account for is that a particular
     // row has been moved to the top of the list. The math is thus pretty neat.
     // Say that the selected index at the top is 5. The resultant values to be
@@ -370,7 +751,36 @@ public class TableData {
    * @return
    */
   boolean displayIndexMustBeCalculated() {
-    return this.mSelectedMapMarkerIndex != INVALID_INDEX;
+    return this.mSelectedMapMarkerIndex != INVALID_INDEX || this.mSubsetOfIndices != null;
+  }
+
+  /**
+   * As {@link #getIndexIntoDataTable(int)}, when only a subset of the rows is
+   * displayed. The selected row, if any, is still moved to the top. Say that
+   * the subset is 2 4 5 9 and the selected index is 5:
+   * displayIndex: 0 1 2 3
+   * returnValue : 5 2 4 9
+   *
+   * @param subset
+   *          the value of {@link #mSubsetOfIndices}, read once by the caller
+   * @param displayIndex
+   * @return
+   */
+  private int getIndexIntoSubset(int[] subset, int displayIndex) {
+    int selected = this.mSelectedMapMarkerIndex;
+    if (selected == INVALID_INDEX) {
+      return subset[displayIndex];
+    }
+    if (displayIndex == 0) {
+      return selected;
+    }
+    int subsetIndex = displayIndex - 1;
+    int selectedSubsetIndex = Arrays.binarySearch(subset, selected);
+    if (selectedSubsetIndex >= 0 && subsetIndex >= selectedSubsetIndex) {
+      // skip the selected row, which is already at the top
+      ++subsetIndex;
+    }
+    return subset[subsetIndex];
   }
 
   /**
@@ -389,6 +799,55 @@ public class TableData {
     this.mSelectedMapMarkerIndex = INVALID_INDEX;
   }
 
+  /**
+   * Only display the rows with these indices, e.g. the rows whose markers
+   * are in view on a map.
+   *
+   * @param indices
+   *          the indices of the rows, in ascending order
+   */
+  public void setSubsetOfIndicesToDisplay(int[] indices) {
+    this.mSubsetOfIndices = indices;
+  }
+
+  /**
+   * Display every row again. Resets the state set with a call to
+   * {@link #setSubsetOfIndicesToDisplay(int[])}.
+   */
+  public void setAllIndicesToDisplay() {
+    this.mSubsetOfIndices = null;
+  }
+
+  /**
+   * @see {@link TableDataIf#listenForChanges()}
+   */
+  public void setListeningForChanges(boolean listening) {
+    this.mListeningForChanges = listening;
+  }
+
+  /**
+   * @return true if the page updates itself when the rows change
+   */
+  public boolean isListeningForChanges() {
+    return this.mListeningForChanges;
+  }
+
+  /**
+   * @return the detail of an odkDataChanged event describing the rows as they
+   *         are now
+   */
+  public JSONObject getDataChangedDetail() {
+    JSONObject detail = new JSONObject();
+    try {
+      detail.put("count", getCount());
+      detail.put("hasSelectedRow", this.mSelectedMapMarkerIndex != INVALID_INDEX);
+    } catch (JSONException e) {
+      // the keys are not null
+      WebLogger.getLogger(mTable.getAppName()).printStackTrace(e);
+    }
+    return detail;
+  }
+
   public String getTableId() {
     return mTable.getTableId();
   }
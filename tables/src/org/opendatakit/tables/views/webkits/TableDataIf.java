@@ -17,6 +17,8 @@ package org.opendatakit.tables.views.webkits;
 
 import java.lang.ref.WeakReference;
 
+import org.opendatakit.common.android.utilities.WebLogger;
+
 /**
  * This class is handed to the javascript as "data" when displaying a table in
  * a List View. It is a way to get at the data in a table, allowing for the
@@ -29,15 +31,38 @@ import java.lang.ref.WeakReference;
  * {@link ControlIf#openDetailView(String, String, String)} to launch a Detail View for a clicked row.
  * <p>
  * This class then serves as a summary and an access point to the Detail View.
+ * <p>
+ * The result of a query can be released, either by the page or to keep the
+ * query results within their memory budget. Every call then logs an error
+ * and returns null, or 0 or false for the count and isGroupedBy.
  * @author Mitch Sundt
  * @author sudar.sam@gmail.com
  *
  */
 public class TableDataIf {
+	private static final String TAG = "TableDataIf";
+
 	private WeakReference<TableData> weakTable;
+	private final String appName;
 
 	TableDataIf(TableData table) {
 		this.weakTable = new WeakReference<TableData>(table);
+		this.appName = table.getAppName();
+	}
+
+	/**
+	 * @return the table, marked as used so that the query results released
+	 * to stay within their budget are the least recently used, or null if it
+	 * has been released
+	 */
+	private TableData getTable() {
+		TableData table = weakTable.get();
+		if (table == null) {
+			WebLogger.getLogger(appName).e(TAG, "the query result has been released");
+			return null;
+		}
+		table.markQueryResultUsed();
+		return table;
 	}
 
 	/**
@@ -47,9 +72,8 @@ public class TableDataIf {
 	 */
 	// @JavascriptInterface
 	public int getCount() {
-		return weakTable
-		    .get()
-		    .getCount();
+		TableData table = getTable();
+		return (table == null) ? 0 : table.getCount();
 	}
 
 	/**
@@ -60,7 +84,8 @@ public class TableDataIf {
 	 */
 	// @JavascriptInterface
 	public String getColumnData(String elementPath) {
-		return weakTable.get().getColumnData(elementPath);
+		TableData table = getTable();
+		return (table == null) ? null : table.getColumnData(elementPath);
 	}
 
 	/**
@@ -69,7 +94,19 @@ public class TableDataIf {
 	 */
 	// @JavascriptInterface
 	public String getTableId() {
-	  return weakTable.get().getTableId();
+	  TableData table = getTable();
+	  return (table == null) ? null : table.getTableId();
+	}
+
+	/**
+	 * Returns the handle under which this query result is held, for use with
+	 * control.releaseQueryResult(handle).
+	 * @return the handle, or null if this object is not the result of a query
+	 */
+	// @JavascriptInterface
+	public String getQueryHandle() {
+	  TableData table = getTable();
+	  return (table == null) ? null : table.getQueryHandle();
 	}
 
 	/**
@@ -79,7 +116,8 @@ public class TableDataIf {
 	 */
 	// @JavascriptInterface
 	public String getRowId(int rowNumber) {
-	  return weakTable.get().getRowId(rowNumber);
+	  TableData table = getTable();
+	  return (table == null) ? null : table.getRowId(rowNumber);
 	}
 
 	/**
@@ -88,7 +126,8 @@ public class TableDataIf {
 	 */
 	// @JavascriptInterface
 	public String getColumns() {
-		return weakTable.get().getColumns();
+		TableData table = getTable();
+		return (table == null) ? null : table.getColumns();
 	}
 
    /**
@@ -100,7 +139,8 @@ public class TableDataIf {
     */
    // @JavascriptInterface
    public String getColumnForegroundColor(int rowNumber, String elementPath) {
-      return weakTable.get().getColumnForegroundColor(rowNumber, elementPath);
+      TableData table = getTable();
+      return (table == null) ? null : table.getColumnForegroundColor(rowNumber, elementPath);
    }
 
    /**
@@ -112,7 +152,8 @@ public class TableDataIf {
     */
    // @JavascriptInterface
    public String getStatusForegroundColor(int rowNumber) {
-      return weakTable.get().getStatusForegroundColor(rowNumber);
+      TableData table = getTable();
+      return (table == null) ? null : table.getStatusForegroundColor(rowNumber);
    }
 
    /**
@@ -124,7 +165,8 @@ public class TableDataIf {
     */
    // @JavascriptInterface
    public String getRowForegroundColor(int rowNumber) {
-      return weakTable.get().getRowForegroundColor(rowNumber);
+      TableData table = getTable();
+      return (table == null) ? null : table.getRowForegroundColor(rowNumber);
    }
 
 	/**
@@ -133,7 +175,8 @@ public class TableDataIf {
 	 */
 	// @JavascriptInterface
 	public boolean isGroupedBy() {
-		return weakTable.get().isGroupedBy();
+		TableData table = getTable();
+		return table != null && table.isGroupedBy();
 	}
 
 	/**
@@ -155,9 +198,50 @@ public class TableDataIf {
 	 */
 	// @JavascriptInterface
 	public String getData(int rowNumber, String elementPath) {
-		return weakTable
-		    .get()
-		    .getData(rowNumber, elementPath);
+		TableData table = getTable();
+		return (table == null) ? null : table.getData(rowNumber, elementPath);
+	}
+
+	/**
+	 * Retrieve a range of rows in a single call, rather than calling
+	 * {@link #getData(int, String)} for every cell. This is much faster when
+	 * rendering a list of many rows.
+	 * <p>
+	 * The result is a stringified JSON array with an object for each row.
+	 * Each object maps the requested element paths to the values that
+	 * {@link #getData(int, String)} would return, except that arrays and
+	 * composite values such as geopoints are nested objects rather than JSON
+	 * strings. The row id is included under "_id". Element paths that cannot
+	 * be found are left out.
+	 * @param firstRowNumber the first row to return
+	 * @param numberOfRows the number of rows to return. Fewer are returned if
+	 * the table ends first.
+	 * @param elementPaths a stringified JSON array of the element paths of the
+	 * columns to return
+	 * @return the stringified JSON array of rows, or null if elementPaths could
+	 * not be parsed
+	 */
+	// @JavascriptInterface
+	public String getRows(int firstRowNumber, int numberOfRows, String elementPaths) {
+		TableData table = getTable();
+		return (table == null) ? null
+		    : table.getRows(firstRowNumber, numberOfRows, elementPaths);
+	}
+
+	/**
+	 * Call this from a page that updates itself in place when the rows
+	 * change, e.g. the list beneath a map when a marker is selected or the
+	 * map is panned. Rather than reloading the page, an "odkDataChanged"
+	 * event is then dispatched on its window. The event's detail holds the
+	 * new count and hasSelectedRow, which is true if the selected row is now
+	 * the first row. The rows are read again through this object as usual.
+	 */
+	// @JavascriptInterface
+	public void listenForChanges() {
+		TableData table = getTable();
+		if (table != null) {
+			table.setListeningForChanges(true);
+		}
 	}
 
 	/**